@@ -0,0 +1,482 @@
+package place;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * A board kept in a memory-mapped file, so it survives the server going down without being saved or loaded. The
+ * tiles of every chunk lie in the file as they do in memory: the packed colors, then the owner ids, then the times.
+ * The board opened from the file reads and writes them there, and the operating system writes them out on its own,
+ * so a board that changes all the time costs no more than one kept on the heap, and a server that dies keeps every
+ * change it made, as the pages are still there for the next one. The usernames the owner ids refer to are appended
+ * to a file next to it, and a small header holds the dimension, the epoch and the sequence number of the latest
+ * change.
+ *
+ * What only the page cache holds is lost when the machine itself goes down, so {@link #force(long)} writes the board
+ * out and records the sequence number it holds every change up to. A change made while it is forced may be written
+ * out or not, which is fine for a log replayed from that sequence number, as replaying a change puts back the same
+ * tile.
+ *
+ * Snapshots of the board share its chunks as they do on the heap. When the board writes to a shared chunk, the
+ * snapshots holding it get a copy on the heap and the board goes on writing to the file.
+ *
+ * @author Justin Yau
+ */
+public final class BoardFile {
+
+    private static final int MAGIC = 0x504C4246;                   // "PLBF", marks a board file
+    private static final int VERSION = 1;                          // The layout of the file
+    private static final int HEADER = 4096;                        // Bytes before the first chunk
+    private static final int DIM_AT = 8;                           // Where the dimension is in the header
+    private static final int CHUNK_AT = 12;                        // Where the side of a chunk is in the header
+    private static final int SEQ_AT = 16;                          // Where the latest sequence number is
+    private static final int FORCED_AT = 24;                       // Where the last forced sequence number is
+    private static final int EPOCH_AT = 32;                        // Where the epoch is in the header
+    private static final int TILES = PlaceBoard.CHUNK * PlaceBoard.CHUNK;   // Tiles in a chunk
+    private static final int OWNERS = TILES / 2;                   // Where the owner ids are in a chunk
+    private static final int TIMES = OWNERS + TILES * 4;           // Where the times are in a chunk
+    private static final int CHUNK_BYTES = TIMES + TILES * 8;      // Bytes of a chunk
+    private static final int WINDOW = (1 << 30) / CHUNK_BYTES;     // Chunks mapped at a time, about 1 GB
+
+    private Path file;                      // The file of the board
+    private FileChannel channel;            // The file of the board, open for mapping
+    private FileChannel names;              // The file of the usernames, open for appending
+    private MappedByteBuffer header;        // The header, mapped
+    private MappedByteBuffer[] windows;     // The chunks, mapped a window of them at a time
+    private PlaceUsers users;               // Every username, owner ids on the board refer to them
+    private int saved;                      // The number of usernames in the file of usernames
+    private PlaceBoard board;               // The board, writing to the file
+    private boolean created;                // Whether or not the file was created when it was opened
+
+    /***
+     * Opens a board file, creating it with a board of all white tiles if there is none yet
+     * @param file - The file
+     * @param dim - The dimension of the board
+     * @param epoch - The epoch of the server, which a new file takes on
+     * @throws IOException - If the file is not a board file, or is of another dimension
+     */
+    public BoardFile(Path file, int dim, long epoch) throws IOException {
+        this.file = file;
+        this.created = !Files.exists(file) || Files.size(file) == 0;
+        int side = (dim + PlaceBoard.CHUNK - 1) / PlaceBoard.CHUNK;
+        int count = side * side;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long length = HEADER + (long) count * CHUNK_BYTES;
+            if(!created && channel.size() != length) {
+                checkHeader(file, dim);
+                throw new IOException(file + " is cut short at " + channel.size() + " bytes");
+            }
+            if(created) {
+                create(dim, count, epoch);
+            }
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            checkHeader(file, dim);
+            windows = new MappedByteBuffer[(count + WINDOW - 1) / WINDOW];
+            for(int i = 0; i < windows.length; i++) {
+                int chunks = Math.min(WINDOW, count - i * WINDOW);
+                windows[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + (long) i * WINDOW * CHUNK_BYTES,
+                        (long) chunks * CHUNK_BYTES);
+            }
+            loadUsers();
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+        PlaceBoard.Chunk[] chunks = new PlaceBoard.Chunk[count];
+        for(int chunk = 0; chunk < count; chunk++) {
+            ByteBuffer tiles = windows[chunk / WINDOW].duplicate();
+            tiles.position((chunk % WINDOW) * CHUNK_BYTES);
+            tiles.limit(tiles.position() + CHUNK_BYTES);
+            chunks[chunk] = new Region(tiles.slice().order(ByteOrder.LITTLE_ENDIAN), null);
+        }
+        this.board = new PlaceBoard(dim, users, chunks);
+        this.board.setSeq(header.getLong(SEQ_AT));
+    }
+
+    /***
+     * Writes out a new file of all white tiles owned by no one
+     * @param dim - The dimension of the board
+     * @param count - The number of chunks
+     * @param epoch - The epoch of the server
+     * @throws IOException
+     */
+    private void create(int dim, int count, long epoch) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        head.putInt(0, MAGIC).putInt(4, VERSION).putInt(DIM_AT, dim).putInt(CHUNK_AT, PlaceBoard.CHUNK);
+        head.putLong(EPOCH_AT, epoch);
+        channel.write(head, 0);
+        int white = PlaceColor.WHITE.getNumber();
+        byte[] colors = new byte[OWNERS];
+        Arrays.fill(colors, (byte) (white << 4 | white));
+        for(int chunk = 0; chunk < count; chunk++) {
+            ByteBuffer blank = ByteBuffer.wrap(colors);
+            long at = HEADER + (long) chunk * CHUNK_BYTES;
+            while(blank.hasRemaining()) {
+                channel.write(blank, at + blank.position());
+            }
+        }
+        // the owner ids and times are all 0 already, the file is extended with zeros
+        channel.write(ByteBuffer.allocate(1), HEADER + (long) count * CHUNK_BYTES - 1);
+        channel.force(true);
+        Files.deleteIfExists(getUsersFile());
+    }
+
+    /***
+     * Checks that the file is a board file of a board of a dimension
+     * @param file - The file, for the message
+     * @param dim - The dimension
+     * @throws IOException - If it is not
+     */
+    private void checkHeader(Path file, int dim) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(CHUNK_AT + 4).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(head, 0);
+        if(head.position() < head.capacity() || head.getInt(0) != MAGIC || head.getInt(4) != VERSION ||
+                head.getInt(CHUNK_AT) != PlaceBoard.CHUNK) {
+            throw new IOException(file + " is not a board file");
+        }
+        if(head.getInt(DIM_AT) != dim) {
+            throw new IOException(file + " is a board of " + head.getInt(DIM_AT) + "x" + head.getInt(DIM_AT));
+        }
+    }
+
+    /***
+     * Reads the usernames back, cutting off a name that was only partly appended when the server went down
+     * @throws IOException
+     */
+    private void loadUsers() throws IOException {
+        names = FileChannel.open(getUsersFile(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ArrayList<String> read = new ArrayList<>();
+        long end = 0;
+        InputStream raw = Channels.newInputStream(names.position(0));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16));
+        try {
+            while(true) {
+                String name = in.readUTF();
+                read.add(name);
+                end += 2 + utfLength(name);
+            }
+        } catch (EOFException e) {
+            // the last whole name has been read
+        }
+        names.truncate(end);
+        names.position(end);
+        if(read.isEmpty()) {
+            read.add("");
+        } else if(!read.get(0).isEmpty()) {
+            throw new IOException(getUsersFile() + " does not start with the empty username");
+        }
+        users = new PlaceUsers(0, read);
+        saved = end == 0 ? 0 : read.size();
+        saveUsers();
+    }
+
+    /***
+     * Returns the number of bytes a name takes up once written with writeUTF, without its length
+     * @param name - The name
+     * @return - The bytes
+     */
+    private static int utfLength(String name) {
+        int length = 0;
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return length;
+    }
+
+    /***
+     * Returns the file the usernames are kept in, next to the board file
+     * @return - The file
+     */
+    private Path getUsersFile() {
+        return file.resolveSibling(file.getFileName() + ".users");
+    }
+
+    /***
+     * Appends the usernames added to the dictionary since the last time to their file. Has to be called before a
+     * tile of a new owner is put on the board, so the board never refers to a name the file is missing.
+     * @throws IOException
+     */
+    public void saveUsers() throws IOException {
+        if(saved == users.size()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for(int id = saved; id < users.size(); id++) {
+            out.writeUTF(users.getName(id));
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+        while(buf.hasRemaining()) {
+            names.write(buf);
+        }
+        saved = users.size();
+    }
+
+    /***
+     * Returns whether or not the file was created when it was opened, holding a blank board
+     * @return - Whether or not the file was created
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    /***
+     * Returns the board, which writes every change to the file
+     * @return - The board
+     */
+    public PlaceBoard getBoard() {
+        return board;
+    }
+
+    /***
+     * Returns every username owner ids on the board refer to. Names added to it are written out by
+     * {@link #saveUsers()}.
+     * @return - The dictionary
+     */
+    public PlaceUsers getUsers() {
+        return users;
+    }
+
+    /***
+     * Returns the sequence number of the latest change on the board
+     * @return - The sequence number
+     */
+    public long getSeq() {
+        return header.getLong(SEQ_AT);
+    }
+
+    /***
+     * Records the sequence number of the latest change on the board, after it has been put on it
+     * @param seq - The sequence number
+     */
+    public void setSeq(long seq) {
+        header.putLong(SEQ_AT, seq);
+    }
+
+    /***
+     * Returns the sequence number the board was last forced at. Every change up to it is on disk, and changes after
+     * it may be too.
+     * @return - The sequence number, 0 if the board has never been forced
+     */
+    public long getForced() {
+        return header.getLong(FORCED_AT);
+    }
+
+    /***
+     * Returns the epoch of the server that wrote the board
+     * @return - The epoch
+     */
+    public long getEpoch() {
+        return header.getLong(EPOCH_AT);
+    }
+
+    /***
+     * Records the epoch of the server writing the board
+     * @param epoch - The epoch
+     */
+    public void setEpoch(long epoch) {
+        header.putLong(EPOCH_AT, epoch);
+    }
+
+    /***
+     * Puts a board of the same dimension in the file in place of the one there, with its usernames, and forces it
+     * out. For a file that was just created, to start it off from a board kept some other way.
+     * @param from - The board
+     * @param epoch - The epoch of the server that wrote it
+     * @throws IOException
+     */
+    public void copy(PlaceBoard from, long epoch) throws IOException {
+        PlaceUsers names = from.getUsers();
+        for(int id = users.size(); id < names.size(); id++) {
+            users.idOf(names.getName(id));
+        }
+        saveUsers();
+        for(int chunk = 0; chunk < from.getChunkCount(); chunk++) {
+            board.setChunk(from.getChunk(chunk));
+        }
+        board.setSeq(from.getSeq());
+        setSeq(from.getSeq());
+        setEpoch(epoch);
+        force(from.getSeq());
+    }
+
+    /***
+     * Writes the board and the usernames out to disk, and then records the sequence number they hold every change
+     * up to. Changes can go on being made meanwhile.
+     * @param seq - The sequence number of the latest change put on the board before this was called
+     * @throws IOException
+     */
+    public void force(long seq) throws IOException {
+        for(MappedByteBuffer window : windows) {
+            window.force();
+        }
+        names.force(false);
+        header.putLong(FORCED_AT, seq);
+        header.force();
+    }
+
+    /***
+     * Closes the files. The board is not forced first, and is still mapped until it is collected.
+     */
+    public void close() {
+        release();
+    }
+
+    /***
+     * Closes the files, which the constructor does as well if the board file cannot be opened
+     */
+    private void release() {
+        try {
+            if(names != null) {
+                names.close();
+            }
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close " + file + ": " + e);
+        }
+    }
+
+    /**
+     * The tiles of a chunk, read and written in a mapped file. A snapshot may still hold one after the board has
+     * moved on to writing to another over the same tiles, so the board gives it a copy first, which it reads from
+     * from then on. A read that raced with the copy is done again from the copy.
+     */
+    static class Region extends PlaceBoard.Chunk {
+
+        private transient ByteBuffer tiles;                 // The tiles in the file
+        private volatile PlaceBoard.Chunk detached;         // The copy read from once the board moved on, or null
+
+        /***
+         * Creates a chunk over tiles in the file
+         * @param tiles - The tiles
+         * @param token - The token of the board it belongs to
+         */
+        Region(ByteBuffer tiles, Object token) {
+            super(0, token);
+            this.tiles = tiles;
+        }
+
+        @Override
+        int color(int index) {
+            PlaceBoard.Chunk copy = detached;
+            if(copy == null) {
+                int color = (tiles.get(index >> 1) >> ((index & 1) << 2)) & 0xF;
+                VarHandle.acquireFence();
+                copy = detached;
+                if(copy == null) {
+                    return color;
+                }
+            }
+            return copy.color(index);
+        }
+
+        @Override
+        int owner(int index) {
+            PlaceBoard.Chunk copy = detached;
+            if(copy == null) {
+                int owner = tiles.getInt(OWNERS + index * 4);
+                VarHandle.acquireFence();
+                copy = detached;
+                if(copy == null) {
+                    return owner;
+                }
+            }
+            return copy.owner(index);
+        }
+
+        @Override
+        long time(int index) {
+            PlaceBoard.Chunk copy = detached;
+            if(copy == null) {
+                long time = tiles.getLong(TIMES + index * 8);
+                VarHandle.acquireFence();
+                copy = detached;
+                if(copy == null) {
+                    return time;
+                }
+            }
+            return copy.time(index);
+        }
+
+        @Override
+        void set(int index, int color, int owner, long time) {
+            int shift = (index & 1) << 2;
+            int packed = tiles.get(index >> 1);
+            tiles.put(index >> 1, (byte) ((packed & ~(0xF << shift)) | (color << shift)));
+            tiles.putInt(OWNERS + index * 4, owner);
+            tiles.putLong(TIMES + index * 8, time);
+        }
+
+        @Override
+        void copyTo(PlaceBoard.Chunk copy) {
+            PlaceBoard.Chunk from = detached;
+            if(from == null) {
+                ByteBuffer view = tiles.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                view.get(copy.colors);
+                view.asIntBuffer().get(copy.owners);
+                view.position(TIMES);
+                view.asLongBuffer().get(copy.times);
+                VarHandle.acquireFence();
+                from = detached;
+                if(from == null) {
+                    return;
+                }
+            }
+            from.copyTo(copy);
+        }
+
+        @Override
+        PlaceBoard.Chunk copyForWrite(Object token) {
+            // whoever shares this chunk reads the copy from now on, and only then does the board write to the tiles
+            detached = new PlaceBoard.Chunk(this, null);
+            VarHandle.storeStoreFence();
+            Region region = new Region(tiles, token);
+            region.version = version;
+            return region;
+        }
+
+        @Override
+        PlaceBoard.Chunk replaceWith(PlaceBoard.Chunk chunk, Object token) {
+            PlaceBoard.Chunk region = this.token == token ? this : copyForWrite(token);
+            for(int i = 0; i < TILES; i++) {
+                region.set(i, chunk.color(i), chunk.owner(i), chunk.time(i));
+            }
+            region.version = chunk.version;
+            return region;
+        }
+
+        /***
+         * Sends a copy on the heap in place of the chunk, the tiles stay in the file
+         * @return - The copy
+         */
+        private Object writeReplace() {
+            return new PlaceBoard.Chunk(this, null);
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+package place;
+
+import java.util.Arrays;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * A hash tree over the chunks of a board. The hash of a chunk is the sum of the hashes of its tiles, so a tile
+ * change only takes the hash of the old tile off and puts the new one on, and then the path up to the root is
+ * redone. Tiles are hashed by the name of their owner rather than the id, so two boards with dictionaries of their
+ * own hash alike if their tiles are alike.
+ *
+ * A client with a board cached from an earlier session sends the hashes of its chunks, and only the chunks whose
+ * hashes differ from the server's are sent back to it. If the roots are equal nothing is compared at all.
+ *
+ * A server applying changes to different chunks from different threads at once only updates the hashes of the
+ * chunks with {@link #applyChunk(PlaceBoard, PlaceTile, String)}, and the rest of the tree is redone the next time
+ * the root is asked for, when no change is being applied.
+ *
+ * @author Justin Yau
+ */
+public class BoardHashes {
+
+    private int count;      // The number of chunks on the board
+    private int leaves;     // The number of leaves of the tree, the chunk count rounded up to a power of two
+    private long[] tree;    // The tree from index 1 down, node i has children 2i and 2i + 1, chunk n is leaves + n
+    private volatile boolean stale; // Whether or not a chunk changed since the nodes above the chunks were redone
+
+    /***
+     * Hashes every tile of a board
+     * @param board - The board
+     */
+    public BoardHashes(PlaceBoard board) {
+        this.count = board.getChunkCount();
+        this.leaves = Integer.highestOneBit(Math.max(1, count * 2 - 1));
+        this.tree = new long[leaves * 2];
+        PlaceUsers users = board.getUsers();
+        for (int row = 0; row < board.DIM; row++) {
+            for (int col = 0; col < board.DIM; col++) {
+                tree[leaves + board.getChunkNumber(row, col)] += tileHash(row, col, board.getColor(row, col),
+                        users.getName(board.getOwner(row, col)), board.getTime(row, col));
+            }
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            tree[node] = combine(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    /***
+     * Hashes one tile
+     * @param row - The row of the tile
+     * @param col - The column of the tile
+     * @param color - The color of the tile
+     * @param owner - The name of the owner of the tile
+     * @param time - The time the tile was last changed
+     * @return - The hash
+     */
+    public static long tileHash(int row, int col, PlaceColor color, String owner, long time) {
+        long hash = mix((long) row << 32 | col);
+        hash = mix(hash ^ color.getNumber());
+        hash = mix(hash ^ (owner == null ? 0 : owner.hashCode()));
+        return mix(hash ^ time);
+    }
+
+    /***
+     * Updates the hashes for a change that is about to be made to the board, which still has the old tile
+     * @param board - The board, before the change
+     * @param tile - The change
+     */
+    public void apply(PlaceBoard board, PlaceTile tile) {
+        int row = tile.getRow();
+        int col = tile.getCol();
+        long before = tileHash(row, col, board.getColor(row, col),
+                board.getUsers().getName(board.getOwner(row, col)), board.getTime(row, col));
+        long after = tileHash(row, col, tile.getColor(), tile.getOwner(), tile.getTime());
+        int node = leaves + board.getChunkNumber(row, col);
+        tree[node] += after - before;
+        for (node >>= 1; node > 0; node >>= 1) {
+            tree[node] = combine(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    /***
+     * Updates the hash of the chunk of a change that is about to be made to the board, which still has the old tile,
+     * and leaves the path up to the root to be redone when it is next asked for. Changes to different chunks can be
+     * applied from different threads at once.
+     * @param board - The board, before the change
+     * @param tile - The change
+     * @param owner - The name of the owner of the old tile
+     */
+    public void applyChunk(PlaceBoard board, PlaceTile tile, String owner) {
+        int row = tile.getRow();
+        int col = tile.getCol();
+        long before = tileHash(row, col, board.getColor(row, col), owner, board.getTime(row, col));
+        long after = tileHash(row, col, tile.getColor(), tile.getOwner(), tile.getTime());
+        tree[leaves + board.getChunkNumber(row, col)] += after - before;
+        stale = true;
+    }
+
+    /***
+     * Returns the root of the tree, which is equal for boards whose chunks all hash alike. No change may be applied
+     * meanwhile.
+     * @return - The root hash
+     */
+    public long getRoot() {
+        if (stale) {
+            stale = false;
+            for (int node = leaves - 1; node > 0; node--) {
+                tree[node] = combine(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+        return tree[1];
+    }
+
+    /***
+     * Returns the hash of a chunk
+     * @param number - The number of the chunk, across and then down
+     * @return - The hash
+     */
+    public long getChunk(int number) {
+        return tree[leaves + number];
+    }
+
+    /***
+     * Returns the hashes of every chunk
+     * @return - A copy of the hashes, by chunk number
+     */
+    public long[] getChunks() {
+        return Arrays.copyOfRange(tree, leaves, leaves + count);
+    }
+
+    /***
+     * Combines the hashes of two children into the hash of their parent
+     * @param left - The hash of the left child
+     * @param right - The hash of the right child
+     * @return - The hash of the parent
+     */
+    private static long combine(long left, long right) {
+        return mix(left * 0x9E3779B97F4A7C15L + right);
+    }
+
+    /***
+     * Scrambles the bits of a number, the finalizer of SplitMix64
+     * @param value - The number
+     * @return - The scrambled number
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+}
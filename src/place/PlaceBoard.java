@@ -1,47 +1,438 @@
 package place;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 
 /**
  * The board is the place that holds the colored tiles.  The server creates
  * the initial Board and then transmits it only once to each client that
  * successfully logs in to the server.
  *
+ * The tiles are not stored as objects.  Each tile is a 4 bit color packed two
+ * to a byte, an int id of its owner's name and a timestamp, all kept in
+ * primitive arrays.  The board is cut into square chunks of CHUNK tiles a
+ * side, each with arrays of its own indexed by row * CHUNK + col within the
+ * chunk.  PlaceTile objects are only made when someone asks for one.
+ *
+ * Chunks are copied on write.  A snapshot shares every chunk with the board
+ * it was taken from, and whichever of the two writes to a shared chunk first
+ * copies it, so a snapshot costs one array of chunk references and later
+ * changes never show up in it.  The same goes for a chunk handed out on
+ * its own as a PlaceChunk, which is how a large board is sent a piece at a
+ * time.
+ *
+ * The chunks of a board opened from a BoardFile keep their tiles in a
+ * memory-mapped file instead of arrays.  Those stay where they are when the
+ * board writes to a shared chunk: the snapshots get the copy, and the board
+ * goes on writing to the file.
+ *
+ * The owner names live in a PlaceUsers dictionary that is not sent along
+ * with the board.  A board received as binary frames has to be given the
+ * dictionary it was made with before the owners of its painted tiles can be
+ * looked up.
+ *
+ * Java serialization still writes the board the way the original board was
+ * written, as its dimension and a grid of tiles, so clients from before the
+ * chunks can read it.  A board read back from that gets a dictionary of its
+ * own, made from the names on its tiles.
+ *
  * @author Sean Strout @ RIT CS
  */
 public class PlaceBoard implements Serializable {
+    /** The version of the serialized form, which is still the original one */
+    private static final long serialVersionUID = -6226513820871739594L;
+    /** The fields of the original board, the only ones that are serialized */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("DIM", int.class),
+            new ObjectStreamField("board", PlaceTile[][].class)
+    };
+    /** The number of tiles along each side of a chunk */
+    public static final int CHUNK = 64;
+    /** log2 of CHUNK */
+    private static final int SHIFT = 6;
+    /** Every color, indexed by its number */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+    /** Counts writes atomically, for a server that changes different chunks from different threads at once */
+    private static final VarHandle WRITES;
+
+    static {
+        try {
+            WRITES = MethodHandles.lookup().findVarHandle(PlaceBoard.class, "writes", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     /** The square dimension of the board */
     public final int DIM;
-    /** The grid of tiles */
-    private PlaceTile[][] board;
+    /** The number of chunks along each side of the board */
+    private final int side;
+    /** The chunks, across and then down */
+    private Chunk[] chunks;
+    /** The sequence number of the latest change on the board */
+    private long seq;
+    /** The number of writes to the board, which chunks are stamped with */
+    private long writes;
+    /** Marks the chunks this board may write to without copying them */
+    private transient Object token;
+    /** The dictionary of owner names */
+    private transient PlaceUsers users;
+    /** The board made from the tiles of a received board, which takes its place */
+    private transient PlaceBoard received;
 
     /**
-     * Create a new board of all white tiles.
+     * The tiles of one chunk.
+     */
+    static class Chunk implements Serializable {
+        /** The color number of every tile, two tiles per byte (even index in the low 4 bits) */
+        byte[] colors;
+        /** The id of the owner of every tile */
+        int[] owners;
+        /** The time every tile was last changed */
+        long[] times;
+        /** The write of the board that last changed the chunk */
+        long version;
+        /** The token of the board or PlaceChunk that may write to the chunk in place */
+        transient Object token;
+
+        /**
+         * Create a chunk of all white tiles.
+         *
+         * @param blank the id of the owner of unpainted tiles
+         * @param token the token of the board it belongs to
+         */
+        Chunk(int blank, Object token) {
+            int white = PlaceColor.WHITE.getNumber();
+            this.colors = new byte[CHUNK * CHUNK / 2];
+            Arrays.fill(this.colors, (byte) (white << 4 | white));
+            this.owners = new int[CHUNK * CHUNK];
+            Arrays.fill(this.owners, blank);
+            this.times = new long[CHUNK * CHUNK];
+            this.token = token;
+        }
+
+        /**
+         * Create a copy of a chunk.
+         *
+         * @param chunk the chunk to copy
+         * @param token the token of the board the copy belongs to
+         */
+        Chunk(Chunk chunk, Object token) {
+            this.colors = new byte[CHUNK * CHUNK / 2];
+            this.owners = new int[CHUNK * CHUNK];
+            this.times = new long[CHUNK * CHUNK];
+            chunk.copyTo(this);
+            this.version = chunk.version;
+            this.token = token;
+        }
+
+        /**
+         * Create a chunk that keeps its tiles somewhere other than arrays.
+         *
+         * @param version the write of the board that last changed the chunk
+         * @param token the token of the board it belongs to
+         */
+        Chunk(long version, Object token) {
+            this.version = version;
+            this.token = token;
+        }
+
+        /**
+         * Copy the tiles of the chunk into the arrays of another.
+         *
+         * @param copy the chunk to copy into, which keeps its tiles in arrays
+         */
+        void copyTo(Chunk copy) {
+            System.arraycopy(colors, 0, copy.colors, 0, colors.length);
+            System.arraycopy(owners, 0, copy.owners, 0, owners.length);
+            System.arraycopy(times, 0, copy.times, 0, times.length);
+        }
+
+        /**
+         * Make a copy of the chunk for a board to write to, since it is
+         * shared with a snapshot or a PlaceChunk.
+         *
+         * @param token the token of the board
+         * @return the copy
+         */
+        Chunk copyForWrite(Object token) {
+            return new Chunk(this, token);
+        }
+
+        /**
+         * Put the tiles of another chunk in place of this one's on a board.
+         *
+         * @param tiles the chunk, which the board may take over
+         * @param token the token of the board
+         * @return the chunk the board holds from now on
+         */
+        Chunk replaceWith(Chunk tiles, Object token) {
+            return tiles;
+        }
+
+        /**
+         * Get the color number of a tile.
+         *
+         * @param index the index of the tile within the chunk
+         * @return the color number, 0-15
+         */
+        int color(int index) {
+            return (colors[index >> 1] >> ((index & 1) << 2)) & 0xF;
+        }
+
+        /**
+         * Get the id of the owner of a tile.
+         *
+         * @param index the index of the tile within the chunk
+         * @return the owner id
+         */
+        int owner(int index) {
+            return owners[index];
+        }
+
+        /**
+         * Get the time a tile was last changed.
+         *
+         * @param index the index of the tile within the chunk
+         * @return the time
+         */
+        long time(int index) {
+            return times[index];
+        }
+
+        /**
+         * Change a tile.
+         *
+         * @param index the index of the tile within the chunk
+         * @param color the new color number
+         * @param owner the id of the new owner
+         * @param time the time of the change
+         */
+        void set(int index, int color, int owner, long time) {
+            int shift = (index & 1) << 2;
+            int packed = colors[index >> 1];
+            colors[index >> 1] = (byte) ((packed & ~(0xF << shift)) | (color << shift));
+            owners[index] = owner;
+            times[index] = time;
+        }
+    }
+
+    /**
+     * Create a new board of all white tiles, with a dictionary of its own.
      *
      * @param DIM the square dimension of the board
      */
     public PlaceBoard(int DIM) {
+        this(DIM, new PlaceUsers());
+    }
+
+    /**
+     * Create a new board of all white tiles.
+     *
+     * @param DIM the square dimension of the board
+     * @param users the dictionary of owner names, shared with whoever else needs the ids
+     */
+    public PlaceBoard(int DIM, PlaceUsers users) {
         this.DIM = DIM;
-        this.board = new PlaceTile[DIM][DIM];
-        for (int row=0; row<DIM; ++row) {
-            for (int col=0; col<DIM; ++col) {
-                this.board[row][col] =
-                        new PlaceTile(row, col, "", PlaceColor.WHITE);
-            }
+        this.side = (DIM + CHUNK - 1) >> SHIFT;
+        this.chunks = new Chunk[side * side];
+        this.token = new Object();
+        this.users = users;
+        int blank = users.idOf("");
+        for (int chunk=0; chunk<chunks.length; ++chunk) {
+            this.chunks[chunk] = new Chunk(blank, this.token);
+        }
+    }
+
+    /**
+     * Create a board from chunks made elsewhere, like the mapped chunks of a
+     * BoardFile.  The board writes to them in place.
+     *
+     * @param DIM the square dimension of the board
+     * @param users the dictionary of owner names
+     * @param chunks the chunks, across and then down
+     */
+    PlaceBoard(int DIM, PlaceUsers users, Chunk[] chunks) {
+        this.DIM = DIM;
+        this.side = (DIM + CHUNK - 1) >> SHIFT;
+        if (chunks.length != side * side) {
+            throw new IllegalArgumentException(chunks.length + " chunks for a board of " + DIM + " squared tiles");
+        }
+        this.chunks = chunks;
+        this.token = new Object();
+        this.users = users;
+        for (Chunk chunk : chunks) {
+            chunk.token = this.token;
+            this.writes = Math.max(this.writes, chunk.version);
+        }
+    }
+
+    /**
+     * Create a snapshot of a board.
+     *
+     * @param board the board
+     */
+    private PlaceBoard(PlaceBoard board) {
+        this.DIM = board.DIM;
+        this.side = board.side;
+        this.chunks = board.chunks.clone();
+        this.seq = board.seq;
+        this.writes = board.writes;
+        this.token = new Object();
+        this.users = board.users;
+    }
+
+    /**
+     * Take a snapshot of the board as it is now.  Later changes to either
+     * board do not show up in the other.  It only copies the chunk
+     * references, the chunks themselves are copied as they are written to.
+     *
+     * @return the snapshot
+     */
+    public PlaceBoard snapshot() {
+        // the chunks are shared from now on, so this board has to copy them too
+        this.token = new Object();
+        return new PlaceBoard(this);
+    }
+
+    /**
+     * Get the dictionary of owner names.
+     *
+     * @return the dictionary
+     */
+    public PlaceUsers getUsers() {
+        return users;
+    }
+
+    /**
+     * Give the board the dictionary of owner names it was made with.
+     *
+     * @param users the dictionary
+     */
+    public void setUsers(PlaceUsers users) {
+        this.users = users;
+    }
+
+    /**
+     * Get the sequence number of the latest change on the board.  Changes
+     * with a higher number are not on it yet.
+     *
+     * @return the sequence number, 0 if no change has been numbered
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Set the sequence number of the latest change on the board, like when
+     * it has just been received.
+     *
+     * @param seq the sequence number
+     */
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    /**
+     * Get the version of the board.  It changes every time a tile does, and
+     * a snapshot has the version of the board it was taken from.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return writes;
+    }
+
+    /**
+     * Get the version of a chunk.  It changes every time a tile in the chunk
+     * does, and a snapshot has the versions of the board it was taken from.
+     *
+     * @param chunk the number of the chunk, across and then down
+     * @return the version
+     */
+    public long getChunkVersion(int chunk) {
+        return chunks[chunk].version;
+    }
+
+    /**
+     * Get the number of chunks on the board.
+     *
+     * @return the number of chunks
+     */
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    /**
+     * Get the number of the chunk holding a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the number of the chunk, across and then down
+     */
+    public int getChunkNumber(int row, int col) {
+        return (row >> SHIFT) * side + (col >> SHIFT);
+    }
+
+    /**
+     * Get one chunk of the board.  It shares its tiles with the board
+     * until either of them changes, so taking every chunk of a snapshot
+     * copies nothing.
+     *
+     * @param number the number of the chunk, across and then down
+     * @return the chunk
+     */
+    public PlaceChunk getChunk(int number) {
+        Chunk chunk = chunks[number];
+        if (chunk.token == this.token) {
+            // the board still writes to it in place, so it is no longer its own from now on
+            chunk.token = null;
         }
+        return new PlaceChunk(DIM, number, seq, chunk);
     }
 
     /**
-     * Get the entire board.
+     * Put a chunk on the board in place of the tiles it covers.  A chunk that
+     * was received or made on its own is taken over rather than copied.
+     * The sequence number of the board is left alone.
+     *
+     * @param chunk the chunk
+     * @rit.pre the chunk was cut from a board of the same dimension
+     */
+    public void setChunk(PlaceChunk chunk) {
+        if (chunk.getDim() != DIM) {
+            throw new IllegalArgumentException("Chunk of a " + chunk.getDim() + " board on a " + DIM + " board");
+        }
+        int number = chunk.getNumber();
+        chunks[number] = chunks[number].replaceWith(chunk.takeTiles(this.token), this.token);
+    }
+
+    /**
+     * Get the entire board.  Every tile is made on the spot, so this is
+     * expensive for big boards.
      *
      * @return the board
      */
     public PlaceTile[][] getBoard() {
-        return this.board;
+        PlaceTile[][] board = new PlaceTile[DIM][DIM];
+        for (int row=0; row<DIM; ++row) {
+            for (int col=0; col<DIM; ++col) {
+                board[row][col] = getTile(row, col);
+            }
+        }
+        return board;
     }
 
     /**
-     * Get a tile on the board
+     * Get a tile on the board.  The tile is a copy, changing it does not
+     * change the board.
      *
      * @param row row
      * @param col column
@@ -49,7 +440,46 @@ public class PlaceBoard implements Serializable {
      * @return the tile
      */
     public PlaceTile getTile(int row, int col){
-        return this.board[row][col];
+        Chunk chunk = chunkOf(row, col);
+        int index = indexOf(row, col);
+        return new PlaceTile(row, col, users.getName(chunk.owner(index)), COLORS[chunk.color(index)],
+                chunk.time(index));
+    }
+
+    /**
+     * Get the color of a tile without making a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    public PlaceColor getColor(int row, int col) {
+        return COLORS[chunkOf(row, col).color(indexOf(row, col))];
+    }
+
+    /**
+     * Get the id of the owner of a tile without making a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the owner id, in the dictionary of the board
+     */
+    public int getOwner(int row, int col) {
+        return chunkOf(row, col).owner(indexOf(row, col));
+    }
+
+    /**
+     * Get the time a tile was last changed without making a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the time
+     */
+    public long getTime(int row, int col) {
+        return chunkOf(row, col).time(indexOf(row, col));
     }
 
     /**
@@ -59,7 +489,29 @@ public class PlaceBoard implements Serializable {
      * @rit.pre row and column constitute a valid board coordinate
      */
     public void setTile(PlaceTile tile) {
-        this.board[tile.getRow()][tile.getCol()] = tile;
+        setTile(tile.getRow(), tile.getCol(), tile.getColor(), users.idOf(tile.getOwner()), tile.getTime());
+        this.seq = Math.max(this.seq, tile.getSeq());
+    }
+
+    /**
+     * Change a tile in the board without making a tile.
+     *
+     * @param row row
+     * @param col column
+     * @param color the new color
+     * @param owner the id of the new owner, in the dictionary of the board
+     * @param time the time of the change
+     * @rit.pre row and column constitute a valid board coordinate
+     */
+    public void setTile(int row, int col, PlaceColor color, int owner, long time) {
+        int number = getChunkNumber(row, col);
+        Chunk chunk = chunks[number];
+        if (chunk.token != this.token) {
+            chunk = chunk.copyForWrite(this.token);
+            chunks[number] = chunk;
+        }
+        chunk.set(indexOf(row, col), color.getNumber(), owner, time);
+        chunk.version = (long) WRITES.getAndAdd(this, 1L) + 1;
     }
 
     /**
@@ -74,6 +526,70 @@ public class PlaceBoard implements Serializable {
                 tile.getCol() < this.DIM;
     }
 
+    /**
+     * Get the chunk holding a tile.
+     *
+     * @param row row
+     * @param col column
+     * @return the chunk
+     */
+    private Chunk chunkOf(int row, int col) {
+        return this.chunks[getChunkNumber(row, col)];
+    }
+
+    /**
+     * Get the index of a tile within its chunk.
+     *
+     * @param row row
+     * @param col column
+     * @return the index
+     */
+    static int indexOf(int row, int col) {
+        return (row & (CHUNK - 1)) << SHIFT | (col & (CHUNK - 1));
+    }
+
+    /**
+     * Write the board in the form of the original board: the dimension and
+     * every tile.
+     *
+     * @param out the stream the board is written to
+     * @throws IOException if the stream fails
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("DIM", this.DIM);
+        fields.put("board", getBoard());
+        out.writeFields();
+    }
+
+    /**
+     * Read a board written in the form of the original board, and make the
+     * chunked board that takes its place from its tiles.
+     *
+     * @param in the stream the board is read from
+     * @throws IOException if the stream fails
+     * @throws ClassNotFoundException if a class of the board is missing
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        PlaceTile[][] board = (PlaceTile[][]) fields.get("board", null);
+        this.received = new PlaceBoard(fields.get("DIM", 0));
+        for (PlaceTile[] row : board) {
+            for (PlaceTile tile : row) {
+                this.received.setTile(tile);
+            }
+        }
+    }
+
+    /**
+     * Replace a received board with the board made from its tiles.
+     *
+     * @return the board made from its tiles
+     */
+    private Object readResolve() {
+        return this.received;
+    }
+
     /**
      * Return a string representation of the board.  It displays the tile color as
      * a single character hex value in the range 0-F.
@@ -86,7 +602,7 @@ public class PlaceBoard implements Serializable {
         for (int row=0; row<DIM; ++row) {
             builder.append("\n");
             for (int col=0; col<DIM; ++col) {
-                builder.append(this.board[row][col].getColor());
+                builder.append(getColor(row, col));
             }
         }
         return builder.toString();
@@ -0,0 +1,207 @@
+package place;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * One square chunk of a board, PlaceBoard.CHUNK tiles a side (less along the right and bottom edges), sent on its own
+ * so a client can show a large board while the rest of it is still on its way. It knows where it goes on the board
+ * and the sequence number of the board it was cut from.
+ *
+ * The tiles are copied on write, like the chunks of the board itself: one taken from a board shares its tiles until
+ * either of them changes, and one put on a board is taken over without copying if it has its tiles to itself.
+ *
+ * @author Justin Yau
+ */
+public class PlaceChunk implements Serializable {
+
+    private static final PlaceColor[] COLORS = PlaceColor.values(); // Every color, indexed by its number
+
+    private int dim;                           // The dimension of the board the chunk is part of
+    private int number;                        // The number of the chunk on the board, across and then down
+    private long seq;                          // The sequence number of the latest change on the board it was cut from
+    private PlaceBoard.Chunk tiles;            // The tiles of the chunk
+    private transient Object token;            // Marks tiles the chunk may write to without copying them
+
+    /***
+     * Creates a chunk of all white tiles, owned by id 0
+     * @param dim - The dimension of the board the chunk is part of
+     * @param number - The number of the chunk on the board, across and then down
+     */
+    public PlaceChunk(int dim, int number) {
+        this.dim = dim;
+        this.number = number;
+        this.token = new Object();
+        this.tiles = new PlaceBoard.Chunk(0, this.token);
+    }
+
+    /***
+     * Creates a chunk sharing the tiles of a board
+     * @param dim - The dimension of the board
+     * @param number - The number of the chunk on the board, across and then down
+     * @param seq - The sequence number of the latest change on the board
+     * @param tiles - The tiles, which the board no longer writes to in place
+     */
+    PlaceChunk(int dim, int number, long seq, PlaceBoard.Chunk tiles) {
+        this.dim = dim;
+        this.number = number;
+        this.seq = seq;
+        this.token = new Object();
+        this.tiles = tiles;
+    }
+
+    /***
+     * Returns the dimension of the board the chunk is part of
+     * @return - The dimension of the board
+     */
+    public int getDim() {
+        return dim;
+    }
+
+    /***
+     * Returns the number of the chunk on the board
+     * @return - The number of the chunk, across and then down
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /***
+     * Returns the sequence number of the latest change on the board the chunk was cut from. Changes with a higher
+     * number are not on it yet.
+     * @return - The sequence number
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /***
+     * Sets the sequence number of the latest change on the board the chunk was cut from
+     * @param seq - The sequence number
+     */
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    /***
+     * Returns the first row of the chunk
+     * @return - The first row of the chunk
+     */
+    public int getTop() {
+        return number / side() * PlaceBoard.CHUNK;
+    }
+
+    /***
+     * Returns the first column of the chunk
+     * @return - The first column of the chunk
+     */
+    public int getLeft() {
+        return number % side() * PlaceBoard.CHUNK;
+    }
+
+    /***
+     * Returns the row just below the chunk
+     * @return - The row just below the chunk
+     */
+    public int getBottom() {
+        return Math.min(getTop() + PlaceBoard.CHUNK, dim);
+    }
+
+    /***
+     * Returns the column just right of the chunk
+     * @return - The column just right of the chunk
+     */
+    public int getRight() {
+        return Math.min(getLeft() + PlaceBoard.CHUNK, dim);
+    }
+
+    /***
+     * Returns the color of a tile in the chunk
+     * @param row - The row of the tile on the board
+     * @param col - The column of the tile on the board
+     * @return - The color
+     */
+    public PlaceColor getColor(int row, int col) {
+        return COLORS[tiles.color(PlaceBoard.indexOf(row, col))];
+    }
+
+    /***
+     * Returns the id of the owner of a tile in the chunk
+     * @param row - The row of the tile on the board
+     * @param col - The column of the tile on the board
+     * @return - The owner id, in the dictionary of the board
+     */
+    public int getOwner(int row, int col) {
+        return tiles.owner(PlaceBoard.indexOf(row, col));
+    }
+
+    /***
+     * Returns the time a tile in the chunk was last changed
+     * @param row - The row of the tile on the board
+     * @param col - The column of the tile on the board
+     * @return - The time
+     */
+    public long getTime(int row, int col) {
+        return tiles.time(PlaceBoard.indexOf(row, col));
+    }
+
+    /***
+     * Changes a tile in the chunk
+     * @param row - The row of the tile on the board
+     * @param col - The column of the tile on the board
+     * @param color - The new color
+     * @param owner - The id of the new owner, in the dictionary of the board
+     * @param time - The time of the change
+     */
+    public void setTile(int row, int col, PlaceColor color, int owner, long time) {
+        if (tiles.token != token) {
+            tiles = new PlaceBoard.Chunk(tiles, token);
+        }
+        tiles.set(PlaceBoard.indexOf(row, col), color.getNumber(), owner, time);
+    }
+
+    /***
+     * Hands the tiles over to a board. If the chunk has them to itself the board takes them over and the chunk
+     * copies them before it writes again, otherwise they stay shared.
+     * @param owner - The token of the board taking the tiles
+     * @return - The tiles
+     */
+    PlaceBoard.Chunk takeTiles(Object owner) {
+        if (tiles.token == token) {
+            tiles.token = owner;
+            token = new Object();
+        }
+        return tiles;
+    }
+
+    /***
+     * Returns the number of chunks along each side of the board
+     * @return - The number of chunks along each side of the board
+     */
+    private int side() {
+        return (dim + PlaceBoard.CHUNK - 1) / PlaceBoard.CHUNK;
+    }
+
+    /***
+     * Starts a received chunk off owning its tiles
+     * @param in - The stream the chunk is read from
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.token = new Object();
+        this.tiles.token = this.token;
+    }
+
+    @Override
+    public String toString() {
+        return "Chunk{number=" + number + ", rows=" + getTop() + "-" + getBottom() + ", cols=" + getLeft() + "-" +
+                getRight() + ", seq=" + seq + '}';
+    }
+
+}
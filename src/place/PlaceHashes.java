@@ -0,0 +1,73 @@
+package place;
+
+import java.io.Serializable;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * The hashes of the chunks of a board (see {@link BoardHashes}). A client sends the ones of the board it cached on
+ * disk, and the server answers with its own, followed by the chunks whose hashes differ.
+ *
+ * @author Justin Yau
+ */
+public class PlaceHashes implements Serializable {
+
+    private int dim;            // The dimension of the board
+    private long seq;           // The sequence number of the latest change on the board
+    private long root;          // The root of the hash tree over the chunks
+    private long[] chunks;      // The hash of every chunk, empty if the root says they are all alike
+
+    /***
+     * Creates the hashes of a board
+     * @param dim - The dimension of the board
+     * @param seq - The sequence number of the latest change on the board
+     * @param root - The root of the hash tree over the chunks
+     * @param chunks - The hash of every chunk, by chunk number, or none if the root says they are all alike
+     */
+    public PlaceHashes(int dim, long seq, long root, long[] chunks) {
+        this.dim = dim;
+        this.seq = seq;
+        this.root = root;
+        this.chunks = chunks;
+    }
+
+    /***
+     * Returns the dimension of the board
+     * @return - The dimension of the board
+     */
+    public int getDim() {
+        return dim;
+    }
+
+    /***
+     * Returns the sequence number of the latest change on the board
+     * @return - The sequence number
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /***
+     * Returns the root of the hash tree over the chunks
+     * @return - The root hash
+     */
+    public long getRoot() {
+        return root;
+    }
+
+    /***
+     * Returns the hash of every chunk
+     * @return - The hashes by chunk number, empty if the root says they are all alike
+     */
+    public long[] getChunks() {
+        return chunks;
+    }
+
+    @Override
+    public String toString() {
+        return "Hashes{dim=" + dim + ", seq=" + seq + ", root=" + Long.toHexString(root) + ", chunks=" +
+                chunks.length + '}';
+    }
+
+}
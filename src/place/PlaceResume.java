@@ -0,0 +1,98 @@
+package place;
+
+import java.io.Serializable;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * What a client already has of the board, offered to the server when it logs in so that after a reconnect it only
+ * gets the changes it missed instead of the whole board, and the server's answer to that offer.
+ *
+ * Sequence numbers only mean something on the server that handed them out, so the offer carries the epoch the
+ * server answered with last time, a random number it picks when it starts.
+ *
+ * The answer also carries a resume token, a random number the server picks for every session and only tells its own
+ * client. A client that reconnects before the server noticed it was gone offers the token back, which is the only way
+ * it may take its username over from the session that still has it.
+ *
+ * @author Justin Yau
+ */
+public class PlaceResume implements Serializable {
+
+    private long epoch;     // The epoch of the server the sequence number is from, 0 if none
+    private long seq;       // The sequence number of the latest change the client has, or -1 for none
+    private int users;      // The number of usernames the client has, ids 0 up to it
+    private long token;     // The resume token of the client's last session, or of its new one in an answer, 0 if none
+
+    /***
+     * Creates an offer or an answer to one
+     * @param epoch - The epoch of the server the sequence number is from, 0 if none
+     * @param seq - The sequence number of the latest change the client has, or -1 for none
+     * @param users - The number of usernames the client has, ids 0 up to it
+     */
+    public PlaceResume(long epoch, long seq, int users) {
+        this(epoch, seq, users, 0);
+    }
+
+    /***
+     * Creates an offer or an answer to one with a resume token
+     * @param epoch - The epoch of the server the sequence number is from, 0 if none
+     * @param seq - The sequence number of the latest change the client has, or -1 for none
+     * @param users - The number of usernames the client has, ids 0 up to it
+     * @param token - The resume token of the client's last session, or of its new one in an answer, 0 if none
+     */
+    public PlaceResume(long epoch, long seq, int users, long token) {
+        this.epoch = epoch;
+        this.seq = seq;
+        this.users = users;
+        this.token = token;
+    }
+
+    /***
+     * Returns the epoch of the server the sequence number is from
+     * @return - The epoch, 0 if none
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /***
+     * Returns the sequence number of the latest change the client has. In the server's answer it is the one the
+     * changes it replays start after, or -1 if the whole board is sent instead.
+     * @return - The sequence number, or -1 for none
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /***
+     * Returns the number of usernames the client has
+     * @return - The number of usernames, ids 0 up to it
+     */
+    public int getUsers() {
+        return users;
+    }
+
+    /***
+     * Returns the resume token of the client's last session in an offer, or of its new session in an answer
+     * @return - The resume token, 0 if none
+     */
+    public long getToken() {
+        return token;
+    }
+
+    /***
+     * Returns whether or not the server is replaying the changes the client missed instead of sending the board
+     * @return - Whether or not the client resumes where it left off
+     */
+    public boolean isResumed() {
+        return seq >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Resume{epoch=" + epoch + ", seq=" + seq + ", users=" + users + '}';
+    }
+
+}
@@ -9,6 +9,9 @@ import java.io.Serializable;
  * @author Sean Strout @ RIT CS
  */
 public class PlaceTile implements Serializable {
+    /** the version of the serialized form, which is still the original one */
+    private static final long serialVersionUID = -507145776981425850L;
+
     /** the row */
     private int row;
     /** the column */
@@ -25,6 +28,13 @@ public class PlaceTile implements Serializable {
      */
     private long time;
 
+    /**
+     * the sequence number the server gave the change, counting every change
+     * to the board from 1.  it is 0 until the server accepts the change.
+     * it is not serialized, clients on java objects do not know about it.
+     */
+    private transient long seq;
+
     /**
      * Create a tile (with no timestamp).
      *
@@ -96,6 +106,20 @@ public class PlaceTile implements Serializable {
      */
     public void setTime(long time) { this.time = time; }
 
+    /**
+     * Get the sequence number of the change.
+     *
+     * @return the sequence number, or 0 if the server has not accepted it
+     */
+    public long getSeq() { return this.seq; }
+
+    /**
+     * Set the sequence number of the change.
+     *
+     * @param seq the sequence number the server gave the change
+     */
+    public void setSeq(long seq) { this.seq = seq; }
+
     public String getOwner() {
         return this.user;
     }
@@ -117,6 +141,7 @@ public class PlaceTile implements Serializable {
                 ", user=" + this.user +
                 ", color=" + this.color +
                 ", time=" + this.time +
+                ", seq=" + this.seq +
                 '}';
     }
 }
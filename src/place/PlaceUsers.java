@@ -0,0 +1,152 @@
+package place;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Dictionary of every username that has owned a tile. Each name gets a dense int id, in the order the names were
+ * first seen, and the board stores those ids instead of the names. The server keeps one dictionary for the whole
+ * board; clients get a copy of it with the board and afterwards only the names added since, as deltas made by
+ * {@link #since(int)} and applied with {@link #merge(PlaceUsers)}.
+ *
+ * Only one thread may add names, but {@link #find(String)} is safe from any thread, so frames can be encoded with
+ * ids while names are being added.
+ *
+ * @author Justin Yau
+ */
+public class PlaceUsers implements Serializable {
+
+    private int first;                               // The id of the first name held, 0 unless this is a delta
+    private ArrayList<String> names;                 // The names held, the name with id first + i at index i
+    private transient ConcurrentHashMap<String, Integer> ids; // The ids of the names, rebuilt after being received
+
+    /***
+     * Creates an empty dictionary
+     */
+    public PlaceUsers() {
+        this(0, new ArrayList<>());
+    }
+
+    /***
+     * Creates a dictionary holding the names from an id on, like a delta that was received
+     * @param first - The id of the first name
+     * @param names - The names, in id order
+     */
+    public PlaceUsers(int first, List<String> names) {
+        this.first = first;
+        this.names = new ArrayList<>(names);
+        this.ids = new ConcurrentHashMap<>();
+        for (int i = 0; i < this.names.size(); i++) {
+            this.ids.put(this.names.get(i), first + i);
+        }
+    }
+
+    /***
+     * Returns the id of a name, giving it the next id if it is new. A missing name counts as the empty one.
+     * @param name - The name
+     * @return - The id of the name
+     */
+    public int idOf(String name) {
+        if (name == null) {
+            name = "";
+        }
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /***
+     * Looks up the id of a name without adding it
+     * @param name - The name
+     * @return - The id of the name, or -1 if it has none
+     */
+    public int find(String name) {
+        Integer id = ids.get(name == null ? "" : name);
+        return id == null ? -1 : id;
+    }
+
+    /***
+     * Returns the name with an id
+     * @param id - The id
+     * @return - The name
+     * @throws IndexOutOfBoundsException - If no name held has that id
+     */
+    public String getName(int id) {
+        return names.get(id - first);
+    }
+
+    /***
+     * Returns the id the next new name will get
+     * @return - The id the next new name will get
+     */
+    public int size() {
+        return first + names.size();
+    }
+
+    /***
+     * Returns the id of the first name held, which is 0 for a whole dictionary
+     * @return - The id of the first name held
+     */
+    public int getFirst() {
+        return first;
+    }
+
+    /***
+     * Copies the names from an id on, for sending to clients that already know the ones before it
+     * @param from - The id of the first name to copy
+     * @return - The names as a delta starting at that id
+     */
+    public PlaceUsers since(int from) {
+        return new PlaceUsers(from, names.subList(from - first, names.size()));
+    }
+
+    /***
+     * Adds the names of a delta that this dictionary does not have yet. Deltas may overlap what is already known,
+     * but must not skip any id.
+     * @param delta - The names to add
+     * @throws IllegalArgumentException - If the delta starts past the next id of this dictionary
+     */
+    public void merge(PlaceUsers delta) {
+        if (delta.first > size()) {
+            throw new IllegalArgumentException("Missing usernames " + size() + " to " + (delta.first - 1));
+        }
+        for (int id = size(); id < delta.size(); id++) {
+            idOf(delta.getName(id));
+        }
+    }
+
+    /***
+     * Rebuilds the ids of the names after the dictionary has been received
+     * @param in - The stream the dictionary is read from
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.ids = new ConcurrentHashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            this.ids.put(names.get(i), first + i);
+        }
+    }
+
+    /***
+     * Utility method for debugging only.
+     * @return - The dictionary as a string
+     */
+    @Override
+    public String toString() {
+        return "Users{first=" + first + ", names=" + names + '}';
+    }
+
+}
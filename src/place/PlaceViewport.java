@@ -0,0 +1,72 @@
+package place;
+
+import java.io.Serializable;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * The rectangle of the board a client is looking at. While a board is still being streamed, the chunks closest to it
+ * are sent first.
+ *
+ * @author Justin Yau
+ */
+public class PlaceViewport implements Serializable {
+
+    private int row;        // The first row in view
+    private int col;        // The first column in view
+    private int rows;       // The number of rows in view
+    private int cols;       // The number of columns in view
+
+    /***
+     * Creates a viewport
+     * @param row - The first row in view
+     * @param col - The first column in view
+     * @param rows - The number of rows in view
+     * @param cols - The number of columns in view
+     */
+    public PlaceViewport(int row, int col, int rows, int cols) {
+        this.row = row;
+        this.col = col;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /***
+     * Returns the first row in view
+     * @return - The first row in view
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /***
+     * Returns the first column in view
+     * @return - The first column in view
+     */
+    public int getCol() {
+        return col;
+    }
+
+    /***
+     * Returns the number of rows in view
+     * @return - The number of rows in view
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /***
+     * Returns the number of columns in view
+     * @return - The number of columns in view
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    @Override
+    public String toString() {
+        return "Viewport{row=" + row + ", col=" + col + ", rows=" + rows + ", cols=" + cols + '}';
+    }
+
+}
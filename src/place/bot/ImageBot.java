@@ -86,7 +86,7 @@ public class ImageBot extends Bot {
      * @param col - The color to match a place color to
      * @return - A place color that the color is closest to
      */
-    public PlaceColor determineColor(Color col) {
+    public static PlaceColor determineColor(Color col) {
         int red = col.getRed();
         int green = col.getGreen();
         int blue = col.getBlue();
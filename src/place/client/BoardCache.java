@@ -0,0 +1,124 @@
+package place.client;
+
+import place.PlaceBoard;
+import place.PlaceResume;
+import place.PlaceUsers;
+import place.network.PlaceExchange;
+import place.network.PlaceFrames;
+import place.network.PlaceRequest;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Keeps the board in a file between sessions, so the next session only has to be sent the changes since or the
+ * chunks that differ. The file holds the same frames the server sends, in the binary frame version: the epoch and
+ * sequence number of the board as a RESUME, its usernames as USERS, and the board itself as BOARD.
+ *
+ * @author Justin Yau
+ */
+public class BoardCache {
+
+    private Path file;              // The file the board is kept in
+    private PlaceBoard board;       // The board last loaded, with its usernames
+    private long epoch;             // The epoch of the server the board last loaded came from
+
+    /***
+     * Creates a cache kept in a file, which does not have to exist yet
+     * @param file - The file the board is kept in
+     */
+    public BoardCache(Path file) {
+        this.file = file;
+    }
+
+    /***
+     * Used for debugging. Will print messages if debug variable is enabled
+     * @param logMsg - The message to print
+     */
+    private static void dPrint( Object logMsg ) {
+        if ( PlaceExchange.DEBUG ) {
+            System.out.println( logMsg );
+        }
+    }
+
+    /***
+     * Loads the board from the file
+     * @return - Whether or not there was a board to load
+     */
+    public boolean load() {
+        if(!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (InputStream raw = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(raw));
+            PlaceResume resume = (PlaceResume) PlaceFrames.read(in, PlaceFrames.BINARY_VERSION, null).getData();
+            PlaceUsers users = (PlaceUsers) PlaceFrames.read(in, PlaceFrames.BINARY_VERSION, null).getData();
+            PlaceBoard board = (PlaceBoard) PlaceFrames.read(in, PlaceFrames.BINARY_VERSION, users).getData();
+            if(users.size() != resume.getUsers() || board.getSeq() != resume.getSeq()) {
+                throw new IOException("Cache does not add up");
+            }
+            board.setUsers(users);
+            this.board = board;
+            this.epoch = resume.getEpoch();
+            return true;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            dPrint("Ignoring the cached board: " + e);
+            return false;
+        }
+    }
+
+    /***
+     * Returns the board last loaded
+     * @return - The board, with its usernames
+     */
+    public PlaceBoard getBoard() {
+        return board;
+    }
+
+    /***
+     * Returns the epoch of the server the board last loaded came from
+     * @return - The epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /***
+     * Saves a board to the file. It is written next to it first and then moved over it, so a session that dies
+     * while saving leaves the old board behind rather than half of a new one.
+     * @param board - The board, with its usernames
+     * @param epoch - The epoch of the server the board came from
+     * @throws IOException
+     */
+    public void save(PlaceBoard board, long epoch) throws IOException {
+        PlaceUsers users = board.getUsers();
+        ByteBuffer[] frames = {
+                PlaceFrames.encode(new PlaceRequest<>(PlaceRequest.RequestType.RESUME,
+                        new PlaceResume(epoch, board.getSeq(), users.size())), PlaceFrames.BINARY_VERSION),
+                PlaceFrames.encode(new PlaceRequest<>(PlaceRequest.RequestType.USERS, users.since(0)),
+                        PlaceFrames.BINARY_VERSION),
+                PlaceFrames.encode(new PlaceRequest<>(PlaceRequest.RequestType.BOARD, board),
+                        PlaceFrames.BINARY_VERSION)
+        };
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            for (ByteBuffer frame : frames) {
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
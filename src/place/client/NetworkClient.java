@@ -1,17 +1,25 @@
 package place.client;
 
+import place.BoardHashes;
 import place.PlaceBoard;
+import place.PlaceChunk;
+import place.PlaceHashes;
+import place.PlaceResume;
 import place.PlaceTile;
+import place.PlaceUsers;
+import place.PlaceViewport;
 import place.client.model.ClientModel;
+import place.network.FrameConnection;
+import place.network.PlaceConnection;
 import place.network.PlaceExchange;
+import place.network.PlaceFrames;
 import place.network.PlaceRequest;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
-import java.net.SocketException;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * CSCI-242 AP COMPUTER SCIENCE X
@@ -19,14 +27,27 @@ import java.util.NoSuchElementException;
  *
  * Essentially the client's connection to the server and acts sort of like the controller in the MVC model.
  *
+ * When the connection is lost it reconnects on its own and offers the server the sequence number of the latest
+ * change on its board, so that it only gets the changes it missed if the server still has them.
+ *
  * @author Justin Yau
  */
 public class NetworkClient {
 
+    private static final int RECONNECT_TRIES = 5;       // Times to try reconnecting before giving up
+    private static final int RECONNECT_DELAY = 5000;    // Milliseconds between tries, the server turns away an ip
+                                                        // that connects again sooner
+    private static final int RECONNECT_JITTER = 1000;   // Up to this many more milliseconds, so that every client
+                                                        // cut off at once does not come back at once
+
+    private String hostname;                // The hostname of the server
+    private int portNumber;                 // The port of the server
+    private long epoch;                     // The epoch of the server, as it answered the last login
+    private long token;                     // The resume token the server gave the last login, 0 if none
     private Socket sock;                    // Client's connection to the server
     private String userName;                // Client's username
-    private ObjectOutputStream networkOut;  // The output stream of the socket
-    private ObjectInputStream networkIn;    // The input stream of the socket
+    private FrameConnection conn;           // The framed connection over the socket
+    private BoardCache cache;               // Keeps the board on disk between sessions, or null
     private ClientModel board;              // The current state of the board
     private boolean go;                     // Whether or not to handle requests or not
     private Thread netThread;               // The thread that this process runs under
@@ -42,33 +63,161 @@ public class NetworkClient {
      */
     public NetworkClient(String hostname, int portNumber, String userName, ClientModel model) throws
                                                                                 IOException, ClassNotFoundException {
-            this.sock = new Socket( hostname, portNumber );
-            this.networkIn = new ObjectInputStream( sock.getInputStream() );
-            this.networkOut = new ObjectOutputStream( sock.getOutputStream() );
+        this(hostname, portNumber, userName, model, null);
+    }
+
+    /***
+     * Creates a new connection to the server that starts from the board cached on disk, if there is one, and
+     * caches the board again when it is closed
+     * @param hostname - The hostname of the server
+     * @param portNumber - The port
+     * @param userName - The username of the client
+     * @param model - The current state of the board
+     * @param cache - Keeps the board on disk between sessions, or null to not keep it
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public NetworkClient(String hostname, int portNumber, String userName, ClientModel model, BoardCache cache)
+                                                                        throws IOException, ClassNotFoundException {
+            this.cache = cache;
+            this.hostname = hostname;
+            this.portNumber = portNumber;
             this.userName = userName;
             this.board = model;
             this.go = true;
 
-            PlaceExchange.createLoginRequest(networkOut, userName);
-            //Block waiting for next request from the server
-            PlaceRequest<?> req = (PlaceRequest<?>) networkIn.readUnshared();
-            if (req.getType() == PlaceRequest.RequestType.LOGIN_SUCCESS) {
-                NetworkClient.dPrint(((String) req.getData()));
-                PlaceRequest<?> board = (PlaceRequest<?>) networkIn.readUnshared();
-                if(board.getType() == PlaceRequest.RequestType.BOARD) {
-                    this.board.initialize((PlaceBoard) board.getData());
-                    NetworkClient.dPrint( this.board.toString());
-
-                    // Run rest of client in separate thread.
-                    // This threads stops on its own at the end of the game and
-                    // does not need to rendez-vous with other software components.
-                    netThread = new Thread( () -> this.run() );
-                    netThread.start();
+            if(login(false)) {
+                NetworkClient.dPrint( this.board.toString());
+
+                // Run rest of client in separate thread.
+                // This threads stops on its own at the end of the game and
+                // does not need to rendez-vous with other software components.
+                netThread = new Thread( () -> this.run() );
+                netThread.start();
+            }
+    }
+
+    /***
+     * Connects to the server and logs in, offering to resume from the board the model already has, or else the one
+     * in the cache. Then either applies the changes the server replays, takes the chunks that differ from the board
+     * it has, or takes the board the server sends.
+     * @param again - Whether or not this is a reconnect, whose new board observers have to be told about
+     * @return - Whether or not the client logged in and has a board
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private boolean login(boolean again) throws IOException, ClassNotFoundException {
+        PlaceBoard have = again ? this.board.snapshot() : null;
+        if(!again && cache != null && cache.load()) {
+            have = cache.getBoard();
+            this.epoch = cache.getEpoch();
+        }
+        Socket sock = new Socket( hostname, portNumber );
+        FrameConnection conn = FrameConnection.connect( sock );
+        synchronized (this) {
+            this.sock = sock;
+            this.conn = conn;
+        }
+
+        BoardHashes hashes = null;
+        if(have == null) {
+            PlaceExchange.createResumeRequest(conn, new PlaceResume(epoch, -1, 0, token));
+        } else {
+            PlaceExchange.createResumeRequest(conn, new PlaceResume(epoch, have.getSeq(), have.getUsers().size(),
+                    token));
+            if(conn.getVersion() >= PlaceFrames.STREAM_VERSION) {
+                hashes = new BoardHashes(have);
+                PlaceExchange.createHashesRequest(conn, new PlaceHashes(have.DIM, have.getSeq(), hashes.getRoot(),
+                        hashes.getChunks()));
+            }
+        }
+        PlaceExchange.createLoginRequest(conn, userName);
+        //Block waiting for next request from the server
+        PlaceRequest<?> req = conn.receive();
+        if (req.getType() == PlaceRequest.RequestType.ERROR){
+            this.error((String) req.getData());
+            NetworkClient.dPrint((String) req.getData());
+            return false;
+        } else if (req.getType() != PlaceRequest.RequestType.LOGIN_SUCCESS) {
+            return false;
+        }
+        NetworkClient.dPrint(((String) req.getData()));
+        PlaceResume answer = (PlaceResume) conn.receive().getData();
+        this.epoch = answer.getEpoch();
+        this.token = answer.getToken();
+        if(answer.isResumed()) {
+            // the usernames and then the changes missed, the board is still good. Their ids are only decoded
+            // against the usernames the board already has once it is certain the server numbered them alike.
+            conn.setUsers(have.getUsers());
+            if(!again) {
+                this.board.initialize(have, have.getUsers());
+            }
+            this.board.addUsers((PlaceUsers) conn.receive().getData());
+            this.board.resume(tiles(conn.receive()));
+            NetworkClient.dPrint("Resumed from " + answer.getSeq());
+            return true;
+        }
+        // the board comes whole and then its usernames, or its usernames and then a chunk at a time
+        PlaceRequest<?> first = conn.receive();
+        PlaceRequest<?> second = conn.receive();
+        if(first.getType() == PlaceRequest.RequestType.BOARD &&
+                second.getType() == PlaceRequest.RequestType.USERS) {
+            if(again) {
+                this.board.reload((PlaceBoard) first.getData(), (PlaceUsers) second.getData());
+            } else {
+                this.board.initialize((PlaceBoard) first.getData(), (PlaceUsers) second.getData());
+            }
+            return true;
+        } else if(first.getType() == PlaceRequest.RequestType.USERS &&
+                second.getType() == PlaceRequest.RequestType.BOARD_CHUNK) {
+            this.board.initialize((PlaceChunk) second.getData(), (PlaceUsers) first.getData());
+            return true;
+        } else if(first.getType() == PlaceRequest.RequestType.USERS &&
+                second.getType() == PlaceRequest.RequestType.HASHES && hashes != null) {
+            // the chunks that differ from the board it has follow
+            this.board.initialize(have, hashes.getChunks(), (PlaceUsers) first.getData(),
+                    (PlaceHashes) second.getData());
+            return true;
+        }
+        return false;
+    }
+
+    /***
+     * Saves the board to the cache, if there is one and the board is whole
+     */
+    private void save() {
+        PlaceBoard whole = this.board.snapshot();
+        if(cache != null && whole != null) {
+            try {
+                cache.save(whole, epoch);
+            } catch (IOException e) {
+                NetworkClient.dPrint("Could not cache the board: " + e);
+            }
+        }
+    }
+
+    /***
+     * Tries to log back in after the connection was lost, waiting a while before every try
+     * @return - Whether or not the client logged back in
+     */
+    private boolean reconnect() {
+        for(int i = 0; i < RECONNECT_TRIES && goodToGo(); i++) {
+            try {
+                Thread.sleep(i * RECONNECT_DELAY + ThreadLocalRandom.current().nextInt(RECONNECT_JITTER));
+                this.sock.close();
+                if(login(true)) {
+                    return true;
                 }
-            } else if (req.getType() == PlaceRequest.RequestType.ERROR){
-                this.error((String) req.getData());
-                NetworkClient.dPrint((String) req.getData());
+                if(!goodToGo()) {
+                    return false;
+                }
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                NetworkClient.dPrint("Reconnect failed: " + e);
+            } catch (InterruptedException e) {
+                return false;
             }
+        }
+        return false;
     }
 
     /***
@@ -79,6 +228,16 @@ public class NetworkClient {
         return sock;
     }
 
+    /***
+     * Returns the tiles a request holds, which the codecs only ever decode as a list of tiles
+     * @param request - A TILES_CHANGED request, or the changes that came with a RESUME answer
+     * @return - The tiles
+     */
+    @SuppressWarnings("unchecked")
+    private static List<PlaceTile> tiles(PlaceRequest<?> request) {
+        return (List<PlaceTile>) request.getData();
+    }
+
     /***
      * Debug method that will only print messages if the Debug variable is enabled
      * @param logMsg - The message to print
@@ -109,8 +268,10 @@ public class NetworkClient {
      * Sends a error to the socket and makes it close. Also updates the state of the board
      */
     public void close() {
+        this.stop();
+        this.save();
         try {
-            PlaceExchange.createError(this.networkOut, "DISCONNECT");
+            PlaceExchange.createError(this.conn, "DISCONNECT");
         }
         catch( IOException ioe ) {
         }
@@ -133,18 +294,28 @@ public class NetworkClient {
     private void run() {
         while( this.goodToGo() ) {
             try {
-                PlaceRequest<?> request = (PlaceRequest<?>) this.networkIn.readUnshared();
+                PlaceRequest<?> request = this.conn.receive();
                 NetworkClient.dPrint(request.getType() + " " + request.getData());
                 if(request.getType() == PlaceRequest.RequestType.TILE_CHANGED) {
                     board.updatePixel((PlaceTile) request.getData());
+                } else if(request.getType() == PlaceRequest.RequestType.TILES_CHANGED) {
+                    board.updatePixels(tiles(request));
+                } else if(request.getType() == PlaceRequest.RequestType.BOARD_CHUNK) {
+                    board.updateChunk((PlaceChunk) request.getData());
+                } else if(request.getType() == PlaceRequest.RequestType.USERS) {
+                    board.addUsers((PlaceUsers) request.getData());
+                } else if(request.getType() == PlaceRequest.RequestType.TILE_REJECTED) {
+                    NetworkClient.dPrint("Tile change rejected, next one in " + request.getData() + " ms");
                 } else if(request.getType() == PlaceRequest.RequestType.ERROR){
                     this.error((String) request.getData());
                 }
             }
-            catch( SocketException se ) {
-                // Looks like the connection shut down.
-                this.error( "Lost connection to server." );
-                this.stop();
+            catch( IOException ioe ) {
+                // Looks like the connection shut down, unless it was closed on purpose
+                if( this.goodToGo() && !this.reconnect() && this.goodToGo() ) {
+                    this.error( "Lost connection to server." );
+                    this.stop();
+                }
             }
             catch( Exception e ) {
                 this.error( e.getMessage() + '?' );
@@ -178,13 +349,23 @@ public class NetworkClient {
 
     }
 
+    /***
+     * Tells the server which part of the board the user is looking at, so the chunks of a board that is still
+     * being streamed arrive closest to it first
+     * @param viewport - The part of the board the user is looking at
+     * @throws IOException
+     */
+    public synchronized void setViewport(PlaceViewport viewport) throws IOException {
+        PlaceExchange.createViewportRequest(this.conn, viewport);
+    }
+
     /***
      * Creates a request to change a tile and sleeps a required cooldown time
      * @param tile - The tile to be updated
      * @throws IOException
      */
     public synchronized void createTileChangeRequest(PlaceTile tile) throws IOException {
-        PlaceExchange.createTileChangeRequest(this.networkOut, tile);
+        PlaceExchange.createTileChangeRequest(this.conn, tile);
 
         CoolDown cd = new CoolDown(this.board);
         Thread cdT = new Thread(cd);
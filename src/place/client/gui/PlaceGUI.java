@@ -18,13 +18,18 @@ import javafx.scene.control.Tooltip;
 import javafx.scene.control.ToggleGroup;
 import javafx.stage.Stage;
 import javafx.util.Duration;
+import place.PlaceBoard;
+import place.PlaceChunk;
 import place.PlaceColor;
 import place.PlaceTile;
+import place.PlaceViewport;
+import place.client.BoardCache;
 import place.client.NetworkClient;
 import place.client.model.ClientModel;
 import place.network.PlaceExchange;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.Time;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -48,6 +53,7 @@ public class PlaceGUI extends Application implements Observer {
     private Rectangle[][] grid;                     // The current state of all the rectangles being stored on the gridPane
     private ToggleGroup canvas;                     // The current group of canvas buttons
     private HashMap<Rectangle, Tooltip> tips;       // Map of all the rectangles on the board and their tooltips, if any
+    private int pointedChunk = -1;                  // The chunk under the mouse last told to the server while streaming
 
     /***
      * Establishes connection with the server and sets up the model for communication
@@ -61,12 +67,14 @@ public class PlaceGUI extends Application implements Observer {
             String host = args.get(0);
             int port = Integer.parseInt(args.get(1));
             this.username = args.get(2);
+            // the board is kept in a file between sessions if one is given
+            BoardCache cache = args.size() > 3 ? new BoardCache(Paths.get(args.get(3))) : null;
 
             this.tips = new HashMap<Rectangle, Tooltip>();
             // Create uninitialized board.
             this.model = new ClientModel();
             // Create the network connection.
-            this.serverConn = new NetworkClient( host, port, this.username, this.model );
+            this.serverConn = new NetworkClient( host, port, this.username, this.model, cache );
 
         } catch( ClassNotFoundException | ArrayIndexOutOfBoundsException | NumberFormatException | IOException e ) {
             System.out.println( e );
@@ -93,13 +101,13 @@ public class PlaceGUI extends Application implements Observer {
      */
     public GridPane createBoard(int dim, double rectangleSize) {
         GridPane theBoard = new GridPane();
-        PlaceTile[][] startBoard = model.getBoard();
         grid = new Rectangle[dim][dim];
         for(int row = 0; row < dim; row++) {
             for(int col = 0; col < dim; col++) {
                 Rectangle r = new Rectangle(rectangleSize, rectangleSize);
-                updateTooltip(r, startBoard[row][col]);
-                PlaceColor color = startBoard[row][col].getColor();
+                PlaceTile tile = model.getTile(row, col);
+                updateTooltip(r, tile);
+                PlaceColor color = tile.getColor();
                 r.setFill(Color.rgb(color.getRed(), color.getGreen(), color.getBlue()));
                 final int re = row;
                 final int ce = col;
@@ -113,9 +121,35 @@ public class PlaceGUI extends Application implements Observer {
             }
         }
         theBoard.setSnapToPixel(false);
+        // while the board is still streaming, the chunks around the mouse are asked for first
+        theBoard.addEventFilter(MouseEvent.MOUSE_MOVED, event ->
+                pointed((int) (event.getY() / rectangleSize), (int) (event.getX() / rectangleSize)));
         return theBoard;
     }
 
+    /***
+     * Tells the server to stream the chunks around a tile next, if the board is still streaming and the mouse moved
+     * on to another chunk
+     * @param row - The row of the tile under the mouse
+     * @param col - The column of the tile under the mouse
+     */
+    public void pointed(int row, int col) {
+        int dim = model.getDim();
+        if(model.isComplete() || row < 0 || col < 0 || row >= dim || col >= dim) {
+            return;
+        }
+        int chunk = row / PlaceBoard.CHUNK * dim + col / PlaceBoard.CHUNK;
+        if(chunk != pointedChunk) {
+            pointedChunk = chunk;
+            try {
+                this.serverConn.setViewport(new PlaceViewport(row - PlaceBoard.CHUNK / 2, col - PlaceBoard.CHUNK / 2,
+                        PlaceBoard.CHUNK, PlaceBoard.CHUNK));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /***
      * This runnable is executed to hide the tooltip from the GUI
      */
@@ -260,6 +294,47 @@ public class PlaceGUI extends Application implements Observer {
         }
     }
 
+    /***
+     * Routine executed to update the GUI components of a whole batch of tiles in one go
+     */
+    class refreshAllRun implements Runnable {
+
+        private List<?> tiles;
+
+        public refreshAllRun(List<?> tiles) {
+            this.tiles = tiles;
+        }
+
+        @Override
+        public void run() {
+            for(Object changed : tiles) {
+                PlaceTile tile = (PlaceTile) changed;
+                new refreshRun(tile, grid[tile.getRow()][tile.getCol()]).run();
+            }
+        }
+    }
+
+    /***
+     * Routine executed to show a chunk of the board that has just arrived
+     */
+    class refreshChunkRun implements Runnable {
+
+        private PlaceChunk chunk;
+
+        public refreshChunkRun(PlaceChunk chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void run() {
+            for(int row = chunk.getTop(); row < chunk.getBottom(); row++) {
+                for(int col = chunk.getLeft(); col < chunk.getRight(); col++) {
+                    new refreshRun(model.getTile(row, col), grid[row][col]).run();
+                }
+            }
+        }
+    }
+
     /**
      * Update all GUI Nodes to match the state of the model.
      *
@@ -269,6 +344,10 @@ public class PlaceGUI extends Application implements Observer {
         if(arg instanceof PlaceTile) {
             PlaceTile tile = (PlaceTile) arg;
             Platform.runLater(new refreshRun(tile, this.grid[tile.getRow()][tile.getCol()]));
+        } else if(arg instanceof List) {
+            Platform.runLater(new refreshAllRun((List<?>) arg));
+        } else if(arg instanceof PlaceChunk) {
+            Platform.runLater(new refreshChunkRun((PlaceChunk) arg));
         }
     }
 
@@ -292,8 +371,8 @@ public class PlaceGUI extends Application implements Observer {
     }
 
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.out.println("Usage: java PlaceGUI host port username");
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage: java PlaceGUI host port username [cache file]");
             System.exit(-1);
         } else {
             Application.launch(args);
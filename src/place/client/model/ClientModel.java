@@ -1,9 +1,15 @@
 package place.client.model;
 
 import place.PlaceBoard;
+import place.PlaceChunk;
 import place.PlaceColor;
+import place.PlaceHashes;
 import place.PlaceTile;
+import place.PlaceUsers;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Observable;
 
 /**
@@ -18,8 +24,18 @@ public class ClientModel extends Observable {
 
     /** The square dimension of the board */
     private int dim;
-    /** The grid of tiles */
-    private PlaceTile[][] board;
+    /** The board as last sent by the server, with every change since applied */
+    private PlaceBoard board;
+    /** The usernames behind the owner ids of the board, as the server numbered them */
+    private PlaceUsers users;
+    /** The sequence number of the latest change already on the board the server sent */
+    private long snapshotSeq;
+    /** Whether or not each chunk of a streamed board has arrived, null once they all have */
+    private boolean[] arrived;
+    /** The number of chunks of a streamed board that have not arrived yet */
+    private int missing;
+    /** Tile changes that arrived before their chunk did, by chunk number */
+    private HashMap<Integer, List<PlaceTile>> early;
     /** Whether or not the user can pixel a spot*/
     private boolean makeMove;
     /** Status of the board */
@@ -47,14 +63,169 @@ public class ClientModel extends Observable {
     /**
      * Replaces the current board with the inputted board and sets lets observers know
      * @param board - The board to replace the current one with
+     * @param users - Every username that owns a tile on the board
      */
-    public void initialize(PlaceBoard board) {
-        this.board = board.getBoard();
-        this.dim = this.board.length;
+    public void initialize(PlaceBoard board, PlaceUsers users) {
+        this.board = board;
+        this.users = users;
+        this.board.setUsers(users);
+        this.snapshotSeq = board.getSeq();
+        this.arrived = null;
+        this.early = null;
+        this.dim = board.DIM;
         this.status = Status.ACTIVE;
         this.makeMove = true;
     }
 
+    /**
+     * Starts a board that is being streamed from its first chunk.  The rest
+     * of the board is white until its chunks arrive through updateChunk.
+     * @param first - The first chunk of the board
+     * @param users - Every username that owns a tile on the board
+     */
+    public void initialize(PlaceChunk first, PlaceUsers users) {
+        PlaceBoard board = new PlaceBoard(first.getDim(), users);
+        board.setSeq(first.getSeq());
+        initialize(board, users);
+        this.arrived = new boolean[board.getChunkCount()];
+        this.missing = arrived.length;
+        this.early = new HashMap<>();
+        updateChunk(first);
+    }
+
+    /***
+     * Replaces the board with one the server sent after a reconnect it could not resume, and notifies observers
+     * with every chunk of it
+     * @param board - The board to replace the current one with
+     * @param users - Every username that owns a tile on the board
+     */
+    public void reload(PlaceBoard board, PlaceUsers users) {
+        initialize(board, users);
+        for(int number = 0; number < board.getChunkCount(); number++) {
+            super.setChanged();
+            super.notifyObservers(board.getChunk(number));
+        }
+    }
+
+    /***
+     * Applies the changes the server replayed after a reconnect it could resume, and notifies observers with them.
+     * Changes broadcast to the new connection that were replayed already are ignored from then on.
+     * @param tiles - The changes missed while disconnected, in the order they were made
+     */
+    public void resume(List<PlaceTile> tiles) {
+        for(PlaceTile tile : tiles) {
+            setTile(tile);
+        }
+        this.snapshotSeq = board.getSeq();
+        if(!tiles.isEmpty()) {
+            super.setChanged();
+            super.notifyObservers(tiles);
+        }
+    }
+
+    /***
+     * Returns the sequence number to offer the server when reconnecting, every change up to it is on the board
+     * @return - The sequence number, or -1 if there is no whole board to resume
+     */
+    public long getResumeSeq() {
+        return board == null || !isComplete() ? -1 : board.getSeq();
+    }
+
+    /***
+     * Returns the usernames behind the owner ids of the board
+     * @return - The usernames, as the server numbered them
+     */
+    public PlaceUsers getUsers() {
+        return users;
+    }
+
+    /***
+     * Starts from a board cached from an earlier session, keeping the chunks whose hashes match the server's. The
+     * rest is white until the server streams them through updateChunk. The owners of the cached tiles are looked up
+     * again in the server's dictionary, which may number them differently.
+     * @param cached - The cached board, with its own dictionary
+     * @param have - The hashes of the chunks of the cached board, by chunk number
+     * @param users - Every username that owns a tile on the server's board
+     * @param hashes - The hashes of the server's board, with none if every chunk matches
+     */
+    public void initialize(PlaceBoard cached, long[] have, PlaceUsers users, PlaceHashes hashes) {
+        PlaceBoard board = new PlaceBoard(hashes.getDim(), users);
+        board.setSeq(hashes.getSeq());
+        PlaceUsers old = cached.getUsers();
+        int[] ids = new int[old.size()];
+        boolean same = true;
+        for(int id = 0; id < ids.length; id++) {
+            ids[id] = Math.max(0, users.find(old.getName(id)));
+            same &= ids[id] == id;
+        }
+        long[] ours = hashes.getChunks();
+        boolean[] arrived = new boolean[board.getChunkCount()];
+        int missing = 0;
+        for(int number = 0; number < arrived.length; number++) {
+            arrived[number] = ours.length == 0 || ours[number] == have[number];
+            if(!arrived[number]) {
+                missing++;
+            } else if(same) {
+                board.setChunk(cached.getChunk(number));
+            } else {
+                PlaceChunk chunk = cached.getChunk(number);
+                for(int row = chunk.getTop(); row < chunk.getBottom(); row++) {
+                    for(int col = chunk.getLeft(); col < chunk.getRight(); col++) {
+                        board.setTile(row, col, chunk.getColor(row, col), ids[chunk.getOwner(row, col)],
+                                chunk.getTime(row, col));
+                    }
+                }
+            }
+        }
+        initialize(board, users);
+        if(missing > 0) {
+            this.arrived = arrived;
+            this.missing = missing;
+            this.early = new HashMap<>();
+        }
+    }
+
+    /***
+     * Takes a copy of the board, for caching it or resyncing it after a reconnect
+     * @return - The copy, sharing its chunks until either board changes, or null if there is no whole board
+     */
+    public PlaceBoard snapshot() {
+        return board == null || !isComplete() ? null : board.snapshot();
+    }
+
+    /***
+     * Puts a chunk of a board that is being streamed in place, along with the tile changes to it that arrived
+     * before it did, and notifies observers with the chunk
+     * @param chunk - The chunk
+     */
+    public void updateChunk(PlaceChunk chunk) {
+        if(arrived == null || arrived[chunk.getNumber()]) {
+            return;
+        }
+        this.board.setChunk(chunk);
+        arrived[chunk.getNumber()] = true;
+        List<PlaceTile> tiles = early.remove(chunk.getNumber());
+        if(tiles != null) {
+            for(PlaceTile tile : tiles) {
+                setTile(tile);
+            }
+        }
+        if(--missing == 0) {
+            arrived = null;
+            early = null;
+        }
+        super.setChanged();
+        super.notifyObservers(chunk);
+    }
+
+    /***
+     * Returns whether or not the whole board has arrived
+     * @return - Whether or not the whole board has arrived
+     */
+    public boolean isComplete() {
+        return arrived == null;
+    }
+
     /***
      * Returns the dimension of the board
      * @return - The dimension of the board
@@ -90,15 +261,73 @@ public class ClientModel extends Observable {
     }
 
     /***
-     * Updates a tile and notifies observers
+     * Updates a tile and notifies observers. Changes the board was sent with already are ignored, they were made
+     * between logging in and the board being taken.
      * @param tile - The tile to be updated
      */
     public void updatePixel(PlaceTile tile) {
+        if(isStale(tile) || isEarly(tile)) {
+            return;
+        }
         setTile(tile);
         super.setChanged();
         super.notifyObservers(tile);
     }
 
+    /***
+     * Updates every tile of a batch and then notifies observers once, with the whole list
+     * @param tiles - The tiles to be updated, in the order they were changed
+     */
+    public void updatePixels(List<PlaceTile> tiles) {
+        List<PlaceTile> fresh = new ArrayList<>(tiles.size());
+        for(PlaceTile tile : tiles) {
+            if(!isStale(tile) && !isEarly(tile)) {
+                setTile(tile);
+                fresh.add(tile);
+            }
+        }
+        if(!fresh.isEmpty()) {
+            super.setChanged();
+            super.notifyObservers(fresh);
+        }
+    }
+
+    /***
+     * Returns whether or not a change is already on the board the server sent. Batches are not in sequence order,
+     * so this compares against the board's sequence number rather than the latest change applied.
+     * @param tile - The change
+     * @return - Whether or not the change is already on the board
+     */
+    private boolean isStale(PlaceTile tile) {
+        return tile.getSeq() != 0 && tile.getSeq() <= snapshotSeq;
+    }
+
+    /***
+     * Holds on to a change to a chunk that has not arrived yet, to be applied over the chunk once it does
+     * @param tile - The change
+     * @return - Whether or not the change is being held on to
+     */
+    private boolean isEarly(PlaceTile tile) {
+        if(arrived == null || !isValid(tile)) {
+            return false;
+        }
+        int chunk = board.getChunkNumber(tile.getRow(), tile.getCol());
+        if(arrived[chunk]) {
+            return false;
+        }
+        early.computeIfAbsent(chunk, number -> new ArrayList<>()).add(tile);
+        return true;
+    }
+
+    /***
+     * Learns usernames the server has numbered since the board was sent. Nothing is shown for them until a tile
+     * of theirs arrives, so observers are not notified.
+     * @param delta - The new usernames
+     */
+    public void addUsers(PlaceUsers delta) {
+        this.users.merge(delta);
+    }
+
     /***
      * Updates the state of the model and notifies observers
      */
@@ -109,12 +338,13 @@ public class ClientModel extends Observable {
     }
 
     /**
-     * Get the entire board.
+     * Get the entire board.  Every tile is made on the spot, so prefer
+     * getTile for big boards.
      *
      * @return the board
      */
     public PlaceTile[][] getBoard() {
-        return this.board;
+        return this.board.getBoard();
     }
 
     /**
@@ -126,7 +356,7 @@ public class ClientModel extends Observable {
      * @return the tile
      */
     public PlaceTile getTile(int row, int col){
-        return this.board[row][col];
+        return this.board.getTile(row, col);
     }
 
     /**
@@ -136,8 +366,7 @@ public class ClientModel extends Observable {
      * @rit.pre row and column constitute a valid board coordinate
      */
     public void setTile(PlaceTile tile) {
-
-        this.board[tile.getRow()][tile.getCol()] = tile;
+        this.board.setTile(tile);
     }
 
     /**
@@ -146,10 +375,7 @@ public class ClientModel extends Observable {
      * @return are the coordinates within the dimensions of the board?
      */
     public boolean isValid(PlaceTile tile) {
-        return tile.getRow() >=0 &&
-                tile.getRow() < this.dim &&
-                tile.getCol() >= 0 &&
-                tile.getCol() < this.dim;
+        return this.board.isValid(tile);
     }
 
     public void error( String arguments ) {
@@ -167,14 +393,7 @@ public class ClientModel extends Observable {
      */
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder("");
-        for (int row=0; row<this.dim; ++row) {
-            builder.append("\n");
-            for (int col=0; col<this.dim; ++col) {
-                builder.append(this.board[row][col].getColor());
-            }
-        }
-        return builder.toString();
+        return this.board.toString();
     }
 
 }
@@ -1,11 +1,14 @@
 package place.client.ptui;
 
+import place.PlaceChunk;
 import place.PlaceTile;
+import place.client.BoardCache;
 import place.client.NetworkClient;
 import place.client.model.ClientModel;
 import place.network.PlaceExchange;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.text.DecimalFormatSymbols;
 import java.util.*;
 
@@ -35,12 +38,14 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
         String host = args.get( 0 );
         int port = Integer.parseInt( args.get( 1 ) );
         this.userName = args.get( 2 );
+        // the board is kept in a file between sessions if one is given
+        BoardCache cache = args.size() > 3 ? new BoardCache( Paths.get( args.get( 3 ) ) ) : null;
 
         // Create uninitialized board.
         this.model = new ClientModel();
         // Create the network connection.
         try {
-            this.serverConn = new NetworkClient( host, port, this.userName, this.model );
+            this.serverConn = new NetworkClient( host, port, this.userName, this.model, cache );
             System.out.println(this.serverConn.getSock().toString());
         } catch (IOException | ClassNotFoundException e) {
             System.out.println(e);
@@ -63,6 +68,19 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
         }
     }
 
+    /***
+     * Routine called when a batch of tiles is updated by the server
+     * @param tiles - The tiles that have been updated
+     */
+    private void updateTiles(List<?> tiles) {
+        this.userOut.println("=== " + tiles.size() + " TILES CHANGED ===");
+        this.userOut.println(this.model);
+        this.userOut.println("=== " + tiles.size() + " TILES CHANGED ===");
+        if(this.model.canMakeMove()) {
+            this.userOut.println("=== You can still change a tile! Enter: Row Col Color ===");
+        }
+    }
+
     /***
      * Routine called when the model is active. Will display appropriate messages to the user
      * @param arg - Object that has been passed through notifyObservers(), if any.
@@ -70,6 +88,10 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
     private void handleActive(Object arg) {
         if(arg instanceof PlaceTile) {
             updateTile((PlaceTile) arg);
+        } else if(arg instanceof List) {
+            updateTiles((List<?>) arg);
+        } else if(arg instanceof PlaceChunk) {
+            // more of a streamed board arrived, it shows up the next time the board is printed
         } else {
             if(this.model.canMakeMove()) {
                 boolean done = false;
@@ -198,8 +220,8 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
     }
 
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.out.println("Usage: java PlaceClient host port username");
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage: java PlaceClient host port username [cache file]");
         } else {
             ConsoleApplication.launch(PlacePTUI.class, args);
         }
@@ -0,0 +1,720 @@
+package place.network;
+
+import place.PlaceBoard;
+import place.PlaceChunk;
+import place.PlaceColor;
+import place.PlaceHashes;
+import place.PlaceResume;
+import place.PlaceTile;
+import place.PlaceUsers;
+import place.PlaceViewport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * The frame bodies of {@link PlaceFrames#BINARY_VERSION}. A body is one byte with the number of the request type
+ * (its position in {@link PlaceRequest.RequestType}, so new types may only ever be added at the end) followed by
+ * its data:
+ *
+ *   LOGIN, LOGIN_SUCCESS, ERROR: a string
+ *   CHANGE_TILE, TILE_CHANGED:   a tile
+ *   TILES_CHANGED:               a varint count, then that many tiles, each time relative to the tile before
+ *   USERS:                       a varint first id, a varint count, then that many strings
+ *   BOARD:                       a varint dim, a varint chunk size, the varint sequence number of the latest
+ *                                change on it, then every chunk of the board, across and then down
+ *   BOARD_CHUNK:                 a varint dim, a varint chunk size, the varint sequence number of the board it was
+ *                                cut from, the varint number of the chunk, then the chunk
+ *   VIEWPORT:                    a varint row, col, number of rows and number of columns
+ *   RESUME:                      a varint epoch, a zigzag varint sequence number, a varint number of usernames
+ *                                and the 8 byte resume token, which a body that ends before it has none of
+ *   HASHES:                      a varint dim, a varint sequence number, the 8 byte root, a varint count and that
+ *                                many 8 byte chunk hashes
+ *   TILE_REJECTED:               a varint number of milliseconds
+ *
+ * A chunk is a square of chunk size tiles a side (cut short at the edges of the board), encoded on its own so the
+ * server can keep the encoding of every chunk and only redo the ones that changed. It is a flag byte that is 1 if
+ * its runs are deflated, the varint length of the runs, the varint length they were deflated to if they were, and
+ * then the runs: the varint byte lengths of the color runs and owner runs, and the color, owner and time runs
+ * themselves, row by row.
+ *
+ * A color run is one byte, the color in the high 4 bits and the run length in the low 4, or 0 there followed by the
+ * length as a varint. An owner run is a varint owner id and a varint length. A time run is a zigzag varint time
+ * relative to the run before and a varint length.
+ *
+ * A string is a varint byte length followed by that much UTF-8. A tile is a varint row, a varint (col << 4 | color),
+ * an owner, a zigzag varint time and a zigzag varint sequence number, the last two relative
+ * to the tile before in the same request. An owner is a varint id + 1 into the receiver's username dictionary, or 0
+ * followed by the name as a string when the sender has no id for it. Clients always send names; the server sends
+ * ids, since every client learns a username before any tile owned by it.
+ *
+ * @author Justin Yau
+ */
+class BinaryCodec {
+
+    private static final PlaceRequest.RequestType[] TYPES = PlaceRequest.RequestType.values();
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    /**
+     * The number of tiles along each side of a board chunk
+     */
+    static final int CHUNK = PlaceBoard.CHUNK;
+
+    /***
+     * Encodes a request as a frame body
+     * @param req - The request to encode
+     * @param users - The dictionary to send owner ids from, or null to send owner names
+     * @return - The body, from 0 to its length
+     * @throws IOException - If the request holds data its type does not allow
+     */
+    static Out encode(PlaceRequest<?> req, PlaceUsers users) throws IOException {
+        Out out = new Out(32);
+        out.put(req.getType().ordinal());
+        Object data = req.getData();
+        switch (req.getType()) {
+            case LOGIN:
+            case LOGIN_SUCCESS:
+            case ERROR:
+                out.putString((String) data);
+                break;
+            case CHANGE_TILE:
+            case TILE_CHANGED:
+                putTile(out, (PlaceTile) data, users, null);
+                break;
+            case TILES_CHANGED:
+                List<?> tiles = (List<?>) data;
+                out.putVarint(tiles.size());
+                PlaceTile previous = null;
+                for (Object tile : tiles) {
+                    putTile(out, (PlaceTile) tile, users, previous);
+                    previous = (PlaceTile) tile;
+                }
+                break;
+            case USERS:
+                PlaceUsers names = (PlaceUsers) data;
+                out.putVarint(names.getFirst());
+                out.putVarint(names.size() - names.getFirst());
+                for (int id = names.getFirst(); id < names.size(); id++) {
+                    out.putString(names.getName(id));
+                }
+                break;
+            case BOARD:
+                putBoard(out, (PlaceBoard) data);
+                break;
+            case BOARD_CHUNK:
+                PlaceChunk chunk = (PlaceChunk) data;
+                putChunk(out, chunk, chunk(chunk));
+                break;
+            case VIEWPORT:
+                PlaceViewport viewport = (PlaceViewport) data;
+                out.putVarint(viewport.getRow());
+                out.putVarint(viewport.getCol());
+                out.putVarint(viewport.getRows());
+                out.putVarint(viewport.getCols());
+                break;
+            case RESUME:
+                PlaceResume resume = (PlaceResume) data;
+                out.putVarint(resume.getEpoch());
+                out.putZigzag(resume.getSeq());
+                out.putVarint(resume.getUsers());
+                out.putLong(resume.getToken());
+                break;
+            case HASHES:
+                PlaceHashes hashes = (PlaceHashes) data;
+                out.putVarint(hashes.getDim());
+                out.putVarint(hashes.getSeq());
+                out.putLong(hashes.getRoot());
+                out.putVarint(hashes.getChunks().length);
+                for (long hash : hashes.getChunks()) {
+                    out.putLong(hash);
+                }
+                break;
+            case TILE_REJECTED:
+                out.putVarint((Long) data);
+                break;
+            default:
+                throw new IOException("No binary encoding for " + req.getType());
+        }
+        return out;
+    }
+
+    /***
+     * Decodes a frame body back into a request
+     * @param body - The body of the frame
+     * @param users - The dictionary owner ids refer to, or null if none are expected
+     * @return - The request
+     * @throws IOException - If the body is malformed
+     */
+    static PlaceRequest<?> decode(ByteBuffer body, PlaceUsers users) throws IOException {
+        try {
+            int number = body.get() & 0xFF;
+            if (number >= TYPES.length) {
+                throw new IOException("Unknown request type " + number);
+            }
+            PlaceRequest.RequestType type = TYPES[number];
+            switch (type) {
+                case LOGIN:
+                case LOGIN_SUCCESS:
+                case ERROR:
+                    return new PlaceRequest<>(type, getString(body));
+                case CHANGE_TILE:
+                case TILE_CHANGED:
+                    return new PlaceRequest<>(type, getTile(body, users, null));
+                case TILES_CHANGED:
+                    int count = Varints.getInt(body);
+                    ArrayList<PlaceTile> tiles = new ArrayList<>(Math.min(count, body.remaining()));
+                    PlaceTile previous = null;
+                    for (int i = 0; i < count; i++) {
+                        previous = getTile(body, users, previous);
+                        tiles.add(previous);
+                    }
+                    return new PlaceRequest<>(type, tiles);
+                case USERS:
+                    int first = Varints.getInt(body);
+                    int size = Varints.getInt(body);
+                    ArrayList<String> names = new ArrayList<>(Math.min(size, body.remaining()));
+                    for (int i = 0; i < size; i++) {
+                        names.add(getString(body));
+                    }
+                    return new PlaceRequest<>(type, new PlaceUsers(first, names));
+                case BOARD:
+                    return new PlaceRequest<>(type, getBoard(body));
+                case BOARD_CHUNK:
+                    return new PlaceRequest<>(type, getChunk(body));
+                case VIEWPORT:
+                    return new PlaceRequest<>(type,
+                            new PlaceViewport(Varints.getInt(body), Varints.getInt(body), Varints.getInt(body), Varints.getInt(body)));
+                case RESUME:
+                    long epoch = Varints.get(body);
+                    long from = Varints.getZigzag(body);
+                    int known = Varints.getInt(body);
+                    long token = body.remaining() >= Long.BYTES ? body.getLong() : 0;
+                    return new PlaceRequest<>(type, new PlaceResume(epoch, from, known, token));
+                case HASHES:
+                    int dim = Varints.getInt(body);
+                    long seq = Varints.get(body);
+                    long root = body.getLong();
+                    int hashed = Varints.getInt(body);
+                    if (hashed > body.remaining() / Long.BYTES) {
+                        throw new IOException("Hash count " + hashed + " past the end of the frame");
+                    }
+                    long[] chunks = new long[hashed];
+                    for (int i = 0; i < chunks.length; i++) {
+                        chunks[i] = body.getLong();
+                    }
+                    return new PlaceRequest<>(type, new PlaceHashes(dim, seq, root, chunks));
+                case TILE_REJECTED:
+                    return new PlaceRequest<>(type, Varints.get(body));
+                default:
+                    throw new IOException("No binary encoding for " + type);
+            }
+        } catch (RuntimeException e) {
+            // buffer underflows, bad ids and the like all mean the same thing here
+            throw new IOException("Malformed frame: " + e, e);
+        }
+    }
+
+    /***
+     * Puts a tile into the body
+     * @param out - The body
+     * @param tile - The tile
+     * @param users - The dictionary to send the owner id from, or null to send the name
+     * @param previous - The tile before it in the same request, whose time and sequence number it is sent relative
+     *                 to, or null
+     */
+    private static void putTile(Out out, PlaceTile tile, PlaceUsers users, PlaceTile previous) {
+        out.putVarint(tile.getRow());
+        out.putVarint((long) tile.getCol() << 4 | tile.getColor().getNumber());
+        int id = users == null ? -1 : users.find(tile.getOwner());
+        out.putVarint(id + 1);
+        if (id < 0) {
+            out.putString(tile.getOwner());
+        }
+        out.putZigzag(tile.getTime() - (previous == null ? 0 : previous.getTime()));
+        out.putZigzag(tile.getSeq() - (previous == null ? 0 : previous.getSeq()));
+    }
+
+    /***
+     * Gets a tile out of the body
+     * @param body - The body
+     * @param users - The dictionary owner ids refer to, or null if none are expected
+     * @param previous - The tile before it in the same request, or null
+     * @return - The tile
+     * @throws IOException
+     */
+    private static PlaceTile getTile(ByteBuffer body, PlaceUsers users, PlaceTile previous) throws IOException {
+        int row = Varints.getInt(body);
+        long packed = Varints.get(body);
+        if (packed >>> 4 > Integer.MAX_VALUE) {
+            throw new IOException("Column " + (packed >>> 4) + " out of range");
+        }
+        int id = Varints.getInt(body) - 1;
+        String owner;
+        if (id < 0) {
+            owner = getString(body);
+        } else if (users == null) {
+            throw new IOException("Owner id without a username dictionary");
+        } else {
+            owner = users.getName(id);
+        }
+        long time = (previous == null ? 0 : previous.getTime()) + Varints.getZigzag(body);
+        PlaceTile tile = new PlaceTile(row, (int) (packed >>> 4), owner, COLORS[(int) packed & 0xF], time);
+        tile.setSeq((previous == null ? 0 : previous.getSeq()) + Varints.getZigzag(body));
+        return tile;
+    }
+
+    /***
+     * Puts a board into the body, encoding every chunk of it
+     * @param out - The body
+     * @param board - The board
+     */
+    private static void putBoard(Out out, PlaceBoard board) {
+        Out[] chunks = new Out[board.getChunkCount()];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            chunks[chunk] = chunk(board.getChunk(chunk));
+        }
+        putBoard(out, board.DIM, board.getSeq(), chunks);
+    }
+
+    /***
+     * Puts a board into the body from chunks that have already been encoded
+     * @param out - The body
+     * @param dim - The dimension of the board
+     * @param seq - The sequence number of the latest change on the board
+     * @param chunks - The encoding of every chunk, across and then down
+     */
+    static void putBoard(Out out, int dim, long seq, Out[] chunks) {
+        int length = 0;
+        for (Out chunk : chunks) {
+            length += chunk.getLength();
+        }
+        out.putVarint(dim);
+        out.putVarint(CHUNK);
+        out.putVarint(seq);
+        out.reserve(length);
+        for (Out chunk : chunks) {
+            out.putBytes(chunk.array(), 0, chunk.getLength());
+        }
+    }
+
+    /***
+     * Puts a lone chunk of a board into the body
+     * @param out - The body
+     * @param chunk - The chunk
+     * @param encoded - The encoding of the chunk
+     */
+    static void putChunk(Out out, PlaceChunk chunk, Out encoded) {
+        out.putVarint(chunk.getDim());
+        out.putVarint(CHUNK);
+        out.putVarint(chunk.getSeq());
+        out.putVarint(chunk.getNumber());
+        out.putBytes(encoded.array(), 0, encoded.getLength());
+    }
+
+    /***
+     * Returns the number of chunks along each side of a board
+     * @param dim - The dimension of the board
+     * @return - The number of chunks along each side
+     */
+    static int chunks(int dim) {
+        return (dim + CHUNK - 1) / CHUNK;
+    }
+
+    /***
+     * Encodes one chunk of a board as three streams of runs: colors, owners and times. Each stream is written
+     * separately so the decoder can walk all three side by side without unpacking the chunk first, and the runs
+     * are deflated when that makes them smaller.
+     * @param chunk - The chunk
+     * @return - The encoded chunk, from 0 to its length
+     */
+    static Out chunk(PlaceChunk chunk) {
+        Runs colors = new Runs(Runs.COLOR);
+        Runs owners = new Runs(Runs.OWNER);
+        Runs times = new Runs(Runs.TIME);
+        for (int row = chunk.getTop(); row < chunk.getBottom(); row++) {
+            for (int col = chunk.getLeft(); col < chunk.getRight(); col++) {
+                colors.add(chunk.getColor(row, col).getNumber());
+                owners.add(chunk.getOwner(row, col));
+                times.add(chunk.getTime(row, col));
+            }
+        }
+        Out runs = new Out(32 + colors.out.getLength() + owners.out.getLength() + times.out.getLength());
+        runs.putVarint(colors.end().getLength());
+        runs.putVarint(owners.end().getLength());
+        runs.putBytes(colors.out.array(), 0, colors.out.getLength());
+        runs.putBytes(owners.out.array(), 0, owners.out.getLength());
+        runs.putBytes(times.end().array(), 0, times.out.getLength());
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(runs.array(), 0, runs.getLength());
+        deflater.finish();
+        Out deflated = new Out(runs.getLength() / 4 + 64);
+        while (!deflater.finished() && deflated.getLength() < runs.getLength()) {
+            deflated.reserve(4096);
+            deflated.length += deflater.deflate(deflated.buf, deflated.length, deflated.buf.length - deflated.length);
+        }
+        boolean smaller = deflater.finished() && deflated.getLength() < runs.getLength();
+        deflater.end();
+        Out out = new Out(16 + Math.min(runs.getLength(), deflated.getLength()));
+        if (smaller) {
+            out.put(1);
+            out.putVarint(runs.getLength());
+            out.putVarint(deflated.getLength());
+            out.putBytes(deflated.array(), 0, deflated.getLength());
+        } else {
+            out.put(0);
+            out.putVarint(runs.getLength());
+            out.putBytes(runs.array(), 0, runs.getLength());
+        }
+        return out;
+    }
+
+    /***
+     * Gets a board out of the body. Its owners are ids into the server's dictionary, which the board is given later.
+     * @param body - The body
+     * @return - The board
+     * @throws IOException
+     */
+    private static PlaceBoard getBoard(ByteBuffer body) throws IOException {
+        int dim = Varints.getInt(body);
+        if ((long) dim * dim > Integer.MAX_VALUE) {
+            throw new IOException("Board of " + dim + " squared tiles is too large");
+        }
+        if (Varints.getInt(body) != CHUNK) {
+            throw new IOException("Board chunks are not " + CHUNK + " tiles wide");
+        }
+        PlaceBoard board = new PlaceBoard(dim);
+        board.setSeq(Varints.get(body));
+        for (int number = 0; number < board.getChunkCount(); number++) {
+            PlaceChunk chunk = new PlaceChunk(dim, number);
+            getChunk(body, chunk);
+            board.setChunk(chunk);
+        }
+        return board;
+    }
+
+    /***
+     * Gets a lone chunk of a board out of the body. Its owners are ids into the server's dictionary.
+     * @param body - The body
+     * @return - The chunk
+     * @throws IOException
+     */
+    private static PlaceChunk getChunk(ByteBuffer body) throws IOException {
+        int dim = Varints.getInt(body);
+        if (Varints.getInt(body) != CHUNK) {
+            throw new IOException("Board chunks are not " + CHUNK + " tiles wide");
+        }
+        long seq = Varints.get(body);
+        int number = Varints.getInt(body);
+        if ((long) number >= (long) chunks(dim) * chunks(dim)) {
+            throw new IOException("No chunk " + number + " on a board of " + dim + " squared tiles");
+        }
+        PlaceChunk chunk = new PlaceChunk(dim, number);
+        chunk.setSeq(seq);
+        getChunk(body, chunk);
+        return chunk;
+    }
+
+    /***
+     * Gets the tiles of one chunk of a board out of the body
+     * @param body - The body, positioned at the chunk
+     * @param chunk - The chunk to put the tiles in
+     * @throws IOException
+     */
+    private static void getChunk(ByteBuffer body, PlaceChunk chunk) throws IOException {
+        boolean deflated = body.get() != 0;
+        int length = Varints.getInt(body);
+        if (length > PlaceFrames.MAX_FRAME_SIZE) {
+            throw new IOException("Chunk of " + length + " bytes is too large");
+        }
+        ByteBuffer runs;
+        if (deflated) {
+            int stored = Varints.getInt(body);
+            ByteBuffer input = body.slice();
+            input.limit(stored);
+            body.position(body.position() + stored);
+            runs = ByteBuffer.wrap(inflate(input, length));
+        } else {
+            runs = body.slice();
+            runs.limit(length);
+            body.position(body.position() + length);
+        }
+        int colorBytes = Varints.getInt(runs);
+        int ownerBytes = Varints.getInt(runs);
+        ByteBuffer colors = runs.slice();
+        ByteBuffer owners = runs.slice();
+        owners.position(colorBytes);
+        ByteBuffer times = runs.slice();
+        times.position(colorBytes + ownerBytes);
+        colors.limit(colorBytes);
+        owners.limit(colorBytes + ownerBytes);
+
+        Runs colorRuns = new Runs(Runs.COLOR);
+        Runs ownerRuns = new Runs(Runs.OWNER);
+        Runs timeRuns = new Runs(Runs.TIME);
+        for (int row = chunk.getTop(); row < chunk.getBottom(); row++) {
+            for (int col = chunk.getLeft(); col < chunk.getRight(); col++) {
+                int color = (int) colorRuns.next(colors);
+                chunk.setTile(row, col, COLORS[color], (int) ownerRuns.next(owners), timeRuns.next(times));
+            }
+        }
+    }
+
+    /***
+     * Inflates the runs of a chunk
+     * @param body - The deflated runs
+     * @param length - The number of bytes they inflate to
+     * @return - The inflated bytes
+     * @throws IOException
+     */
+    private static byte[] inflate(ByteBuffer body, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            byte[] input = new byte[body.remaining()];
+            body.get(input);
+            inflater.setInput(input);
+            byte[] output = new byte[length];
+            int done = 0;
+            while (done < length && !inflater.finished()) {
+                int inflated = inflater.inflate(output, done, length - done);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                done += inflated;
+            }
+            if (done != length) {
+                throw new IOException("Board inflated to " + done + " bytes instead of " + length);
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed board: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /***
+     * Gets a string out of the body
+     * @param body - The body
+     * @return - The string
+     * @throws IOException
+     */
+    private static String getString(ByteBuffer body) throws IOException {
+        int length = Varints.getInt(body);
+        if (length > body.remaining()) {
+            throw new IOException("String runs past the end of the frame");
+        }
+        if (!body.hasArray()) {
+            byte[] bytes = new byte[length];
+            body.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+
+    /**
+     * A frame body being written, in an array that grows as needed
+     */
+    static class Out {
+
+        private byte[] buf;   // The bytes written so far, and room for more
+        private int length;   // The number of bytes written so far
+
+        /***
+         * Creates an empty body
+         * @param capacity - The number of bytes to make room for up front
+         */
+        Out(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        /***
+         * Returns the array the body is written in
+         * @return - The array, holding the body from 0 to getLength()
+         */
+        byte[] array() {
+            return buf;
+        }
+
+        /***
+         * Returns the number of bytes written
+         * @return - The number of bytes written
+         */
+        int getLength() {
+            return length;
+        }
+
+        /***
+         * Makes room for at least the inputted number of bytes more
+         * @param bytes - The number of bytes
+         */
+        void reserve(int bytes) {
+            if (length + bytes > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + bytes));
+            }
+        }
+
+        /***
+         * Writes a byte
+         * @param b - The byte, in the low 8 bits
+         */
+        void put(int b) {
+            reserve(1);
+            buf[length++] = (byte) b;
+        }
+
+        /***
+         * Writes an unsigned varint, seven bits at a time with the high bit set on all but the last byte
+         * @param value - The value
+         */
+        void putVarint(long value) {
+            reserve(Varints.MAX_BYTES);
+            length = Varints.put(buf, length, value);
+        }
+
+        /***
+         * Writes 8 bytes as they are, for values like hashes that varints would only make longer
+         * @param value - The value
+         */
+        void putLong(long value) {
+            reserve(Long.BYTES);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[length++] = (byte) (value >>> shift);
+            }
+        }
+
+        /***
+         * Writes a signed value as a zigzag varint
+         * @param value - The value
+         */
+        void putZigzag(long value) {
+            putVarint(Varints.zigzag(value));
+        }
+
+        /***
+         * Writes bytes as they are
+         * @param bytes - The array holding the bytes
+         * @param offset - The index of the first byte
+         * @param count - The number of bytes
+         */
+        void putBytes(byte[] bytes, int offset, int count) {
+            reserve(count);
+            System.arraycopy(bytes, offset, buf, length, count);
+            length += count;
+        }
+
+        /***
+         * Writes a string as its UTF-8 length and bytes. A missing string is written as the empty one.
+         * @param value - The string
+         */
+        void putString(String value) {
+            byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length);
+            putBytes(bytes, 0, bytes.length);
+        }
+
+    }
+
+    /**
+     * One stream of runs of a board snapshot, either being written or being read
+     */
+    private static class Runs {
+
+        static final int COLOR = 0;  // Runs of 4 bit colors, the length packed in with the color when it is short
+        static final int OWNER = 1;  // Runs of owner ids
+        static final int TIME = 2;   // Runs of times, each relative to the run before
+
+        private int kind;            // Which of the above this stream holds
+        private Out out;             // The runs written so far, when writing
+        private long value;          // The value of the current run
+        private long previous;       // The value of the run before it
+        private int length;          // The tiles in the current run so far when writing, still to come when reading
+
+        /***
+         * Creates an empty stream
+         * @param kind - COLOR, OWNER or TIME
+         */
+        Runs(int kind) {
+            this.kind = kind;
+            this.out = new Out(64);
+        }
+
+        /***
+         * Adds the value of the next tile
+         * @param next - The value
+         */
+        void add(long next) {
+            if (length > 0 && next == value) {
+                length++;
+                return;
+            }
+            end();
+            value = next;
+            length = 1;
+        }
+
+        /***
+         * Writes the current run, if there is one
+         * @return - The runs written so far
+         */
+        Out end() {
+            if (length == 0) {
+                return out;
+            }
+            if (kind == COLOR) {
+                out.put((int) value << 4 | (length < 16 ? length : 0));
+                if (length >= 16) {
+                    out.putVarint(length);
+                }
+            } else {
+                out.putVarint(kind == TIME ? Varints.zigzag(value - previous) : value);
+                out.putVarint(length);
+            }
+            previous = value;
+            length = 0;
+            return out;
+        }
+
+        /***
+         * Reads the value of the next tile
+         * @param in - The runs
+         * @return - The value
+         * @throws IOException
+         */
+        long next(ByteBuffer in) throws IOException {
+            if (length == 0) {
+                if (kind == COLOR) {
+                    int packed = in.get() & 0xFF;
+                    value = packed >>> 4;
+                    length = packed & 0xF;
+                    if (length == 0) {
+                        length = Varints.getInt(in);
+                    }
+                } else {
+                    value = kind == TIME ? previous + Varints.getZigzag(in) : Varints.getInt(in);
+                    previous = value;
+                    length = Varints.getInt(in);
+                }
+                if (length == 0) {
+                    throw new IOException("Empty run");
+                }
+            }
+            length--;
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+package place.network;
+
+import place.PlaceBoard;
+import place.PlaceHashes;
+import place.PlaceViewport;
+
+import java.util.Arrays;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * The chunks of one view of the board, handed out one BOARD_CHUNK at a time to a client that has the board streamed
+ * rather than sent whole. Chunks go out closest to the client's viewport first, and a new viewport reorders the ones
+ * that have not gone out yet. Each chunk comes from the {@link SnapshotCache} the stream was made by, so chunks that
+ * have not changed since another client got them are not encoded again.
+ *
+ * Whoever writes to the client pulls the next chunk whenever it has nothing else to write, so tile changes are
+ * never held up behind the board.
+ *
+ * For a client resyncing a board it cached, the stream leaves out the chunks whose hashes the client already has.
+ *
+ * @author Justin Yau
+ */
+public class BoardStream {
+
+    private SnapshotCache cache;        // The cache the chunks are encoded by
+    private PlaceBoard view;            // The view of the board being streamed
+    private int side;                   // The number of chunks along each side of the board
+    private int[] order;                // The chunks in the order they are sent
+    private int next;                   // The position in order of the next chunk to send
+    private PlaceHashes hashes;         // The hashes of the chunks of the view, if the client is resyncing
+
+    /***
+     * Creates a stream of a view of the board, starting from the middle of the board
+     * @param cache - The cache the chunks are encoded by
+     * @param view - The view of the board to stream
+     */
+    BoardStream(SnapshotCache cache, PlaceBoard view) {
+        this.cache = cache;
+        this.view = view;
+        this.side = BinaryCodec.chunks(view.DIM);
+        this.order = new int[view.getChunkCount()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        setViewport(new PlaceViewport(view.DIM / 2, view.DIM / 2, 1, 1));
+    }
+
+    /***
+     * Returns the sequence number of the latest change on the board being streamed
+     * @return - The sequence number
+     */
+    public long getSeq() {
+        return view.getSeq();
+    }
+
+    /***
+     * Returns the hashes of the chunks of the view, which a client resyncing a cached board is sent ahead of the
+     * chunks that differ
+     * @return - The hashes, or null if the client is not resyncing
+     */
+    public PlaceHashes getHashes() {
+        return hashes;
+    }
+
+    /***
+     * Leaves out the chunks a client already has. Has to be called before any chunk is sent.
+     * @param hashes - The hashes of the chunks of the view, with none if the roots are equal
+     * @param have - The hashes of the chunks the client has, by chunk number
+     */
+    public synchronized void resync(PlaceHashes hashes, long[] have) {
+        this.hashes = hashes;
+        long[] ours = hashes.getChunks();
+        int kept = 0;
+        for (int i = 0; i < order.length; i++) {
+            int chunk = order[i];
+            if (ours.length > 0 && ours[chunk] != have[chunk]) {
+                order[kept++] = chunk;
+            }
+        }
+        order = Arrays.copyOf(order, kept);
+    }
+
+    /***
+     * Reorders the chunks that have not been sent yet, closest to a viewport first
+     * @param viewport - The part of the board the client is looking at
+     */
+    public synchronized void setViewport(PlaceViewport viewport) {
+        int top = clamp(viewport.getRow()) / BinaryCodec.CHUNK;
+        int left = clamp(viewport.getCol()) / BinaryCodec.CHUNK;
+        int bottom = clamp(viewport.getRow() + viewport.getRows() - 1) / BinaryCodec.CHUNK;
+        int right = clamp(viewport.getCol() + viewport.getCols() - 1) / BinaryCodec.CHUNK;
+        // sorted by distance and then number, both packed into one long so nothing is boxed
+        long[] keys = new long[order.length - next];
+        for (int i = 0; i < keys.length; i++) {
+            int chunk = order[next + i];
+            int row = chunk / side;
+            int col = chunk % side;
+            int distance = Math.max(Math.max(top - row, row - bottom), Math.max(left - col, col - right));
+            keys[i] = (long) Math.max(distance, 0) << 32 | chunk;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < keys.length; i++) {
+            order[next + i] = (int) keys[i];
+        }
+    }
+
+    /***
+     * Returns whether or not there are chunks left to send
+     * @return - Whether or not there are chunks left to send
+     */
+    public synchronized boolean hasNext() {
+        return next < order.length;
+    }
+
+    /***
+     * Returns the next chunk to send. Safe to call from any thread.
+     * @return - The BOARD_CHUNK request of the chunk, or null once every chunk has been sent
+     */
+    public SharedFrame next() {
+        int chunk;
+        synchronized (this) {
+            if (next >= order.length) {
+                return null;
+            }
+            chunk = order[next++];
+        }
+        return cache.getChunk(view, chunk);
+    }
+
+    /***
+     * Keeps a row or column on the board
+     * @param index - The row or column
+     * @return - The closest row or column on the board
+     */
+    private int clamp(int index) {
+        return Math.max(0, Math.min(index, view.DIM - 1));
+    }
+
+}
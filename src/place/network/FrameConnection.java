@@ -0,0 +1,147 @@
+package place.network;
+
+import place.PlaceUsers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * A connection that sends every request as a length-prefixed frame (see {@link PlaceFrames}) over blocking streams.
+ * It keeps the usernames it has received, so tiles that arrive with owner ids can be decoded.
+ *
+ * @author Justin Yau
+ */
+public class FrameConnection implements PlaceConnection {
+
+    private DataInputStream in;   // The input stream of the socket
+    private OutputStream out;     // The output stream of the socket
+    private int version;          // The frame version that was agreed on during the handshake
+    private int maxLength;        // The largest frame body that will be received
+    private PlaceUsers users = new PlaceUsers(); // Every username received so far
+    private ReentrantLock writeLock = new ReentrantLock(); // Keeps frames from different threads whole
+
+    /***
+     * Creates a new framed connection over streams that have already completed the handshake
+     * @param in - The input stream of the socket
+     * @param out - The output stream of the socket
+     * @param version - The frame version that was agreed on during the handshake
+     */
+    public FrameConnection(InputStream in, OutputStream out, int version) {
+        this(in, out, version, PlaceFrames.MAX_FRAME_SIZE);
+    }
+
+    /***
+     * Creates a new framed connection over streams that have already completed the handshake, receiving no frame
+     * over a size, as a server does from its clients
+     * @param in - The input stream of the socket
+     * @param out - The output stream of the socket
+     * @param version - The frame version that was agreed on during the handshake
+     * @param maxLength - The largest frame body that will be received
+     */
+    public FrameConnection(InputStream in, OutputStream out, int version, int maxLength) {
+        this.in = new DataInputStream(in);
+        this.out = out;
+        this.version = version;
+        this.maxLength = maxLength;
+    }
+
+    /***
+     * Performs the client side of the handshake on a freshly connected socket
+     * @param sock - The client's connection to the server
+     * @return - The framed connection to the server
+     * @throws IOException
+     */
+    public static FrameConnection connect(Socket sock) throws IOException {
+        return connect(sock, PlaceFrames.VERSION);
+    }
+
+    /***
+     * Performs the client side of the handshake on a freshly connected socket, offering no more than a version
+     * @param sock - The client's connection to the server
+     * @param offered - The highest frame version to offer, like BINARY_VERSION to have the board sent whole
+     * @return - The framed connection to the server
+     * @throws IOException
+     */
+    public static FrameConnection connect(Socket sock, int offered) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+        if(in.readInt() != PlaceFrames.SERVER_HELLO) {
+            throw new IOException("Not a place server!");
+        }
+        out.writeInt(PlaceFrames.MAGIC);
+        out.writeByte(offered);
+        out.flush();
+        int version = in.readUnsignedByte();
+        if(version == 0) {
+            throw new IOException("Server does not support protocol version " + offered);
+        }
+        return new FrameConnection(in, out, version);
+    }
+
+    /***
+     * Returns the frame version that was agreed on during the handshake
+     * @return - The frame version that was agreed on during the handshake
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /***
+     * Starts the connection off knowing the usernames from an earlier connection to the same server, so a client
+     * that resumes is only sent the ones it is missing
+     * @param users - The usernames already known, which are copied
+     */
+    public void setUsers(PlaceUsers users) {
+        this.users = users.since(0);
+    }
+
+    @Override
+    public void send(PlaceRequest<?> req) throws IOException {
+        write(PlaceFrames.encode(req, version));
+    }
+
+    @Override
+    public void send(SharedFrame frame) throws IOException {
+        write(frame.bytes(version));
+    }
+
+    /***
+     * Writes a whole frame and flushes it
+     * @param frame - The frame to write
+     * @throws IOException
+     */
+    private void write(ByteBuffer frame) throws IOException {
+        writeLock.lock();
+        try {
+            PlaceFrames.write(out, frame);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public PlaceRequest<?> receive() throws IOException, ClassNotFoundException {
+        PlaceRequest<?> req = PlaceFrames.read(in, version, users, maxLength);
+        if(req.getType() == PlaceRequest.RequestType.USERS) {
+            try {
+                users.merge((PlaceUsers) req.getData());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        return req;
+    }
+
+}
@@ -0,0 +1,108 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * The original connection that sends every request as a java object over a pair of object streams.
+ * Kept so that clients which do not speak the framed protocol can still play.
+ *
+ * @author Justin Yau
+ */
+public class ObjectConnection implements PlaceConnection {
+
+    // The request types of the original protocol, the only ones clients on object streams can read
+    private static final Set<PlaceRequest.RequestType> ORIGINAL = EnumSet.of(PlaceRequest.RequestType.BOARD,
+            PlaceRequest.RequestType.CHANGE_TILE, PlaceRequest.RequestType.ERROR, PlaceRequest.RequestType.LOGIN,
+            PlaceRequest.RequestType.LOGIN_SUCCESS, PlaceRequest.RequestType.TILE_CHANGED);
+
+    private ObjectOutputStream out; // The output stream of the socket
+    private ObjectInputStream in;   // The input stream of the socket
+    private ReentrantLock writeLock = new ReentrantLock(); // Keeps requests from different threads whole
+
+    /***
+     * Creates a new connection over the given object streams
+     * @param out - The output stream of the socket
+     * @param in - The input stream of the socket
+     */
+    public ObjectConnection(ObjectOutputStream out, ObjectInputStream in) {
+        this.out = out;
+        this.in = in;
+    }
+
+    /***
+     * Creates an object output stream that does not write the stream header,
+     * for when the header has already been sent to the other end by someone else
+     * @param out - The stream to wrap
+     * @return - The object output stream
+     * @throws IOException
+     */
+    public static ObjectOutputStream headless(OutputStream out) throws IOException {
+        return new ObjectOutputStream(out) {
+            @Override
+            protected void writeStreamHeader() {
+            }
+        };
+    }
+
+    /***
+     * Writes the request, unless it is of a type the original protocol did not have. Those would fail to read
+     * on the other end, so they are left out.
+     * @param req - The request to send
+     * @throws IOException
+     */
+    @Override
+    public void send(PlaceRequest<?> req) throws IOException {
+        if (!ORIGINAL.contains(req.getType())) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            out.writeUnshared(req);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /***
+     * Object streams cannot reuse bytes, so the shared request is written like any other. Clients on object
+     * streams predate TILES_CHANGED, so a batch is written to them one TILE_CHANGED at a time.
+     * @param frame - The shared request to send
+     * @throws IOException
+     */
+    @Override
+    public void send(SharedFrame frame) throws IOException {
+        PlaceRequest<?> req = frame.getRequest();
+        if (req.getType() != PlaceRequest.RequestType.TILES_CHANGED) {
+            send(req);
+            return;
+        }
+        writeLock.lock();
+        try {
+            for (Object tile : (List<?>) req.getData()) {
+                out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, (PlaceTile) tile));
+            }
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public PlaceRequest<?> receive() throws IOException, ClassNotFoundException {
+        return (PlaceRequest<?>) in.readUnshared();
+    }
+
+}
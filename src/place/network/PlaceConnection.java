@@ -0,0 +1,37 @@
+package place.network;
+
+import java.io.IOException;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * One end of a connection that can send and receive requests, regardless of how they are encoded on the wire.
+ *
+ * @author Justin Yau
+ */
+public interface PlaceConnection {
+
+    /***
+     * Sends a request to the other end of the connection
+     * @param req - The request to send
+     * @throws IOException
+     */
+    void send(PlaceRequest<?> req) throws IOException;
+
+    /***
+     * Sends a request that is shared with other connections, reusing its encoded bytes where possible
+     * @param frame - The shared request to send
+     * @throws IOException
+     */
+    void send(SharedFrame frame) throws IOException;
+
+    /***
+     * Blocks until the next request arrives from the other end of the connection
+     * @return - The request that was received
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    PlaceRequest<?> receive() throws IOException, ClassNotFoundException;
+
+}
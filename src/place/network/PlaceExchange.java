@@ -2,10 +2,14 @@ package place.network;
 
 import place.PlaceBoard;
 import place.PlaceColor;
+import place.PlaceHashes;
+import place.PlaceResume;
 import place.PlaceTile;
+import place.PlaceUsers;
+import place.PlaceViewport;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 
 /**
  * CSCI-242 AP COMPUTER SCIENCE X
@@ -41,10 +45,9 @@ public class PlaceExchange {
      * @param username - The username of who sent the request
      * @throws IOException
      */
-    public static void createLoginRequest(ObjectOutputStream out, String username) throws IOException {
+    public static void createLoginRequest(PlaceConnection out, String username) throws IOException {
         PlaceRequest<String> req = new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username);
-        out.writeUnshared(req);
-        out.flush();
+        out.send(req);
     }
 
     /***
@@ -52,10 +55,42 @@ public class PlaceExchange {
      * @param tile - The tile to be changed
      * @throws IOException
      */
-    public static void createTileChangeRequest(ObjectOutputStream out, PlaceTile tile) throws IOException {
+    public static void createTileChangeRequest(PlaceConnection out, PlaceTile tile) throws IOException {
         PlaceRequest<PlaceTile> req = new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, tile);
-        out.writeUnshared(req);
-        out.flush();
+        out.send(req);
+    }
+
+    /***
+     * Creates a request to let the server know which part of the board the user is looking at
+     * @param out - The output stream to the server
+     * @param viewport - The part of the board the user is looking at
+     * @throws IOException
+     */
+    public static void createViewportRequest(PlaceConnection out, PlaceViewport viewport) throws IOException {
+        PlaceRequest<PlaceViewport> req = new PlaceRequest<>(PlaceRequest.RequestType.VIEWPORT, viewport);
+        out.send(req);
+    }
+
+    /***
+     * Creates a request to offer the server what the user already has of the board, or to answer such an offer
+     * @param out - The output stream to send the request to
+     * @param resume - The offer or the answer
+     * @throws IOException
+     */
+    public static void createResumeRequest(PlaceConnection out, PlaceResume resume) throws IOException {
+        PlaceRequest<PlaceResume> req = new PlaceRequest<>(PlaceRequest.RequestType.RESUME, resume);
+        out.send(req);
+    }
+
+    /***
+     * Creates a request to send the hashes of the chunks of a board, so that only the chunks that differ are sent
+     * @param out - The output stream to send the request to
+     * @param hashes - The hashes of the chunks of the board
+     * @throws IOException
+     */
+    public static void createHashesRequest(PlaceConnection out, PlaceHashes hashes) throws IOException {
+        PlaceRequest<PlaceHashes> req = new PlaceRequest<>(PlaceRequest.RequestType.HASHES, hashes);
+        out.send(req);
     }
 
     /***
@@ -64,10 +99,9 @@ public class PlaceExchange {
      * @param arg - Preferably information regarding the user and the connection
      * @throws IOException
      */
-    public static void createLoginSuccess(ObjectOutputStream out, String arg) throws IOException {
+    public static void createLoginSuccess(PlaceConnection out, String arg) throws IOException {
         PlaceRequest<String> req = new PlaceRequest<>(PlaceRequest.RequestType.LOGIN_SUCCESS, arg);
-        out.writeUnshared(req);
-        out.flush();
+        out.send(req);
     }
 
     /***
@@ -76,10 +110,30 @@ public class PlaceExchange {
      * @param board - The current state of the board
      * @throws IOException
      */
-    public static void createBoardRequest(ObjectOutputStream out, PlaceBoard board) throws IOException {
+    public static void createBoardRequest(PlaceConnection out, PlaceBoard board) throws IOException {
         PlaceRequest<PlaceBoard> req = new PlaceRequest<>(PlaceRequest.RequestType.BOARD, board);
-        out.writeUnshared(req);
-        out.flush();
+        out.send(req);
+    }
+
+    /***
+     * Creates a request to let the user know the usernames behind the owner ids of the board
+     * @param out - The output stream to the user
+     * @param users - Every username, or only the ones the user does not know yet
+     * @throws IOException
+     */
+    public static void createUsersRequest(PlaceConnection out, PlaceUsers users) throws IOException {
+        PlaceRequest<PlaceUsers> req = new PlaceRequest<>(PlaceRequest.RequestType.USERS, users);
+        out.send(req);
+    }
+
+    /***
+     * Creates a request to let every user know about new usernames. It is encoded once and shared by every
+     * client it is sent to.
+     * @param users - The usernames added since the last ones that were sent
+     * @return - The request, ready to be sent to any number of clients
+     */
+    public static SharedFrame createUsers(PlaceUsers users) {
+        return new SharedFrame(new PlaceRequest<>(PlaceRequest.RequestType.USERS, users));
     }
 
     /***
@@ -88,10 +142,31 @@ public class PlaceExchange {
      * @param tile - The tile that has been updated
      * @throws IOException
      */
-    public static void createChangedTile(ObjectOutputStream out, PlaceTile tile) throws IOException {
+    public static void createChangedTile(PlaceConnection out, PlaceTile tile) throws IOException {
         PlaceRequest<PlaceTile> req = new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, tile);
-        out.writeUnshared(req);
-        out.flush();
+        out.send(req);
+    }
+
+    /***
+     * Creates a request to let every user know that a tile has been updated on the server. It is encoded once
+     * and shared by every client it is sent to.
+     * @param tile - The tile that has been updated
+     * @param users - The usernames every client has been sent, so the owner can go as an id
+     * @return - The request, ready to be sent to any number of clients
+     */
+    public static SharedFrame createChangedTile(PlaceTile tile, PlaceUsers users) {
+        return new SharedFrame(new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, tile), users);
+    }
+
+    /***
+     * Creates a request to let every user know about all the tiles that changed during one broadcast tick.
+     * It is encoded once and shared by every client it is sent to.
+     * @param tiles - The tiles that have been updated, in the order they were changed
+     * @param users - The usernames every client has been sent, so the owners can go as ids
+     * @return - The request, ready to be sent to any number of clients
+     */
+    public static SharedFrame createChangedTiles(ArrayList<PlaceTile> tiles, PlaceUsers users) {
+        return new SharedFrame(new PlaceRequest<>(PlaceRequest.RequestType.TILES_CHANGED, tiles), users);
     }
 
     /***
@@ -100,10 +175,9 @@ public class PlaceExchange {
      * @param errMsg - A message specifying the error
      * @throws IOException
      */
-    public static void createError(ObjectOutputStream out, String errMsg) throws IOException {
+    public static void createError(PlaceConnection out, String errMsg) throws IOException {
         PlaceRequest<String> req = new PlaceRequest<>(PlaceRequest.RequestType.ERROR, errMsg);
-        out.writeUnshared(req);
-        out.flush();
+        out.send(req);
     }
 
 }
@@ -0,0 +1,304 @@
+package place.network;
+
+import place.PlaceBoard;
+import place.PlaceUsers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * The framed protocol. Every request travels as a varint length followed by that many bytes of body, so a reader
+ * can tell where one request ends without parsing it, which is what lets the selector engine decode requests out of
+ * non-blocking buffers.
+ *
+ * The handshake: the server always opens by sending {@link #SERVER_HELLO}, which is exactly the header an object
+ * stream expects, so old clients never notice. A framed client answers with {@link #MAGIC} and the highest version it
+ * speaks, and the server replies with a single byte holding the version both ends will use (0 if there is none).
+ *
+ * Version 1 bodies are java serialized requests. Version 2 bodies are the compact encoding of {@link BinaryCodec},
+ * which a framed client that only speaks version 1 never gets. Version 3 bodies are the same as version 2, but the
+ * board is streamed a chunk at a time (BOARD_CHUNK) rather than sent whole, nearest the client's VIEWPORT first.
+ * Version 4 is the same as version 3, but a tile change that comes too soon is answered with TILE_REJECTED rather
+ * than dropped without a word.
+ *
+ * @author Justin Yau
+ */
+public class PlaceFrames {
+
+    /**
+     * The first bytes the server sends on every connection (the java object stream header)
+     */
+    public static final int SERVER_HELLO = ((ObjectStreamConstants.STREAM_MAGIC & 0xFFFF) << 16)
+                                            | ObjectStreamConstants.STREAM_VERSION;
+
+    /**
+     * The first bytes a framed client sends ("PLCE")
+     */
+    public static final int MAGIC = 0x504C4345;
+
+    /**
+     * Frame version whose bodies are java serialized requests
+     */
+    public static final int SERIAL_VERSION = 1;
+
+    /**
+     * Frame version whose bodies are encoded by {@link BinaryCodec}
+     */
+    public static final int BINARY_VERSION = 2;
+
+    /**
+     * Frame version whose clients get the board streamed a chunk at a time
+     */
+    public static final int STREAM_VERSION = 3;
+
+    /**
+     * Frame version whose clients are told when a tile change of theirs is rejected
+     */
+    public static final int REJECT_VERSION = 4;
+
+    /**
+     * The highest frame version this build understands
+     */
+    public static final int VERSION = REJECT_VERSION;
+
+    /**
+     * The largest frame body that will be accepted
+     */
+    public static final int MAX_FRAME_SIZE = 1 << 28;
+
+    /**
+     * The largest frame body a server accepts from a client, on top of the chunk hashes of a HASHES offer
+     */
+    public static final int MAX_REQUEST_SIZE = 1 << 12;
+
+    /***
+     * Picks the version to use with a client that offered the inputted version
+     * @param offered - The highest version the client understands
+     * @return - The version both ends will use, or 0 if there is none
+     */
+    public static int negotiate(int offered) {
+        return offered < SERIAL_VERSION ? 0 : Math.min(offered, VERSION);
+    }
+
+    /***
+     * Returns the largest frame body a server will accept from a client. Clients only send small requests, the
+     * biggest being a HASHES offer, which holds a hash for every chunk of the board.
+     * @param dim - The dimension of the server's board
+     * @return - The largest frame body, in bytes
+     */
+    public static int maxRequestSize(int dim) {
+        long side = (dim + PlaceBoard.CHUNK - 1) / PlaceBoard.CHUNK;
+        return (int) Math.min(MAX_FRAME_SIZE, MAX_REQUEST_SIZE + side * side * Long.BYTES);
+    }
+
+    /***
+     * Encodes a request as a complete frame, length prefix included, sending owner names rather than ids
+     * @param req - The request to encode
+     * @param version - The frame version to encode with
+     * @return - The frame, ready to be written
+     * @throws IOException
+     */
+    public static ByteBuffer encode(PlaceRequest<?> req, int version) throws IOException {
+        return encode(req, version, null);
+    }
+
+    /***
+     * Encodes a request as a complete frame, length prefix included
+     * @param req - The request to encode
+     * @param version - The frame version to encode with
+     * @param users - The dictionary to send owner ids from, or null to send owner names
+     * @return - The frame, ready to be written
+     * @throws IOException
+     */
+    public static ByteBuffer encode(PlaceRequest<?> req, int version, PlaceUsers users) throws IOException {
+        if(version >= BINARY_VERSION) {
+            return frame(BinaryCodec.encode(req, users));
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(body)) {
+            out.writeUnshared(req);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(Varints.size(body.size()) + body.size());
+        Varints.put(frame, body.size());
+        frame.put(body.toByteArray());
+        frame.flip();
+        return frame;
+    }
+
+    /***
+     * Puts the length prefix in front of a body encoded by {@link BinaryCodec}
+     * @param body - The body
+     * @return - The frame, ready to be written
+     */
+    static ByteBuffer frame(BinaryCodec.Out body) {
+        return frame(body, false);
+    }
+
+    /***
+     * Puts the length prefix in front of a body encoded by {@link BinaryCodec}, in a direct buffer if asked for. A
+     * channel writes a direct buffer to its socket as it is, while it copies a heap buffer into a direct one of its
+     * own first, all of what is left of it every time it writes some of it.
+     * @param body - The body
+     * @param direct - Whether or not to put the frame in a direct buffer
+     * @return - The frame, ready to be written
+     */
+    static ByteBuffer frame(BinaryCodec.Out body, boolean direct) {
+        int length = Varints.size(body.getLength()) + body.getLength();
+        ByteBuffer frame = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        Varints.put(frame, body.getLength());
+        frame.put(body.array(), 0, body.getLength());
+        frame.flip();
+        return frame;
+    }
+
+    /***
+     * Decodes the body of a frame back into a request
+     * @param body - The body of the frame, without its length prefix
+     * @param version - The frame version the body was encoded with
+     * @param users - The dictionary owner ids refer to, or null if none are expected
+     * @return - The request
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static PlaceRequest<?> decode(ByteBuffer body, int version, PlaceUsers users)
+            throws IOException, ClassNotFoundException {
+        if(version >= BINARY_VERSION) {
+            return BinaryCodec.decode(body, users);
+        }
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (PlaceRequest<?>) in.readUnshared();
+        }
+    }
+
+    /***
+     * Decodes the next request out of a buffer that may only hold part of it. If the frame is not complete yet the
+     * buffer is left untouched and null is returned. Owners must be sent as names, as clients do.
+     * @param buf - The buffer of received bytes, ready to be read
+     * @param version - The frame version the body was encoded with
+     * @return - The next request, or null if more bytes are needed
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static PlaceRequest<?> next(ByteBuffer buf, int version) throws IOException, ClassNotFoundException {
+        return next(buf, version, MAX_FRAME_SIZE);
+    }
+
+    /***
+     * Decodes the next request out of a buffer that may only hold part of it, refusing frames over a size. If the
+     * frame is not complete yet the buffer is left untouched and null is returned. Owners must be sent as names.
+     * @param buf - The buffer of received bytes, ready to be read
+     * @param version - The frame version the body was encoded with
+     * @param maxLength - The largest frame body to accept
+     * @return - The next request, or null if more bytes are needed
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static PlaceRequest<?> next(ByteBuffer buf, int version, int maxLength)
+            throws IOException, ClassNotFoundException {
+        int start = buf.position();
+        int length = getVarint(buf, maxLength);
+        if(length < 0 || buf.remaining() < length) {
+            buf.position(start);
+            return null;
+        }
+        ByteBuffer body = buf.slice();
+        body.limit(length);
+        buf.position(buf.position() + length);
+        return decode(body, version, null);
+    }
+
+    /***
+     * Writes a whole frame to the output stream (without flushing it)
+     * @param out - The stream to write to
+     * @param frame - The frame to write
+     * @throws IOException
+     */
+    public static void write(OutputStream out, ByteBuffer frame) throws IOException {
+        ByteBuffer view = frame.duplicate();
+        if(view.hasArray()) {
+            out.write(view.array(), view.arrayOffset() + view.position(), view.remaining());
+        } else {
+            // a direct or read-only frame is copied out a piece at a time, big ones are the whole board
+            byte[] bytes = new byte[Math.min(view.remaining(), 1 << 16)];
+            while(view.hasRemaining()) {
+                int length = Math.min(view.remaining(), bytes.length);
+                view.get(bytes, 0, length);
+                out.write(bytes, 0, length);
+            }
+        }
+    }
+
+    /***
+     * Blocks until the next frame has been read from the input stream and decodes it
+     * @param in - The stream to read from
+     * @param version - The frame version the body was encoded with
+     * @param users - The dictionary owner ids refer to, or null if none are expected
+     * @return - The request
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static PlaceRequest<?> read(DataInputStream in, int version, PlaceUsers users)
+            throws IOException, ClassNotFoundException {
+        return read(in, version, users, MAX_FRAME_SIZE);
+    }
+
+    /***
+     * Blocks until the next frame has been read from the input stream and decodes it, refusing frames over a size
+     * before anything is allocated for them
+     * @param in - The stream to read from
+     * @param version - The frame version the body was encoded with
+     * @param users - The dictionary owner ids refer to, or null if none are expected
+     * @param maxLength - The largest frame body to accept
+     * @return - The request
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static PlaceRequest<?> read(DataInputStream in, int version, PlaceUsers users, int maxLength)
+            throws IOException, ClassNotFoundException {
+        int length = checkLength(Varints.read(in), maxLength);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(ByteBuffer.wrap(body), version, users);
+    }
+
+    /***
+     * Gets a frame length out of the buffer
+     * @param buf - The buffer to read from
+     * @param maxLength - The largest frame body to accept
+     * @return - The length, or -1 if the buffer ends before the varint does
+     * @throws IOException
+     */
+    private static int getVarint(ByteBuffer buf, int maxLength) throws IOException {
+        if(!Varints.isComplete(buf)) {
+            return -1;
+        }
+        return checkLength(Varints.get(buf), maxLength);
+    }
+
+    /***
+     * Makes sure a frame length is one we are willing to read
+     * @param length - The length of the frame body
+     * @param maxLength - The largest frame body to accept
+     * @return - The length
+     * @throws IOException
+     */
+    private static int checkLength(long length, int maxLength) throws IOException {
+        if(length < 0 || length > maxLength) {
+            throw new IOException("Frame of " + Long.toUnsignedString(length) + " bytes is too large");
+        }
+        return (int) length;
+    }
+
+}
@@ -14,10 +14,20 @@ import java.io.Serializable;
  *      LOGIN: String<br>
  *      LOGIN_SUCCESS: String<br>
  *      TILE_CHANGED: PlaceTile object<br>
+ *      TILES_CHANGED: ArrayList of PlaceTile objects<br>
+ *      USERS: PlaceUsers object<br>
+ *      BOARD_CHUNK: PlaceChunk object<br>
+ *      VIEWPORT: PlaceViewport object<br>
+ *      RESUME: PlaceResume object<br>
+ *      HASHES: PlaceHashes object<br>
+ *      TILE_REJECTED: Long<br>
  *
  * @author Sean Strout @ RIT CS
  */
 public class PlaceRequest<E extends Serializable> implements Serializable {
+    /** The version of the serialized form, which is still the original one */
+    private static final long serialVersionUID = 6908994432343544528L;
+
     public enum RequestType {
         /**
          * After a successful client login, the server will send the current
@@ -61,7 +71,79 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
          * The clients should update their view of the board each time
          * a tile change arrives.
          */
-        TILE_CHANGED
+        TILE_CHANGED,
+
+        /**
+         * Used by the server to send every tile change of one broadcast tick
+         * at once.  It will contain a list of the new Tile objects, in the
+         * order they were changed.  The clients should apply all of them
+         * before updating their view.  Only sent over the framed protocol,
+         * clients on object streams get one TILE_CHANGED per tile instead.
+         */
+        TILES_CHANGED,
+
+        /**
+         * Used by the server to send the usernames behind the owner ids of
+         * the board.  Right after the Board it contains every username, after
+         * that it only contains the ones added since, starting at the first
+         * new id.  The server sends a new username before any tile owned by
+         * it, and the clients should add the ones they do not have yet.
+         */
+        USERS,
+
+        /**
+         * Used by the server instead of BOARD to send the board a chunk at a
+         * time, to clients that speak a frame version that streams it.  It
+         * will contain a PlaceChunk object.  The usernames come first and
+         * then the first chunk, so the client can start showing the board
+         * right away.  Tile changes may arrive in
+         * between the chunks, the clients should hold on to the ones for
+         * chunks they do not have yet and apply them once the chunk arrives.
+         */
+        BOARD_CHUNK,
+
+        /**
+         * Used by the client to tell the server which part of the board it
+         * is looking at.  It will contain a PlaceViewport object.  The
+         * chunks closest to it are streamed first.  It may be sent once
+         * right before LOGIN, so even the first chunk is the closest one.
+         */
+        VIEWPORT,
+
+        /**
+         * Used by the client right before LOGIN to offer what it already
+         * has of the board from an earlier connection.  It will contain a
+         * PlaceResume object.  The server answers it right after
+         * LOGIN_SUCCESS with a PlaceResume of its own.  If that one is
+         * resumed, USERS with the usernames the client is missing and
+         * TILES_CHANGED with every change it missed come next instead of
+         * the board, otherwise the board follows as usual.  A client that
+         * resumes also takes over the username from a connection the server
+         * still thinks is open.
+         */
+        RESUME,
+
+        /**
+         * Used by a client that has a board cached from an earlier session,
+         * right before LOGIN, to send the hashes of the chunks of that
+         * board.  It will contain a PlaceHashes object.  If the server does
+         * not resume the client and streams it the board, it answers with
+         * USERS and then HASHES with its own hashes, and only the chunks
+         * whose hashes differ follow as BOARD_CHUNK.  The chunks array of
+         * the answer is empty if the roots of the two are equal, since no
+         * chunk differs then.
+         */
+        HASHES,
+
+        /**
+         * Used by the server to tell a client that a tile change came too
+         * soon after its last ones and was not made.  It will contain a
+         * Long with the milliseconds until the client may change a tile
+         * again.  Only sent to clients that speak a frame version that has
+         * it, the changes of other clients are dropped without a word.  It
+         * is sent once per cooldown, later changes inside it are dropped.
+         */
+        TILE_REJECTED
     }
 
     /** The request type */
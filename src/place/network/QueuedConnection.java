@@ -0,0 +1,160 @@
+package place.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Wraps a connection so that sending only puts the request on a bounded queue, and a writer of its own drains the
+ * queue onto the wrapped connection. Whoever sends never waits on the socket. If the other end reads so slowly that
+ * the queue fills up, it is dropped by closing the socket instead of holding everyone else up. Until the writer has
+ * started the queue is not limited, as what the other end is sent first (the whole board, say) is written straight
+ * to the wrapped connection meanwhile, and the requests waiting behind it are not its fault.
+ *
+ * It can also be given a {@link BoardStream}, whose chunks the writer sends one at a time in between whatever is
+ * queued, so a board being streamed never holds up the tile changes and never counts against the queue.
+ *
+ * @author Justin Yau
+ */
+public class QueuedConnection implements PlaceConnection, Runnable {
+
+    // Queued to have the writer close the connection once it gets to it, never written
+    private static final SharedFrame LAST = new SharedFrame(new PlaceRequest<>(PlaceRequest.RequestType.ERROR, ""));
+
+    private PlaceConnection conn;                   // The connection the writer sends on
+    private LinkedBlockingQueue<SharedFrame> queue; // Requests waiting to be written
+    private int capacity;                           // The number of requests that may wait once the writer started
+    private Closeable socket;                       // Closed when the other end falls too far behind
+    private volatile Thread writer;                 // The thread draining the queue, once it has started
+    private BoardStream stream;                     // Chunks of the board still to be streamed, or null
+    private volatile boolean closed;                // Whether or not this connection has been closed
+    private volatile boolean closing;               // Whether or not it is to be closed once the queue is written
+
+    /***
+     * Creates a new queued connection. Nothing is written until {@link #run()} is started on a thread.
+     * @param conn - The connection the writer sends on
+     * @param capacity - The number of requests that may be waiting before the other end is dropped, once the writer
+     *                 has started
+     * @param socket - Closed when the other end falls too far behind
+     */
+    public QueuedConnection(PlaceConnection conn, int capacity, Closeable socket) {
+        this.conn = conn;
+        this.queue = new LinkedBlockingQueue<>();
+        this.capacity = capacity;
+        this.socket = socket;
+    }
+
+    /***
+     * Used for debugging. Will print messages if debug variable is enabled
+     * @param logMsg - The message to print
+     */
+    private static void dPrint( Object logMsg ) {
+        if ( PlaceExchange.DEBUG ) {
+            System.out.println( logMsg );
+        }
+    }
+
+    /***
+     * Queues the request and returns right away
+     * @param req - The request to send
+     */
+    @Override
+    public void send(PlaceRequest<?> req) {
+        send(new SharedFrame(req));
+    }
+
+    /***
+     * Queues the shared request and returns right away
+     * @param frame - The shared request to send
+     */
+    @Override
+    public void send(SharedFrame frame) {
+        if (closed || closing) {
+            return;
+        }
+        if (writer != null && queue.size() >= capacity) {
+            dPrint("Dropping a client that fell " + queue.size() + " requests behind");
+            close();
+            return;
+        }
+        queue.offer(frame);
+    }
+
+    /***
+     * Streams a board to the other end in between the queued requests. Has to be called before the writer starts.
+     * @param stream - The chunks of the board to stream
+     */
+    public void stream(BoardStream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public PlaceRequest<?> receive() throws IOException, ClassNotFoundException {
+        return conn.receive();
+    }
+
+    /***
+     * Closes the connection once everything queued so far has been written, and queues nothing more meanwhile
+     */
+    public void closeWhenWritten() {
+        closing = true;
+        queue.offer(LAST);
+    }
+
+    /***
+     * Stops the writer and closes the socket. Anything still queued is thrown away.
+     */
+    public void close() {
+        closed = true;
+        queue.clear();
+        Thread thread = writer;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            dPrint(e);
+        }
+    }
+
+    /***
+     * Writes queued requests until the connection is closed
+     */
+    @Override
+    public void run() {
+        writer = Thread.currentThread();
+        ArrayList<SharedFrame> batch = new ArrayList<>();
+        try {
+            while (!closed) {
+                SharedFrame chunk = stream == null ? null : stream.next();
+                if (chunk != null) {
+                    // one chunk at a time, then whatever was queued meanwhile
+                    conn.send(chunk);
+                } else {
+                    stream = null;
+                    batch.add(queue.take());
+                }
+                queue.drainTo(batch);
+                for (SharedFrame frame : batch) {
+                    if (frame == LAST) {
+                        close();
+                        return;
+                    }
+                    conn.send(frame);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException | IOException e) {
+            dPrint(e);
+        }
+        if (!closed) {
+            close();
+        }
+    }
+
+}
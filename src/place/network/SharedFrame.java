@@ -0,0 +1,91 @@
+package place.network;
+
+import place.PlaceUsers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * A request that is about to be sent to many clients. It is encoded into a frame the first time a framed client
+ * needs it, and every other client is handed a read-only view of those same bytes, so a broadcast costs one
+ * encoding no matter how many clients are watching. Clients on plain object streams still get the request itself.
+ *
+ * @author Justin Yau
+ */
+public class SharedFrame {
+
+    private PlaceRequest<?> req;          // The request being sent
+    private PlaceUsers users;             // The dictionary owner ids are sent from, or null to send owner names
+    private AtomicReferenceArray<ByteBuffer> frames; // The encoded frame for each frame version, made on first use
+
+    /***
+     * Creates a new shared frame
+     * @param req - The request being sent
+     */
+    public SharedFrame(PlaceRequest<?> req) {
+        this(req, null);
+    }
+
+    /***
+     * Creates a new shared frame that sends owners as ids where the frame version allows it
+     * @param req - The request being sent
+     * @param users - The dictionary the ids are from, which every receiving client already knows the owners in
+     */
+    public SharedFrame(PlaceRequest<?> req, PlaceUsers users) {
+        this.req = req;
+        this.users = users;
+        this.frames = new AtomicReferenceArray<>(PlaceFrames.BINARY_VERSION + 1);
+    }
+
+    /***
+     * Creates a new shared frame whose frame for one version has already been encoded
+     * @param req - The request being sent
+     * @param version - The frame version it was encoded with
+     * @param frame - The encoded frame
+     */
+    public SharedFrame(PlaceRequest<?> req, int version, ByteBuffer frame) {
+        this(req);
+        this.frames.set(slot(version), frame.asReadOnlyBuffer());
+    }
+
+    /***
+     * Returns the request being sent
+     * @return - The request being sent
+     */
+    public PlaceRequest<?> getRequest() {
+        return req;
+    }
+
+    /***
+     * Returns the frame for the inputted version, encoding it if no client has needed it yet.
+     * Two threads asking at the same moment may both encode it, which is harmless since they get the same bytes.
+     * @param version - The frame version
+     * @return - A read-only view of the frame with its own position, ready to be written
+     * @throws IOException
+     */
+    public ByteBuffer bytes(int version) throws IOException {
+        ByteBuffer frame = frames.get(slot(version));
+        if (frame == null) {
+            frame = PlaceFrames.encode(req, version, users).asReadOnlyBuffer();
+            if (!frames.compareAndSet(slot(version), null, frame)) {
+                frame = frames.get(slot(version));
+            }
+        }
+        return frame.duplicate();
+    }
+
+    /***
+     * Returns where the frame of a version is kept. Every version from the binary one on encodes a request the same
+     * way, so they share one frame.
+     * @param version - The frame version
+     * @return - The index of its frame
+     */
+    private static int slot(int version) {
+        return Math.min(version, PlaceFrames.BINARY_VERSION);
+    }
+
+}
@@ -0,0 +1,169 @@
+package place.network;
+
+import place.PlaceBoard;
+import place.PlaceChunk;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Keeps the BOARD frame of a board encoded so logins do not each encode the whole board again. The encoding of every
+ * chunk (see {@link BinaryCodec}) is kept along with the version the chunk had, and the next snapshot re-encodes only
+ * the chunks whose version moved on, stringing the rest back together as they are.
+ *
+ * A snapshot is taken in two steps so the board is only held for the first, short one: capture() takes a
+ * copy-on-write view of the board while whatever guards it is held, then get() encodes that view with only the
+ * cache's own lock held, while the board keeps changing. Clients that have the board streamed get a
+ * {@link BoardStream} of the view instead, which encodes its chunks from the same cache one at a time.
+ *
+ * @author Justin Yau
+ */
+public class SnapshotCache {
+
+    private PlaceBoard board;                 // The board being kept encoded
+    private PlaceBoard view;                  // The last view captured of the board
+    private ReentrantLock lock;               // Guards the encoding, so the board's guard is not held for it
+    private BinaryCodec.Out[] chunks;         // The encoding of every chunk, across and then down
+    private long[] versions;                  // The version each chunk had when it was encoded, -1 if it never was
+    private SharedFrame frame;                // The last snapshot encoded, or null if there is none yet
+    private long frameVersion;                // The version of the board the last snapshot was encoded from
+    private long encoded;                     // Chunks encoded so far
+    private boolean direct;                   // Whether or not snapshots are kept in direct buffers
+
+    /***
+     * Creates a cache for a board, with every chunk still to be encoded
+     * @param board - The board to keep encoded
+     */
+    public SnapshotCache(PlaceBoard board) {
+        this.board = board;
+        this.lock = new ReentrantLock();
+        int count = BinaryCodec.chunks(board.DIM) * BinaryCodec.chunks(board.DIM);
+        this.chunks = new BinaryCodec.Out[count];
+        this.versions = new long[count];
+        Arrays.fill(this.versions, -1);
+    }
+
+    /***
+     * Keeps the snapshots in direct buffers from now on, or on the heap, like the board itself. A direct one goes
+     * from the cache to the socket as it is, with no copy made for every client it is written to.
+     * @param direct - Whether or not to keep them in direct buffers
+     */
+    public void setDirect(boolean direct) {
+        this.direct = direct;
+    }
+
+    /***
+     * Captures a view of the board as it is now, which later changes to the board do not show up in. Costs one array
+     * of chunk references, or nothing if the board has not changed since the last view. Whatever guards the board
+     * against changes has to be held while calling it.
+     * @return - The view
+     */
+    public PlaceBoard capture() {
+        if (view == null || view.getVersion() != board.getVersion()) {
+            view = board.snapshot();
+        }
+        return view;
+    }
+
+    /***
+     * Returns a BOARD request for a view of the board, with its binary frame already encoded. If a snapshot of a
+     * newer view has been encoded already that one is returned instead, as the board only ever moves forward.
+     * Clients that need another frame version encode the view itself as usual. Safe to call from any thread.
+     * @param view - A view from capture()
+     * @return - The request, ready to be sent to any number of clients
+     */
+    public SharedFrame get(PlaceBoard view) {
+        lock.lock();
+        try {
+            if (frame != null && frameVersion >= view.getVersion()) {
+                return frame;
+            }
+            BinaryCodec.Out[] encodings = new BinaryCodec.Out[chunks.length];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                encodings[chunk] = encode(view, chunk);
+            }
+            BinaryCodec.Out body = new BinaryCodec.Out(32);
+            body.put(PlaceRequest.RequestType.BOARD.ordinal());
+            BinaryCodec.putBoard(body, view.DIM, view.getSeq(), encodings);
+            ByteBuffer bytes = PlaceFrames.frame(body, direct);
+            frame = new SharedFrame(new PlaceRequest<>(PlaceRequest.RequestType.BOARD, view),
+                    PlaceFrames.BINARY_VERSION, bytes);
+            frameVersion = view.getVersion();
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns a stream of the chunks of a view of the board, for a client that has the board streamed
+     * @param view - A view from capture()
+     * @return - The stream, starting from the middle of the board until it is told where the client is looking
+     */
+    public BoardStream stream(PlaceBoard view) {
+        return new BoardStream(this, view);
+    }
+
+    /***
+     * Returns a BOARD_CHUNK request for one chunk of a view of the board, with its binary frame already encoded.
+     * Safe to call from any thread.
+     * @param view - A view from capture()
+     * @param number - The number of the chunk, across and then down
+     * @return - The request
+     */
+    SharedFrame getChunk(PlaceBoard view, int number) {
+        PlaceChunk chunk = view.getChunk(number);
+        BinaryCodec.Out encoding;
+        lock.lock();
+        try {
+            encoding = encode(view, number);
+        } finally {
+            lock.unlock();
+        }
+        BinaryCodec.Out body = new BinaryCodec.Out(encoding.getLength() + 32);
+        body.put(PlaceRequest.RequestType.BOARD_CHUNK.ordinal());
+        BinaryCodec.putChunk(body, chunk, encoding);
+        return new SharedFrame(new PlaceRequest<>(PlaceRequest.RequestType.BOARD_CHUNK, chunk),
+                PlaceFrames.BINARY_VERSION, PlaceFrames.frame(body));
+    }
+
+    /***
+     * Returns the encoding of a chunk of a view, encoding it only if the cached one is of another version. The
+     * cache only ever moves forward, so a chunk of a view older than the cached one is encoded but not kept.
+     * The cache's lock has to be held.
+     * @param view - A view from capture()
+     * @param number - The number of the chunk, across and then down
+     * @return - The encoding
+     */
+    private BinaryCodec.Out encode(PlaceBoard view, int number) {
+        long version = view.getChunkVersion(number);
+        if (versions[number] == version) {
+            return chunks[number];
+        }
+        BinaryCodec.Out encoding = BinaryCodec.chunk(view.getChunk(number));
+        encoded++;
+        if (version > versions[number]) {
+            chunks[number] = encoding;
+            versions[number] = version;
+        }
+        return encoding;
+    }
+
+    /***
+     * Returns the number of chunks encoded so far
+     * @return - The number of chunks encoded so far
+     */
+    public long getEncoded() {
+        lock.lock();
+        try {
+            return encoded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
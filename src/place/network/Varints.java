@@ -0,0 +1,164 @@
+package place.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Varints, the way the frames, the change log and the change history all write their numbers: seven bits a byte,
+ * lowest first, with the high bit set on every byte but the last. Signed values are zigzagged first, so small
+ * negative ones stay short as well. A value of up to 64 bits takes at most MAX_BYTES.
+ *
+ * @author Justin Yau
+ */
+public class Varints {
+
+    public static final int MAX_BYTES = 10;     // The most bytes a varint of 64 bits takes up
+
+    /***
+     * Returns the number of bytes a value takes up as a varint
+     * @param value - The value, taken as unsigned
+     * @return - The number of bytes
+     */
+    public static int size(long value) {
+        int size = 1;
+        while((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /***
+     * Turns a signed value into the unsigned one its zigzag varint holds
+     * @param value - The value
+     * @return - The zigzagged value
+     */
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /***
+     * Puts a varint into an array, which has to have room for it, MAX_BYTES at most
+     * @param buf - The array
+     * @param at - The index to put it at
+     * @param value - The value, taken as unsigned
+     * @return - The index right after it
+     */
+    public static int put(byte[] buf, int at, long value) {
+        while((value & ~0x7FL) != 0) {
+            buf[at++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[at++] = (byte) value;
+        return at;
+    }
+
+    /***
+     * Puts a zigzag varint into an array, which has to have room for it, MAX_BYTES at most
+     * @param buf - The array
+     * @param at - The index to put it at
+     * @param value - The value
+     * @return - The index right after it
+     */
+    public static int putZigzag(byte[] buf, int at, long value) {
+        return put(buf, at, zigzag(value));
+    }
+
+    /***
+     * Puts a varint into a buffer
+     * @param buf - The buffer
+     * @param value - The value, taken as unsigned
+     */
+    public static void put(ByteBuffer buf, long value) {
+        while((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    /***
+     * Returns whether or not a buffer holds enough to get a varint out of, which a malformed one too long to be a
+     * varint counts as
+     * @param buf - The buffer, ready to be read
+     * @return - Whether or not a varint can be gotten out of it
+     */
+    public static boolean isComplete(ByteBuffer buf) {
+        int end = buf.position() + Math.min(buf.remaining(), MAX_BYTES);
+        for(int i = buf.position(); i < end; i++) {
+            if(buf.get(i) >= 0) {
+                return true;
+            }
+        }
+        return buf.remaining() >= MAX_BYTES;
+    }
+
+    /***
+     * Gets an unsigned varint of up to 64 bits out of a buffer
+     * @param buf - The buffer
+     * @return - The value
+     * @throws IOException - If it is too long to be a varint
+     */
+    public static long get(ByteBuffer buf) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /***
+     * Gets a varint that has to fit a non-negative int, like a length, an id or a row, out of a buffer
+     * @param buf - The buffer
+     * @return - The value
+     * @throws IOException - If it is malformed or does not fit
+     */
+    public static int getInt(ByteBuffer buf) throws IOException {
+        long value = get(buf);
+        if(value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Value " + Long.toUnsignedString(value) + " out of range");
+        }
+        return (int) value;
+    }
+
+    /***
+     * Gets a zigzag varint out of a buffer
+     * @param buf - The buffer
+     * @return - The value
+     * @throws IOException - If it is too long to be a varint
+     */
+    public static long getZigzag(ByteBuffer buf) throws IOException {
+        long value = get(buf);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /***
+     * Blocks until an unsigned varint of up to 64 bits has been read from a stream
+     * @param in - The stream
+     * @return - The value
+     * @throws IOException - If the stream ends first, or it is too long to be a varint
+     */
+    public static long read(InputStream in) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if(b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+}
@@ -0,0 +1,145 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceResume;
+import place.PlaceUsers;
+import place.network.PlaceFrames;
+import place.network.PlaceRequest;
+import place.network.SharedFrame;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * A checkpoint of the whole board, so a server restarting only has to replay the changes logged after it. The file
+ * holds the same frames a client's board cache does, in the binary frame version: the epoch and the sequence number
+ * of the latest change on the board as a RESUME, every username as USERS, and the board itself as BOARD. The BOARD
+ * frame is the one kept for logins, so taking a checkpoint only encodes the chunks that changed since the last one.
+ *
+ * @author Justin Yau
+ */
+public class BoardCheckpoint {
+
+    private Path file;              // The file the checkpoint is kept in
+    private PlaceBoard board;       // The board last loaded, with its usernames
+    private long epoch;             // The epoch of the server the board last loaded came from
+
+    /***
+     * Creates a checkpoint kept in a file, which does not have to exist yet
+     * @param file - The file the checkpoint is kept in
+     */
+    public BoardCheckpoint(Path file) {
+        this.file = file;
+    }
+
+    /***
+     * Loads the board from the file
+     * @return - Whether or not there was a checkpoint to load
+     * @throws IOException - If the file is not a checkpoint, or its frames do not add up
+     */
+    public boolean load() throws IOException {
+        if(!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (InputStream raw = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16));
+            PlaceResume resume = (PlaceResume) PlaceFrames.read(in, PlaceFrames.BINARY_VERSION, null).getData();
+            PlaceUsers users = (PlaceUsers) PlaceFrames.read(in, PlaceFrames.BINARY_VERSION, null).getData();
+            PlaceBoard board = (PlaceBoard) PlaceFrames.read(in, PlaceFrames.BINARY_VERSION, users).getData();
+            if(users.getFirst() != 0 || users.size() != resume.getUsers() || board.getSeq() != resume.getSeq()) {
+                throw new IOException(file + " does not add up");
+            }
+            board.setUsers(users);
+            this.board = board;
+            this.epoch = resume.getEpoch();
+            return true;
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException(file + " is not a checkpoint", e);
+        }
+    }
+
+    /***
+     * Returns the board last loaded
+     * @return - The board, with its usernames
+     */
+    public PlaceBoard getBoard() {
+        return board;
+    }
+
+    /***
+     * Returns the epoch of the server the board last loaded came from
+     * @return - The epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /***
+     * Saves a board to the file. It is written next to it and forced to disk first, and then moved over it, so a
+     * server that dies while saving leaves the last checkpoint behind rather than half of a new one. The directory is
+     * forced after the move, so the new checkpoint is the one on disk before the log it replaces is deleted.
+     * @param epoch - The epoch of the server
+     * @param users - Every username, which has to name every owner on the board
+     * @param board - The BOARD request for the board, from the cache kept for logins
+     * @return - The number of bytes written
+     * @throws IOException
+     */
+    public long save(long epoch, PlaceUsers users, SharedFrame board) throws IOException {
+        long seq = ((PlaceBoard) board.getRequest().getData()).getSeq();
+        ByteBuffer[] frames = {
+                PlaceFrames.encode(new PlaceRequest<>(PlaceRequest.RequestType.RESUME,
+                        new PlaceResume(epoch, seq, users.size())), PlaceFrames.BINARY_VERSION),
+                PlaceFrames.encode(new PlaceRequest<>(PlaceRequest.RequestType.USERS, users),
+                        PlaceFrames.BINARY_VERSION),
+                board.bytes(PlaceFrames.BINARY_VERSION)
+        };
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        long written = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            for (ByteBuffer frame : frames) {
+                while (frame.hasRemaining()) {
+                    written += out.write(frame);
+                }
+            }
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(parent);
+        return written;
+    }
+
+    /***
+     * Forces the entries of a directory to disk, so a file moved into it stays moved if the machine goes down
+     * @param dir - The directory
+     * @throws IOException - If it cannot be forced on a system that lets directories be opened
+     */
+    private static void forceDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Windows does not let a directory be opened, and has no way to force one
+            return;
+        }
+        try (FileChannel opened = channel) {
+            opened.force(true);
+        }
+    }
+
+}
@@ -0,0 +1,788 @@
+package place.server;
+
+import place.PlaceColor;
+import place.network.PlaceExchange;
+import place.network.Varints;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Every change ever made to the board, for audits and replays, kept in three tiers so it never all has to be in
+ * memory. The latest changes are appended to a hot segment of plain arrays, one per field. A full segment is sealed
+ * by a thread of its own: each field is encoded on its own as the differences from one change to the next, which are
+ * small for the times and for tiles painted near each other, and the columns are deflated together. The sealed
+ * segment is written to a file of its own, named after the history with the sequence number of its first change
+ * added like the segments of the log, and kept in memory as well while the warm segments fit in the memory budget.
+ * Older ones are only read back from their file, when they are scanned.
+ *
+ * Unlike the log, nothing is ever deleted. Changes still in the hot segment are lost if the server goes down, so
+ * {@link #flush()} writes it to its file as it is before the log deletes the segments holding them. It stays hot, and
+ * its file is written again once it is full and sealed, so checkpoints do not leave many small segments behind.
+ *
+ * @author Justin Yau
+ */
+public class ChangeHistory {
+
+    /**
+     * Gets every change scanned, in the order they were made
+     */
+    public interface Scan {
+
+        /***
+         * Called for a tile change
+         * @param seq - The sequence number of the change
+         * @param row - The row of the tile
+         * @param col - The column of the tile
+         * @param color - The new color
+         * @param owner - The id of the new owner
+         * @param time - The time the client gave the change
+         * @param accepted - The time the server accepted the change
+         */
+        void change(long seq, int row, int col, PlaceColor color, int owner, long time, long accepted);
+
+    }
+
+    private static final int MAGIC = 0x50484953;            // "PHIS", the first int of every segment file
+    private static final int HEADER = 32;                   // Bytes of a segment file: magic, epoch, first, count,
+                                                            // length and crc of the columns
+    private static final int SEGMENT = 1 << 16;             // The most changes in a segment
+    private static final int RAW_BYTES = SEGMENT * 29;      // Bytes of the arrays of a hot segment
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    private Path file;                      // The name of the history, which the segment files add their seq to
+    private long epoch;                     // The epoch of the server the history is of
+    private long budget;                    // The most bytes the hot and warm segments may take up
+    private ReentrantLock lock;             // Guards the segments and the counters below
+    private ArrayList<Path> unforced;       // The segment files written since the last flush, not forced to disk
+    private TreeMap<Long, Segment> segments; // Every segment by the sequence number of its first change
+    private Segment hot;                    // The segment appended to, or null before the first change
+    private long last;                      // The sequence number of the last change appended
+    private long memory;                    // The bytes the hot and warm segments take up
+    private long packed;                    // The bytes of every sealed segment
+    private long sealed;                    // The changes in every sealed segment
+    private ExecutorService sealer;         // Seals the full segments and writes them out
+
+    /**
+     * A run of changes with consecutive sequence numbers, in whichever tiers it is kept
+     */
+    private static class Segment {
+        private final long first;           // The sequence number of the first change
+        private int[] rows;                 // The row of every change, while the segment is hot
+        private int[] cols;                 // The column of every change
+        private byte[] colors;              // The color of every change
+        private int[] owners;               // The owner id of every change
+        private long[] times;               // The time the client gave every change
+        private long[] accepted;            // The time the server accepted every change
+        private volatile int count;         // The changes in the segment, written after the change itself
+        private byte[] columns;             // The deflated columns once sealed, while the segment is warm
+        private Path path;                  // The file of the segment once written out
+
+        /***
+         * Creates an empty hot segment
+         * @param first - The sequence number of its first change
+         */
+        Segment(long first) {
+            this.first = first;
+            this.rows = new int[SEGMENT];
+            this.cols = new int[SEGMENT];
+            this.colors = new byte[SEGMENT];
+            this.owners = new int[SEGMENT];
+            this.times = new long[SEGMENT];
+            this.accepted = new long[SEGMENT];
+        }
+
+        /***
+         * Creates a segment sharing the arrays of a hot one, which are let go of when it is sealed
+         * @param hot - The hot segment
+         */
+        Segment(Segment hot) {
+            this.first = hot.first;
+            this.rows = hot.rows;
+            this.cols = hot.cols;
+            this.colors = hot.colors;
+            this.owners = hot.owners;
+            this.times = hot.times;
+            this.accepted = hot.accepted;
+            this.count = hot.count;
+        }
+
+        /***
+         * Creates a cold segment that is only in its file
+         * @param first - The sequence number of its first change
+         * @param count - The number of changes in it
+         * @param path - The file
+         */
+        Segment(long first, int count, Path path) {
+            this.first = first;
+            this.count = count;
+            this.path = path;
+        }
+    }
+
+    /***
+     * Used for debugging. Will print messages if debug variable is enabled
+     * @param logMsg - The message to print
+     */
+    private static void dPrint( Object logMsg ) {
+        if ( PlaceExchange.DEBUG ) {
+            System.out.println( logMsg );
+        }
+    }
+
+    /***
+     * Opens a history, finding the segments already written out. Changes after the latest one on the board are cut
+     * off, as the board lost them when the server went down, and their sequence numbers will be given to others.
+     * Appending goes on after the last change left.
+     * @param file - The name of the history, which does not have to exist yet
+     * @param epoch - The epoch of the server
+     * @param after - The sequence number of the latest change on the board
+     * @param budget - The most bytes the hot and warm segments may take up
+     * @throws IOException - If a segment file is not one, or is of the history of another server
+     */
+    public ChangeHistory(Path file, long epoch, long after, long budget) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.epoch = epoch;
+        this.budget = budget;
+        this.lock = new ReentrantLock();
+        this.segments = new TreeMap<>();
+        this.unforced = new ArrayList<>();
+        Path dir = this.file.getParent();
+        String prefix = this.file.getFileName() + ".";
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir, prefix + "*")) {
+                for (Path path : paths) {
+                    String suffix = path.getFileName().toString().substring(prefix.length());
+                    if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                        Segment segment = readHeader(path, Long.parseLong(suffix));
+                        segments.put(segment.first, segment);
+                    }
+                }
+            }
+        }
+        cut(after);
+        for (Segment segment : segments.values()) {
+            last = segment.first + segment.count - 1;
+            packed += Files.size(segment.path) - HEADER;
+            sealed += segment.count;
+        }
+        this.sealer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "PlaceHistory");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /***
+     * Reads the header of a segment file
+     * @param path - The file
+     * @param first - The sequence number its name gives
+     * @return - The segment, cold
+     * @throws IOException - If it is not a segment of this history
+     */
+    private Segment readHeader(Path path, long first) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is in or the file ends
+            }
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt(0) != MAGIC || header.getLong(12) != first ||
+                    channel.size() != HEADER + header.getInt(24)) {
+                throw new IOException(path + " is not a segment of a change history");
+            }
+            if (header.getLong(4) != epoch) {
+                throw new IOException(path + " is of the history of another server");
+            }
+            return new Segment(first, header.getInt(20), path);
+        }
+    }
+
+    /***
+     * Cuts off every change after a sequence number, deleting the segments that only hold later ones and writing the
+     * one it falls in again without them
+     * @param after - The sequence number of the last change to keep
+     * @throws IOException
+     */
+    private void cut(long after) throws IOException {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment.first > after) {
+                Files.delete(segment.path);
+                segments.remove(segment.first);
+            } else if (segment.first + segment.count - 1 > after) {
+                Segment kept = new Segment(segment.first);
+                decode(segment.first, segment.count, read(segment.path), segment.first,
+                        (seq, row, col, color, owner, time, accepted) -> {
+                            int i = (int) (seq - kept.first);
+                            if (seq <= after) {
+                                kept.rows[i] = row;
+                                kept.cols[i] = col;
+                                kept.colors[i] = (byte) color.getNumber();
+                                kept.owners[i] = owner;
+                                kept.times[i] = time;
+                                kept.accepted[i] = accepted;
+                            }
+                        });
+                segment.count = (int) (after - segment.first + 1);
+                write(segment.path, segment.first, segment.count, encode(kept, segment.count));
+            }
+        }
+    }
+
+    /***
+     * Returns the sequence number of the last change appended
+     * @return - The sequence number, 0 if there is none
+     */
+    public long getLast() {
+        lock.lock();
+        try {
+            return last;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Appends a change. Only costs writing it to the arrays of the hot segment, unless that is full and is handed to
+     * the thread sealing them. A change whose sequence number does not follow the last one starts a new segment.
+     * Nothing waits in here, as it is called under the server's lock: while changes are made faster than they are
+     * sealed, the segments waiting to be take memory over the budget until the thread sealing them catches up.
+     * @param seq - The sequence number of the change, after the last one
+     * @param row - The row of the tile
+     * @param col - The column of the tile
+     * @param color - The new color
+     * @param owner - The id of the new owner
+     * @param time - The time the client gave the change
+     * @param accepted - The time the server accepted the change
+     */
+    public void append(long seq, int row, int col, PlaceColor color, int owner, long time, long accepted) {
+        lock.lock();
+        try {
+            if (seq <= last) {
+                throw new IllegalStateException("Change " + seq + " is not after " + last);
+            }
+            if (hot != null && (hot.count == SEGMENT || seq != last + 1)) {
+                seal();
+            }
+            if (hot == null) {
+                hot = new Segment(seq);
+                segments.put(seq, hot);
+                memory += RAW_BYTES;
+            }
+            int i = hot.count;
+            hot.rows[i] = row;
+            hot.cols[i] = col;
+            hot.colors[i] = (byte) color.getNumber();
+            hot.owners[i] = owner;
+            hot.times[i] = time;
+            hot.accepted[i] = accepted;
+            hot.count = i + 1;
+            last = seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Hands the hot segment to the thread sealing them, the next change starts a new one. Has to be called with the
+     * lock held.
+     */
+    private void seal() {
+        Segment segment = hot;
+        hot = null;
+        sealer.execute(() -> seal(segment));
+    }
+
+    /***
+     * Seals a segment: encodes and deflates its columns and writes them to its file, and keeps it warm in memory if
+     * it fits in the budget, making older ones cold if needed. Runs on the thread sealing them.
+     * @param segment - The segment
+     */
+    private void seal(Segment segment) {
+        int count = segment.count;
+        byte[] columns = encode(segment, count);
+        Path path = file.resolveSibling(file.getFileName() + "." + segment.first);
+        try {
+            write(path, segment.first, count, columns);
+        } catch (IOException e) {
+            System.err.println("Could not write " + path + ", keeping it in memory: " + e);
+            path = null;
+        }
+        lock.lock();
+        try {
+            segment.columns = columns;
+            segment.path = path;
+            if (path != null) {
+                unforced.add(path);
+            }
+            segment.rows = null;
+            segment.cols = null;
+            segment.colors = null;
+            segment.owners = null;
+            segment.times = null;
+            segment.accepted = null;
+            memory += columns.length - RAW_BYTES;
+            packed += columns.length;
+            sealed += count;
+            // the oldest warm segments go cold until the rest fit, the ones not on disk have to stay
+            for (Segment warm : segments.values()) {
+                if (memory <= budget || warm == segment) {
+                    break;
+                }
+                if (warm.columns != null && warm.path != null) {
+                    memory -= warm.columns.length;
+                    warm.columns = null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        dPrint("Sealed " + count + " changes from " + segment.first + " into " + columns.length + " bytes");
+    }
+
+    /***
+     * Writes the columns of a segment to its file. It is written next to it and moved over it, so a file of a
+     * segment is always whole once it is forced to disk.
+     * @param path - The file
+     * @param first - The sequence number of its first change
+     * @param count - The number of changes
+     * @param columns - The deflated columns
+     * @throws IOException
+     */
+    private void write(Path path, long first, int count, byte[] columns) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(columns, 0, columns.length);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putLong(epoch).putLong(first).putInt(count).putInt(columns.length)
+                .putInt((int) crc.getValue()).flip();
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer body = ByteBuffer.wrap(columns);
+            while (header.hasRemaining() || body.hasRemaining()) {
+                out.write(new ByteBuffer[] {header, body});
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /***
+     * Writes the hot segment to its file as it is, without sealing it, and waits until every sealed segment is
+     * written out, and forces them all to disk. Appending goes on meanwhile.
+     * @return - The sequence number of the last change written out
+     * @throws IOException - If a segment could not be written out
+     */
+    public long flush() throws IOException {
+        long upto;
+        Segment partial = null;
+        Future<Path> saved;
+        lock.lock();
+        try {
+            upto = last;
+            if (hot != null) {
+                partial = hot;
+                // shares the arrays, which the hot segment lets go of if it is sealed before this is written
+                Segment changes = new Segment(hot);
+                int count = hot.count;
+                Path path = file.resolveSibling(file.getFileName() + "." + hot.first);
+                // submitted under the lock, so it is written before the segment is sealed and written again
+                saved = sealer.submit(() -> {
+                    write(path, changes.first, count, encode(changes, count));
+                    return path;
+                });
+            } else {
+                saved = sealer.submit(() -> null);
+            }
+        } finally {
+            lock.unlock();
+        }
+        Path hotPath;
+        try {
+            hotPath = saved.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the history out", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        Path[] written;
+        lock.lock();
+        try {
+            for (Segment segment : segments.headMap(upto, true).values()) {
+                if (segment.path == null && segment != partial) {
+                    throw new IOException("Changes from " + segment.first + " could not be written to " + file);
+                }
+            }
+            if (hotPath != null) {
+                unforced.add(hotPath);
+            }
+            written = unforced.toArray(new Path[0]);
+            unforced.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Path path : written) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        return upto;
+    }
+
+    /***
+     * Writes every change appended out and stops the thread sealing the segments
+     */
+    public void close() {
+        if (sealer.isShutdown()) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Could not write the history out: " + e.getMessage());
+        }
+        sealer.shutdown();
+        try {
+            sealer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /***
+     * Scans every change from a sequence number on, oldest first. The changes appended while scanning are scanned
+     * too if they are in the hot segment by the time the scan gets there. Safe to call from any thread, appending
+     * goes on meanwhile.
+     * @param from - The sequence number of the first change to scan
+     * @param scan - Gets every change
+     * @return - The number of changes scanned
+     * @throws IOException - If a cold segment cannot be read back
+     */
+    public long scan(long from, Scan scan) throws IOException {
+        Segment[] found;
+        lock.lock();
+        try {
+            Long start = segments.floorKey(from);
+            found = segments.tailMap(start == null ? from : start, true).values().toArray(new Segment[0]);
+        } finally {
+            lock.unlock();
+        }
+        long scanned = 0;
+        for (Segment segment : found) {
+            byte[] columns;
+            Path path;
+            Segment hot = null;
+            lock.lock();
+            try {
+                columns = segment.columns;
+                path = segment.path;
+                if (columns == null && segment.rows != null) {
+                    hot = new Segment(segment);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (hot != null) {
+                scanned += scanHot(hot, from, scan);
+                continue;
+            }
+            if (columns == null) {
+                columns = read(path);
+            }
+            scanned += decode(segment.first, segment.count, columns, from, scan);
+        }
+        return scanned;
+    }
+
+    /***
+     * Scans the changes of a hot segment, still held by its arrays
+     * @param segment - The segment, sharing the arrays of a hot one as it was when the scan got to it
+     * @param from - The sequence number of the first change to scan
+     * @param scan - Gets every change
+     * @return - The number of changes scanned
+     */
+    private static long scanHot(Segment segment, long from, Scan scan) {
+        int count = segment.count;
+        int i = (int) Math.max(0, from - segment.first);
+        for (int at = i; at < count; at++) {
+            scan.change(segment.first + at, segment.rows[at], segment.cols[at], COLORS[segment.colors[at]],
+                    segment.owners[at], segment.times[at], segment.accepted[at]);
+        }
+        return Math.max(0, count - i);
+    }
+
+    /***
+     * Reads the columns of a cold segment back from its file
+     * @param path - The file
+     * @return - The deflated columns
+     * @throws IOException - If the file does not pass its check
+     */
+    private static byte[] read(Path path) throws IOException {
+        try (InputStream raw = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(raw);
+            byte[] header = new byte[HEADER];
+            in.readFully(header);
+            ByteBuffer fields = ByteBuffer.wrap(header);
+            byte[] columns = new byte[fields.getInt(24)];
+            in.readFully(columns);
+            CRC32 crc = new CRC32();
+            crc.update(columns, 0, columns.length);
+            if ((int) crc.getValue() != fields.getInt(28)) {
+                throw new IOException(path + " does not pass its check");
+            }
+            return columns;
+        }
+    }
+
+    /***
+     * Encodes the columns of a segment and deflates them. Every field is a run of zigzag varints of the differences
+     * from one change to the next.
+     * @param segment - The segment, hot
+     * @param count - The number of changes in it
+     * @return - The deflated columns
+     */
+    private static byte[] encode(Segment segment, int count) {
+        Columns out = new Columns(count * 12);
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            out.putZigzag(segment.rows[i] - previous);
+            previous = segment.rows[i];
+        }
+        previous = 0;
+        for (int i = 0; i < count; i++) {
+            out.putZigzag(segment.cols[i] - previous);
+            previous = segment.cols[i];
+        }
+        previous = 0;
+        for (int i = 0; i < count; i++) {
+            out.putZigzag(segment.colors[i] - previous);
+            previous = segment.colors[i];
+        }
+        previous = 0;
+        for (int i = 0; i < count; i++) {
+            out.putZigzag(segment.owners[i] - previous);
+            previous = segment.owners[i];
+        }
+        previous = 0;
+        for (int i = 0; i < count; i++) {
+            out.putZigzag(segment.times[i] - previous);
+            previous = segment.times[i];
+        }
+        previous = 0;
+        for (int i = 0; i < count; i++) {
+            out.putZigzag(segment.accepted[i] - previous);
+            previous = segment.accepted[i];
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(out.bytes, 0, out.length);
+        deflater.finish();
+        byte[] deflated = new byte[out.length + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            }
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        deflater.end();
+        return Arrays.copyOf(deflated, length);
+    }
+
+    /***
+     * Inflates the columns of a segment and scans its changes
+     * @param first - The sequence number of its first change
+     * @param count - The number of changes in it
+     * @param columns - The deflated columns
+     * @param from - The sequence number of the first change to scan
+     * @param scan - Gets every change
+     * @return - The number of changes scanned
+     * @throws IOException - If the columns cannot be inflated
+     */
+    private static long decode(long first, int count, byte[] columns, long from, Scan scan) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(columns);
+        Columns in = new Columns(count * 12);
+        try {
+            while (!inflater.finished()) {
+                if (in.length == in.bytes.length) {
+                    in.bytes = Arrays.copyOf(in.bytes, in.bytes.length * 2);
+                }
+                int n = inflater.inflate(in.bytes, in.length, in.bytes.length - in.length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("The columns of changes from " + first + " are cut short");
+                }
+                in.length += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("The columns of changes from " + first + " are not deflated", e);
+        } finally {
+            inflater.end();
+        }
+        int[] rows = new int[count];
+        int[] cols = new int[count];
+        byte[] colors = new byte[count];
+        int[] owners = new int[count];
+        ByteBuffer column = ByteBuffer.wrap(in.bytes, 0, in.length);
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            rows[i] = (int) (value += Varints.getZigzag(column));
+        }
+        value = 0;
+        for (int i = 0; i < count; i++) {
+            cols[i] = (int) (value += Varints.getZigzag(column));
+        }
+        value = 0;
+        for (int i = 0; i < count; i++) {
+            colors[i] = (byte) (value += Varints.getZigzag(column));
+        }
+        value = 0;
+        for (int i = 0; i < count; i++) {
+            owners[i] = (int) (value += Varints.getZigzag(column));
+        }
+        // the times are the last two columns, read side by side from where each starts
+        int times = column.position();
+        for (int i = 0; i < count; i++) {
+            Varints.getZigzag(column);
+        }
+        ByteBuffer accepted = column.duplicate();
+        column.position(times);
+        long time = 0;
+        long accept = 0;
+        int start = (int) Math.max(0, from - first);
+        for (int i = 0; i < count; i++) {
+            time += Varints.getZigzag(column);
+            accept += Varints.getZigzag(accepted);
+            if (i >= start) {
+                scan.change(first + i, rows[i], cols[i], COLORS[colors[i]], owners[i], time, accept);
+            }
+        }
+        return Math.max(0, count - start);
+    }
+
+    /**
+     * A growable run of zigzag varints
+     */
+    private static class Columns {
+        private byte[] bytes;               // The bytes
+        private int length;                 // The number of bytes written
+
+        /***
+         * Creates an empty run to write to
+         * @param capacity - The bytes to start with
+         */
+        Columns(int capacity) {
+            this.bytes = new byte[Math.max(16, capacity)];
+        }
+
+        /***
+         * Writes a value as a zigzag varint
+         * @param value - The value
+         */
+        void putZigzag(long value) {
+            if (length + Varints.MAX_BYTES > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            length = Varints.putZigzag(bytes, length, value);
+        }
+    }
+
+    /***
+     * Returns the number of changes appended so far and not yet sealed, in the hot segment or waiting to be sealed
+     * @return - The number of changes
+     */
+    public long getHot() {
+        lock.lock();
+        try {
+            long count = 0;
+            for (Segment segment : segments.values()) {
+                if (segment.rows != null) {
+                    count += segment.count;
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns the bytes the hot and warm segments take up, which is kept within the budget as far as the segments
+     * waiting to be sealed and the ones that could not be written out allow
+     * @return - The bytes
+     */
+    public long getMemory() {
+        lock.lock();
+        try {
+            return memory;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns the bytes of the deflated columns of every sealed segment, in memory or not
+     * @return - The bytes
+     */
+    public long getPacked() {
+        lock.lock();
+        try {
+            return packed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns the number of changes in every sealed segment
+     * @return - The number of changes
+     */
+    public long getSealed() {
+        lock.lock();
+        try {
+            return sealed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns the number of segments, hot, warm and cold
+     * @return - The number of segments
+     */
+    public int getSegments() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
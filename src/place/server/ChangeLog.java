@@ -0,0 +1,777 @@
+package place.server;
+
+import place.PlaceColor;
+import place.network.PlaceExchange;
+import place.network.Varints;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Write-ahead log of every accepted tile change, so the board survives the server going down. Changes are appended
+ * to a buffer in memory, which a thread of its own writes out and forces to disk as one batch every few
+ * milliseconds, or as soon as enough records are waiting. Appending costs no system call at all, and one fsync
+ * covers every change of the batch. A change counts as accepted before its batch is on disk, so a crash loses at
+ * most the last batch, which clients may well have been sent already.
+ *
+ * The log is kept in segments, files named after the log with the sequence number of their first change added, like
+ * changes.log.1 and changes.log.52001. A new segment is started whenever a checkpoint of the board is taken, so the
+ * segments the checkpoint holds every change of can be deleted, and only the ones after it are replayed.
+ *
+ * A segment starts with a header holding the dimension of the board, the server's epoch and the generation of the
+ * log, so a server restarted from the log keeps its sequence numbers valid for clients that want to resume. Then
+ * come the batches, each with its length, a CRC32 of its records and the sequence number of its first change. A
+ * record is a new username, or a tile change of varints: row, column, color, owner id, and the times as differences
+ * from the record before. A batch cut off by a crash fails its check, and the segment is cut back to the batch
+ * before it on replay.
+ *
+ * Closing the log writes out one last batch saying so, once every change is on disk, and opening it cuts that batch
+ * off again. A log opened without it at the end was not closed cleanly, and the changes it lost had their sequence
+ * numbers handed out again after the restart, so its generation goes up, and clients resuming with a sequence number
+ * of the generation before have to be sent the whole board.
+ *
+ * @author Justin Yau
+ */
+public class ChangeLog {
+
+    /**
+     * Gets every record read back from the log, in the order it was appended
+     */
+    public interface Replay {
+
+        /***
+         * Called for a username that was new to the board
+         * @param id - The id the name got
+         * @param name - The name
+         */
+        void user(int id, String name);
+
+        /***
+         * Called for a tile change
+         * @param seq - The sequence number of the change
+         * @param row - The row of the tile
+         * @param col - The column of the tile
+         * @param color - The new color
+         * @param owner - The id of the new owner
+         * @param time - The time the client gave the change
+         * @param accepted - The time the server accepted the change
+         */
+        void change(long seq, int row, int col, PlaceColor color, int owner, long time, long accepted);
+
+    }
+
+    private static final int MAGIC = 0x504C4F47;            // "PLOG", the first int of every log
+    private static final int HEADER = 24;                   // Bytes of a segment header: magic, dim, epoch, generation
+    private static final int GENERATION_AT = 16;            // Where the generation is in a segment header
+    private static final int BATCH_HEADER = 16;             // Bytes ahead of every batch: length, crc, first seq
+    private static final int MAX_BATCH = 64 << 20;          // The most bytes a batch read back may have
+    private static final long NONE = -1;                    // The end of a segment that was not replayed
+    private static final byte USER = 0;                     // Record of a new username
+    private static final byte TILE = 1;                     // Record of a tile change
+    private static final byte CLOSED = 2;                   // Record of the log being closed cleanly
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    private Path file;                  // The name of the log, which the segments add their first change to
+    private TreeMap<Long, Path> segments; // Every segment by the sequence number of its first change
+    private long segment;               // The sequence number of the first change of the segment appended to
+    private FileChannel channel;        // The segment appended to
+    private boolean rolling;            // Whether or not the next batch starts a new segment
+    private int dim;                    // The dimension of the board logged
+    private long epoch;                 // The epoch of the server that started the log
+    private long generation;            // The number of times the log was opened after it was not closed cleanly
+    private boolean clean;              // Whether or not the last record replayed was the log being closed
+    private int syncMillis;             // The most milliseconds a change waits to be written out
+    private int batchRecords;           // The number of waiting records that has a batch written out right away
+    private ReentrantLock lock;         // Guards the buffers and the counters below
+    private Condition full;             // Signalled when enough records are waiting, or the log is closing
+    private byte[] buffer;              // The records waiting to be written out
+    private int length;                 // The number of bytes in buffer
+    private byte[] spare;               // The buffer of the batch being written out, swapped in next time
+    private int records;                // The number of records waiting
+    private long first;                 // The sequence number of the first change waiting, 0 if there is none
+    private long next;                  // The sequence number the next change appended must have
+    private long lastAccepted;          // The time the last change waiting was accepted, 0 at the start of a batch
+    private volatile long durable;      // The sequence number of the last change forced to disk
+    private long batches;               // The number of batches written out
+    private long written;               // The number of records written out
+    private long syncNanos;             // The nanoseconds spent forcing batches to disk
+    private boolean closed;             // Whether or not the log was closed, or could no longer be written
+    private volatile boolean failed;    // Whether or not a batch could not be written, so changes are not kept
+    private Thread writer;              // Writes the batches out
+
+    /***
+     * Used for debugging. Will print messages if debug variable is enabled
+     * @param logMsg - The message to print
+     */
+    private static void dPrint( Object logMsg ) {
+        if ( PlaceExchange.DEBUG ) {
+            System.out.println( logMsg );
+        }
+    }
+
+    /***
+     * Opens a log, replaying every change in it after a checkpoint. Segments the checkpoint holds every change of
+     * are skipped. Appending goes on in the last segment if it ends where the replay did, or else in a new one.
+     * Batches of the last segment that were only partly written are cut off before anything is appended. A log that
+     * was not closed cleanly goes on in the next generation.
+     * @param file - The name of the log, which does not have to exist yet
+     * @param dim - The dimension of the board
+     * @param epoch - The epoch to start a new log with
+     * @param after - The sequence number of the last change the checkpoint holds, 0 if there is none
+     * @param syncMillis - The most milliseconds a change waits to be written out
+     * @param batchRecords - The number of waiting records that has a batch written out right away
+     * @param replay - Gets every record of the log after the checkpoint, and the usernames of the segment it starts in
+     * @throws IOException - If the log cannot be opened, is the log of a board of another dimension, or changes are
+     *                       missing between the checkpoint and the log
+     */
+    public ChangeLog(Path file, int dim, long epoch, long after, int syncMillis, int batchRecords, Replay replay)
+            throws IOException {
+        this.file = file.toAbsolutePath();
+        this.dim = dim;
+        this.epoch = epoch;
+        this.syncMillis = syncMillis;
+        this.batchRecords = batchRecords;
+        this.lock = new ReentrantLock();
+        this.full = lock.newCondition();
+        this.buffer = new byte[4096];
+        this.spare = new byte[4096];
+        this.next = after + 1;
+        this.segments = findSegments(this.file);
+        this.clean = true;
+        long last = NONE;
+        long[] end = {NONE};
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            Long following = segments.higherKey(entry.getKey());
+            if (following != null && following <= next) {
+                continue;
+            }
+            if (entry.getKey() > next) {
+                throw new IOException("Changes " + next + " to " + (entry.getKey() - 1) + " are missing from " +
+                        this.file);
+            }
+            last = replay(entry.getKey(), entry.getValue(), replay, end);
+        }
+        if (!clean) {
+            generation++;
+        }
+        if (!segments.isEmpty() && last == next) {
+            this.segment = segments.lastKey();
+            this.channel = FileChannel.open(segments.get(segment), StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (end[0] < size) {
+                System.err.println("Cutting off " + (size - end[0]) + " bytes of a torn batch at the end of " +
+                        segments.get(segment));
+            }
+            if (clean) {
+                // the log is open again, and must not look closed cleanly if the server goes down before it is
+                end[0] -= BATCH_HEADER + 1;
+            }
+            if (end[0] < size) {
+                channel.truncate(end[0]);
+                channel.force(true);
+            }
+            if (!clean) {
+                ByteBuffer bumped = ByteBuffer.allocate(Long.BYTES).putLong(0, generation);
+                while (bumped.hasRemaining()) {
+                    channel.write(bumped, GENERATION_AT + bumped.position());
+                }
+                channel.force(true);
+            }
+            channel.position(end[0]);
+        } else {
+            this.channel = start(next);
+        }
+        this.durable = next - 1;
+        this.writer = new Thread(this::writeBatches, "PlaceLog");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /***
+     * Reads the epoch of a log from the header of its first segment, without replaying it
+     * @param file - The name of the log
+     * @param none - The epoch to return if there is no log
+     * @return - The epoch
+     * @throws IOException - If the first segment is not one
+     */
+    public static long readEpoch(Path file, long none) throws IOException {
+        TreeMap<Long, Path> segments = findSegments(file.toAbsolutePath());
+        if (segments.isEmpty()) {
+            return none;
+        }
+        Path first = segments.firstEntry().getValue();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(first))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(first + " is not a segment of a change log");
+            }
+            in.readInt();
+            return in.readLong();
+        } catch (EOFException e) {
+            throw new IOException(first + " is not a segment of a change log", e);
+        }
+    }
+
+    /***
+     * Finds every segment of a log on disk
+     * @param file - The name of the log
+     * @return - The segments by the sequence number of their first change
+     * @throws IOException
+     */
+    private static TreeMap<Long, Path> findSegments(Path file) throws IOException {
+        TreeMap<Long, Path> found = new TreeMap<>();
+        String prefix = file.getFileName() + ".";
+        Path dir = file.getParent();
+        if (!Files.isDirectory(dir)) {
+            return found;
+        }
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path path : paths) {
+                String suffix = path.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                    found.put(Long.parseLong(suffix), path);
+                }
+            }
+        }
+        return found;
+    }
+
+    /***
+     * Starts a new segment and writes its header. A segment of the same name, which could only hold usernames, is
+     * replaced.
+     * @param first - The sequence number of the first change that goes in it
+     * @return - The segment, open for appending after the header
+     * @throws IOException
+     */
+    private FileChannel start(long first) throws IOException {
+        Path path = file.resolveSibling(file.getFileName() + "." + first);
+        Files.createDirectories(path.getParent());
+        FileChannel created = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(dim).putLong(epoch).putLong(generation).flip();
+            while (header.hasRemaining()) {
+                created.write(header);
+            }
+            created.force(true);
+        } catch (IOException e) {
+            created.close();
+            throw e;
+        }
+        lock.lock();
+        try {
+            segments.put(first, path);
+            segment = first;
+        } finally {
+            lock.unlock();
+        }
+        return created;
+    }
+
+    /***
+     * Reads every intact batch of a segment back and takes the epoch and the generation from its header. Only the
+     * changes from the next sequence number on are replayed, which moves it on.
+     * @param first - The sequence number of the first change of the segment
+     * @param path - The segment
+     * @param replay - Gets every record from the next change on, and every username
+     * @param end - Gets the offset the intact batches end at
+     * @return - The sequence number the change after the segment would have
+     * @throws IOException - If the file is not a segment, or is one of the log of a board of another dimension
+     */
+    private long replay(long first, Path path, Replay replay, long[] end) throws IOException {
+        try (InputStream raw = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16));
+            int magic;
+            try {
+                magic = in.readInt();
+            } catch (EOFException e) {
+                magic = 0;
+            }
+            if (magic != MAGIC) {
+                throw new IOException(path + " is not a segment of a change log");
+            }
+            int logged = in.readInt();
+            if (logged != dim) {
+                throw new IOException(path + " is the log of a " + logged + "x" + logged + " board");
+            }
+            this.epoch = in.readLong();
+            this.generation = in.readLong();
+            this.clean = false;
+            long seq = first;
+            end[0] = HEADER;
+            CRC32 crc = new CRC32();
+            byte[] batch = new byte[4096];
+            while (true) {
+                int size;
+                int sum;
+                try {
+                    size = in.readInt();
+                    sum = in.readInt();
+                    if (size < 0 || size > MAX_BATCH || in.readLong() != seq) {
+                        break;
+                    }
+                    if (batch.length < size) {
+                        batch = new byte[Math.max(size, batch.length * 2)];
+                    }
+                    in.readFully(batch, 0, size);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(batch, 0, size);
+                if ((int) crc.getValue() != sum) {
+                    break;
+                }
+                seq = decode(path, seq, ByteBuffer.wrap(batch, 0, size), replay);
+                end[0] += BATCH_HEADER + size;
+            }
+            dPrint("Replayed " + path + " up to change " + (seq - 1));
+            return seq;
+        }
+    }
+
+    /***
+     * Decodes the records of a batch that passed its check. Only the changes from the next sequence number on are
+     * replayed, which moves it on.
+     * @param path - The segment the batch is from
+     * @param seq - The sequence number of the first change of the batch
+     * @param batch - The records
+     * @param replay - Gets every record from the next change on, and every username
+     * @return - The sequence number the change after the batch would have
+     * @throws IOException - If a record is malformed, which a batch that passed its check should never have
+     */
+    private long decode(Path path, long seq, ByteBuffer batch, Replay replay) throws IOException {
+        long accepted = 0;
+        try {
+            while (batch.hasRemaining()) {
+                byte type = batch.get();
+                clean = type == CLOSED;
+                if (type == USER) {
+                    int id = Varints.getInt(batch);
+                    byte[] name = new byte[Varints.getInt(batch)];
+                    batch.get(name);
+                    replay.user(id, new String(name, StandardCharsets.UTF_8));
+                } else if (type == TILE) {
+                    int row = Varints.getInt(batch);
+                    int col = Varints.getInt(batch);
+                    PlaceColor color = COLORS[batch.get()];
+                    int owner = Varints.getInt(batch);
+                    accepted += Varints.getZigzag(batch);
+                    long time = accepted + Varints.getZigzag(batch);
+                    if (seq == next) {
+                        replay.change(next++, row, col, color, owner, time, accepted);
+                    }
+                    seq++;
+                } else if (type != CLOSED) {
+                    throw new IOException("Unknown record " + type + " in " + path);
+                }
+            }
+            return seq;
+        } catch (RuntimeException | IOException e) {
+            throw new IOException("Malformed batch in " + path, e);
+        }
+    }
+
+    /***
+     * Returns the epoch in the header of the log, which is the one it was opened with unless it was replayed
+     * @return - The epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /***
+     * Returns the generation of the log, which goes up every time it is opened after it was not closed cleanly
+     * @return - The generation, 0 if the log was always closed cleanly
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /***
+     * Returns whether or not the log was closed cleanly before it was opened, or did not exist yet
+     * @return - Whether or not it was closed cleanly
+     */
+    public boolean wasClean() {
+        return clean;
+    }
+
+    /***
+     * Returns the sequence number of the last change in the log, forced to disk or not
+     * @return - The sequence number, 0 if there is none
+     */
+    public long getLast() {
+        lock.lock();
+        try {
+            return next - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns whether or not a batch could not be written out, after which nothing appended is kept, or a change
+     * could not be made
+     * @return - Whether or not the log failed
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /***
+     * Fails the log because a change could not be made after it was accepted, so no more changes are accepted.
+     * What was appended before is still written out.
+     * @param e - Why the change could not be made
+     */
+    public void fail(Exception e) {
+        System.err.println("Could not make a change, no more changes are accepted: " + e);
+        failed = true;
+    }
+
+    /***
+     * Returns the sequence number of the last change forced to disk
+     * @return - The sequence number, 0 if there is none
+     */
+    public long getDurable() {
+        return durable;
+    }
+
+    /***
+     * Returns the number of batches written out, each costing one fsync
+     * @return - The number of batches
+     */
+    public long getBatches() {
+        lock.lock();
+        try {
+            return batches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns the number of records written out
+     * @return - The number of records
+     */
+    public long getWritten() {
+        lock.lock();
+        try {
+            return written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns the time spent forcing batches to disk
+     * @return - The time, in nanoseconds
+     */
+    public long getSyncNanos() {
+        lock.lock();
+        try {
+            return syncNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Appends a username that is new to the board. It has to come before the first change it owns. Nothing is
+     * appended once the log is closed.
+     * @param id - The id the name got
+     * @param name - The name
+     */
+    public void appendUser(int id, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            reserve(1 + 2 * Varints.MAX_BYTES + bytes.length);
+            buffer[length++] = USER;
+            length = Varints.put(buffer, length, id);
+            length = Varints.put(buffer, length, bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+            added();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Appends a tile change. Changes have to be appended in sequence order, with no number skipped. Nothing is
+     * appended once the log is closed.
+     * @param seq - The sequence number of the change
+     * @param row - The row of the tile
+     * @param col - The column of the tile
+     * @param color - The new color
+     * @param owner - The id of the new owner
+     * @param time - The time the client gave the change
+     * @param accepted - The time the server accepted the change
+     * @throws IllegalStateException - If the change is not the next one in sequence
+     */
+    public void append(long seq, int row, int col, PlaceColor color, int owner, long time, long accepted) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (seq != next) {
+                throw new IllegalStateException("Expected change " + next + " but got " + seq);
+            }
+            reserve(1 + 5 + 5 + 1 + 5 + 2 * Varints.MAX_BYTES);
+            buffer[length++] = TILE;
+            length = Varints.put(buffer, length, row);
+            length = Varints.put(buffer, length, col);
+            buffer[length++] = (byte) color.getNumber();
+            length = Varints.put(buffer, length, owner);
+            length = Varints.putZigzag(buffer, length, accepted - lastAccepted);
+            length = Varints.putZigzag(buffer, length, time - accepted);
+            lastAccepted = accepted;
+            if (first == 0) {
+                first = seq;
+            }
+            next++;
+            added();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Counts a record that was appended, and wakes the writer up if a batch is full
+     */
+    private void added() {
+        if (++records >= batchRecords) {
+            full.signal();
+        }
+    }
+
+    /***
+     * Makes sure the buffer has room for more bytes
+     * @param bytes - The most bytes about to be appended
+     */
+    private void reserve(int bytes) {
+        if (length + bytes > buffer.length) {
+            byte[] bigger = new byte[Math.max(length + bytes, buffer.length * 2)];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+    }
+
+    /***
+     * Writes batches out until the log is closed: whenever enough records are waiting, and otherwise every
+     * syncMillis if any are
+     */
+    private void writeBatches() {
+        CRC32 crc = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER);
+        while (true) {
+            byte[] batch;
+            int size;
+            int count;
+            long seq;
+            long upto;
+            boolean roll;
+            boolean last;
+            lock.lock();
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncMillis);
+                while (records < batchRecords && !closed) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        break;
+                    }
+                    full.awaitNanos(left);
+                }
+                last = closed;
+                if (records == 0) {
+                    if (last) {
+                        return;
+                    }
+                    continue;
+                }
+                batch = buffer;
+                size = length;
+                count = records;
+                // a batch of usernames only carries the number the next change will have, which replay expects
+                seq = first == 0 ? next : first;
+                upto = next - 1;
+                // a segment is only started once the one before has a change, so no two have the same name
+                roll = rolling && seq != segment;
+                rolling = false;
+                buffer = spare;
+                length = 0;
+                records = 0;
+                first = 0;
+                lastAccepted = 0;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            long began = System.nanoTime();
+            try {
+                if (roll) {
+                    channel.close();
+                    channel = start(seq);
+                }
+                write(crc, header, batch, size, seq);
+            } catch (IOException e) {
+                System.err.println("Could not write the change log, no more changes are accepted: " + e);
+                failed = true;
+                lock.lock();
+                try {
+                    closed = true;
+                    buffer = spare = null;
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    dPrint(ignored);
+                }
+                return;
+            }
+            long took = System.nanoTime() - began;
+            lock.lock();
+            try {
+                spare = batch;
+                batches++;
+                written += count;
+                syncNanos += took;
+                durable = upto;
+            } finally {
+                lock.unlock();
+            }
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    /***
+     * Writes a batch out at the end of the segment appended to, and forces it to disk
+     * @param crc - Sums the records up
+     * @param header - Room for the header of the batch
+     * @param batch - The records
+     * @param size - The number of bytes of records
+     * @param seq - The sequence number of the first change of the batch, or of the next change if it has none
+     * @throws IOException
+     */
+    private void write(CRC32 crc, ByteBuffer header, byte[] batch, int size, long seq) throws IOException {
+        crc.reset();
+        crc.update(batch, 0, size);
+        header.clear();
+        header.putInt(size).putInt((int) crc.getValue()).putLong(seq).flip();
+        ByteBuffer body = ByteBuffer.wrap(batch, 0, size);
+        while (header.hasRemaining() || body.hasRemaining()) {
+            channel.write(new ByteBuffer[] {header, body});
+        }
+        channel.force(false);
+    }
+
+    /***
+     * Has the next batch written out start a new segment, so the segments before can be deleted once a checkpoint
+     * holds all of their changes
+     */
+    public void roll() {
+        lock.lock();
+        try {
+            rolling = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Deletes the segments whose every change a checkpoint holds. The segment appended to is always kept.
+     * @param after - The sequence number of the last change the checkpoint holds
+     * @return - The number of segments deleted
+     */
+    public int prune(long after) {
+        ArrayList<Path> old = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Long first : new ArrayList<>(segments.headMap(segment).keySet())) {
+                if (segments.higherKey(first) <= after + 1) {
+                    old.add(segments.remove(first));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Path path : old) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + path + ": " + e.getMessage());
+            }
+        }
+        return old.size();
+    }
+
+    /***
+     * Returns the number of segments the log has on disk
+     * @return - The number of segments
+     */
+    public int getSegments() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Writes out every change appended so far, and a record that the log was closed cleanly, and closes the log.
+     * Changes appended after are dropped.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            full.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+            if (buffer != null) {
+                // only once every change is on disk, so the log never looks closed cleanly without them
+                write(new CRC32(), ByteBuffer.allocate(BATCH_HEADER), new byte[] {CLOSED}, 1, next);
+            }
+            channel.close();
+        } catch (InterruptedException | IOException e) {
+            dPrint(e);
+        }
+    }
+
+}
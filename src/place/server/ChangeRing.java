@@ -0,0 +1,209 @@
+package place.server;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.PlaceUsers;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * The last few accepted tile changes, in a ring of preallocated primitive arrays indexed by sequence number. Adding
+ * a change allocates nothing, it overwrites the oldest one once the ring is full. It answers what happened since a
+ * sequence number, or since a time, without touching disk, for late joiners to catch up from and for debugging.
+ *
+ * Only one thread may add changes (the server adds them under its lock), but any thread may read. Every slot keeps
+ * the sequence number of the change in it, set to BUSY while it is being overwritten, and a reader checks that it
+ * did not change while the slot was being read, so a change read from the ring is never torn.
+ *
+ * @author Justin Yau
+ */
+public class ChangeRing {
+
+    /**
+     * Gets every change read from the ring, without anything being allocated for it
+     */
+    public interface Visitor {
+
+        /***
+         * Called for every change read, oldest first
+         * @param seq - The sequence number of the change
+         * @param row - The row of the tile
+         * @param col - The column of the tile
+         * @param color - The new color
+         * @param owner - The id of the new owner, in the server's dictionary
+         * @param time - The time the client gave the change
+         * @param accepted - The time the server accepted the change
+         */
+        void change(long seq, int row, int col, PlaceColor color, int owner, long time, long accepted);
+
+    }
+
+    private static final long BUSY = -1;                    // The sequence number of a slot being overwritten
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    private int mask;                   // Capacity - 1, the capacity being a power of two
+    private AtomicLongArray seqs;       // The sequence number of the change in every slot, 0 if there is none
+    private int[] rows;                 // The row of the change in every slot
+    private int[] cols;                 // The column of the change in every slot
+    private byte[] colors;              // The color number of the change in every slot
+    private int[] owners;               // The owner id of the change in every slot
+    private long[] times;               // The client's time of the change in every slot
+    private long[] accepted;            // The time the server accepted the change in every slot
+    private volatile long last;         // The sequence number of the newest change, 0 if there is none
+
+    /***
+     * Creates an empty ring
+     * @param capacity - The number of changes to keep, rounded up to a power of two
+     */
+    public ChangeRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Ring capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.seqs = new AtomicLongArray(size);
+        this.rows = new int[size];
+        this.cols = new int[size];
+        this.colors = new byte[size];
+        this.owners = new int[size];
+        this.times = new long[size];
+        this.accepted = new long[size];
+    }
+
+    /***
+     * Returns the number of changes the ring keeps
+     * @return - The capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /***
+     * Returns the sequence number of the newest change
+     * @return - The sequence number, 0 if no change was added yet
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /***
+     * Returns the sequence number of the oldest change the ring still holds
+     * @return - The sequence number, 1 more than getLast() if the ring is empty
+     */
+    public long getFirst() {
+        long newest = last;
+        return Math.max(1, newest - mask);
+    }
+
+    /***
+     * Adds a change, overwriting the oldest one if the ring is full. Only one thread may add changes, in increasing
+     * sequence order.
+     * @param seq - The sequence number of the change, greater than any added before
+     * @param row - The row of the tile
+     * @param col - The column of the tile
+     * @param color - The new color
+     * @param owner - The id of the new owner, in the server's dictionary
+     * @param time - The time the client gave the change
+     * @param accepted - The time the server accepted the change
+     */
+    public void add(long seq, int row, int col, PlaceColor color, int owner, long time, long accepted) {
+        int slot = (int) seq & mask;
+        seqs.set(slot, BUSY);
+        // the fields must not be written before BUSY is, or a reader could check the slot and read them torn
+        VarHandle.storeStoreFence();
+        this.rows[slot] = row;
+        this.cols[slot] = col;
+        this.colors[slot] = (byte) color.getNumber();
+        this.owners[slot] = owner;
+        this.times[slot] = time;
+        this.accepted[slot] = accepted;
+        seqs.set(slot, seq);
+        last = seq;
+    }
+
+    /***
+     * Reads every change after a sequence number, oldest first
+     * @param after - The sequence number of the last change the caller already has
+     * @param visitor - Gets every change
+     * @return - The number of changes read, or -1 if the ring no longer holds every change after the inputted one
+     *           (some may have been read before that was found out, if another thread was adding changes)
+     */
+    public long forEachSince(long after, Visitor visitor) {
+        long newest = last;
+        if (after >= newest) {
+            return 0;
+        }
+        if (newest - after > mask + 1) {
+            return -1;
+        }
+        for (long seq = after + 1; seq <= newest; seq++) {
+            int slot = (int) seq & mask;
+            if (seqs.get(slot) != seq) {
+                return -1;
+            }
+            int row = rows[slot];
+            int col = cols[slot];
+            int color = colors[slot];
+            int owner = owners[slot];
+            long time = times[slot];
+            long when = accepted[slot];
+            // the fields have to be read before the sequence number is checked again
+            VarHandle.acquireFence();
+            if (seqs.get(slot) != seq) {
+                return -1;
+            }
+            visitor.change(seq, row, col, COLORS[color], owner, time, when);
+        }
+        return newest - after;
+    }
+
+    /***
+     * Returns the sequence number of the last change accepted before a time, to read what happened since with
+     * {@link #forEachSince(long, Visitor)}
+     * @param millis - The time
+     * @return - The sequence number, or the one before the oldest change held if they were all accepted since
+     */
+    public long seqBefore(long millis) {
+        long first = getFirst();
+        long seq = last;
+        while (seq >= first) {
+            int slot = (int) seq & mask;
+            long when = accepted[slot];
+            VarHandle.acquireFence();
+            if (seqs.get(slot) != seq) {
+                // overwritten, everything older is gone as well
+                return seq;
+            }
+            if (when < millis) {
+                return seq;
+            }
+            seq--;
+        }
+        return first - 1;
+    }
+
+    /***
+     * Returns every change after a sequence number as tiles, for sending to a client
+     * @param after - The sequence number of the last change the caller already has
+     * @param users - The dictionary the owner ids are from
+     * @return - The tiles, oldest first, or null if the ring no longer holds every change after the inputted one
+     */
+    public ArrayList<PlaceTile> since(long after, PlaceUsers users) {
+        ArrayList<PlaceTile> tiles = new ArrayList<>((int) Math.max(0, Math.min(last - after, mask + 1)));
+        long read = forEachSince(after, (seq, row, col, color, owner, time, when) -> {
+            PlaceTile tile = new PlaceTile(row, col, users.getName(owner), color, time);
+            tile.setSeq(seq);
+            tiles.add(tile);
+        });
+        return read < 0 ? null : tiles;
+    }
+
+}
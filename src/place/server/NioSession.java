@@ -0,0 +1,474 @@
+package place.server;
+
+import place.PlaceHashes;
+import place.PlaceResume;
+import place.PlaceTile;
+import place.PlaceViewport;
+import place.network.BoardStream;
+import place.network.PlaceExchange;
+import place.network.PlaceFrames;
+import place.network.PlaceRequest;
+import place.network.SharedFrame;
+
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * A client socket served by a {@link SelectorLoop}. Everything but queueing output happens on the loop's thread.
+ * An idle session holds no buffers at all: reads go through the loop's shared buffer, and only the tail of a frame
+ * that has not fully arrived yet is copied into the session, in a buffer that doubles as more of the frame arrives.
+ *
+ * @author Justin Yau
+ */
+class NioSession implements PlaceSession {
+
+    private static final long BUSY = 50;    // Milliseconds a client is told to wait when the pipeline had no room
+
+    private SelectorLoop loop;              // The loop serving this session
+    private PlaceServer server;             // The server this session belongs to
+    private SocketChannel channel;          // The client connection
+    private SelectionKey key;               // The key of the channel in the loop's selector
+    private Socket socket;                  // The socket of the channel, for logging
+    private ByteBuffer pending;             // Received bytes of a frame that is not complete yet, if any, being filled
+    private ArrayDeque<ByteBuffer> outbound;// Frames waiting to be written, created on first use
+    private BoardStream stream;             // Chunks of the board still to be streamed, or null
+    private PlaceViewport viewport;         // The part of the board the client looks at, if it said before logging in
+    private PlaceResume offer;              // What the client already has, if it said before logging in
+    private PlaceHashes cached;             // The hashes of the board the client cached, if it sent them before
+    private int version;                    // The agreed frame version, 0 until the handshake is done
+    private String username;                // The username of the client, once logged in
+    private long rejected;                  // The time until which the client was told its changes are rejected
+    private int dropped;                    // Changes in a row dropped inside the cooldown, for older clients
+    private boolean closing;                // Whether or not to close once the queued output is written
+    private boolean overflowed;             // Whether or not the client fell too far behind and must be dropped
+    private volatile boolean open;          // Whether or not the client is still connected
+
+    /***
+     * Creates a new session for an accepted socket
+     * @param loop - The loop serving this session
+     * @param server - The server this session belongs to
+     * @param channel - The client connection
+     * @param key - The key of the channel in the loop's selector
+     */
+    NioSession(SelectorLoop loop, PlaceServer server, SocketChannel channel, SelectionKey key) {
+        this.loop = loop;
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+        this.socket = channel.socket();
+        this.open = true;
+    }
+
+    /***
+     * Returns the key of the channel in the loop's selector
+     * @return - The key of the channel in the loop's selector
+     */
+    SelectionKey getKey() {
+        return key;
+    }
+
+    /***
+     * Sends the server hello that every connection starts with
+     * @throws IOException
+     */
+    void greet() throws IOException {
+        ByteBuffer hello = ByteBuffer.allocate(Integer.BYTES);
+        hello.putInt(PlaceFrames.SERVER_HELLO).flip();
+        enqueue(hello);
+    }
+
+    /***
+     * Reads whatever the client has sent and handles every complete request in it
+     * @param readBuffer - The loop's shared read buffer
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    void read(ByteBuffer readBuffer) throws IOException, ClassNotFoundException {
+        readBuffer.clear();
+        if (channel.read(readBuffer) < 0) {
+            close();
+            return;
+        }
+        readBuffer.flip();
+        ByteBuffer buf = readBuffer;
+        if (pending != null) {
+            if (pending.remaining() < readBuffer.remaining()) {
+                // doubled rather than grown to fit, so a big frame is not copied over again on every read
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                        pending.position() + readBuffer.remaining()));
+                pending.flip();
+                pending = bigger.put(pending);
+            }
+            pending.put(readBuffer).flip();
+            buf = pending;
+        }
+        process(buf);
+        if (buf == pending) {
+            if (buf.hasRemaining()) {
+                pending.compact();
+            } else {
+                pending = null;
+            }
+        } else if (open && buf.hasRemaining()) {
+            // a handoff puts what is left in pending itself, leaving nothing in buf
+            pending = ByteBuffer.allocate(buf.remaining() * 2);
+            pending.put(buf);
+        }
+    }
+
+    /***
+     * Handles the handshake and then every complete frame in the buffer
+     * @param buf - The received bytes
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void process(ByteBuffer buf) throws IOException, ClassNotFoundException {
+        while (open && key.isValid()) {
+            if (version == 0) {
+                if (!handshake(buf)) {
+                    return;
+                }
+            } else {
+                PlaceRequest<?> req = PlaceFrames.next(buf, version, server.getMaxRequestSize());
+                if (req == null) {
+                    return;
+                }
+                dispatch(req);
+            }
+        }
+    }
+
+    /***
+     * Works out from the first bytes which protocol the client speaks
+     * @param buf - The received bytes
+     * @return - Whether or not the client is now speaking frames
+     * @throws IOException
+     */
+    private boolean handshake(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < Integer.BYTES + 1) {
+            if (buf.remaining() >= Short.BYTES && buf.getShort(buf.position()) == ObjectStreamConstants.STREAM_MAGIC) {
+                handoff(buf);
+            }
+            return false;
+        }
+        int magic = buf.getInt(buf.position());
+        if (magic == PlaceFrames.MAGIC) {
+            buf.getInt();
+            version = PlaceFrames.negotiate(buf.get() & 0xFF);
+            ByteBuffer reply = ByteBuffer.allocate(1);
+            reply.put((byte) version).flip();
+            enqueue(reply);
+            if (version == 0) {
+                closeWhenFlushed();
+                return false;
+            }
+            return true;
+        }
+        if (buf.getShort(buf.position()) == ObjectStreamConstants.STREAM_MAGIC) {
+            handoff(buf);
+        } else {
+            close();
+        }
+        return false;
+    }
+
+    /***
+     * Hands the socket over to a blocking thread, which gets every byte read so far
+     * @param buf - The received bytes
+     */
+    private void handoff(ByteBuffer buf) {
+        pending = ByteBuffer.allocate(buf.remaining());
+        pending.put(buf).flip();
+        loop.handoff(this);
+    }
+
+    /***
+     * Called by the loop once the key is deregistered: puts the channel in blocking mode, writes any
+     * queued output and starts a thread for the client
+     * @throws IOException
+     */
+    void handoff() throws IOException {
+        channel.configureBlocking(true);
+        synchronized (this) {
+            open = false;
+            if (outbound != null) {
+                for (ByteBuffer frame : outbound) {
+                    while (frame.hasRemaining()) {
+                        channel.write(frame);
+                    }
+                }
+                outbound = null;
+            }
+        }
+        byte[] consumed = new byte[pending.remaining()];
+        pending.get(consumed);
+        pending = null;
+        server.launch(new PlaceClientThread(socket, server, consumed), "PlaceClientThread");
+    }
+
+    /***
+     * Handles a request, exactly as {@link PlaceClientThread} would
+     * @param req - The request sent by the client
+     * @throws IOException
+     */
+    private void dispatch(PlaceRequest<?> req) throws IOException {
+        PlaceRequest.RequestType type = req.getType();
+        if (username == null) {
+            if (type == PlaceRequest.RequestType.VIEWPORT && viewport == null) {
+                viewport = (PlaceViewport) req.getData();
+            } else if (type == PlaceRequest.RequestType.RESUME && offer == null) {
+                offer = (PlaceResume) req.getData();
+            } else if (type == PlaceRequest.RequestType.HASHES && cached == null) {
+                cached = (PlaceHashes) req.getData();
+            } else if (type == PlaceRequest.RequestType.LOGIN) {
+                String name = (String) req.getData();
+                long token = server.addClient(name, socket, this, offer == null ? 0 : offer.getToken());
+                if (token != 0) {
+                    username = name;
+                    ArrayList<ByteBuffer> reply = new ArrayList<>();
+                    reply.add(PlaceFrames.encode(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN_SUCCESS,
+                            socket.toString()), version));
+                    boolean resumed = false;
+                    if (offer != null) {
+                        // the answer, and if it resumes the usernames and changes it missed, instead of the board
+                        SharedFrame[] answer = server.resume(offer, token);
+                        for (SharedFrame frame : answer) {
+                            reply.add(frame.bytes(version));
+                        }
+                        resumed = ((PlaceResume) answer[0].getRequest().getData()).isResumed();
+                    }
+                    // broadcasts may already be queued, the login reply has to go out ahead of them
+                    if (resumed) {
+                        sendFirst(reply.toArray(new ByteBuffer[0]));
+                    } else if (version >= PlaceFrames.STREAM_VERSION) {
+                        // the usernames and first chunk come first, the rest is streamed whenever the queue runs dry
+                        stream = cached == null ? server.getStream() : server.resync(cached);
+                        if (viewport != null) {
+                            stream.setViewport(viewport);
+                        }
+                        reply.add(PlaceFrames.encode(new PlaceRequest<>(PlaceRequest.RequestType.USERS,
+                                server.getUsers()), version));
+                        if (stream.getHashes() != null) {
+                            // only the chunks that differ from the cached board follow
+                            reply.add(PlaceFrames.encode(new PlaceRequest<>(PlaceRequest.RequestType.HASHES,
+                                    stream.getHashes()), version));
+                        }
+                        SharedFrame first = stream.next();
+                        if (first != null) {
+                            reply.add(first.bytes(version));
+                        }
+                        sendFirst(reply.toArray(new ByteBuffer[0]));
+                    } else {
+                        reply.add(server.getSnapshot().bytes(version));
+                        reply.add(PlaceFrames.encode(new PlaceRequest<>(PlaceRequest.RequestType.USERS,
+                                server.getUsers()), version));
+                        sendFirst(reply.toArray(new ByteBuffer[0]));
+                    }
+                } else {
+                    send(new PlaceRequest<>(PlaceRequest.RequestType.ERROR,
+                            name + " already logged in! Try a different user!"));
+                    closeWhenFlushed();
+                }
+            } else {
+                send(new PlaceRequest<>(PlaceRequest.RequestType.ERROR, "Expected login request first!"));
+                closeWhenFlushed();
+            }
+        } else if (type == PlaceRequest.RequestType.CHANGE_TILE) {
+            // the selector thread cannot sleep off the cooldown, so changes inside it are rejected instead, and the
+            // client is told so once per cooldown so a flood of changes cannot fill its queue with rejections
+            long wait = server.acquire(username);
+            long now = System.currentTimeMillis();
+            if (wait == 0 && !server.offerTile((PlaceTile) req.getData())) {
+                // nor can it wait for room in the pipeline
+                wait = BUSY;
+            }
+            if (wait == 0) {
+                dropped = 0;
+            } else if (version < PlaceFrames.REJECT_VERSION) {
+                // older clients cannot be told, their change is dropped, and a client that keeps on is hung up on
+                if (++dropped == MAX_DROPPED) {
+                    send(new PlaceRequest<>(PlaceRequest.RequestType.ERROR, "Too many tile changes, slow down!"));
+                    closeWhenFlushed();
+                }
+            } else if (now >= rejected) {
+                rejected = now + wait;
+                send(new PlaceRequest<>(PlaceRequest.RequestType.TILE_REJECTED, wait));
+            }
+        } else if (type == PlaceRequest.RequestType.VIEWPORT) {
+            if (stream != null) {
+                stream.setViewport((PlaceViewport) req.getData());
+            }
+        } else if (type == PlaceRequest.RequestType.ERROR) {
+            close();
+        } else {
+            send(new PlaceRequest<>(PlaceRequest.RequestType.ERROR, "Expected change tile requests only!"));
+        }
+    }
+
+    /***
+     * Encodes a request and queues it to be written
+     * @param req - The request to send
+     * @throws IOException
+     */
+    private void send(PlaceRequest<?> req) throws IOException {
+        enqueue(PlaceFrames.encode(req, version));
+    }
+
+    /***
+     * Queues frames to be written before everything that is already queued
+     * @param frames - The frames to write, in order
+     * @throws IOException
+     */
+    private void sendFirst(ByteBuffer... frames) throws IOException {
+        synchronized (this) {
+            if (!open || overflowed) {
+                return;
+            }
+            if (outbound == null) {
+                outbound = new ArrayDeque<>();
+            }
+            for (int i = frames.length - 1; i >= 0; i--) {
+                outbound.addFirst(frames[i]);
+            }
+        }
+        flush();
+    }
+
+    /***
+     * Queues a frame to be written. Safe to call from any thread.
+     * @param frame - The frame to write
+     * @throws IOException
+     */
+    private void enqueue(ByteBuffer frame) throws IOException {
+        synchronized (this) {
+            if (!open || overflowed) {
+                return;
+            }
+            if (outbound == null) {
+                outbound = new ArrayDeque<>();
+            }
+            if (outbound.size() >= MAX_OUTBOUND) {
+                // the loop drops it, this may be another thread in the middle of a broadcast
+                overflowed = true;
+                outbound = null;
+            } else {
+                outbound.add(frame);
+            }
+        }
+        if (loop.inLoop()) {
+            flush();
+        } else {
+            loop.requestFlush(this);
+        }
+    }
+
+    /***
+     * Writes as much queued output as the socket takes without blocking, and asks the selector
+     * to tell us when it can take more. A board being streamed is topped up a chunk at a time whenever
+     * the queue runs dry. Only called on the loop's thread.
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        boolean done;
+        while (true) {
+            synchronized (this) {
+                if (!open || !key.isValid()) {
+                    return;
+                }
+                if (overflowed) {
+                    closing = true;
+                }
+                while (outbound != null && !outbound.isEmpty()) {
+                    // one gathering write for everything queued, the frames are often shared with other sessions
+                    channel.write(outbound.toArray(new ByteBuffer[0]));
+                    while (!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+                        outbound.poll();
+                    }
+                    if (!outbound.isEmpty()) {
+                        break;
+                    }
+                }
+                done = outbound == null || outbound.isEmpty();
+                if (done) {
+                    outbound = null;
+                }
+            }
+            if (!done || stream == null || closing) {
+                break;
+            }
+            // fetched outside the lock, a chunk may have to be encoded and broadcasts should not wait on that
+            SharedFrame chunk = stream.next();
+            if (chunk == null) {
+                stream = null;
+                break;
+            }
+            synchronized (this) {
+                if (outbound == null) {
+                    outbound = new ArrayDeque<>();
+                }
+                outbound.add(chunk.bytes(version));
+            }
+        }
+        if (done && closing) {
+            close();
+        } else {
+            key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /***
+     * Closes the session as soon as everything queued so far has been written
+     * @throws IOException
+     */
+    private void closeWhenFlushed() throws IOException {
+        closing = true;
+        flush();
+    }
+
+    /***
+     * Closes the connection and logs the client out. Safe to call from any thread.
+     */
+    public void close() {
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            outbound = null;
+        }
+        if (username != null) {
+            server.removeClient(username, socket, this);
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void send(SharedFrame frame) throws IOException {
+        enqueue(frame.bytes(version));
+    }
+
+    @Override
+    public void createError(String msg) throws IOException {
+        send(new PlaceRequest<>(PlaceRequest.RequestType.ERROR, msg));
+    }
+
+}
@@ -1,30 +1,56 @@
 package place.server;
 
-import place.PlaceBoard;
+import place.PlaceHashes;
+import place.PlaceResume;
 import place.PlaceTile;
+import place.PlaceViewport;
+import place.network.BoardStream;
+import place.network.FrameConnection;
+import place.network.ObjectConnection;
+import place.network.PlaceConnection;
 import place.network.PlaceExchange;
+import place.network.PlaceFrames;
 import place.network.PlaceRequest;
+import place.network.QueuedConnection;
+import place.network.SharedFrame;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.SequenceInputStream;
 import java.net.Socket;
 
 /**
  * CSCI-242 AP COMPUTER SCIENCE X
  * Project 2: Place
  *
- * A thread created by the server to handle requests sent by the connected client associated with this thread
+ * Handles the requests sent by a connected client. The server runs it on a thread of the kind its engine picks: a
+ * platform thread, or a virtual thread with the virtual engine.
  *
  * @author Justin Yau
  */
-public class PlaceClientThread extends Thread {
+public class PlaceClientThread implements Runnable, PlaceSession {
 
     private Socket socket = null;   // The Client Connection
     private PlaceServer server;     // The server this thread was created by
     private String username;        // The username of the client
     private ObjectOutputStream out; // The output stream of the socket
-    private ObjectInputStream in;   // The input stream of the socket
+    private byte[] consumed;        // Bytes already read off the socket before this thread took it over
+    private PlaceConnection conn;   // The connection to the client, once we know which protocol it speaks
+    private volatile boolean running; // Whether or not run() is still going, on whatever thread it was given
+    private QueuedConnection outbound; // Queues tile changes until this client's writer gets to them
+    private BoardStream stream;     // The board being streamed to the client, if it has it streamed
+    private PlaceViewport viewport; // The part of the board the client said it looks at before logging in, if any
+    private PlaceResume offer;      // What the client said it already has before logging in, if anything
+    private PlaceHashes cached;     // The hashes of the board the client has cached, if it sent them before logging in
+    private int version;            // The frame version the client speaks, or 0 if it sends plain java objects
+    private long rejected;          // The time until which the client was told its changes are rejected
+    private int dropped;            // The changes in a row dropped for coming inside the cooldown, for older clients
 
     /***
      * Creates a new thread that will handle requests from the socket
@@ -32,12 +58,28 @@ public class PlaceClientThread extends Thread {
      * @param server - The server that created this thread
      */
     public PlaceClientThread(Socket socket, PlaceServer server) {
-        super("PlaceClientThread");
         this.socket = socket;
         this.server = server;
+        this.consumed = new byte[0];
         try {
             this.out = new ObjectOutputStream(socket.getOutputStream());
-            this.in = new ObjectInputStream(socket.getInputStream());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /***
+     * Creates a new thread for a socket that the selector engine has already greeted and read from
+     * @param socket - The socket to handle requests from, in blocking mode
+     * @param server - The server that created this thread
+     * @param consumed - The bytes that were already read off the socket
+     */
+    PlaceClientThread(Socket socket, PlaceServer server, byte[] consumed) {
+        this.socket = socket;
+        this.server = server;
+        this.consumed = consumed;
+        try {
+            this.out = ObjectConnection.headless(socket.getOutputStream());
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -53,30 +95,114 @@ public class PlaceClientThread extends Thread {
         }
     }
 
+    /***
+     * Looks at the first bytes the client sends to find out whether it speaks the framed protocol or
+     * sends plain java objects, and answers the framed handshake if needed
+     * @return - The connection to the client
+     * @throws IOException
+     */
+    private PlaceConnection openConnection() throws IOException {
+        InputStream in = new BufferedInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(consumed), socket.getInputStream()));
+        in.mark(Integer.BYTES);
+        DataInputStream data = new DataInputStream(in);
+        if(data.readInt() == PlaceFrames.MAGIC) {
+            int version = PlaceFrames.negotiate(data.readUnsignedByte());
+            BufferedOutputStream raw = new BufferedOutputStream(socket.getOutputStream());
+            raw.write(version);
+            raw.flush();
+            if(version == 0) {
+                throw new IOException("Unsupported protocol version");
+            }
+            this.version = version;
+            return new FrameConnection(data, raw, version, server.getMaxRequestSize());
+        }
+        in.reset();
+        return new ObjectConnection(this.out, new ObjectInputStream(in));
+    }
+
     /***
      * Handles the logging in of the user and any request following that
      */
+    @Override
     public void run() {
+        running = true;
         try {
-            PlaceRequest<?> req = (PlaceRequest<?>) in.readUnshared();
+            conn = openConnection();
+            outbound = new QueuedConnection(conn, MAX_OUTBOUND, socket);
+            PlaceRequest<?> req = conn.receive();
+            while (req.getType() == PlaceRequest.RequestType.VIEWPORT ||
+                    req.getType() == PlaceRequest.RequestType.RESUME ||
+                    req.getType() == PlaceRequest.RequestType.HASHES) {
+                if (req.getType() == PlaceRequest.RequestType.VIEWPORT) {
+                    viewport = (PlaceViewport) req.getData();
+                } else if (req.getType() == PlaceRequest.RequestType.RESUME) {
+                    offer = (PlaceResume) req.getData();
+                } else {
+                    cached = (PlaceHashes) req.getData();
+                }
+                req = conn.receive();
+            }
             if (req.getType() == PlaceRequest.RequestType.LOGIN) {
-                if( server.addClient(username = (String) req.getData(), this.socket, this)) {
-                    PlaceExchange.createLoginSuccess(this.out, socket.toString());
-                    PlaceExchange.createBoardRequest(this.out, server.getBoard());
+                long token = server.addClient(username = (String) req.getData(), this.socket, this,
+                        offer == null ? 0 : offer.getToken());
+                if(token != 0) {
+                    PlaceExchange.createLoginSuccess(this.conn, socket.toString());
+                    boolean resumed = false;
+                    if(offer != null) {
+                        // the answer, and if it resumes the usernames and changes it missed, instead of the board
+                        SharedFrame[] answer = server.resume(offer, token);
+                        for(SharedFrame frame : answer) {
+                            this.conn.send(frame);
+                        }
+                        resumed = ((PlaceResume) answer[0].getRequest().getData()).isResumed();
+                    }
+                    if(resumed) {
+                        dPrint(username + " resumed from " + offer.getSeq());
+                    } else if(isStreamed()) {
+                        // the usernames and first chunk come first, the writer streams the rest in between tile changes
+                        stream = cached == null ? server.getStream() : server.resync(cached);
+                        if(viewport != null) {
+                            stream.setViewport(viewport);
+                        }
+                        PlaceExchange.createUsersRequest(this.conn, server.getUsers());
+                        if(stream.getHashes() != null) {
+                            // only the chunks that differ from the cached board follow
+                            PlaceExchange.createHashesRequest(this.conn, stream.getHashes());
+                        }
+                        SharedFrame first = stream.next();
+                        if(first != null) {
+                            this.conn.send(first);
+                        }
+                        outbound.stream(stream);
+                    } else {
+                        this.conn.send(server.getSnapshot());
+                        if(version > 0) {
+                            // clients on object streams get the owner names on the tiles of the board instead
+                            PlaceExchange.createUsersRequest(this.conn, server.getUsers());
+                        }
+                    }
+                    // From here on everything is written by the queue's writer, tile changes and usernames that
+                    // arrived while the board was being sent are already waiting on it
+                    server.launch(outbound, "PlaceClientWriter");
+                    conn = outbound;
                     go();
                 } else {
-                    PlaceExchange.createError(this.out, username + " already logged in! Try a different user!");
+                    PlaceExchange.createError(this.conn, username + " already logged in! Try a different user!");
                 }
             } else {
-                PlaceExchange.createError(this.out, "Expected login request first!");
+                PlaceExchange.createError(this.conn, "Expected login request first!");
             }
-            socket.close();
         } catch (IOException e) {
             e.printStackTrace();
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
+        } finally {
+            // a client that sent something it should not have is hung up on as well
+            close();
         }
-        this.dPrint(username + " Thread ended!");
+        running = false;
+        dPrint(username + " Thread ended!");
     }
 
     /***
@@ -88,7 +214,7 @@ public class PlaceClientThread extends Thread {
         boolean loggedIn = true;
         try {
             while(loggedIn) {
-                PlaceRequest<?> req = (PlaceRequest<?>) in.readUnshared();
+                PlaceRequest<?> req = conn.receive();
                 if(req.getType() == PlaceRequest.RequestType.ERROR) {
                     loggedIn = false;
                 } else {
@@ -98,41 +224,89 @@ public class PlaceClientThread extends Thread {
         } catch (Exception e) {
             //e.printStackTrace();
         }
-        server.removeClient(username, this.socket);
+        server.removeClient(username, this.socket, this);
     }
 
     /***
      * Processes the inputted request and replies appropriately
      * @param req - The request sent to the socket
      * @throws IOException
-     * @throws InterruptedException
      */
-    public void processRequest(PlaceRequest<?> req) throws IOException, InterruptedException {
+    public void processRequest(PlaceRequest<?> req) throws IOException {
         PlaceRequest.RequestType type = req.getType();
         if(type == PlaceRequest.RequestType.CHANGE_TILE) {
-            if( server.changeTile((PlaceTile) req.getData()) ) {
-                this.sleep(PlaceExchange.SLEEP_TIME);
+            // the thread goes on reading instead of sleeping off the cooldown, changes inside it are rejected,
+            // and the client is told so once per cooldown so a flood of changes cannot fill its queue with rejections
+            long wait = server.acquire(username);
+            long now = System.currentTimeMillis();
+            if(wait == 0) {
+                dropped = 0;
+                server.changeTile((PlaceTile) req.getData());
+            } else if(version < PlaceFrames.REJECT_VERSION) {
+                // older clients cannot be told, their change is dropped, and a client that keeps on is hung up on
+                if(++dropped == MAX_DROPPED) {
+                    PlaceExchange.createError(this.conn, "Too many tile changes, slow down!");
+                    outbound.closeWhenWritten();
+                }
+            } else if(now >= rejected) {
+                rejected = now + wait;
+                outbound.send(new SharedFrame(new PlaceRequest<>(PlaceRequest.RequestType.TILE_REJECTED, wait)));
+            }
+        } else if(type == PlaceRequest.RequestType.VIEWPORT) {
+            if(stream != null) {
+                stream.setViewport((PlaceViewport) req.getData());
             }
         } else {
-            PlaceExchange.createError(this.out, "Expected change tile requests only!");
+            PlaceExchange.createError(this.conn, "Expected change tile requests only!");
         }
     }
 
+    /***
+     * Returns whether or not the client speaks a frame version that has the board streamed
+     * @return - Whether or not the client has the board streamed
+     */
+    private boolean isStreamed() {
+        return conn instanceof FrameConnection &&
+                ((FrameConnection) conn).getVersion() >= PlaceFrames.STREAM_VERSION;
+    }
+
+    /***
+     * Returns whether or not the client is still connected
+     * @return - Whether or not the client is still connected
+     */
+    public boolean isOpen() {
+        return running && !socket.isClosed();
+    }
+
     /***
      * Used by the server when shutting down
      * @param msg - Message to relay to the clients about this event
      */
     public void createError(String msg) throws IOException {
-        PlaceExchange.createError(this.out, msg);
+        PlaceExchange.createError(this.outbound, msg);
     }
 
     /***
-     * Creates a request to let users know that a tile has been updated on the server
-     * @param tile - The tile to be updated
-     * @throws IOException
+     * Disconnects the client, used when it has logged in again over another connection
+     */
+    public void close() {
+        if(outbound != null) {
+            outbound.close();
+        } else {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                dPrint(e);
+            }
+        }
+    }
+
+    /***
+     * Queues a request that is being broadcast to every client
+     * @param frame - The shared request
      */
-    public void createChangedTile(PlaceTile tile) throws IOException {
-        PlaceExchange.createChangedTile(this.out, tile);
+    public void send(SharedFrame frame) {
+        outbound.send(frame);
     }
 
 }
@@ -1,12 +1,40 @@
 package place.server;
 
+import place.BoardFile;
+import place.BoardHashes;
 import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceHashes;
+import place.PlaceResume;
 import place.PlaceTile;
+import place.PlaceUsers;
+import place.network.BoardStream;
+import place.network.PlaceExchange;
+import place.network.PlaceFrames;
+import place.network.PlaceRequest;
+import place.network.SharedFrame;
+import place.network.SnapshotCache;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * CSCI-242 AP COMPUTER SCIENCE X
@@ -19,12 +47,75 @@ import java.util.HashMap;
 public class PlaceServer {
 
     private static final int COOLDOWN_MILLI = 5000; //Time before an ip can make another connection request again
+    private static final int HISTORY = 1 << 16; //Changes kept in memory unless --history says otherwise
+    private static final int LOG_SYNC = 5; //Most milliseconds a change waits to be logged unless --log-sync says so
+    private static final int LOG_BATCH = 1024; //Changes that are logged right away unless --log-batch says otherwise
+    private static final int CHECKPOINT = 60; //Seconds between checkpoints of a logged board unless --checkpoint says
+    private static final int HISTORY_MEMORY = 64; //Megabytes of the history kept in memory unless --history-memory says
+    private static final int STRIPES = 64; //Locks the chunks of the board are spread over unless --stripes says otherwise
+    private static final int BURST = 2; //Changes a user may make at once unless --burst says otherwise, 2 so that
+                                        //a client pausing between changes is not rejected for network jitter
+    private static final String USAGE = "Usage: java PlaceServer <port number> <dim> " +
+            "[--engine=blocking|nio|virtual] [--io-threads=n] [--tick=ms] [--history=n] " +
+            "[--log=file] [--log-sync=ms] [--log-batch=n] [--checkpoint=seconds] [--board=file] " +
+            "[--history-file=file] [--history-memory=MB] [--stripes=n] [--regions=n] [--pipeline=n] " +
+            "[--burst=n] [--refill=ms]";
+
+    /***
+     * The ways the server can serve its client sockets
+     */
+    public enum Engine {
+        /** A platform thread blocking on every client socket */
+        BLOCKING,
+        /** A small fixed pool of selector threads shared by every client socket */
+        NIO,
+        /** A virtual thread blocking on every client socket (needs Java 21, falls back to BLOCKING) */
+        VIRTUAL
+    }
 
     private int portNumber; //The port number that the server will be hosted on
     private PlaceBoard board; //The server-side version of the board
+    private PlaceUsers users; //Every username that has owned a tile, the board stores their ids
+    private SnapshotCache snapshot; //Keeps the board encoded for logins, redoing only the chunks that changed
+    private long seq; //The sequence number of the latest change to the board
+    private ChangeRing changes; //The latest changes to the board, by sequence number
+    private long epoch; //Picked at random on start, tells the sequence numbers of this server from any other's
+    private long generation; //The generation of the log, which goes up every time a crash may have lost changes
+    private BoardHashes hashes; //The hash tree over the chunks of the board, for clients resyncing a cached board
     private boolean listening; //Whether or not the server is active or not
-    private HashMap<String, PlaceClientThread> clients; //A map of all the active clients that are connected to this server
+    private SessionRegistry clients; //All the active clients that are connected to this server, apart from the lock
+    private SecureRandom tokens; //Picks the resume token of every session
     private HashMap<String, Long> times; //A map containing ips and their last connection time
+    private Engine engine; //The engine serving the client sockets
+    private int ioThreads; //The number of selector threads used by the NIO engine
+    private Executor virtualThreads; //Starts a virtual thread per client when running the VIRTUAL engine
+    private ReentrantLock lock; //Guards the board. Not a monitor so virtual threads never pin on it
+    private ConcurrentLinkedQueue<SharedFrame> outbox; //Changes numbered under the lock, waiting to be broadcast
+    private ReentrantLock fanout; //Held by the one thread broadcasting the outbox, so it goes out in order
+    private int tick; //Milliseconds between batched broadcasts, or 0 to broadcast every change right away
+    private TileBroadcaster broadcaster; //Batches tile changes when a tick is set
+    private Path logFile; //The file changes are logged to and the board is rebuilt from, or null to keep none
+    private int logSync; //The most milliseconds a change waits to be logged
+    private int logBatch; //The number of waiting changes that are logged right away
+    private ChangeLog log; //The log of changes, once opened
+    private int checkpointPeriod; //Seconds between checkpoints of the board, or 0 to only take them when asked
+    private long checkpointed; //The sequence number of the latest change the last checkpoint holds
+    private ReentrantLock checkpointLock; //Lets one checkpoint be taken at a time, without holding the board
+    private ScheduledExecutorService checkpoints; //Takes the checkpoints every checkpointPeriod
+    private Thread closer; //Closes the files if the JVM exits before the server is stopped
+    private AtomicBoolean closed; //Whether or not the files were closed, by stop() or the shutdown hook
+    private Path boardFile; //The file the board is mapped from, or null to keep it on the heap
+    private BoardFile store; //The board file, once opened
+    private Path historyFile; //The file every change ever made is kept in, or null to keep no history
+    private int historyMemory; //Megabytes of the history kept in memory
+    private ChangeHistory history; //The history of every change, once opened
+    private ReentrantLock[] stripes; //Guard the chunks of the board while changes are applied to them, or null for none
+    private RegionWriters regions; //Write the changes from one thread per region of the board, or null to use stripes
+    private int burst; //The most changes a user may make at once
+    private int refill; //Milliseconds it takes a user to get one change back, or 0 to let every change through
+    private RateLimiter limiter; //Limits how often every user may change a tile
+    private TilePipeline pipeline; //Runs changes through validate, apply, persist and broadcast threads, or null
+    private ReentrantReadWriteLock boardLock; //Shared by changes being applied, held alone to take a view of the board
 
     /***
      * Creates a new server that will allow players to connect to manipulate pixels on the created board
@@ -33,17 +124,195 @@ public class PlaceServer {
      */
     public PlaceServer(int portNumber, int dim) {
         this.portNumber = portNumber;
-        this.board = new PlaceBoard(dim);
+        this.users = new PlaceUsers();
+        this.board = new PlaceBoard(dim, users);
+        this.snapshot = new SnapshotCache(board);
+        this.hashes = new BoardHashes(board);
+        this.changes = new ChangeRing(HISTORY);
+        this.epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
         this.listening = true;
-        this.clients = new HashMap<String, PlaceClientThread>();
+        this.clients = new SessionRegistry();
+        this.tokens = new SecureRandom();
         this.times = new HashMap<String, Long>();
+        this.engine = Engine.BLOCKING;
+        this.ioThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.lock = new ReentrantLock();
+        this.closed = new AtomicBoolean();
+        this.outbox = new ConcurrentLinkedQueue<>();
+        this.fanout = new ReentrantLock();
+        this.logSync = LOG_SYNC;
+        this.logBatch = LOG_BATCH;
+        this.checkpointPeriod = CHECKPOINT;
+        this.checkpointLock = new ReentrantLock();
+        this.historyMemory = HISTORY_MEMORY;
+        this.stripes = newStripes(STRIPES);
+        this.boardLock = new ReentrantReadWriteLock();
+        this.burst = BURST;
+        this.refill = PlaceExchange.SLEEP_TIME;
+        this.limiter = new RateLimiter(burst, refill);
+    }
+
+    /***
+     * Makes the locks the chunks of the board are spread over
+     * @param count - The number of locks, or 0 to apply every change under the lock alone
+     * @return - The locks, or null for none
+     */
+    private static ReentrantLock[] newStripes(int count) {
+        if(count == 0) {
+            return null;
+        }
+        ReentrantLock[] stripes = new ReentrantLock[count];
+        for(int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        return stripes;
+    }
+
+    /***
+     * Applies a command line option of the form --name=value
+     * @param option - The option to apply
+     * @throws IllegalArgumentException - If the option is not recognized or its value is invalid
+     */
+    public void setOption(String option) {
+        String[] parts = option.split("=", 2);
+        if(parts.length != 2) {
+            throw new IllegalArgumentException("Expected --name=value but got " + option);
+        }
+        switch(parts[0]) {
+            case "--engine":
+                this.engine = Engine.valueOf(parts[1].toUpperCase());
+                break;
+            case "--tick":
+                this.tick = Integer.parseInt(parts[1]);
+                if(this.tick < 0) {
+                    throw new IllegalArgumentException("--tick must not be negative");
+                }
+                break;
+            case "--io-threads":
+                this.ioThreads = Integer.parseInt(parts[1]);
+                if(this.ioThreads < 1) {
+                    throw new IllegalArgumentException("--io-threads must be at least 1");
+                }
+                break;
+            case "--history":
+                int history = Integer.parseInt(parts[1]);
+                if(history < 1) {
+                    throw new IllegalArgumentException("--history must be at least 1");
+                }
+                this.changes = new ChangeRing(history);
+                break;
+            case "--log":
+                this.logFile = Paths.get(parts[1]);
+                break;
+            case "--log-sync":
+                this.logSync = Integer.parseInt(parts[1]);
+                if(this.logSync < 1) {
+                    throw new IllegalArgumentException("--log-sync must be at least 1");
+                }
+                break;
+            case "--log-batch":
+                this.logBatch = Integer.parseInt(parts[1]);
+                if(this.logBatch < 1) {
+                    throw new IllegalArgumentException("--log-batch must be at least 1");
+                }
+                break;
+            case "--history-file":
+                this.historyFile = Paths.get(parts[1]);
+                break;
+            case "--history-memory":
+                this.historyMemory = Integer.parseInt(parts[1]);
+                if(this.historyMemory < 1) {
+                    throw new IllegalArgumentException("--history-memory must be at least 1");
+                }
+                break;
+            case "--board":
+                this.boardFile = Paths.get(parts[1]);
+                break;
+            case "--stripes":
+                int stripes = Integer.parseInt(parts[1]);
+                if(stripes < 0) {
+                    throw new IllegalArgumentException("--stripes must not be negative");
+                }
+                this.stripes = newStripes(stripes);
+                break;
+            case "--regions":
+                int regions = Integer.parseInt(parts[1]);
+                if(regions < 0) {
+                    throw new IllegalArgumentException("--regions must not be negative");
+                }
+                if(this.regions != null) {
+                    this.regions.stop();
+                }
+                this.regions = regions > 0 ? new RegionWriters(this, regions) : null;
+                break;
+            case "--pipeline":
+                int events = Integer.parseInt(parts[1]);
+                if(events < 0) {
+                    throw new IllegalArgumentException("--pipeline must not be negative");
+                }
+                if(this.pipeline != null) {
+                    this.pipeline.stop();
+                }
+                this.pipeline = events > 0 ? newPipeline(events) : null;
+                break;
+            case "--burst":
+                this.burst = Integer.parseInt(parts[1]);
+                if(this.burst < 1) {
+                    throw new IllegalArgumentException("--burst must be at least 1");
+                }
+                this.limiter.stop();
+                this.limiter = new RateLimiter(burst, refill);
+                break;
+            case "--refill":
+                this.refill = Integer.parseInt(parts[1]);
+                if(this.refill < 0) {
+                    throw new IllegalArgumentException("--refill must not be negative");
+                }
+                this.limiter.stop();
+                this.limiter = new RateLimiter(burst, refill);
+                break;
+            case "--checkpoint":
+                this.checkpointPeriod = Integer.parseInt(parts[1]);
+                if(this.checkpointPeriod < 0) {
+                    throw new IllegalArgumentException("--checkpoint must not be negative");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + parts[0]);
+        }
+    }
+
+    /***
+     * Used for debugging. Will print messages if debug variable is enabled
+     * @param logMsg - The message to print
+     */
+    private static void dPrint( Object logMsg ) {
+        if ( PlaceExchange.DEBUG ) {
+            System.out.println( logMsg );
+        }
     }
 
     /***
      * Sets up the server host on the port and begins accepting new clients.
      * Will start new threads for each client and their status will be updated as time progresses
      */
-    private void go() {
+    public void go() {
+        try {
+            open();
+        } catch (IOException e) {
+            System.err.println("Could not open the board: " + e.getMessage());
+            System.exit(-1);
+        }
+        if(tick > 0) {
+            broadcaster = new TileBroadcaster(this, board.DIM, users, tick);
+        }
+        if(engine == Engine.NIO) {
+            goSelector();
+            return;
+        }
+        if(engine == Engine.VIRTUAL) {
+            virtualThreads = newVirtualThreadExecutor();
+        }
         try (ServerSocket serverSocket = new ServerSocket(portNumber)) {
             System.out.println("Server started on port: " + portNumber + "! Now accepting users!");
             while (listening) {
@@ -56,6 +325,290 @@ public class PlaceServer {
         }
     }
 
+    /***
+     * Opens the board file set with --board and the log of changes set with --log, if they are not open yet, and
+     * rebuilds the board from them. A board file is simply mapped, and only the changes logged after it was last
+     * forced are replayed. Without one, the last checkpoint of the board is loaded and only the changes logged after
+     * it are replayed. Every change after is logged, and checkpoints are taken every --checkpoint seconds from then on.
+     * The history set with --history-file is opened before the changes are replayed, so it gets them too.
+     * Called by go(), but has to be called before any change is made if the server is changed before it goes.
+     * The server takes the epoch of the log or the board file over, so clients of the server that wrote it can still
+     * resume, unless the log was not closed cleanly and may have lost changes they were sent.
+     * @throws IOException - If the files cannot be read, or are of a board of another dimension
+     * @throws IllegalStateException - If changes were made before the files were opened
+     */
+    public void open() throws IOException {
+        lock.lock();
+        try {
+            if(log != null || store != null || history != null ||
+                    (logFile == null && boardFile == null && historyFile == null)) {
+                return;
+            }
+            if(seq > 0) {
+                throw new IllegalStateException("The board has to be opened before any change is made");
+            }
+            long began = System.nanoTime();
+            boolean loaded = false;
+            if(logFile != null && (boardFile == null || !Files.exists(boardFile))) {
+                BoardCheckpoint saved = new BoardCheckpoint(getCheckpointFile());
+                loaded = saved.load();
+                if(loaded) {
+                    PlaceBoard checkpoint = saved.getBoard();
+                    if(checkpoint.DIM != board.DIM) {
+                        throw new IOException(getCheckpointFile() + " is a checkpoint of a " + checkpoint.DIM + "x" +
+                                checkpoint.DIM + " board");
+                    }
+                    this.board = checkpoint;
+                    this.seq = board.getSeq();
+                    this.epoch = saved.getEpoch();
+                }
+            }
+            if(boardFile != null) {
+                store = new BoardFile(boardFile, board.DIM, epoch);
+                if(store.isCreated() && loaded) {
+                    // starts the board file off from the checkpoint, which it takes the place of
+                    store.copy(board, epoch);
+                    Files.delete(getCheckpointFile());
+                }
+                loaded |= !store.isCreated();
+                this.board = store.getBoard();
+                this.seq = logFile != null ? store.getForced() : store.getSeq();
+                this.epoch = store.getEpoch();
+                board.setSeq(seq);
+            }
+            this.users = board.getUsers();
+            this.snapshot = new SnapshotCache(board);
+            this.snapshot.setDirect(store != null);
+            this.hashes = new BoardHashes(board);
+            this.checkpointed = seq;
+            long after = seq;
+            if(historyFile != null) {
+                if(!loaded && logFile != null) {
+                    // the server takes the epoch of the log over once it is replayed, the history has to have it now
+                    epoch = ChangeLog.readEpoch(logFile, epoch);
+                }
+                history = new ChangeHistory(historyFile, epoch, after, (long) historyMemory << 20);
+            }
+            if(logFile != null) {
+                log = new ChangeLog(logFile, board.DIM, epoch, after, logSync, logBatch, new ChangeLog.Replay() {
+                    @Override
+                    public void user(int id, String name) {
+                        if(users.idOf(name) != id) {
+                            throw new IllegalStateException("Username " + name + " was logged with id " + id);
+                        }
+                    }
+
+                    @Override
+                    public void change(long seq, int row, int col, PlaceColor color, int owner, long time,
+                                       long accepted) {
+                        PlaceTile tile = new PlaceTile(row, col, users.getName(owner), color, time);
+                        tile.setSeq(seq);
+                        apply(tile, accepted);
+                    }
+                });
+                if(loaded && log.getEpoch() != epoch) {
+                    log.close();
+                    log = null;
+                    throw new IOException(logFile + " was not written by the server that wrote " +
+                            (store != null ? boardFile : getCheckpointFile()));
+                }
+                epoch = log.getEpoch();
+                generation = log.getGeneration();
+                if(!log.wasClean()) {
+                    System.out.println(logFile + " was not closed cleanly, clients have to load the board again");
+                }
+                if(store != null) {
+                    store.setEpoch(epoch);
+                }
+                log.prune(after);
+            }
+            String from = store != null ? boardFile.toString() : "a checkpoint";
+            if(seq > after) {
+                System.out.println("Rebuilt the board from " + (loaded ? from + " of " + after + " changes and " :
+                        "") + (seq - after) + " changes in " + logFile + " in " +
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - began) + " ms");
+            } else if(seq > 0) {
+                System.out.println("Opened the board from " + from + " of " + seq + " changes in " +
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - began) + " ms");
+            } else if(log != null) {
+                System.out.println("Logging changes to " + logFile);
+            } else if(store != null) {
+                System.out.println("Keeping the board in " + boardFile);
+            }
+            if(history != null) {
+                System.out.println("Keeping every change in " + historyFile + ", " + history.getLast() +
+                        " so far");
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(checkpointPeriod > 0 && (log != null || store != null)) {
+            checkpoints = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "PlaceCheckpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpoints.scheduleWithFixedDelay(this::checkpointQuietly, checkpointPeriod, checkpointPeriod,
+                    TimeUnit.SECONDS);
+        }
+        closer = new Thread(this::close, "PlaceClose");
+        Runtime.getRuntime().addShutdownHook(closer);
+    }
+
+    /***
+     * Returns the file the checkpoints of the board are kept in, next to the log
+     * @return - The file
+     */
+    private Path getCheckpointFile() {
+        return logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+    }
+
+    /***
+     * Takes a checkpoint of the board and deletes the segments of the log it holds every change of. The board is only
+     * held while a copy-on-write view of it is taken, so changes go on while the checkpoint is written. Nothing is
+     * written if the board has not changed since the last checkpoint. A board kept in a board file is forced out to
+     * it instead, which holds every change made before and maybe some made while it is forced.
+     * @return - The sequence number of the latest change the checkpoint holds, or -1 if no log or board file is kept
+     * @throws IOException - If the checkpoint could not be written, the last one is kept then
+     */
+    public long checkpoint() throws IOException {
+        checkpointLock.lock();
+        try {
+            PlaceBoard view = null;
+            long at;
+            lockBoard();
+            try {
+                if(log == null && store == null) {
+                    return -1;
+                }
+                if(seq == checkpointed) {
+                    return checkpointed;
+                }
+                if(store == null) {
+                    view = snapshot.capture();
+                }
+                at = seq;
+                if(log != null) {
+                    log.roll();
+                }
+            } finally {
+                unlockBoard();
+            }
+            long began = System.nanoTime();
+            if(store != null) {
+                store.force(at);
+                if(history != null) {
+                    history.flush();
+                }
+                int pruned = log != null ? log.prune(at) : 0;
+                checkpointed = at;
+                System.out.println("Forced " + at + " changes out to " + boardFile + " in " +
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - began) + " ms, " + pruned +
+                        " log segments deleted");
+                return at;
+            }
+            SharedFrame frame = snapshot.get(view);
+            // taken after the frame, which may be of a newer view than ours, so it names every owner on it
+            PlaceUsers names = getUsers();
+            at = ((PlaceBoard) frame.getRequest().getData()).getSeq();
+            long bytes = new BoardCheckpoint(getCheckpointFile()).save(epoch, names, frame);
+            if(history != null) {
+                history.flush();
+            }
+            int pruned = log.prune(at);
+            checkpointed = at;
+            System.out.println("Checkpoint of " + at + " changes: " + (bytes >> 10) + " KB in " +
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - began) + " ms, " + pruned +
+                    " log segments deleted");
+            return at;
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /***
+     * Takes a checkpoint, for the timer, printing why if it could not be written
+     */
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not take a checkpoint: " + e);
+        }
+    }
+
+    /***
+     * Stops taking checkpoints, takes a last one if they are taken every so often or the board is kept in a board
+     * file, and closes the log of changes once everything appended to it has been written out. Only the first call,
+     * from stop() or the shutdown hook, does anything.
+     */
+    private void close() {
+        if(!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if(checkpoints != null) {
+            checkpoints.shutdownNow();
+        }
+        if(checkpoints != null || store != null) {
+            checkpointQuietly();
+        }
+        if(log != null) {
+            log.close();
+        }
+        if(store != null) {
+            store.close();
+        }
+        if(history != null) {
+            history.close();
+        }
+    }
+
+    /***
+     * Returns the log of changes
+     * @return - The log, or null if none is kept or it is not open yet
+     */
+    public ChangeLog getLog() {
+        return log;
+    }
+
+    /***
+     * Returns the history of every change made, which can be scanned from any thread. Owner ids are in the
+     * dictionary returned by {@link #getUsers()}.
+     * @return - The history, or null if none is kept or it is not open yet
+     */
+    public ChangeHistory getHistory() {
+        return history;
+    }
+
+    /***
+     * Sets up the server host on the port and serves every client from the selector engine's threads
+     */
+    private void goSelector() {
+        try {
+            System.out.println("Server started on port: " + portNumber + " with " + ioThreads +
+                    " selector threads! Now accepting users!");
+            new SelectorEngine(this, ioThreads).go(portNumber);
+            System.out.println("Server Stopped.");
+        } catch (IOException e) {
+            System.err.println("Could not listen on port " + portNumber);
+            System.exit(-1);
+        }
+    }
+
+    /***
+     * Looks up Executors.newVirtualThreadPerTaskExecutor, which only exists from Java 21 on.
+     * Done reflectively so the server still builds and runs on older JDKs.
+     * @return - An executor that starts a virtual thread per task, or null if the JDK has none
+     */
+    private static Executor newVirtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads need Java 21 or newer, using platform threads instead");
+            return null;
+        }
+    }
+
     /***
      * Handles the registration of the next incoming client
      * @param serverSocket - The server socket this server is hosted on
@@ -63,18 +616,42 @@ public class PlaceServer {
      */
     public void handleNextClient(ServerSocket serverSocket) throws IOException {
         Socket sock = serverSocket.accept();
+        if(admit(sock)) {
+            launch(new PlaceClientThread(sock, this), "PlaceClientThread");
+        } else {
+            sock.close();
+        }
+    }
+
+    /***
+     * Runs a task on a thread of its own: a virtual thread with the VIRTUAL engine, otherwise a platform thread
+     * @param task - The task to run
+     * @param name - The name of the platform thread
+     */
+    void launch(Runnable task, String name) {
+        if(virtualThreads != null) {
+            virtualThreads.execute(task);
+        } else {
+            new Thread(task, name).start();
+        }
+    }
+
+    /***
+     * Determines whether a newly accepted socket may go on to log in, and records its connection time if so
+     * @param sock - The newly accepted socket
+     * @return - Whether or not the socket may go on to log in
+     */
+    boolean admit(Socket sock) {
         String ip = sock.getRemoteSocketAddress().toString().replace("/", "").split(":")[0];
         if(times.containsKey(ip)) {
             if(canConnect(ip)) {
                 times.replace(ip, System.currentTimeMillis());
-                new PlaceClientThread(sock, this).start();
-            } else {
-                sock.close();
+                return true;
             }
-        } else {
-            times.put(ip, System.currentTimeMillis());
-            new PlaceClientThread(sock, this).start();
+            return false;
         }
+        times.put(ip, System.currentTimeMillis());
+        return true;
     }
 
     /***
@@ -86,36 +663,248 @@ public class PlaceServer {
         return (System.currentTimeMillis() - times.get(ip)) >= COOLDOWN_MILLI;
     }
 
+    /***
+     * Returns the largest frame body the sessions accept from a client, enough for a HASHES offer of the board
+     * @return - The largest frame body, in bytes
+     */
+    public int getMaxRequestSize() {
+        return PlaceFrames.maxRequestSize(board.DIM);
+    }
+
     /***
      * Returns the current state of the board
      * @return - The current state of the board
      */
-    public synchronized PlaceBoard getBoard() {
-        return this.board;
+    public PlaceBoard getBoard() {
+        lockBoard();
+        try {
+            return this.board;
+        } finally {
+            unlockBoard();
+        }
+    }
+
+    /***
+     * Takes the lock with no change being applied to the board, for a view of the whole of it. Changes are applied
+     * to their chunks after the lock is let go when they are striped, so the lock alone is not enough. Must not be
+     * called with the lock held.
+     */
+    private void lockBoard() {
+        boardLock.writeLock().lock();
+        lock.lock();
+    }
+
+    /***
+     * Lets go of the board taken by {@link #lockBoard()}
+     */
+    private void unlockBoard() {
+        lock.unlock();
+        boardLock.writeLock().unlock();
+    }
+
+    /***
+     * Returns a BOARD request for the board as it is now or later, already encoded for clients of the binary
+     * protocol. The board is only held while a copy-on-write view of it is taken, it is encoded after. The board
+     * carries the sequence number of its latest change, so a client can tell which changes it already has.
+     * @return - The request, ready to be sent to any number of clients
+     */
+    public SharedFrame getSnapshot() {
+        PlaceBoard view;
+        lockBoard();
+        try {
+            view = snapshot.capture();
+        } finally {
+            unlockBoard();
+        }
+        return snapshot.get(view);
+    }
+
+    /***
+     * Returns a stream of the board as it is now, a chunk at a time, for clients that have the board streamed.
+     * The board is only held while a copy-on-write view of it is taken.
+     * @return - The stream
+     */
+    public BoardStream getStream() {
+        PlaceBoard view;
+        lockBoard();
+        try {
+            view = snapshot.capture();
+        } finally {
+            unlockBoard();
+        }
+        return snapshot.stream(view);
+    }
+
+    /***
+     * Returns a stream of the board as it is now, for a client that has a board cached. It only has the chunks
+     * whose hashes differ from the client's, and the hashes of the board to send ahead of them. If the cached board
+     * is not the same size, the stream has every chunk and no hashes.
+     * @param have - The hashes of the chunks of the cached board
+     * @return - The stream
+     */
+    public BoardStream resync(PlaceHashes have) {
+        if(have.getDim() != board.DIM || have.getChunks().length != board.getChunkCount()) {
+            return getStream();
+        }
+        PlaceBoard view;
+        long root;
+        long[] ours;
+        lockBoard();
+        try {
+            view = snapshot.capture();
+            root = hashes.getRoot();
+            ours = root == have.getRoot() ? new long[0] : hashes.getChunks();
+        } finally {
+            unlockBoard();
+        }
+        BoardStream stream = snapshot.stream(view);
+        stream.resync(new PlaceHashes(view.DIM, view.getSeq(), root, ours), have.getChunks());
+        return stream;
+    }
+
+    /***
+     * Returns the root of the hash tree over the chunks of the board, as a client resyncing its cached board would be
+     * sent it
+     * @return - The root hash
+     */
+    public long getRoot() {
+        lockBoard();
+        try {
+            return hashes.getRoot();
+        } finally {
+            unlockBoard();
+        }
+    }
+
+    /***
+     * Returns a copy of every username that has owned a tile so far. Taken after the board has been sent,
+     * it names every owner on that board.
+     * @return - A copy of every username that has owned a tile so far
+     */
+    public PlaceUsers getUsers() {
+        lock.lock();
+        try {
+            return users.since(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns the ring of the latest changes to the board. It can be read from any thread, owner ids are in the
+     * dictionary returned by {@link #getUsers()}.
+     * @return - The latest changes to the board
+     */
+    public ChangeRing getChanges() {
+        return changes;
+    }
+
+    /***
+     * Returns the epoch of this server, which clients offer back along with their sequence number to resume. The
+     * generation of the log is added to the epoch of the board, as changes lost in a crash may have been sent out
+     * already, and their sequence numbers are handed out again after it.
+     * @return - The epoch
+     */
+    public long getEpoch() {
+        return epoch + generation;
+    }
+
+    /***
+     * Answers a client that offered to resume from what it already has. If the ring of latest changes still holds
+     * every change since its sequence number, the answer is followed by the usernames it is missing and those
+     * changes, and it needs no board. Has to be called after the client has been added, so that no change falls in
+     * between the ones replayed and the ones broadcast to it.
+     * @param offer - What the client already has
+     * @param token - The resume token of the client's session, which the answer tells it
+     * @return - The answer, and if the client resumes, the usernames and changes to send it right after
+     */
+    public SharedFrame[] resume(PlaceResume offer, long token) {
+        lock.lock();
+        try {
+            ArrayList<PlaceTile> missed = null;
+            if(offer.getEpoch() == getEpoch() && offer.getSeq() >= 0 && offer.getSeq() <= seq &&
+                    offer.getUsers() <= users.size()) {
+                missed = changes.since(offer.getSeq(), users);
+            }
+            if(missed == null) {
+                return new SharedFrame[] {
+                        new SharedFrame(new PlaceRequest<>(PlaceRequest.RequestType.RESUME,
+                                new PlaceResume(getEpoch(), -1, 0, token)))
+                };
+            }
+            dPrint("Replaying " + missed.size() + " changes since " + offer.getSeq());
+            return new SharedFrame[] {
+                    new SharedFrame(new PlaceRequest<>(PlaceRequest.RequestType.RESUME,
+                            new PlaceResume(getEpoch(), offer.getSeq(), users.size(), token))),
+                    PlaceExchange.createUsers(users.since(offer.getUsers())),
+                    PlaceExchange.createChangedTiles(missed, users)
+            };
+        } finally {
+            lock.unlock();
+        }
     }
 
     /***
      * Returns the current list of clients connected to server
-     * @return - The current list of clients connected to server
+     * @return - The current list of clients connected to server, by lower-cased username, which cannot be changed
      */
-    public synchronized HashMap<String, PlaceClientThread> getClients() {
-        return clients;
+    public Map<String, PlaceSession> getClients() {
+        return clients.asMap();
     }
 
     /***
      * Registers a new client to the database of clients that are currently connected
      * @param username - The current username of the client connecting
      * @param sock - The socket that the client is connecting through
-     * @param thread - The thread that is handling the client connections
+     * @param session - The session that is handling the client connections
      * @return - Whether or not the operation was successful
      */
-    public synchronized boolean addClient(String username, Socket sock, PlaceClientThread thread) {
-        if(!isConnected(username)) {
+    public boolean addClient(String username, Socket sock, PlaceSession session) {
+        return addClient(username, sock, session, 0) != 0;
+    }
+
+    /***
+     * Registers a new client to the database of clients that are currently connected, and picks the resume token of
+     * its session. A username that is still registered is taken over, and its session closed, only if the client
+     * offers that session's token, which only the client it was given to knows. The clients are kept apart from the
+     * board, so logging in never holds up a change.
+     * @param username - The current username of the client connecting
+     * @param sock - The socket that the client is connecting through
+     * @param session - The session that is handling the client connections
+     * @param offered - The resume token the client was given when it last logged in, for a client that resumes after
+     *                losing its connection before the server noticed, or 0 for none
+     * @return - The resume token of the new session, or 0 if the username is taken
+     */
+    public long addClient(String username, Socket sock, PlaceSession session, long offered) {
+        long token = newToken();
+        if(offered == 0) {
+            if(!clients.add(username, session, token)) {
+                return 0;
+            }
             System.out.println(username + " connected! " + sock.toString());
-            this.clients.put(username.toLowerCase(), thread);
-            return true;
+            return token;
+        }
+        PlaceSession had = clients.takeOver(username, session, offered, token);
+        if(had == null) {
+            return 0;
+        }
+        if(had != session) {
+            had.close();
         }
-        return false;
+        System.out.println(username + (had != session ? " reconnected! " : " connected! ") + sock.toString());
+        return token;
+    }
+
+    /***
+     * Picks a resume token that cannot be guessed
+     * @return - The token, never 0
+     */
+    private long newToken() {
+        long token;
+        do {
+            token = tokens.nextLong();
+        } while(token == 0);
+        return token;
     }
 
     /***
@@ -123,8 +912,8 @@ public class PlaceServer {
      * @param username - The username to check avaliablity
      * @return - Whether or not the given username is currently connected
      */
-    public synchronized boolean isConnected(String username) {
-        return this.clients.containsKey(username.toLowerCase());
+    public boolean isConnected(String username) {
+        return clients.contains(username);
     }
 
     /***
@@ -133,34 +922,439 @@ public class PlaceServer {
      * To be called in cojunction when the thread ends.
      * @param username - The username of the disconnecting user
      * @param sock - The socket of the disconnecting user
+     * @param session - The session of the disconnecting user, nothing is removed if the username has been taken
+     *                over by another session since
      * @return - Whether or not the operation was a success
      */
-    public synchronized boolean removeClient(String username, Socket sock) {
-        if(isConnected(username)) {
-            System.out.println(username + " disconnected! " + sock.toString());
-            this.clients.remove(username.toLowerCase());
-            return true;
+    public boolean removeClient(String username, Socket sock, PlaceSession session) {
+        if(!clients.remove(username, session)) {
+            return false;
         }
-        return false;
+        limiter.release(username, System.currentTimeMillis());
+        System.out.println(username + " disconnected! " + sock.toString());
+        return true;
+    }
+
+    /***
+     * Takes one change out of the bucket of a user, which gets a burst of changes and then one more every refill
+     * period. Sessions check it before every change they get from their client, on whatever thread serves them,
+     * and nothing waits in it.
+     * @param username - The username of the client that sent the change
+     * @return - 0 if the change may be made, otherwise the milliseconds until the user may make one again
+     */
+    public long acquire(String username) {
+        return limiter.acquire(username, System.currentTimeMillis());
     }
 
     /***
-     * Updates the server-side state of the board such that it can be passed on to new and current clients
+     * Updates the server-side state of the board such that it can be passed on to new and current clients.
+     * The tile is given the next sequence number before it is applied, and is kept in the ring of latest changes.
+     * The hashes of its chunk and the path up to the root are updated along with it. It is appended to the log of
+     * changes if one is kept, which only buffers it, the log writes it out with the rest of its batch.
+     * The change is broadcast right after the lock is let go, in the order changes were numbered, or with the next
+     * tick's batch when a tick is set. An owner that is new to the board has their username broadcast first, so
+     * clients know it before any of their tiles arrive.
+     *
+     * When the chunks are striped, only the sequence number, the ring, the history and the log are done under the
+     * lock, since they have to see the changes in one order. The tile is written to its chunk and the
+     * chunk's hash after the lock is let go, under the stripe of the chunk, so changes to chunks of different stripes
+     * are written at once. The stripe is held from before the tile is numbered, so changes to the same tile are still
+     * written in the order they were numbered.
+     *
+     * When there are region writers, whether the chunks are striped or not, the change is only handed to the writer
+     * of its region, which numbers a batch of changes at a time under the lock and writes them after, so the change
+     * has been accepted but maybe not made yet when this returns.
+     *
+     * When there is a pipeline, the change is only published to it, and its stages apply, log and broadcast it later
+     * on. A change published while the pipeline is being stopped is dropped.
+     *
+     * Once the log of changes could not be written, no change is accepted, as it would be lost with the server.
      * @param tile - The tile to be changed
      * @return - Whether or not the operation was successful
      * @throws IOException
      */
-    public synchronized boolean changeTile(PlaceTile tile) throws IOException {
-        if(board.isValid(tile)) {
-            board.setTile(tile);
-            for(PlaceClientThread thread: this.clients.values()) {
-                if(thread.isAlive()) {
-                    thread.createChangedTile(tile);
-                }
+    public boolean changeTile(PlaceTile tile) throws IOException {
+        if(log != null && log.isFailed()) {
+            return false;
+        }
+        if(!board.isValid(tile)) {
+            return false;
+        }
+        if(pipeline != null) {
+            return pipeline.publish(tile);
+        }
+        if(regions != null) {
+            regions.submit(tile, board.getChunkNumber(tile.getRow(), tile.getCol()));
+            return true;
+        }
+        if(stripes == null) {
+            lock.lock();
+            try {
+                int known = users.size();
+                long accepted = System.currentTimeMillis();
+                tile.setSeq(seq + 1);
+                int owner = apply(tile, accepted);
+                publish(tile, owner, known, accepted);
+            } finally {
+                lock.unlock();
             }
+            drain();
             return true;
         }
-        return false;
+        ReentrantLock stripe = stripes[board.getChunkNumber(tile.getRow(), tile.getCol()) % stripes.length];
+        boardLock.readLock().lock();
+        stripe.lock();
+        try {
+            write(tile);
+            return true;
+        } finally {
+            stripe.unlock();
+            boardLock.readLock().unlock();
+        }
+    }
+
+    /***
+     * Makes a change like {@link #changeTile(PlaceTile)}, except that it never waits for room in the pipeline, for
+     * the selector threads, which serve other clients as well
+     * @param tile - The tile to be changed
+     * @return - False if the pipeline had no room for the change, true if it was taken or refused for good
+     * @throws IOException
+     */
+    public boolean offerTile(PlaceTile tile) throws IOException {
+        if(pipeline == null || !board.isValid(tile) || (log != null && log.isFailed())) {
+            changeTile(tile);
+            return true;
+        }
+        return pipeline.tryPublish(tile);
+    }
+
+    /***
+     * Numbers a change, keeps and logs it under the lock, and writes it to its chunk and the chunk's hash and then
+     * broadcasts it after the lock is let go. Has to be called by the one thread writing to the chunk, with its
+     * stripe held, and with the board shared with the other writers.
+     * @param tile - The change, on the board
+     * @throws IOException - If a new owner could not be written to the board file
+     */
+    void write(PlaceTile tile) throws IOException {
+        int row = tile.getRow();
+        int col = tile.getCol();
+        int owner;
+        String before;
+        lock.lock();
+        try {
+            int known = users.size();
+            long accepted = System.currentTimeMillis();
+            owner = users.idOf(tile.getOwner());
+            if(store != null) {
+                store.saveUsers();
+            }
+            // numbered only once nothing can fail, so a change that could not be made leaves no gap
+            tile.setSeq(++seq);
+            before = users.getName(board.getOwner(row, col));
+            board.setSeq(seq);
+            if(store != null) {
+                store.setSeq(seq);
+            }
+            keep(tile, owner, accepted);
+            publish(tile, owner, known, accepted);
+        } finally {
+            lock.unlock();
+        }
+        hashes.applyChunk(board, tile, before);
+        board.setTile(row, col, tile.getColor(), owner, tile.getTime());
+        drain();
+    }
+
+    /***
+     * Numbers, keeps and logs a batch of changes under the lock, taken once for all of them, and writes them to
+     * their chunks and the chunks' hashes and then broadcasts them after the lock is let go. Has to be called from
+     * the region writer that owns every one of their chunks, with the board shared with the other writers.
+     * @param tiles - The changes, on the board, in the order they were handed to the region
+     * @param count - The number of changes
+     * @throws IOException - If a new owner could not be written to the board file
+     */
+    void writeAll(PlaceTile[] tiles, int count) throws IOException {
+        int[] owners = new int[count];
+        String[] before = new String[count];
+        // a tile changed twice in the batch is not on the board yet the second time, its owner is taken from here
+        HashMap<Integer, String> pending = new HashMap<>();
+        long accepted = System.currentTimeMillis();
+        lock.lock();
+        try {
+            int known = users.size();
+            for(int i = 0; i < count; i++) {
+                owners[i] = users.idOf(tiles[i].getOwner());
+            }
+            if(store != null) {
+                store.saveUsers();
+            }
+            // numbered after the owners are saved, as in write()
+            for(int i = 0; i < count; i++) {
+                PlaceTile tile = tiles[i];
+                int at = tile.getRow() * board.DIM + tile.getCol();
+                tile.setSeq(++seq);
+                String last = pending.put(at, users.getName(owners[i]));
+                before[i] = last != null ? last : users.getName(board.getOwner(tile.getRow(), tile.getCol()));
+            }
+            board.setSeq(seq);
+            if(store != null) {
+                store.setSeq(seq);
+            }
+            // the owners new to the board go out with the first change, ahead of all of theirs
+            for(int i = 0; i < count; i++) {
+                keep(tiles[i], owners[i], accepted);
+                publish(tiles[i], owners[i], i == 0 ? known : users.size(), accepted);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for(int i = 0; i < count; i++) {
+            PlaceTile tile = tiles[i];
+            hashes.applyChunk(board, tile, before[i]);
+            board.setTile(tile.getRow(), tile.getCol(), tile.getColor(), owners[i], tile.getTime());
+        }
+        drain();
+    }
+
+    /***
+     * Shares the board with the other threads writing changes to it, keeping views of the whole board from being
+     * taken meanwhile
+     */
+    void lockShared() {
+        boardLock.readLock().lock();
+    }
+
+    /***
+     * Lets go of the board shared by {@link #lockShared()}
+     */
+    void unlockShared() {
+        boardLock.readLock().unlock();
+    }
+
+    /***
+     * Makes the pipeline of stages changes are run through
+     * @param events - The number of changes the pipeline holds
+     * @return - The pipeline, with its stages started
+     */
+    private TilePipeline newPipeline(int events) {
+        return new TilePipeline(events, this::validateAll, this::applyAll, this::persistAll, this::broadcastAll);
+    }
+
+    /***
+     * The validate stage of the pipeline, which marks the changes that are on the board
+     * @param events - The changes
+     * @param count - The number of changes
+     */
+    private void validateAll(TilePipeline.Event[] events, int count) {
+        for(int i = 0; i < count; i++) {
+            events[i].valid = board.isValid(events[i].tile);
+        }
+    }
+
+    /***
+     * The apply stage of the pipeline, which numbers the valid changes and applies them under the lock, taken once
+     * for all of them. If one cannot be applied, it and the ones after it are made invalid, and the log is failed so
+     * no more changes are accepted.
+     * @param events - The changes
+     * @param count - The number of changes
+     */
+    private void applyAll(TilePipeline.Event[] events, int count) {
+        lock.lock();
+        try {
+            for(int i = 0; i < count; i++) {
+                TilePipeline.Event event = events[i];
+                if(event.valid) {
+                    int known = users.size();
+                    event.accepted = System.currentTimeMillis();
+                    event.tile.setSeq(seq + 1);
+                    try {
+                        event.owner = apply(event.tile, event.accepted);
+                    } catch (RuntimeException e) {
+                        // none of the rest is applied, so none of it may be logged or broadcast either
+                        for(int j = i; j < count; j++) {
+                            events[j].valid = false;
+                        }
+                        if(log != null) {
+                            log.fail(e);
+                        }
+                        throw e;
+                    }
+                    event.added = users.size() > known ? event.tile.getOwner() : null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * The persist stage of the pipeline, which logs the valid changes, with the owners new to the board ahead of
+     * their changes, if a log is kept
+     * @param events - The changes
+     * @param count - The number of changes
+     */
+    private void persistAll(TilePipeline.Event[] events, int count) {
+        if(log == null) {
+            return;
+        }
+        for(int i = 0; i < count; i++) {
+            TilePipeline.Event event = events[i];
+            if(event.valid) {
+                PlaceTile tile = event.tile;
+                if(event.added != null) {
+                    log.appendUser(event.owner, event.added);
+                }
+                log.append(tile.getSeq(), tile.getRow(), tile.getCol(), tile.getColor(), event.owner, tile.getTime(),
+                        event.accepted);
+            }
+        }
+    }
+
+    /***
+     * The broadcast stage of the pipeline, which sends the owners new to the board and then the valid changes to
+     * the clients, all of them in one request unless a tick batches them
+     * @param events - The changes
+     * @param count - The number of changes
+     */
+    private void broadcastAll(TilePipeline.Event[] events, int count) {
+        ArrayList<String> added = new ArrayList<>();
+        int first = -1;
+        ArrayList<PlaceTile> tiles = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            TilePipeline.Event event = events[i];
+            if(event.valid) {
+                if(event.added != null) {
+                    first = added.isEmpty() ? event.owner : first;
+                    added.add(event.added);
+                }
+                tiles.add(event.tile);
+            }
+        }
+        if(!added.isEmpty()) {
+            broadcast(PlaceExchange.createUsers(new PlaceUsers(first, added)));
+        }
+        if(broadcaster != null) {
+            for(PlaceTile tile : tiles) {
+                broadcaster.publish(tile);
+            }
+        } else if(tiles.size() == 1) {
+            broadcast(PlaceExchange.createChangedTile(tiles.get(0), users));
+        } else if(!tiles.isEmpty()) {
+            broadcast(PlaceExchange.createChangedTiles(tiles, users));
+        }
+    }
+
+    /***
+     * Returns the pipeline changes are run through
+     * @return - The pipeline, or null if there is none
+     */
+    public TilePipeline getPipeline() {
+        return pipeline;
+    }
+
+    /***
+     * Logs a change that has been applied and puts it in the outbox for the clients, along with any owners new to
+     * the board, or hands it to the broadcaster when there is a tick. Has to be called with the lock held, and
+     * {@link #drain()} after it is let go.
+     * @param tile - The change
+     * @param owner - The id of the owner of the tile
+     * @param known - The number of owners the board had before the change
+     * @param accepted - The time the server accepted the change
+     */
+    private void publish(PlaceTile tile, int owner, int known, long accepted) {
+        if(log != null) {
+            for(int id = known; id < users.size(); id++) {
+                log.appendUser(id, users.getName(id));
+            }
+            log.append(tile.getSeq(), tile.getRow(), tile.getCol(), tile.getColor(), owner, tile.getTime(), accepted);
+        }
+        if(users.size() > known) {
+            outbox.add(PlaceExchange.createUsers(users.since(known)));
+        }
+        if(broadcaster != null) {
+            broadcaster.publish(tile);
+        } else {
+            outbox.add(PlaceExchange.createChangedTile(tile, users));
+        }
+    }
+
+    /***
+     * Broadcasts the outbox, in the order the changes were put in it. Called after the lock is let go, so sending to
+     * every client is not part of what changes wait on each other for. Whichever thread gets to it broadcasts what
+     * the others put in meanwhile as well, so none of them waits for another to finish.
+     */
+    private void drain() {
+        while(!outbox.isEmpty() && fanout.tryLock()) {
+            try {
+                SharedFrame frame;
+                while((frame = outbox.poll()) != null) {
+                    broadcast(frame);
+                }
+            } finally {
+                fanout.unlock();
+            }
+        }
+    }
+
+    /***
+     * Keeps a change in the ring of latest changes and the history. Has to be called with the lock held.
+     * @param tile - The change
+     * @param owner - The id of the owner of the tile
+     * @param accepted - The time the server accepted the change
+     */
+    private void keep(PlaceTile tile, int owner, long accepted) {
+        changes.add(tile.getSeq(), tile.getRow(), tile.getCol(), tile.getColor(), owner, tile.getTime(), accepted);
+        if(history != null) {
+            history.append(tile.getSeq(), tile.getRow(), tile.getCol(), tile.getColor(), owner, tile.getTime(),
+                    accepted);
+        }
+    }
+
+    /***
+     * Applies a change that has its sequence number to the board, its hashes and the ring of latest changes.
+     * A new owner is written to the board file first if there is one, and the sequence number after.
+     * Has to be called with the lock held, and with no striped change under way.
+     * @param tile - The change
+     * @param accepted - The time the server accepted the change
+     * @return - The id of the owner of the tile
+     */
+    private int apply(PlaceTile tile, long accepted) {
+        if(store != null) {
+            users.idOf(tile.getOwner());
+            try {
+                store.saveUsers();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        seq = tile.getSeq();
+        hashes.apply(board, tile);
+        board.setTile(tile);
+        int owner = board.getOwner(tile.getRow(), tile.getCol());
+        keep(tile, owner, accepted);
+        if(store != null) {
+            store.setSeq(seq);
+        }
+        return owner;
+    }
+
+    /***
+     * Sends a request to every connected client. Sessions only queue it, so this never waits on a client's
+     * socket, and the request is encoded once for all of them. The clients are read without a lock, so a change
+     * broadcast after it was numbered goes to every client that logged in before that. A client that logged in
+     * in between gets it as well, and ignores it, as its board already has it.
+     * @param frame - The shared request to send
+     */
+    void broadcast(SharedFrame frame) {
+        for(PlaceSession session: clients.getLive()) {
+            if(session.isOpen()) {
+                try {
+                    session.send(frame);
+                } catch (IOException e) {
+                    dPrint(e);
+                }
+            }
+        }
     }
 
     /***
@@ -172,10 +1366,29 @@ public class PlaceServer {
     }
 
     /***
-     * This method stops the server and its operations.
+     * This method stops the server and its operations. Changes not yet written to the log are written out first,
+     * after a last checkpoint if they are taken every so often.
      */
     public void stop() {
         listening = false;
+        if(regions != null) {
+            regions.stop();
+        }
+        if(pipeline != null) {
+            pipeline.stop();
+        }
+        if(broadcaster != null) {
+            broadcaster.stop();
+        }
+        limiter.stop();
+        if(closer != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(closer);
+            } catch (IllegalStateException e) {
+                // the JVM is already shutting down and the hook may be closing the files, close() only runs once
+            }
+        }
+        close();
     }
 
     public static void main(String[] args) throws IOException {
@@ -183,6 +1396,15 @@ public class PlaceServer {
         processArgs(args);
 
         PlaceServer server = new PlaceServer(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+        try {
+            for (int i = 2; i < args.length; i++) {
+                server.setOption(args[i]);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
         server.go();
     }
 
@@ -191,12 +1413,12 @@ public class PlaceServer {
      * @param args - Command line arguments
      */
     public static void processArgs(String[] args) {
-        if (args.length != 2) {
-            if (Integer.parseInt(args[1]) < 1) {
-                System.err.println("Usage: <dim> must be greater than or equal to 1");
-                System.exit(1);
-            }
-            System.err.println("Usage: java PlaceServer <port number> <dim>");
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        if (Integer.parseInt(args[1]) < 1) {
+            System.err.println("Usage: <dim> must be greater than or equal to 1");
             System.exit(1);
         }
     }
@@ -0,0 +1,53 @@
+package place.server;
+
+import place.network.SharedFrame;
+
+import java.io.IOException;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * A logged in client as the server sees it, no matter which engine is serving its socket
+ *
+ * @author Justin Yau
+ */
+public interface PlaceSession {
+
+    /**
+     * The number of requests a session may have waiting to be written before it is dropped as too slow
+     */
+    int MAX_OUTBOUND = 1024;
+
+    /**
+     * The number of changes in a row a client too old to be told they were rejected may have dropped for coming
+     * inside the cooldown before it is sent an error and dropped itself
+     */
+    int MAX_DROPPED = 20;
+
+    /***
+     * Returns whether or not the client is still connected
+     * @return - Whether or not the client is still connected
+     */
+    boolean isOpen();
+
+    /***
+     * Queues a request that is being broadcast to every client
+     * @param frame - The shared request
+     * @throws IOException
+     */
+    void send(SharedFrame frame) throws IOException;
+
+    /***
+     * Used by the server when shutting down
+     * @param msg - Message to relay to the client about this event
+     * @throws IOException
+     */
+    void createError(String msg) throws IOException;
+
+    /***
+     * Disconnects the client, used when it has logged in again over another connection
+     */
+    void close();
+
+}
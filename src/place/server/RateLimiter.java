@@ -0,0 +1,133 @@
+package place.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Limits how often every user may change a tile with a token bucket: a user may make a burst of changes right away,
+ * and then one more every refill period. The bucket of a user is one number, the time it will be full again, so a
+ * change is checked with one compare-and-set and nothing waits, whichever thread the client is served on. A user
+ * whose bucket is full has none kept, so only users that made a change lately cost anything: the bucket is forgotten
+ * when its user disconnects with it full, and every SWEEP milliseconds a daemon thread of its own sweeps the buckets
+ * that have filled up since, so a change never waits on a sweep.
+ *
+ * A bucket is only forgotten by setting it to GONE first, with a compare-and-set against the time it was full again,
+ * so a change taken out of it meanwhile is never forgotten with it. A change that finds its bucket GONE takes a new
+ * one, which is full.
+ *
+ * @author Justin Yau
+ */
+class RateLimiter {
+
+    private static final long SWEEP = 60000;            // Milliseconds between sweeps of the buckets that are full
+    private static final long GONE = Long.MIN_VALUE;    // The time of a bucket that has been forgotten
+
+    private int burst;                                  // The most changes a user may make at once
+    private long refill;                                // Milliseconds it takes for a user to get one change back
+    private ConcurrentHashMap<String, AtomicLong> full; // The time the bucket of every user will be full again
+    private ScheduledExecutorService sweeper;           // Sweeps the buckets that are full, or null with no limit
+
+    /***
+     * Creates a limiter with every bucket full
+     * @param burst - The most changes a user may make at once
+     * @param refill - Milliseconds it takes for a user to get one change back
+     */
+    RateLimiter(int burst, long refill) {
+        this.burst = burst;
+        this.refill = refill;
+        this.full = new ConcurrentHashMap<>();
+        if (refill > 0) {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "PlaceRateSweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sweeper.scheduleWithFixedDelay(() -> sweep(System.currentTimeMillis()), SWEEP, SWEEP,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /***
+     * Takes a change out of the bucket of a user, if there is one in it. A refill of 0 lets every change through.
+     * @param username - The username, in any case
+     * @param now - The time now, in milliseconds
+     * @return - 0 if the change was taken, otherwise the milliseconds until the user has one again
+     */
+    long acquire(String username, long now) {
+        if (refill == 0) {
+            return 0;
+        }
+        String key = username.toLowerCase();
+        AtomicLong bucket = full.computeIfAbsent(key, name -> new AtomicLong());
+        while (true) {
+            long at = bucket.get();
+            if (at == GONE) {
+                // forgotten meanwhile, it may not have been taken out of the map yet
+                full.remove(key, bucket);
+                bucket = full.computeIfAbsent(key, name -> new AtomicLong());
+                continue;
+            }
+            long base = Math.max(at, now);
+            long wait = base + refill - burst * refill - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(at, base + refill)) {
+                return 0;
+            }
+        }
+    }
+
+    /***
+     * Forgets the bucket of a user that is full again, which is the same as having none
+     * @param username - The username, in any case
+     * @param now - The time now, in milliseconds
+     */
+    void release(String username, long now) {
+        String key = username.toLowerCase();
+        AtomicLong bucket = full.get(key);
+        if (bucket != null) {
+            forget(key, bucket, now);
+        }
+    }
+
+    /***
+     * Stops sweeping the buckets, once the limiter is replaced or the server stops
+     */
+    void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    /***
+     * Forgets every bucket that is full again
+     * @param now - The time now, in milliseconds
+     */
+    void sweep(long now) {
+        for (Map.Entry<String, AtomicLong> entry : full.entrySet()) {
+            forget(entry.getKey(), entry.getValue(), now);
+        }
+    }
+
+    /***
+     * Forgets a bucket if it is full again, unless a change is taken out of it first
+     * @param key - The username, in lower case
+     * @param bucket - The bucket
+     * @param now - The time now, in milliseconds
+     */
+    private void forget(String key, AtomicLong bucket, long now) {
+        long at = bucket.get();
+        if (at != GONE && at <= now && bucket.compareAndSet(at, GONE)) {
+            full.remove(key, bucket);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package place.server;
+
+import place.PlaceTile;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Writes tile changes to the board from one thread per region, in place of the stripes. The chunks of the board are
+ * spread over the regions, and every chunk is only ever written by the thread of its region, so its tiles and hash
+ * are written without a lock and stay in that thread's cache. Changes are handed to the thread of their region
+ * through a lock-free queue any number of threads can add to. A region thread that runs out of changes parks until
+ * it is handed one.
+ *
+ * A region thread takes a batch of changes at a time. It shares the board for the batch rather than for every change,
+ * so views of the board wait at most one batch, and takes the server's lock once to number and log the whole batch,
+ * in one order for every region. The changes are written to their chunks and broadcast after the lock is let go.
+ *
+ * @author Justin Yau
+ */
+class RegionWriters {
+
+    private static final int BATCH = 256; // Most changes a region numbers and writes before letting views be taken
+
+    private PlaceServer server;     // The server whose board is written
+    private Region[] regions;       // The regions, chunk n belongs to region n % regions.length
+    private volatile boolean stopping; // Whether or not the regions are to stop once they have run out of changes
+
+    /***
+     * Creates the regions and starts their threads
+     * @param server - The server whose board is written
+     * @param count - The number of regions
+     */
+    RegionWriters(PlaceServer server, int count) {
+        this.server = server;
+        this.regions = new Region[count];
+        for (int i = 0; i < count; i++) {
+            regions[i] = new Region();
+            regions[i].thread = new Thread(regions[i], "PlaceRegion-" + i);
+            regions[i].thread.setDaemon(true);
+            regions[i].thread.start();
+        }
+    }
+
+    /***
+     * Hands a change to the thread of the region its chunk belongs to
+     * @param tile - The change, on the board
+     * @param chunk - The number of the chunk of the tile
+     */
+    void submit(PlaceTile tile, int chunk) {
+        Region region = regions[chunk % regions.length];
+        region.inbox.offer(tile);
+        if (region.parked) {
+            LockSupport.unpark(region.thread);
+        }
+    }
+
+    /***
+     * Stops the regions once every change handed to them has been written, and waits for them
+     */
+    void stop() {
+        stopping = true;
+        for (Region region : regions) {
+            LockSupport.unpark(region.thread);
+        }
+        for (Region region : regions) {
+            try {
+                region.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * One region, with the thread that is the only one to write its chunks
+     */
+    private class Region implements Runnable {
+
+        private ConcurrentLinkedQueue<PlaceTile> inbox = new ConcurrentLinkedQueue<>(); // Changes to write, in order
+        private PlaceTile[] batch = new PlaceTile[BATCH]; // The changes being written
+        private Thread thread;              // The thread writing the changes
+        private volatile boolean parked;    // Whether or not the thread is parked, or about to be, for want of changes
+
+        /***
+         * Writes changes as they are handed to the region until it is stopped and has none left
+         */
+        @Override
+        public void run() {
+            while (true) {
+                PlaceTile tile = inbox.poll();
+                if (tile == null) {
+                    parked = true;
+                    // checked again after parked is set, so a change handed over meanwhile is not missed
+                    if (inbox.isEmpty()) {
+                        if (stopping) {
+                            return;
+                        }
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                    continue;
+                }
+                int count = 0;
+                do {
+                    batch[count++] = tile;
+                } while (count < BATCH && (tile = inbox.poll()) != null);
+                server.lockShared();
+                try {
+                    server.writeAll(batch, count);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Could not write " + count + " changes: " + e);
+                } finally {
+                    server.unlockShared();
+                }
+                Arrays.fill(batch, 0, count, null);
+            }
+        }
+
+    }
+
+}
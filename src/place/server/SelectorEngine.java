@@ -0,0 +1,68 @@
+package place.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Server engine that serves every client socket from a small fixed pool of selector threads instead of
+ * starting a thread per client. Sockets are accepted here and handed round robin to the {@link SelectorLoop}s.
+ *
+ * @author Justin Yau
+ */
+public class SelectorEngine {
+
+    private static final int BACKLOG = 1024; // Connections the OS may queue up before we accept them
+
+    private PlaceServer server;     // The server this engine serves clients for
+    private SelectorLoop[] loops;   // The selector threads
+    private int next;               // The loop that gets the next accepted socket
+
+    /***
+     * Creates a new engine
+     * @param server - The server this engine serves clients for
+     * @param ioThreads - The number of selector threads to serve clients with
+     * @throws IOException
+     */
+    public SelectorEngine(PlaceServer server, int ioThreads) throws IOException {
+        this.server = server;
+        this.loops = new SelectorLoop[ioThreads];
+        for(int i = 0; i < ioThreads; i++) {
+            loops[i] = new SelectorLoop(server);
+        }
+    }
+
+    /***
+     * Starts the selector threads and accepts clients until the server is stopped
+     * @param portNumber - The port number that server will be hosted on
+     * @throws IOException
+     */
+    public void go(int portNumber) throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(portNumber), BACKLOG);
+            for(int i = 0; i < loops.length; i++) {
+                Thread thread = new Thread(loops[i], "PlaceSelectorLoop-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            while (server.isRunning()) {
+                SocketChannel channel = serverChannel.accept();
+                if(server.admit(channel.socket())) {
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                } else {
+                    channel.close();
+                }
+            }
+        } finally {
+            for(SelectorLoop loop : loops) {
+                loop.stop();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package place.server;
+
+import place.network.PlaceExchange;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * One selector thread of the {@link SelectorEngine}. Reads and writes for every socket it owns happen on this thread
+ * only. Other threads talk to it through its queues and wake it up.
+ *
+ * @author Justin Yau
+ */
+class SelectorLoop implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024; // Size of the read buffer shared by all sockets of a loop
+
+    private PlaceServer server;                                 // The server this loop serves clients for
+    private Selector selector;                                  // The selector watching this loop's sockets
+    private ByteBuffer readBuffer;                              // Every read of this loop lands here first
+    private ConcurrentLinkedQueue<SocketChannel> registrations; // Accepted sockets waiting to join this loop
+    private ConcurrentLinkedQueue<NioSession> flushes;          // Sessions with output queued by other threads
+    private ArrayList<NioSession> handoffs;                     // Sessions leaving for a thread of their own
+    private volatile Thread thread;                             // The thread running this loop
+    private volatile boolean running;                           // Whether or not this loop should keep going
+
+    /***
+     * Creates a new selector loop
+     * @param server - The server this loop serves clients for
+     * @throws IOException
+     */
+    SelectorLoop(PlaceServer server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        this.registrations = new ConcurrentLinkedQueue<>();
+        this.flushes = new ConcurrentLinkedQueue<>();
+        this.handoffs = new ArrayList<>();
+        this.running = true;
+    }
+
+    /***
+     * Used for debugging. Will print messages if debug variable is enabled
+     * @param logMsg - The message to print
+     */
+    private static void dPrint( Object logMsg ) {
+        if ( PlaceExchange.DEBUG ) {
+            System.out.println( logMsg );
+        }
+    }
+
+    /***
+     * Hands a newly accepted socket to this loop. Safe to call from any thread.
+     * @param channel - The accepted socket
+     */
+    void register(SocketChannel channel) {
+        registrations.add(channel);
+        selector.wakeup();
+    }
+
+    /***
+     * Asks this loop to write out a session's queued output. Safe to call from any thread.
+     * @param session - The session with queued output
+     */
+    void requestFlush(NioSession session) {
+        flushes.add(session);
+        selector.wakeup();
+    }
+
+    /***
+     * Returns whether or not the calling thread is this loop's thread
+     * @return - Whether or not the calling thread is this loop's thread
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /***
+     * Takes a session out of this loop so a thread of its own can serve the socket in blocking mode.
+     * Used for clients that send plain java objects, which cannot be decoded without blocking.
+     * @param session - The session to hand off
+     */
+    void handoff(NioSession session) {
+        session.getKey().cancel();
+        handoffs.add(session);
+    }
+
+    /***
+     * Stops this loop and wakes it up so it notices
+     */
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /***
+     * Serves this loop's sockets until the loop is stopped
+     */
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (running && server.isRunning()) {
+            try {
+                selector.select();
+                registerAll();
+                flushAll();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioSession session = (NioSession) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            session.read(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.flush();
+                        }
+                    } catch (Exception e) {
+                        dPrint(e);
+                        session.close();
+                    }
+                }
+                handoffAll();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /***
+     * Registers every socket waiting to join this loop and greets it
+     */
+    private void registerAll() {
+        SocketChannel channel;
+        while ((channel = registrations.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioSession session = new NioSession(this, server, channel, key);
+                key.attach(session);
+                session.greet();
+            } catch (IOException e) {
+                dPrint(e);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /***
+     * Writes out the output that other threads queued since the last pass
+     */
+    private void flushAll() {
+        NioSession session;
+        while ((session = flushes.poll()) != null) {
+            try {
+                session.flush();
+            } catch (IOException e) {
+                dPrint(e);
+                session.close();
+            }
+        }
+    }
+
+    /***
+     * Starts a blocking thread for every session that left this loop during the last pass
+     * @throws IOException
+     */
+    private void handoffAll() throws IOException {
+        if (handoffs.isEmpty()) {
+            return;
+        }
+        // Cancelled keys are only deregistered by the next select, and a channel cannot block until they are
+        selector.selectNow();
+        for (NioSession session : handoffs) {
+            try {
+                session.handoff();
+            } catch (IOException e) {
+                dPrint(e);
+                session.close();
+            }
+        }
+        handoffs.clear();
+    }
+
+}
@@ -0,0 +1,160 @@
+package place.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * The logged in sessions of the server, by lower-cased username, kept apart from the board so that logins and
+ * disconnects never hold up a change. Sessions are looked up in a concurrent map, and broadcasts go through an array
+ * of every session that is copied whenever one logs in or out, so a broadcast reads it without any lock and a login
+ * made meanwhile only shows up in the next one.
+ *
+ * Every session has a resume token, which only its client is told. A username that is logged in is only taken over
+ * by a client that offers the token of the session that has it.
+ *
+ * @author Justin Yau
+ */
+class SessionRegistry {
+
+    private static final PlaceSession[] NONE = new PlaceSession[0];
+
+    private ConcurrentHashMap<String, PlaceSession> sessions;  // Every session by lower-cased username
+    private volatile PlaceSession[] live;                      // Every session in the map, for broadcasts
+    private HashMap<String, Long> tokens;                      // The resume token of every session, under the lock
+    private ReentrantLock lock;                                // Lets one login or logout change the sessions at once
+
+    /***
+     * Creates a registry with no session in it
+     */
+    SessionRegistry() {
+        this.sessions = new ConcurrentHashMap<>();
+        this.live = NONE;
+        this.tokens = new HashMap<>();
+        this.lock = new ReentrantLock();
+    }
+
+    /***
+     * Adds a session, unless its username is taken by another session
+     * @param username - The username of the session
+     * @param session - The session
+     * @param token - The resume token of the session
+     * @return - Whether or not the session was added
+     */
+    boolean add(String username, PlaceSession session, long token) {
+        lock.lock();
+        try {
+            if (sessions.putIfAbsent(username.toLowerCase(), session) != null) {
+                return false;
+            }
+            tokens.put(username.toLowerCase(), token);
+            PlaceSession[] now = Arrays.copyOf(live, live.length + 1);
+            now[now.length - 1] = session;
+            live = now;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Adds a session, taking its username over from the session that has it if the client offered that session's
+     * resume token
+     * @param username - The username of the session
+     * @param session - The session
+     * @param offered - The resume token the client offered
+     * @param token - The resume token of the session
+     * @return - The session the username was taken over from, the inputted session if the username was free, or
+     *           null if the username is taken by a session with another token
+     */
+    PlaceSession takeOver(String username, PlaceSession session, long offered, long token) {
+        String key = username.toLowerCase();
+        lock.lock();
+        try {
+            PlaceSession had = sessions.get(key);
+            if (had != null && tokens.get(key) != offered) {
+                return null;
+            }
+            sessions.put(key, session);
+            tokens.put(key, token);
+            PlaceSession[] now = had == null ? Arrays.copyOf(live, live.length + 1) : live.clone();
+            now[had == null ? now.length - 1 : indexOf(now, had)] = session;
+            live = now;
+            return had == null ? session : had;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Removes a session, unless its username has been taken over by another session since
+     * @param username - The username of the session
+     * @param session - The session
+     * @return - Whether or not the session was removed
+     */
+    boolean remove(String username, PlaceSession session) {
+        lock.lock();
+        try {
+            if (!sessions.remove(username.toLowerCase(), session)) {
+                return false;
+            }
+            tokens.remove(username.toLowerCase());
+            int at = indexOf(live, session);
+            PlaceSession[] now = new PlaceSession[live.length - 1];
+            System.arraycopy(live, 0, now, 0, at);
+            System.arraycopy(live, at + 1, now, at, now.length - at);
+            live = now;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns whether or not a username is logged in
+     * @param username - The username
+     * @return - Whether or not a session has the username
+     */
+    boolean contains(String username) {
+        return sessions.containsKey(username.toLowerCase());
+    }
+
+    /***
+     * Returns every session as of the last login or logout. The array is never changed, it may be read from any
+     * thread without a lock.
+     * @return - The sessions
+     */
+    PlaceSession[] getLive() {
+        return live;
+    }
+
+    /***
+     * Returns a view of the sessions by lower-cased username, which cannot be changed through it
+     * @return - The sessions
+     */
+    Map<String, PlaceSession> asMap() {
+        return Collections.unmodifiableMap(sessions);
+    }
+
+    /***
+     * Finds a session in an array of sessions
+     * @param sessions - The sessions
+     * @param session - The session to find
+     * @return - Its index
+     */
+    private static int indexOf(PlaceSession[] sessions, PlaceSession session) {
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] == session) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("A session in the map is missing from the broadcast array");
+    }
+
+}
@@ -0,0 +1,164 @@
+package place.server;
+
+import place.PlaceTile;
+import place.PlaceUsers;
+import place.network.PlaceExchange;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Collects tile changes and broadcasts them once per tick as a single TILES_CHANGED request, so a busy board costs
+ * every client one frame and one write per tick instead of one per change.
+ *
+ * Changes are conflated: a tile painted several times within one tick is only broadcast in its latest state,
+ * since clients would overwrite the earlier ones right away anyway.
+ *
+ * @author Justin Yau
+ */
+class TileBroadcaster implements Runnable {
+
+    private static final int STATS_PERIOD = 60; // Seconds between conflation stats in the server log
+
+    private PlaceServer server;                         // The server whose clients get the changes
+    private int dim;                                    // The dimension of the board, to key tiles by position
+    private PlaceUsers users;                           // The server's usernames, so owners go out as ids
+    private LinkedHashMap<Integer, PlaceTile> pending;  // Latest change of each tile since the last tick
+    private ReentrantLock lock;                         // Guards pending and the counters
+    private ScheduledExecutorService timer;             // Runs the ticks
+    private long published;                             // Changes handed to the broadcaster
+    private long conflated;                             // Changes replaced by a later change in the same tick
+    private long batches;                               // Batches broadcast
+    private long lastPublished;                         // published when the stats were last logged
+    private long lastConflated;                         // conflated when the stats were last logged
+
+    /***
+     * Creates a new broadcaster and starts ticking
+     * @param server - The server whose clients get the changes
+     * @param dim - The dimension of the board
+     * @param users - The server's usernames
+     * @param tick - The time between broadcasts, in milliseconds
+     */
+    TileBroadcaster(PlaceServer server, int dim, PlaceUsers users, int tick) {
+        this.server = server;
+        this.dim = dim;
+        this.users = users;
+        this.pending = new LinkedHashMap<>();
+        this.lock = new ReentrantLock();
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "PlaceBroadcaster");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this, tick, tick, TimeUnit.MILLISECONDS);
+        timer.scheduleAtFixedRate(this::logStats, STATS_PERIOD, STATS_PERIOD, TimeUnit.SECONDS);
+    }
+
+    /***
+     * Adds a change to the next broadcast, replacing any earlier change of the same tile
+     * @param tile - The tile that was changed
+     */
+    void publish(PlaceTile tile) {
+        lock.lock();
+        try {
+            published++;
+            if (pending.put(tile.getRow() * dim + tile.getCol(), tile) != null) {
+                conflated++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Broadcasts the latest state of every tile changed since the last tick, if any was
+     */
+    @Override
+    public void run() {
+        ArrayList<PlaceTile> batch;
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+            batches++;
+        } finally {
+            lock.unlock();
+        }
+        server.broadcast(PlaceExchange.createChangedTiles(batch, users));
+    }
+
+    /***
+     * Returns the number of changes handed to the broadcaster
+     * @return - The number of changes handed to the broadcaster
+     */
+    long getPublished() {
+        lock.lock();
+        try {
+            return published;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Returns the number of changes that were never broadcast because a later change of the same tile
+     * arrived within the same tick
+     * @return - The number of changes conflated away
+     */
+    long getConflated() {
+        lock.lock();
+        try {
+            return conflated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Prints how many changes were conflated away since the last time, if there were any changes
+     */
+    private void logStats() {
+        long changes;
+        long saved;
+        long sent;
+        lock.lock();
+        try {
+            changes = published - lastPublished;
+            saved = conflated - lastConflated;
+            lastPublished = published;
+            lastConflated = conflated;
+            sent = batches;
+        } finally {
+            lock.unlock();
+        }
+        if (changes > 0) {
+            System.out.println("Broadcast: " + changes + " changes in the last " + STATS_PERIOD + "s, " + saved +
+                    " conflated away (" + (100 * saved / changes) + "%), " + sent + " batches so far");
+        }
+    }
+
+    /***
+     * Stops ticking, waiting for a tick that is being broadcast, and then broadcasts the changes that were still
+     * waiting for the next one, so the last changes before the server stops still reach the clients
+     */
+    void stop() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(STATS_PERIOD, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        run();
+    }
+
+}
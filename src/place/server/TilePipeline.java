@@ -0,0 +1,377 @@
+package place.server;
+
+import place.PlaceTile;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Takes tile changes off the threads reading them from clients and runs them through four stages, each on a thread
+ * of its own: validate, apply, persist and broadcast. The changes are kept in a ring of events made up ahead of time,
+ * which any number of reader threads publish to. Every stage follows the one before it around the ring, and the
+ * readers wait for the last one when the ring is full, so nothing is queued without bound and no event is allocated.
+ * Selector threads, which cannot wait, are turned away when the ring is full instead.
+ *
+ * A stage takes every event the stage before it has finished with at once, so a stage that falls behind catches up
+ * in bigger batches, and only the apply stage takes the server's lock, once per batch. How many events wait for
+ * every stage and how long they took through it are kept, and printed every so often when there are changes.
+ *
+ * @author Justin Yau
+ */
+public class TilePipeline {
+
+    private static final int BATCH = 1024;          // Most events a stage takes at once
+    private static final int STATS_PERIOD = 60;     // Seconds between stage stats in the server log
+
+    /**
+     * The stages every change goes through, in order
+     */
+    public enum Stage {
+        /** Drops changes that are not on the board */
+        VALIDATE,
+        /** Numbers the change and applies it to the board, its hashes and the ring of latest changes */
+        APPLY,
+        /** Appends the change to the log, if one is kept */
+        PERSIST,
+        /** Sends the change to the clients */
+        BROADCAST
+    }
+
+    /**
+     * A change on its way through the stages. The events are made once and used over and over.
+     */
+    static class Event {
+        PlaceTile tile;     // The change, as the client sent it
+        boolean valid;      // Whether or not the change is on the board, set by the validate stage
+        int owner;          // The id of the owner, set by the apply stage
+        String added;       // The owner's name if the change made them new to the board, or null, set by apply
+        long accepted;      // The time the server accepted the change, set by the apply stage
+        long stamp;         // When the event was published or last finished with by a stage, in nanoseconds
+    }
+
+    /**
+     * Handles the events of one stage
+     */
+    interface Handler {
+
+        /***
+         * Handles a batch of events, in the order they were published
+         * @param events - The events, only the first count of which are in the batch
+         * @param count - The number of events in the batch
+         * @throws IOException
+         */
+        void handle(Event[] events, int count) throws IOException;
+
+    }
+
+    private Event[] ring;                   // The events, event n is at n & mask
+    private int mask;                       // The size of the ring - 1, the size being a power of two
+    private AtomicLong claimed;             // The number of events claimed by the readers so far
+    private AtomicLongArray published;      // The number of the event at every index once it has been published
+    private Worker[] workers;               // The stages, in order
+    private ScheduledExecutorService timer; // Prints the stats
+    private volatile boolean stopping;      // Whether or not the stages are to stop once they have run out of events
+
+    /***
+     * Makes the ring and starts a thread for every stage
+     * @param size - The number of events in the ring, rounded up to a power of two
+     * @param handlers - The handler of every stage, in order
+     */
+    TilePipeline(int size, Handler... handlers) {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.ring = new Event[capacity];
+        this.mask = capacity - 1;
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Event();
+            published.set(i, -1);
+        }
+        this.claimed = new AtomicLong();
+        this.workers = new Worker[handlers.length];
+        for (int i = 0; i < handlers.length; i++) {
+            workers[i] = new Worker(i, handlers[i]);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "PlacePipelineStats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::logStats, STATS_PERIOD, STATS_PERIOD, TimeUnit.SECONDS);
+    }
+
+    /***
+     * Publishes a change to the first stage, waiting for room in the ring if it is full. Once the pipeline is being
+     * stopped the change is dropped instead, as the stages will not make room for it any more.
+     * @param tile - The change, as the client sent it
+     * @return - Whether or not the change was published, false if the pipeline is being stopped
+     */
+    boolean publish(PlaceTile tile) {
+        if (stopping) {
+            return false;
+        }
+        long n = claimed.getAndIncrement();
+        Worker last = workers[workers.length - 1];
+        while (n - ring.length >= last.done) {
+            if (stopping) {
+                return false;
+            }
+            LockSupport.parkNanos(10000);
+        }
+        fill(n, tile);
+        return true;
+    }
+
+    /***
+     * Publishes a change to the first stage if there is room for it in the ring, without ever waiting, for threads
+     * like the selector's that serve other clients as well
+     * @param tile - The change, as the client sent it
+     * @return - Whether or not the change was published, false if the ring is full or the pipeline is being stopped
+     */
+    boolean tryPublish(PlaceTile tile) {
+        Worker last = workers[workers.length - 1];
+        while (true) {
+            long n = claimed.get();
+            if (stopping || n - ring.length >= last.done) {
+                return false;
+            }
+            if (claimed.compareAndSet(n, n + 1)) {
+                fill(n, tile);
+                return true;
+            }
+        }
+    }
+
+    /***
+     * Fills in the event claimed for a change and hands it to the first stage
+     * @param n - The number of the event
+     * @param tile - The change, as the client sent it
+     */
+    private void fill(long n, PlaceTile tile) {
+        Event event = ring[(int) n & mask];
+        event.tile = tile;
+        event.valid = false;
+        event.added = null;
+        event.stamp = System.nanoTime();
+        published.set((int) n & mask, n);
+        Worker first = workers[0];
+        if (first.parked) {
+            LockSupport.unpark(first.thread);
+        }
+    }
+
+    /***
+     * Returns the number of events waiting for a stage, or in it
+     * @param stage - The stage
+     * @return - The number of events the stage before it is done with and it is not
+     */
+    public long getDepth(Stage stage) {
+        int i = stage.ordinal();
+        return (i == 0 ? claimed.get() : workers[i - 1].done) - workers[i].done;
+    }
+
+    /***
+     * Returns the time events took from when the stage before was done with them until a stage was, on average
+     * @param stage - The stage
+     * @return - The nanoseconds, or 0 if no event went through it yet
+     */
+    public long getLatency(Stage stage) {
+        Worker worker = workers[stage.ordinal()];
+        long done = worker.done;
+        return done == 0 ? 0 : worker.nanos / done;
+    }
+
+    /***
+     * Returns the longest time an event took through a stage
+     * @param stage - The stage
+     * @return - The nanoseconds
+     */
+    public long getMaxLatency(Stage stage) {
+        return workers[stage.ordinal()].maxNanos;
+    }
+
+    /***
+     * Returns the number of batches a stage took the events in
+     * @param stage - The stage
+     * @return - The number of batches
+     */
+    public long getBatches(Stage stage) {
+        return workers[stage.ordinal()].batches;
+    }
+
+    /***
+     * Returns the number of events every stage is done with
+     * @return - The number of events through the last stage
+     */
+    public long getDone() {
+        return workers[workers.length - 1].done;
+    }
+
+    /***
+     * Prints the depth, latency and batch size of every stage since the last time, if there were any changes
+     */
+    private void logStats() {
+        if (workers[0].done == workers[0].lastDone) {
+            return;
+        }
+        StringBuilder line = new StringBuilder();
+        for (Worker worker : workers) {
+            long events = worker.done - worker.lastDone;
+            long batches = worker.batches - worker.lastBatches;
+            long nanos = worker.nanos - worker.lastNanos;
+            worker.lastDone += events;
+            worker.lastBatches += batches;
+            worker.lastNanos += nanos;
+            Stage stage = Stage.values()[worker.index];
+            line.append(line.length() == 0 ? "" : ", ").append(stage.name().toLowerCase()).append(' ')
+                    .append(getDepth(stage)).append(" waiting");
+            if (events > 0) {
+                line.append(' ').append(nanos / events / 1000).append(" us ").append(events / batches)
+                        .append(" per batch");
+            }
+        }
+        System.out.println("Pipeline: " + line);
+    }
+
+    /***
+     * Stops the stages once every change published has been through all of them, and waits for them
+     */
+    void stop() {
+        timer.shutdownNow();
+        stopping = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * The thread of one stage
+     */
+    private class Worker implements Runnable {
+
+        private int index;                  // The place of the stage in the pipeline
+        private Handler handler;            // Handles its events
+        private Thread thread;              // Runs it
+        private Event[] batch;              // The events of the batch being handled
+        private volatile long done;         // The number of events the stage is done with
+        private volatile boolean parked;    // Whether or not the thread is parked, or about to be, for want of events
+        private volatile boolean finished;  // Whether or not the thread has stopped
+        private long nanos;                 // The nanoseconds events took through the stage, added up
+        private long maxNanos;              // The longest an event took through the stage
+        private long batches;               // The number of batches handled
+        private long lastDone;              // done when the stats were last logged
+        private long lastBatches;           // batches when the stats were last logged
+        private long lastNanos;             // nanos when the stats were last logged
+
+        /***
+         * Creates the thread of a stage
+         * @param index - The place of the stage in the pipeline
+         * @param handler - Handles its events
+         */
+        Worker(int index, Handler handler) {
+            this.index = index;
+            this.handler = handler;
+            this.batch = new Event[BATCH];
+            this.thread = new Thread(this, "PlacePipeline-" + Stage.values()[index].name().toLowerCase());
+            this.thread.setDaemon(true);
+        }
+
+        /***
+         * Returns the number of events the stage before this one is done with, or that have been published for the
+         * first stage
+         * @return - The number of events this stage may take
+         */
+        private long available() {
+            if (index > 0) {
+                return workers[index - 1].done;
+            }
+            long n = done;
+            while (n - done < BATCH && published.get((int) n & mask) == n) {
+                n++;
+            }
+            return n;
+        }
+
+        /***
+         * Returns whether or not the stage before this one has stopped, or the readers for the first stage
+         * @return - Whether or not no more events will become available
+         */
+        private boolean upstreamFinished() {
+            return index > 0 ? workers[index - 1].finished : stopping;
+        }
+
+        /***
+         * Handles batches of events as they become available until the pipeline is stopped and there are none left
+         */
+        @Override
+        public void run() {
+            while (true) {
+                long from = done;
+                long to = Math.min(available(), from + BATCH);
+                if (to == from) {
+                    parked = true;
+                    // checked again after parked is set, so events made available meanwhile are not missed
+                    if (available() == from) {
+                        if (upstreamFinished() && available() == from) {
+                            parked = false;
+                            finished = true;
+                            unparkNext();
+                            return;
+                        }
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                    continue;
+                }
+                int count = (int) (to - from);
+                for (int i = 0; i < count; i++) {
+                    batch[i] = ring[(int) (from + i) & mask];
+                }
+                try {
+                    handler.handle(batch, count);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Pipeline stage " + Stage.values()[index].name().toLowerCase() +
+                            " failed on a batch of " + count + " changes: " + e);
+                }
+                long now = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    long took = now - batch[i].stamp;
+                    nanos += took;
+                    maxNanos = Math.max(maxNanos, took);
+                    batch[i].stamp = now;
+                    batch[i] = null;
+                }
+                batches++;
+                done = to;
+                unparkNext();
+            }
+        }
+
+        /***
+         * Wakes the next stage up if it is parked
+         */
+        private void unparkNext() {
+            if (index + 1 < workers.length && workers[index + 1].parked) {
+                LockSupport.unpark(workers[index + 1].thread);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,109 @@
+package place.test;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Measures the heap taken by a board stored as a PlaceTile[][] grid (how PlaceBoard used to store it) against
+ * the packed PlaceBoard, both fresh and after every tile has been painted. Painted tiles get their own owner
+ * string like a deserialized change request would, out of 1000 distinct painters.
+ *
+ * Needs a big heap for the larger boards, e.g. java -Xmx4g BoardFootprint 500 2000 5000
+ *
+ * @author Justin Yau
+ */
+public class BoardFootprint {
+
+    private static final int PAINTERS = 1000; // Distinct owners on a painted board
+
+    private static Object measured; // Keeps the board being measured reachable while the heap is read
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length == 0) {
+            args = new String[] {"500", "2000", "5000"};
+        }
+        grid(100, true); // Warm up so class loading and JIT garbage are not counted against the first board
+        packed(100, true);
+        System.out.println("   dim   grid fresh   grid painted   packed fresh   packed painted");
+        for (String arg : args) {
+            int dim = Integer.parseInt(arg);
+            System.out.printf("%6d   %7d MB   %9d MB   %9d MB   %11d MB%n", dim,
+                    grid(dim, false), grid(dim, true), packed(dim, false), packed(dim, true));
+        }
+    }
+
+    /***
+     * Measures a board stored as a grid of tile objects
+     * @param dim - The dimension of the board
+     * @param painted - Whether or not to paint every tile
+     * @return - The heap taken, in MB
+     * @throws InterruptedException
+     */
+    private static long grid(int dim, boolean painted) throws InterruptedException {
+        long before = usedHeap();
+        PlaceTile[][] board = new PlaceTile[dim][dim];
+        for (int row = 0; row < dim; row++) {
+            for (int col = 0; col < dim; col++) {
+                board[row][col] = painted ? paint(row, col) : new PlaceTile(row, col, "", PlaceColor.WHITE);
+            }
+        }
+        measured = board;
+        long used = usedHeap() - before;
+        measured = null;
+        return used / (1024 * 1024);
+    }
+
+    /***
+     * Measures a packed board
+     * @param dim - The dimension of the board
+     * @param painted - Whether or not to paint every tile
+     * @return - The heap taken, in MB
+     * @throws InterruptedException
+     */
+    private static long packed(int dim, boolean painted) throws InterruptedException {
+        long before = usedHeap();
+        PlaceBoard board = new PlaceBoard(dim);
+        if (painted) {
+            for (int row = 0; row < dim; row++) {
+                for (int col = 0; col < dim; col++) {
+                    board.setTile(paint(row, col));
+                }
+            }
+        }
+        measured = board;
+        long used = usedHeap() - before;
+        measured = null;
+        return used / (1024 * 1024);
+    }
+
+    /***
+     * Makes a painted tile with an owner string of its own
+     * @param row - The row
+     * @param col - The column
+     * @return - The tile
+     */
+    private static PlaceTile paint(int row, int col) {
+        String owner = new String("painter" + ((row * 31 + col) % PAINTERS));
+        return new PlaceTile(row, col, owner, PlaceColor.values()[(row + col) % 16], System.currentTimeMillis());
+    }
+
+    /***
+     * Returns the heap in use after collecting garbage
+     * @return - The heap in use, in bytes
+     * @throws InterruptedException
+     */
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+}
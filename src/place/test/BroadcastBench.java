@@ -0,0 +1,124 @@
+package place.test;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.PlaceExchange;
+import place.network.PlaceFrames;
+import place.network.PlaceRequest;
+import place.network.SharedFrame;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of the CPU it takes to get one tile change ready for every client, with the clients' sockets replaced
+ * by streams that throw the bytes away. Compares serializing the change once per client, which is what the server
+ * used to do, against encoding it once into a {@link SharedFrame} that every client gets a view of.
+ *
+ * @author Justin Yau
+ */
+public class BroadcastBench {
+
+    private static final int CHANGES = 200; // Tile changes broadcast per measurement
+
+    /**
+     * Stream that counts and throws away whatever is written to it
+     */
+    private static class NullStream extends OutputStream {
+        private long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] clientCounts = {100, 1000, 10000};
+        // warm up both paths before measuring anything
+        for (int i = 0; i < 3; i++) {
+            perClient(clientCounts[clientCounts.length - 1]);
+            shared(clientCounts[clientCounts.length - 1]);
+        }
+        System.out.println("clients   per client (us/change)   shared frame (us/change)");
+        for (int clients : clientCounts) {
+            System.out.printf("%7d   %22.1f   %24.1f%n", clients, perClient(clients), shared(clients));
+        }
+    }
+
+    /***
+     * Broadcasts changes the old way: a new request serialized onto every client's object stream
+     * @param clients - The number of clients
+     * @return - The CPU time per change, in microseconds
+     * @throws IOException
+     */
+    private static double perClient(int clients) throws IOException {
+        ObjectOutputStream[] outs = new ObjectOutputStream[clients];
+        for (int i = 0; i < clients; i++) {
+            outs[i] = new ObjectOutputStream(new NullStream());
+        }
+        long start = cpuTime();
+        for (int change = 0; change < CHANGES; change++) {
+            PlaceTile tile = tile(change);
+            for (ObjectOutputStream out : outs) {
+                out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, tile));
+                out.flush();
+            }
+        }
+        return (cpuTime() - start) / 1000.0 / CHANGES;
+    }
+
+    /***
+     * Broadcasts changes the new way: encoded once and the same bytes written for every client
+     * @param clients - The number of clients
+     * @return - The CPU time per change, in microseconds
+     * @throws IOException
+     */
+    private static double shared(int clients) throws IOException {
+        NullStream[] outs = new NullStream[clients];
+        for (int i = 0; i < clients; i++) {
+            outs[i] = new NullStream();
+        }
+        long start = cpuTime();
+        for (int change = 0; change < CHANGES; change++) {
+            SharedFrame frame = PlaceExchange.createChangedTile(tile(change), null);
+            for (NullStream out : outs) {
+                ByteBuffer bytes = frame.bytes(PlaceFrames.SERIAL_VERSION);
+                PlaceFrames.write(out, bytes);
+            }
+        }
+        return (cpuTime() - start) / 1000.0 / CHANGES;
+    }
+
+    /***
+     * Makes up a tile change
+     * @param change - The number of the change
+     * @return - The changed tile
+     */
+    private static PlaceTile tile(int change) {
+        return new PlaceTile(change % 100, change / 100, "bench", PlaceColor.values()[change % 16],
+                System.currentTimeMillis());
+    }
+
+    /***
+     * Returns the CPU time used by this thread so far
+     * @return - The CPU time, in nanoseconds
+     */
+    private static long cpuTime() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads.getCurrentThreadCpuTime();
+    }
+
+}
@@ -2,6 +2,10 @@ package place.test;
 
 
 import place.PlaceBoard;
+import place.network.FrameConnection;
+import place.network.PlaceConnection;
+import place.network.PlaceExchange;
+import place.network.PlaceFrames;
 import place.network.PlaceRequest;
 
 import java.io.*;
@@ -25,18 +29,14 @@ public class Client {
 
         try (
                 Socket user = new Socket(hostName, portNumber);
-                ObjectOutputStream out =
-                        new ObjectOutputStream(user.getOutputStream());
-                ObjectInputStream in =
-                        new ObjectInputStream(
-                                user.getInputStream());
                 Scanner userInput = new Scanner(System.in);
         ) {
-            createLoginRequest(username, out);
-            PlaceRequest<?> req = (PlaceRequest<?>) in.readUnshared();
+            PlaceConnection conn = FrameConnection.connect(user, PlaceFrames.BINARY_VERSION);
+            PlaceExchange.createLoginRequest(conn, username);
+            PlaceRequest<?> req = conn.receive();
             if (req.getType() == PlaceRequest.RequestType.LOGIN_SUCCESS) {
                 System.out.println(((String) req.getData()));
-                PlaceRequest<?> board = (PlaceRequest<?>) in.readUnshared();
+                PlaceRequest<?> board = conn.receive();
                 if(board.getType() == PlaceRequest.RequestType.BOARD) {
                     System.out.println( ((PlaceBoard) board.getData()).toString());
                 }
@@ -44,7 +44,7 @@ public class Client {
                 System.out.println((String) req.getData());
             }
             if(userInput.nextLine().equals("BYE")) {
-                createError("DISCONNECT", out);
+                PlaceExchange.createError(conn, "DISCONNECT");
             }
         } catch (UnknownHostException e) {
             System.err.println("Cannot find host " + hostName);
@@ -59,16 +59,4 @@ public class Client {
         }
     }
 
-    public static void createLoginRequest(String username, ObjectOutputStream out) throws IOException {
-        PlaceRequest<String> req = new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username);
-        out.writeUnshared(req);
-        out.flush();
-    }
-
-    public static void createError(String errMsg, ObjectOutputStream out) throws IOException {
-        PlaceRequest<String> req = new PlaceRequest<>(PlaceRequest.RequestType.ERROR, errMsg);
-        out.writeUnshared(req);
-        out.flush();
-    }
-
 }
@@ -0,0 +1,125 @@
+package place.test;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.PlaceUsers;
+import place.network.PlaceFrames;
+import place.network.PlaceRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of the two frame versions: the bytes each kind of request takes on the wire, and how many tile changes
+ * a second one thread can encode and decode again.
+ *
+ * @author Justin Yau
+ */
+public class CodecBench {
+
+    private static final int PAINTERS = 1000;   // Distinct owners of the painted tiles
+    private static final int DIM = 100;         // Dimension of the board that is sent
+    private static final int BATCH = 100;       // Tiles per TILES_CHANGED request
+    private static final int ROUNDS = 200000;   // Tile changes per throughput measurement
+
+    private static PlaceUsers users = new PlaceUsers(); // The server's usernames, known to the client as well
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        PlaceBoard board = new PlaceBoard(DIM, users);
+        ArrayList<PlaceTile> batch = new ArrayList<>();
+        for (int i = 0; i < DIM * DIM; i++) {
+            PlaceTile tile = tile(i);
+            board.setTile(tile);
+            if (batch.size() < BATCH) {
+                batch.add(tile);
+            }
+        }
+        PlaceTile tile = tile(DIM * DIM);
+        System.out.println("request              v1 bytes   v2 bytes");
+        // clients send owner names, the server sends ids
+        size("LOGIN", new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, "painter17"), null);
+        size("CHANGE_TILE", new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, tile), null);
+        size("TILE_CHANGED", new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, tile), users);
+        size("TILES_CHANGED x" + BATCH, new PlaceRequest<>(PlaceRequest.RequestType.TILES_CHANGED, batch), users);
+        size("USERS x" + users.size(), new PlaceRequest<>(PlaceRequest.RequestType.USERS, users.since(0)), users);
+        size("BOARD " + DIM + "x" + DIM, new PlaceRequest<>(PlaceRequest.RequestType.BOARD, board), users);
+
+        PlaceUsers received = users.since(0);
+        rate(PlaceFrames.SERIAL_VERSION, received); // warm up
+        rate(PlaceFrames.BINARY_VERSION, received);
+        System.out.println();
+        System.out.println("TILE_CHANGED encode+decode   v1 " + rate(PlaceFrames.SERIAL_VERSION, received) +
+                " msgs/s   v2 " + rate(PlaceFrames.BINARY_VERSION, received) + " msgs/s");
+    }
+
+    /***
+     * Prints the size of a request in both frame versions, after checking that it decodes again
+     * @param name - The name to print for the request
+     * @param req - The request
+     * @param sender - The usernames the sender sends ids from, or null if it sends names
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static void size(String name, PlaceRequest<?> req, PlaceUsers sender)
+            throws IOException, ClassNotFoundException {
+        int[] sizes = new int[2];
+        for (int version = PlaceFrames.SERIAL_VERSION; version <= PlaceFrames.BINARY_VERSION; version++) {
+            ByteBuffer frame = PlaceFrames.encode(req, version, sender);
+            sizes[version - 1] = frame.remaining();
+            PlaceRequest<?> decoded = PlaceFrames.decode(body(frame), version, users);
+            if (!String.valueOf(decoded.getData()).equals(String.valueOf(req.getData()))) {
+                throw new IllegalStateException(name + " did not survive version " + version);
+            }
+        }
+        System.out.printf("%-20s %9d  %9d%n", name, sizes[0], sizes[1]);
+    }
+
+    /***
+     * Measures how many tile changes a second are encoded the way the server sends them and decoded the way a
+     * client receives them
+     * @param version - The frame version
+     * @param received - The usernames as the client knows them
+     * @return - The number of tile changes a second
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static long rate(int version, PlaceUsers received) throws IOException, ClassNotFoundException {
+        int rounds = version == PlaceFrames.SERIAL_VERSION ? ROUNDS / 10 : ROUNDS;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            ByteBuffer frame = PlaceFrames.encode(
+                    new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, tile(i)), version, users);
+            PlaceFrames.decode(body(frame), version, received);
+        }
+        return rounds * 1000000000L / (System.nanoTime() - start);
+    }
+
+    /***
+     * Skips the length prefix of a frame
+     * @param frame - The frame
+     * @return - The body of the frame
+     */
+    private static ByteBuffer body(ByteBuffer frame) {
+        while (frame.get() < 0) {
+            // still in the length
+        }
+        return frame.slice();
+    }
+
+    /***
+     * Makes up a painted tile with an owner string of its own, like a deserialized change request would have
+     * @param i - The number of the change
+     * @return - The tile
+     */
+    private static PlaceTile tile(int i) {
+        String owner = new String("painter" + (i * 31 % PAINTERS));
+        return new PlaceTile(i / DIM % DIM, i % DIM, owner, PlaceColor.values()[i % 16],
+                1700000000000L + i * 37L);
+    }
+
+}
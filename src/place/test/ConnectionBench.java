@@ -0,0 +1,104 @@
+package place.test;
+
+import place.network.FrameConnection;
+import place.network.PlaceConnection;
+import place.network.PlaceExchange;
+import place.network.PlaceFrames;
+import place.server.PlaceServer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark that logs a number of idle clients in to an in-process server and reports the thread count and heap
+ * the server needs to hold them. Every client connects from its own loopback address (127.x.y.z) so the per-ip
+ * connection cooldown does not get in the way. The clients are plain sockets, so they cost the same in every mode.
+ *
+ * Run the virtual engine on Java 21 or newer, older JDKs quietly fall back to platform threads.
+ *
+ * @author Justin Yau
+ */
+public class ConnectionBench {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: java ConnectionBench <blocking|nio|virtual> <connections>");
+            System.exit(1);
+        }
+        int connections = Integer.parseInt(args[1]);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long baseHeap = usedHeap();
+        int baseThreads = threads.getThreadCount();
+
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        PlaceServer server = new PlaceServer(port, 100);
+        server.setOption("--engine=" + args[0]);
+        Thread serverThread = new Thread(server::go);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        long start = System.currentTimeMillis();
+        ArrayList<Socket> clients = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            clients.add(login(port, i));
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        Thread.sleep(1000);
+
+        System.err.println("engine:           " + args[0]);
+        System.err.println("idle clients:     " + server.getClients().size());
+        System.err.println("login time:       " + elapsed + " ms");
+        System.err.println("platform threads: " + (threads.getThreadCount() - baseThreads));
+        System.err.println("heap:             " + (usedHeap() - baseHeap) / (1024 * 1024) + " MB");
+        System.exit(0);
+    }
+
+    /***
+     * Connects and logs in a client from its own loopback address, reading the login replies
+     * @param port - The port the server is listening on
+     * @param i - The number of the client
+     * @return - The logged in socket
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static Socket login(int port, int i) throws IOException, ClassNotFoundException {
+        Socket sock = new Socket();
+        byte[] local = {127, (byte) (i >> 16), (byte) (i >> 8), (byte) ((i & 0xFF) + 1)};
+        sock.bind(new InetSocketAddress(InetAddress.getByAddress(local), 0));
+        sock.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        PlaceConnection conn = FrameConnection.connect(sock, PlaceFrames.BINARY_VERSION);
+        PlaceExchange.createLoginRequest(conn, "bench" + i);
+        conn.receive();
+        conn.receive();
+        conn.receive();
+        return sock;
+    }
+
+    /***
+     * Returns the heap in use after collecting garbage
+     * @return - The heap in use, in bytes
+     * @throws InterruptedException
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
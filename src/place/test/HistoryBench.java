@@ -0,0 +1,104 @@
+package place.test;
+
+import place.PlaceColor;
+import place.server.ChangeHistory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of the history of every change. Random changes are appended as the server would, with a memory budget
+ * far smaller than the history, and then all of it is scanned, once while it is open, with the latest segments warm
+ * in memory, and once after it is opened again, when every segment is cold on disk. The changes scanned are checked
+ * against the ones appended.
+ *
+ * Usage: java HistoryBench [changes] [dim] [budget MB]
+ *
+ * @author Justin Yau
+ */
+public class HistoryBench {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int dim = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int budget = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        Path dir = Files.createTempDirectory("placehistory");
+        Path file = dir.resolve("history");
+        long epoch = 42;
+
+        ChangeHistory history = new ChangeHistory(file, epoch, 0, (long) budget << 20);
+        Random random = new Random(42);
+        PlaceColor[] colors = PlaceColor.values();
+        long now = System.currentTimeMillis();
+        long peak = 0;
+        long began = System.nanoTime();
+        for (int i = 1; i <= count; i++) {
+            long accepted = now + i / 10;
+            history.append(i, random.nextInt(dim), random.nextInt(dim), colors[random.nextInt(16)],
+                    random.nextInt(10000), accepted - random.nextInt(50), accepted);
+            if ((i & 0xFFFF) == 0) {
+                peak = Math.max(peak, history.getMemory());
+            }
+        }
+        long append = System.nanoTime() - began;
+        began = System.nanoTime();
+        history.flush();
+        long flush = System.nanoTime() - began;
+
+        long[] warm = scan(history, count, dim);
+        history.close();
+        history = new ChangeHistory(file, epoch, count, (long) budget << 20);
+        long[] cold = scan(history, count, dim);
+        history.close();
+
+        long bytes;
+        try (Stream<Path> paths = Files.list(dir)) {
+            bytes = paths.mapToLong(path -> path.toFile().length()).sum();
+        }
+        System.out.println(count + " changes on a " + dim + "x" + dim + " board, " + budget + " MB budget, " +
+                history.getSegments() + " segments");
+        System.out.printf("append       %8.1f ns per change (%.1f M/s), flush %.1f ms%n", (double) append / count,
+                count * 1e3 / append, flush / 1e6);
+        System.out.printf("memory       %8.1f MB at most while appending%n", peak / 1048576.0);
+        System.out.printf("on disk      %8.1f MB (%.2f bytes per change, %.1f raw)%n", bytes / 1048576.0,
+                (double) bytes / count, 29.0);
+        System.out.printf("scan warm    %8.1f ns per change (%.1f M/s)%n", (double) warm[0] / count,
+                count * 1e3 / warm[0]);
+        System.out.printf("scan cold    %8.1f ns per change (%.1f M/s)%n", (double) cold[0] / count,
+                count * 1e3 / cold[0]);
+        System.out.println("match " + (warm[1] == 1 && cold[1] == 1));
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /***
+     * Scans the whole history and checks it against the changes appended, made again from the same seed
+     * @param history - The history
+     * @param count - The number of changes appended
+     * @param dim - The dimension of the board
+     * @return - The nanoseconds it took, and 1 if every change matched
+     * @throws Exception
+     */
+    private static long[] scan(ChangeHistory history, int count, int dim) throws Exception {
+        Random random = new Random(42);
+        boolean[] match = {true};
+        long[] next = {1};
+        long began = System.nanoTime();
+        long scanned = history.scan(1, (seq, row, col, color, owner, time, accepted) -> {
+            boolean same = seq == next[0]++ && row == random.nextInt(dim) && col == random.nextInt(dim) &&
+                    color.ordinal() == random.nextInt(16) && owner == random.nextInt(10000) &&
+                    accepted - time == random.nextInt(50);
+            match[0] &= same;
+        });
+        long took = System.nanoTime() - began;
+        return new long[] {took, match[0] && scanned == count ? 1 : 0};
+    }
+
+}
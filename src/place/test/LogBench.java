@@ -0,0 +1,134 @@
+package place.test;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.server.ChangeLog;
+import place.server.PlaceServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of the write-ahead log. The same changes are made on a server with no log and on one logging them, to
+ * show what logging costs a change. Then a new server is rebuilt from the log, and its board is checked against the
+ * one that wrote it.
+ *
+ * Usage: java LogBench [dim] [changes] [log-sync ms] [log-batch]
+ *
+ * @author Justin Yau
+ */
+public class LogBench {
+
+    public static void main(String[] args) throws Exception {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        String sync = args.length > 2 ? args[2] : "5";
+        String batch = args.length > 3 ? args[3] : "1024";
+        Path dir = Files.createTempDirectory("placelog");
+        Path file = dir.resolve("changes.log");
+        PlaceTile[] tiles = tiles(dim, count);
+
+        PlaceServer memory = new PlaceServer(0, dim);
+        paint(memory, tiles, count / 4);
+        long plain = paint(memory, tiles, count);
+
+        PlaceServer logged = new PlaceServer(0, dim);
+        logged.setOption("--log=" + file);
+        logged.setOption("--log-sync=" + sync);
+        logged.setOption("--log-batch=" + batch);
+        logged.setOption("--checkpoint=0");
+        logged.open();
+        long took = paint(logged, tiles, count);
+        ChangeLog log = logged.getLog();
+        long behind = log.getLast() - log.getDurable();
+        logged.stop();
+
+        System.out.println(dim + "x" + dim + " board, " + count + " changes, log-sync " + sync + " ms, log-batch " +
+                batch);
+        System.out.printf("no log      %8.1f ns per change%n", (double) plain / count);
+        System.out.printf("log         %8.1f ns per change%n", (double) took / count);
+        System.out.printf("batches     %8d (%.0f changes per fsync, %.1f us per fsync)%n", log.getBatches(),
+                (double) log.getWritten() / log.getBatches(), log.getSyncNanos() / 1e3 / log.getBatches());
+        System.out.printf("log size    %8.1f MB (%.1f bytes per change)%n", size(dir) / 1048576.0,
+                (double) size(dir) / count);
+        System.out.println("not on disk " + behind + " changes when the last one was made");
+
+        long began = System.nanoTime();
+        PlaceServer rebuilt = new PlaceServer(0, dim);
+        rebuilt.setOption("--log=" + file);
+        rebuilt.setOption("--checkpoint=0");
+        rebuilt.open();
+        long replay = System.nanoTime() - began;
+        System.out.printf("replay      %8.1f ms (%.1f ns per change)%n", replay / 1e6, (double) replay / count);
+        PlaceBoard ours = logged.getBoard();
+        PlaceBoard theirs = rebuilt.getBoard();
+        boolean match = ours.getSeq() == theirs.getSeq() && logged.getEpoch() == rebuilt.getEpoch();
+        for (int row = 0; row < dim; row++) {
+            for (int col = 0; col < dim; col++) {
+                PlaceTile a = ours.getTile(row, col);
+                PlaceTile b = theirs.getTile(row, col);
+                match &= a.getColor() == b.getColor() && a.getTime() == b.getTime() &&
+                        a.getOwner().equals(b.getOwner());
+            }
+        }
+        System.out.println("match " + match);
+        rebuilt.stop();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /***
+     * Adds up the sizes of the files in a directory
+     * @param dir - The directory
+     * @return - The bytes
+     * @throws IOException
+     */
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    /***
+     * Makes the changes up ahead of time, so making them is all that is timed
+     * @param dim - The dimension of the board
+     * @param count - The number of changes
+     * @return - The changes
+     */
+    private static PlaceTile[] tiles(int dim, int count) {
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        PlaceTile[] tiles = new PlaceTile[count];
+        for (int i = 0; i < count; i++) {
+            tiles[i] = new PlaceTile(random.nextInt(dim), random.nextInt(dim), "painter" + random.nextInt(10000),
+                    PlaceColor.values()[random.nextInt(16)], now - random.nextInt(1000));
+        }
+        return tiles;
+    }
+
+    /***
+     * Makes changes on a server
+     * @param server - The server
+     * @param tiles - The changes
+     * @param count - The number of them to make
+     * @return - The nanoseconds it took
+     * @throws Exception
+     */
+    private static long paint(PlaceServer server, PlaceTile[] tiles, int count) throws Exception {
+        long began = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            server.changeTile(tiles[i]);
+        }
+        return System.nanoTime() - began;
+    }
+
+}
@@ -0,0 +1,191 @@
+package place.test;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.SharedFrame;
+import place.server.PlaceServer;
+import place.server.PlaceSession;
+
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of how much a burst of logins holds up painting. Painter threads change tiles nonstop and time every
+ * change, while a few threads log a burst of clients in and then out again, straight through the server's registry
+ * with sessions that drop what they are sent. The latency of the changes made during the burst is compared with
+ * that of the changes made before it. The server prints a line for every login and logout to standard out, so the
+ * results go to standard error.
+ *
+ * Usage: java LoginBench [logins] [painters] [login threads] > /dev/null
+ *
+ * @author Justin Yau
+ */
+public class LoginBench {
+
+    private static final int DIM = 256;                 // The dimension of the board
+    private static final int WARM_UP = 2000;            // Milliseconds of painting before anything is timed
+    private static final int QUIET = 1000;              // Milliseconds of painting timed before the burst
+    private static final int MAX_CHANGES = 1 << 21;     // Most changes a painter can time
+
+    private static volatile int phase;  // 0 while warming up, 1 while quiet, 2 during the burst, 3 once it is over
+
+    public static void main(String[] args) throws Exception {
+        int logins = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int painters = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int loginThreads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        PlaceServer server = new PlaceServer(0, DIM);
+
+        long[][] quiet = new long[painters][MAX_CHANGES];
+        long[][] burst = new long[painters][MAX_CHANGES];
+        int[][] counts = new int[painters][2];
+        Thread[] threads = new Thread[painters];
+        for (int p = 0; p < painters; p++) {
+            int painter = p;
+            threads[p] = new Thread(() -> paint(server, painter, quiet[painter], burst[painter], counts[painter]));
+            threads[p].start();
+        }
+        Thread.sleep(WARM_UP);
+        phase = 1;
+        Thread.sleep(QUIET);
+
+        Socket sock = new Socket();
+        CountDownLatch done = new CountDownLatch(loginThreads);
+        long began = System.nanoTime();
+        phase = 2;
+        for (int t = 0; t < loginThreads; t++) {
+            int first = t;
+            new Thread(() -> {
+                PlaceSession[] sessions = new PlaceSession[logins];
+                for (int i = first; i < logins; i += loginThreads) {
+                    sessions[i] = new NullSession();
+                    server.addClient("burst" + i, sock, sessions[i]);
+                }
+                for (int i = first; i < logins; i += loginThreads) {
+                    server.removeClient("burst" + i, sock, sessions[i]);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        long took = System.nanoTime() - began;
+        phase = 3;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.err.println(logins + " logins and logouts from " + loginThreads + " threads in " +
+                took / 1000000 + " ms, " + painters + " painters, " + Runtime.getRuntime().availableProcessors() +
+                " processors");
+        System.err.println("changeTile   changes      p50 us      p99 us    p99.9 us      max us");
+        print("quiet", merge(quiet, counts, 0));
+        print("burst", merge(burst, counts, 1));
+        System.exit(0);
+    }
+
+    /***
+     * Changes tiles until the burst is over, timing every change made while quiet and during the burst
+     * @param server - The server
+     * @param seed - The seed of the tiles
+     * @param quiet - Gets the nanoseconds of the changes made while quiet
+     * @param burst - Gets the nanoseconds of the changes made during the burst
+     * @param counts - Gets the number of changes timed while quiet and during the burst
+     */
+    private static void paint(PlaceServer server, int seed, long[] quiet, long[] burst, int[] counts) {
+        Random random = new Random(seed);
+        PlaceColor[] colors = PlaceColor.values();
+        try {
+            int now;
+            while ((now = phase) < 3) {
+                PlaceTile tile = new PlaceTile(random.nextInt(DIM), random.nextInt(DIM), "painter" + seed,
+                        colors[random.nextInt(16)], System.currentTimeMillis());
+                long began = System.nanoTime();
+                server.changeTile(tile);
+                long took = System.nanoTime() - began;
+                if (now == 1 && counts[0] < quiet.length) {
+                    quiet[counts[0]++] = took;
+                } else if (now == 2 && counts[1] < burst.length) {
+                    burst[counts[1]++] = took;
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /***
+     * Puts the times of every painter together, sorted
+     * @param times - The times of every painter
+     * @param counts - The number of times of every painter
+     * @param which - 0 for the times while quiet, 1 for those during the burst
+     * @return - The times, sorted
+     */
+    private static long[] merge(long[][] times, int[][] counts, int which) {
+        int total = 0;
+        for (int[] count : counts) {
+            total += count[which];
+        }
+        long[] all = new long[total];
+        int at = 0;
+        for (int p = 0; p < times.length; p++) {
+            System.arraycopy(times[p], 0, all, at, counts[p][which]);
+            at += counts[p][which];
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    /***
+     * Prints percentiles of sorted times
+     * @param name - The name of the times
+     * @param sorted - The times, sorted
+     */
+    private static void print(String name, long[] sorted) {
+        if (sorted.length == 0) {
+            System.err.println(name + " (no changes)");
+            return;
+        }
+        System.err.printf("%-10s %9d  %10.1f  %10.1f  %10.1f  %10.1f%n", name, sorted.length,
+                at(sorted, 0.5) / 1e3, at(sorted, 0.99) / 1e3, at(sorted, 0.999) / 1e3,
+                sorted[sorted.length - 1] / 1e3);
+    }
+
+    /***
+     * Returns a percentile of sorted times
+     * @param sorted - The times, sorted
+     * @param fraction - The percentile, as a fraction
+     * @return - The time
+     */
+    private static long at(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+
+    /**
+     * A logged in client that drops everything it is sent
+     */
+    private static class NullSession implements PlaceSession {
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void send(SharedFrame frame) {
+        }
+
+        @Override
+        public void createError(String msg) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
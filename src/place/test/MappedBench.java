@@ -0,0 +1,179 @@
+package place.test;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.PlaceFrames;
+import place.server.PlaceServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of keeping the board in a memory-mapped board file against keeping it on the heap with a log and
+ * checkpoints. The same changes are made on both, then both are restarted, and the BOARD frame a login gets is
+ * written to a socket the way the selector engine does, a piece at a time as the socket takes it. The heap frame is
+ * copied into a direct buffer by the channel for every write, the mapped board's is written as it is.
+ *
+ * Usage: java -Xmx3g MappedBench [dim] [changes] [logins]
+ *
+ * @author Justin Yau
+ */
+public class MappedBench {
+
+    public static void main(String[] args) throws Exception {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 4000000;
+        int logins = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        Path dir = Files.createTempDirectory("placemapped");
+        String[] heap = {"--log=" + dir.resolve("heap.log")};
+        String[] mapped = {"--board=" + dir.resolve("board")};
+
+        long[] heapRun = run(dim, count, logins, heap);
+        long[] mappedRun = run(dim, count, logins, mapped);
+
+        System.out.println(dim + "x" + dim + " board, " + count + " changes, BOARD frame of " + (heapRun[3] >> 10) +
+                " KB written " + logins + " times");
+        System.out.println("board         change ns    restart ms   login ms   writes per login");
+        System.out.printf("heap + log    %9.1f    %10.1f   %8.2f   %16.1f%n", (double) heapRun[0] / count,
+                heapRun[1] / 1e6, heapRun[2] / 1e6 / logins, (double) heapRun[4] / logins);
+        System.out.printf("board file    %9.1f    %10.1f   %8.2f   %16.1f%n", (double) mappedRun[0] / count,
+                mappedRun[1] / 1e6, mappedRun[2] / 1e6 / logins, (double) mappedRun[4] / logins);
+        System.out.println("match " + (heapRun[5] == mappedRun[5]));
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        System.exit(0);
+    }
+
+    /***
+     * Makes the changes on a server, restarts it, and writes its BOARD frame to a socket
+     * @param dim - The dimension of the board
+     * @param count - The number of changes
+     * @param logins - The number of times to write the frame
+     * @param options - The options of the server
+     * @return - The nanoseconds the changes, the restart and the logins took, the bytes of the frame, the writes it
+     * took, and a hash of the board after the restart
+     * @throws Exception
+     */
+    private static long[] run(int dim, int count, int logins, String[] options) throws Exception {
+        PlaceServer server = server(dim, options);
+        Random random = new Random(42);
+        long now = 1500000000000L;
+        long began = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            server.changeTile(new PlaceTile(random.nextInt(dim), random.nextInt(dim), "painter" +
+                    random.nextInt(100000), PlaceColor.values()[random.nextInt(16)], now + i / 10));
+        }
+        long changes = System.nanoTime() - began;
+        server.stop();
+        System.gc();
+
+        began = System.nanoTime();
+        PlaceServer restarted = server(dim, options);
+        long restart = System.nanoTime() - began;
+
+        ByteBuffer frame = restarted.getSnapshot().bytes(PlaceFrames.BINARY_VERSION);
+        long[] sent = send(frame, logins);
+        long hash = hash(restarted.getBoard());
+        restarted.stop();
+        return new long[] {changes, restart, sent[0], frame.remaining(), sent[1], hash};
+    }
+
+    /***
+     * Creates a server and opens its board, with checkpoints only taken when it stops
+     * @param dim - The dimension of the board
+     * @param options - The options of the server
+     * @return - The server
+     * @throws IOException
+     */
+    private static PlaceServer server(int dim, String[] options) throws IOException {
+        PlaceServer server = new PlaceServer(0, dim);
+        server.setOption("--checkpoint=1000000");
+        for (String option : options) {
+            server.setOption(option);
+        }
+        server.open();
+        return server;
+    }
+
+    /***
+     * Writes a frame to a loopback socket some number of times, from a non-blocking channel with a small send
+     * buffer as the selector engine would, while another thread reads it
+     * @param frame - The frame
+     * @param times - The number of times to write it
+     * @return - The nanoseconds it took and the number of writes
+     * @throws Exception
+     */
+    private static long[] send(ByteBuffer frame, int times) throws Exception {
+        long total = (long) frame.remaining() * times;
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread reader = new Thread(() -> {
+                try (Socket sock = listener.accept(); InputStream in = sock.getInputStream()) {
+                    byte[] buf = new byte[1 << 16];
+                    for (long read = 0; read < total; ) {
+                        read += in.read(buf);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            reader.start();
+            try (SocketChannel channel = SocketChannel.open(); Selector selector = Selector.open()) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, 1 << 16);
+                channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort()));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_WRITE);
+                long writes = 0;
+                long began = System.nanoTime();
+                for (int i = 0; i < times; i++) {
+                    ByteBuffer view = frame.duplicate();
+                    while (view.hasRemaining()) {
+                        selector.select();
+                        selector.selectedKeys().clear();
+                        channel.write(view);
+                        writes++;
+                    }
+                }
+                reader.join();
+                return new long[] {System.nanoTime() - began, writes};
+            }
+        }
+    }
+
+    /***
+     * Hashes every tile of a board, to check two boards against each other
+     * @param board - The board
+     * @return - The hash
+     */
+    private static long hash(PlaceBoard board) {
+        long hash = board.getSeq();
+        for (int row = 0; row < board.DIM; row++) {
+            for (int col = 0; col < board.DIM; col++) {
+                PlaceTile tile = board.getTile(row, col);
+                hash = hash * 31 + tile.getColor().ordinal();
+                hash = hash * 31 + tile.getOwner().hashCode();
+                hash = hash * 31 + tile.getTime();
+            }
+        }
+        return hash;
+    }
+
+}
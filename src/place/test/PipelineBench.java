@@ -0,0 +1,177 @@
+package place.test;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.SharedFrame;
+import place.server.PlaceServer;
+import place.server.PlaceSession;
+import place.server.TilePipeline;
+
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.stream.Stream;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of the pipeline of stages changes can be run through, against making every change on the thread that
+ * read it. Reader threads make changes nonstop on a server that logs them and broadcasts them to idle sessions that
+ * drop what they are sent. The pipeline is watched while it runs, and the most changes that waited for every stage,
+ * how long they took through it and how many went in a batch are printed, which shows the stage holding the rest up.
+ *
+ * Usage: java PipelineBench [changes] [readers] [sessions] [pipeline size]
+ *
+ * @author Justin Yau
+ */
+public class PipelineBench {
+
+    private static final int DIM = 1024;    // The dimension of the board
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int sessions = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int size = args.length > 3 ? Integer.parseInt(args[3]) : 8192;
+        Path dir = Files.createTempDirectory("placepipeline");
+
+        System.out.println(count + " changes from " + readers + " readers, " + sessions + " sessions, " +
+                Runtime.getRuntime().availableProcessors() + " processors");
+        PlaceServer inline = server(dir.resolve("inline.log"), sessions, "--stripes=0");
+        long took = paint(inline, count, readers);
+        inline.stop();
+        System.out.printf("inline     %10.0f changes/s%n", count * 1e9 / took);
+
+        PlaceServer piped = server(dir.resolve("piped.log"), sessions, "--pipeline=" + size);
+        TilePipeline pipeline = piped.getPipeline();
+        long[] depths = new long[TilePipeline.Stage.values().length];
+        Thread watcher = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                for (TilePipeline.Stage stage : TilePipeline.Stage.values()) {
+                    depths[stage.ordinal()] = Math.max(depths[stage.ordinal()], pipeline.getDepth(stage));
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        watcher.start();
+        took = paint(piped, count, readers);
+        watcher.interrupt();
+        watcher.join();
+        System.out.printf("pipeline   %10.0f changes/s%n", count * 1e9 / took);
+        System.out.println("stage        most waiting    mean us     max us   per batch");
+        for (TilePipeline.Stage stage : TilePipeline.Stage.values()) {
+            System.out.printf("%-10s   %12d   %8.1f   %8.1f   %9.1f%n", stage.name().toLowerCase(),
+                    depths[stage.ordinal()], pipeline.getLatency(stage) / 1e3, pipeline.getMaxLatency(stage) / 1e3,
+                    (double) pipeline.getDone() / pipeline.getBatches(stage));
+        }
+        System.out.println("match " + (piped.getBoard().getSeq() == inline.getBoard().getSeq()));
+        piped.stop();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        System.exit(0);
+    }
+
+    /***
+     * Creates a server that logs its changes, with idle sessions logged in
+     * @param log - The log file
+     * @param sessions - The number of sessions
+     * @param option - The option picking how changes are made
+     * @return - The server
+     * @throws Exception
+     */
+    private static PlaceServer server(Path log, int sessions, String option) throws Exception {
+        PlaceServer server = new PlaceServer(0, DIM);
+        server.setOption(option);
+        server.setOption("--log=" + log);
+        server.setOption("--checkpoint=0");
+        server.open();
+        Socket sock = new Socket();
+        for (int i = 0; i < sessions; i++) {
+            server.addClient("idle" + i, sock, new NullSession());
+        }
+        return server;
+    }
+
+    /***
+     * Makes changes on a server from some number of threads at once, and waits for all of them to be made
+     * @param server - The server
+     * @param count - The number of changes, shared out between the threads
+     * @param readers - The number of threads
+     * @return - The nanoseconds it took from when every thread was ready
+     * @throws Exception
+     */
+    private static long paint(PlaceServer server, int count, int readers) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(readers + 1);
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < readers; t++) {
+            int seed = t;
+            int changes = count / readers + (t < count % readers ? 1 : 0);
+            Thread reader = new Thread(() -> {
+                Random random = new Random(seed);
+                PlaceColor[] colors = PlaceColor.values();
+                PlaceTile[] tiles = new PlaceTile[changes];
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < changes; i++) {
+                    tiles[i] = new PlaceTile(random.nextInt(DIM), random.nextInt(DIM), "painter" +
+                            random.nextInt(10000), colors[random.nextInt(16)], now + i);
+                }
+                try {
+                    start.await();
+                    for (PlaceTile tile : tiles) {
+                        server.changeTile(tile);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            reader.start();
+            threads.add(reader);
+        }
+        start.await();
+        long began = System.nanoTime();
+        for (Thread reader : threads) {
+            reader.join();
+        }
+        // the stages may still be working through changes that were published to them
+        TilePipeline pipeline = server.getPipeline();
+        while (pipeline != null && pipeline.getDone() < count) {
+            Thread.sleep(1);
+        }
+        return System.nanoTime() - began;
+    }
+
+    /**
+     * A logged in client that drops everything it is sent
+     */
+    private static class NullSession implements PlaceSession {
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void send(SharedFrame frame) {
+        }
+
+        @Override
+        public void createError(String msg) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
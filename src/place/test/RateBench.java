@@ -0,0 +1,159 @@
+package place.test;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.FrameConnection;
+import place.network.PlaceConnection;
+import place.network.PlaceExchange;
+import place.network.PlaceFrames;
+import place.network.PlaceRequest;
+import place.server.PlaceServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of the per-user limit on tile changes. First the limiter itself is timed from a few threads at once,
+ * over many users. Then clients flood an in-process server with changes as fast as they can write them, and follow
+ * them with a second login request. The server reads the requests of a client in order and answers that one with an
+ * error, so once the error comes back every change of the flood has been read, which is how long the server took to
+ * read the flood. A server that slept off the cooldown on the client's
+ * thread after every change would take the refill period for every change sent, with the rest of them piling up in
+ * the socket meanwhile.
+ * Every client connects from its own loopback address (127.x.y.z) so the per-ip connection cooldown does not get in
+ * the way.
+ *
+ * Usage: java RateBench [engine] [clients] [changes per client] [burst] [refill ms]
+ *
+ * @author Justin Yau
+ */
+public class RateBench {
+
+    private static final int THREADS = 4;           // Threads timing the limiter
+    private static final int USERS = 10000;         // Users the limiter is timed over
+    private static final int ACQUIRES = 2000000;    // Changes every thread takes out of the limiter
+
+    public static void main(String[] args) throws Exception {
+        String engine = args.length > 0 ? args[0] : "nio";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int changes = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        String burst = args.length > 3 ? args[3] : "5";
+        String refill = args.length > 4 ? args[4] : "500";
+
+        PlaceServer limited = new PlaceServer(0, 100);
+        limited.setOption("--burst=" + burst);
+        limited.setOption("--refill=1");
+        String[] users = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = "user" + i;
+        }
+        AtomicLong taken = new AtomicLong();
+        Thread[] threads = new Thread[THREADS];
+        long began = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                long mine = 0;
+                for (int i = 0; i < ACQUIRES; i++) {
+                    if (limited.acquire(users[(i * THREADS + first) % USERS]) == 0) {
+                        mine++;
+                    }
+                }
+                taken.addAndGet(mine);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long took = System.nanoTime() - began;
+        System.out.printf("acquire    %8.1f ns per change from %d threads over %d users, %d taken%n",
+                (double) took / ACQUIRES / THREADS, THREADS, USERS, taken.get());
+
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        PlaceServer server = new PlaceServer(port, 100);
+        server.setOption("--engine=" + engine);
+        server.setOption("--burst=" + burst);
+        server.setOption("--refill=" + refill);
+        Thread serverThread = new Thread(server::go);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        PlaceConnection[] conns = new PlaceConnection[clients];
+        for (int i = 0; i < clients; i++) {
+            conns[i] = login(port, i);
+        }
+        long[] accepted = new long[clients];
+        long[] rejected = new long[clients];
+        CountDownLatch done = new CountDownLatch(clients);
+        began = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            new Thread(() -> {
+                try {
+                    for (int c = 0; c < changes; c++) {
+                        PlaceExchange.createTileChangeRequest(conns[client], new PlaceTile(c % 100, client % 100,
+                                "flood" + client, PlaceColor.values()[c % 16], c));
+                    }
+                    PlaceExchange.createLoginRequest(conns[client], "flood" + client);
+                    PlaceRequest<?> req;
+                    while ((req = conns[client].receive()).getType() != PlaceRequest.RequestType.ERROR) {
+                        if (req.getType() == PlaceRequest.RequestType.TILE_REJECTED) {
+                            rejected[client]++;
+                        } else if (req.getType() == PlaceRequest.RequestType.TILE_CHANGED &&
+                                ((PlaceTile) req.getData()).getOwner().equals("flood" + client)) {
+                            accepted[client]++;
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        took = System.nanoTime() - began;
+        long allAccepted = 0;
+        long allRejected = 0;
+        for (int i = 0; i < clients; i++) {
+            allAccepted += accepted[i];
+            allRejected += rejected[i];
+        }
+        System.out.println(engine + " engine, " + clients + " clients flooding " + changes + " changes each, burst " +
+                burst + ", refill " + refill + " ms");
+        System.out.printf("flood      %8.1f ms to read every change, %d accepted, %d rejections sent%n",
+                took / 1e6, allAccepted, allRejected);
+        System.out.printf("sleeping   %8.1f ms it would take a client thread sleeping after every change%n",
+                (double) changes * Integer.parseInt(refill));
+        System.exit(0);
+    }
+
+    /***
+     * Connects and logs in a client from its own loopback address, with a frame version that has rejections
+     * @param port - The port the server is listening on
+     * @param i - The number of the client
+     * @return - The connection
+     * @throws Exception
+     */
+    private static PlaceConnection login(int port, int i) throws Exception {
+        Socket sock = new Socket();
+        byte[] local = {127, (byte) (i >> 16), (byte) (i >> 8), (byte) ((i & 0xFF) + 1)};
+        sock.bind(new InetSocketAddress(InetAddress.getByAddress(local), 0));
+        sock.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        PlaceConnection conn = FrameConnection.connect(sock, PlaceFrames.REJECT_VERSION);
+        PlaceExchange.createLoginRequest(conn, "flood" + i);
+        return conn;
+    }
+
+}
@@ -0,0 +1,219 @@
+package place.test;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceResume;
+import place.PlaceTile;
+import place.PlaceUsers;
+import place.network.FrameConnection;
+import place.network.PlaceExchange;
+import place.network.PlaceFrames;
+import place.server.PlaceServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of a reconnect storm: every client is cut off at once, some changes are made while they are gone, and
+ * they all log back in at once, first offering to resume from the board they had and then without an offer, so the
+ * whole board is sent to each of them. Each client connects from a loopback address of its own, and the rounds are
+ * spaced out by the server's cooldown on connecting again.
+ *
+ * Usage: java ReconnectBench [dim] [clients] [missed changes] [engine]
+ *
+ * @author Justin Yau
+ */
+public class ReconnectBench {
+
+    private static final int COOLDOWN = 5500;   // Milliseconds to wait before the same addresses connect again
+
+    private static int port;                    // The port the server is listening on
+
+    public static void main(String[] args) throws Exception {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int missed = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        String engine = args.length > 3 ? args[3] : "nio";
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        PlaceServer server = new PlaceServer(port, dim);
+        server.setOption("--engine=" + engine);
+        Random random = new Random(42);
+        paint(server, random, dim * dim / 8);
+        Thread serverThread = new Thread(server::go);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        // what every client had when it was cut off
+        PlaceResume[] had = new PlaceResume[clients];
+        PlaceUsers[] users = new PlaceUsers[clients];
+        storm(clients, (i, bytes) -> {
+            PlaceResume offer = new PlaceResume(0, -1, 0);
+            Object[] got = login(i, offer, null, bytes);
+            PlaceBoard board = (PlaceBoard) got[1];
+            users[i] = (PlaceUsers) got[2];
+            PlaceResume answer = (PlaceResume) got[0];
+            had[i] = new PlaceResume(answer.getEpoch(), board.getSeq(), users[i].size(), answer.getToken());
+        });
+        paint(server, random, missed);
+        Thread.sleep(COOLDOWN);
+
+        System.out.println(clients + " clients, " + dim + "x" + dim + " board, " + missed + " changes missed, " +
+                engine + " engine");
+        System.out.println("login      storm ms   KB per client");
+        long[] resumed = storm(clients, (i, bytes) -> {
+            if (!((PlaceResume) login(i, had[i], users[i], bytes)[0]).isResumed()) {
+                throw new IllegalStateException("Client " + i + " did not resume");
+            }
+        });
+        System.out.printf("resume   %10.1f   %13.1f%n", resumed[0] / 1e6, resumed[1] / 1024.0 / clients);
+        Thread.sleep(COOLDOWN);
+        long[] fresh = storm(clients, (i, bytes) -> login(i, new PlaceResume(0, -1, 0), null, bytes));
+        System.out.printf("board    %10.1f   %13.1f%n", fresh[0] / 1e6, fresh[1] / 1024.0 / clients);
+        System.exit(0);
+    }
+
+    /***
+     * Makes random changes on the server
+     * @param server - The server
+     * @param random - Where the changes come from
+     * @param count - The number of changes
+     * @throws Exception
+     */
+    private static void paint(PlaceServer server, Random random, int count) throws Exception {
+        int dim = server.getBoard().DIM;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            server.changeTile(new PlaceTile(random.nextInt(dim), random.nextInt(dim), "painter" +
+                    random.nextInt(1000), PlaceColor.values()[random.nextInt(16)], now - random.nextInt(86400000)));
+        }
+    }
+
+    /**
+     * Counts the bytes read through it
+     */
+    private static class Counted extends FilterInputStream {
+
+        private long count;     // The number of bytes read so far
+
+        Counted(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+    }
+
+    /**
+     * One client logging in during a storm
+     */
+    private interface Login {
+        void run(int i, AtomicLong bytes) throws Exception;
+    }
+
+    /***
+     * Logs every client in at once, each on a thread of its own
+     * @param clients - The number of clients
+     * @param login - Logs a client in
+     * @return - The nanoseconds until the last one was done and the bytes of the frames they were sent
+     * @throws InterruptedException
+     */
+    private static long[] storm(int clients, Login login) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        AtomicLong bytes = new AtomicLong();
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    login.run(client, bytes);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+                done.countDown();
+            }).start();
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        done.await();
+        return new long[] {System.nanoTime() - began, bytes.get()};
+    }
+
+    /***
+     * Logs a client in from its own loopback address and reads what it is sent up to the board or the replay
+     * @param i - The number of the client
+     * @param offer - What the client offers to resume from
+     * @param known - The usernames the client already has, or null
+     * @param bytes - Counts the bytes of the frames the client is sent
+     * @return - The server's answer, then the board and usernames, or the usernames and the changes replayed
+     * @throws Exception
+     */
+    private static Object[] login(int i, PlaceResume offer, PlaceUsers known, AtomicLong bytes) throws Exception {
+        try (Socket sock = new Socket()) {
+            byte[] local = {127, 2, (byte) (i >> 8), (byte) ((i & 0xFF) + 1)};
+            sock.bind(new InetSocketAddress(InetAddress.getByAddress(local), 0));
+            sock.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            Counted counted = new Counted(sock.getInputStream());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(counted));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+            in.readInt();
+            out.writeInt(PlaceFrames.MAGIC);
+            out.writeByte(PlaceFrames.BINARY_VERSION);
+            out.flush();
+            FrameConnection conn = new FrameConnection(in, out, in.readUnsignedByte());
+            if (known != null) {
+                conn.setUsers(known);
+            }
+            PlaceExchange.createResumeRequest(conn, offer);
+            PlaceExchange.createLoginRequest(conn, "client" + i);
+            Object[] got = new Object[3];
+            conn.receive();
+            for (int k = 0; k < got.length; k++) {
+                got[k] = conn.receive().getData();
+            }
+            bytes.addAndGet(counted.count);
+            if (got[2] instanceof List && known != null) {
+                known.merge((PlaceUsers) got[1]);
+            }
+            PlaceExchange.createError(conn, "DISCONNECT");
+            return got;
+        }
+    }
+
+}
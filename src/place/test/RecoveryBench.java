@@ -0,0 +1,141 @@
+package place.test;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.server.PlaceServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of restarting a server from its log. A long history of changes is logged with no checkpoint, and a
+ * server is rebuilt by replaying all of it. That server then takes a checkpoint while more changes are being made,
+ * to show how long a change can wait on it, and the server after it is rebuilt from the checkpoint and the changes
+ * logged after it, and checked against the one before.
+ *
+ * Usage: java -Xmx3g RecoveryBench [dim] [history] [tail]
+ *
+ * @author Justin Yau
+ */
+public class RecoveryBench {
+
+    public static void main(String[] args) throws Exception {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int history = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+        int tail = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        Path dir = Files.createTempDirectory("placerecovery");
+        Path file = dir.resolve("changes.log");
+        Random random = new Random(42);
+
+        PlaceServer first = server(dim, file);
+        long began = System.nanoTime();
+        paint(first, random, history);
+        first.stop();
+        System.out.printf("%dx%d board, %d changes logged in %.1f s, %.1f MB of log%n", dim, dim, history,
+                (System.nanoTime() - began) / 1e9, size(dir) / 1048576.0);
+
+        began = System.nanoTime();
+        PlaceServer replayed = server(dim, file);
+        long full = System.nanoTime() - began;
+
+        long[] worst = new long[1];
+        Thread painter = new Thread(() -> {
+            try {
+                worst[0] = paint(replayed, random, tail);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        painter.start();
+        began = System.nanoTime();
+        long at = replayed.checkpoint();
+        long checkpoint = System.nanoTime() - began;
+        painter.join();
+        replayed.stop();
+
+        began = System.nanoTime();
+        PlaceServer recovered = server(dim, file);
+        long fast = System.nanoTime() - began;
+
+        System.out.printf("replay all of the log         %8.1f s%n", full / 1e9);
+        System.out.printf("checkpoint of %d changes  %8.1f s (slowest change meanwhile %.2f ms)%n", at,
+                checkpoint / 1e9, worst[0] / 1e6);
+        System.out.printf("checkpoint and %d more      %8.1f s, %.1f MB on disk%n", history + tail - at, fast / 1e9,
+                size(dir) / 1048576.0);
+        PlaceBoard ours = replayed.getBoard();
+        PlaceBoard theirs = recovered.getBoard();
+        boolean match = ours.getSeq() == theirs.getSeq() && replayed.getEpoch() == recovered.getEpoch();
+        for (int row = 0; row < dim && match; row++) {
+            for (int col = 0; col < dim; col++) {
+                PlaceTile a = ours.getTile(row, col);
+                PlaceTile b = theirs.getTile(row, col);
+                match &= a.getColor() == b.getColor() && a.getTime() == b.getTime() &&
+                        a.getOwner().equals(b.getOwner());
+            }
+        }
+        System.out.println("match " + match);
+        recovered.stop();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /***
+     * Creates a server logging to a file, rebuilding its board from what is there, with checkpoints only taken when
+     * asked for
+     * @param dim - The dimension of the board
+     * @param file - The log
+     * @return - The server
+     * @throws IOException
+     */
+    private static PlaceServer server(int dim, Path file) throws IOException {
+        PlaceServer server = new PlaceServer(0, dim);
+        server.setOption("--log=" + file);
+        server.setOption("--checkpoint=0");
+        server.open();
+        return server;
+    }
+
+    /***
+     * Makes random changes on a server
+     * @param server - The server
+     * @param random - Where the changes come from
+     * @param count - The number of changes
+     * @return - The nanoseconds the slowest change took
+     * @throws IOException
+     */
+    private static long paint(PlaceServer server, Random random, int count) throws IOException {
+        int dim = server.getBoard().DIM;
+        long now = System.currentTimeMillis();
+        long worst = 0;
+        for (int i = 0; i < count; i++) {
+            PlaceTile tile = new PlaceTile(random.nextInt(dim), random.nextInt(dim), "painter" +
+                    random.nextInt(100000), PlaceColor.values()[random.nextInt(16)], now + i / 10);
+            long began = System.nanoTime();
+            server.changeTile(tile);
+            worst = Math.max(worst, System.nanoTime() - began);
+        }
+        return worst;
+    }
+
+    /***
+     * Adds up the sizes of the files in a directory
+     * @param dir - The directory
+     * @return - The bytes
+     * @throws IOException
+     */
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+package place.test;
+
+import place.BoardHashes;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.server.PlaceServer;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of the ways the server can write changes from many threads: every change under the lock, the chunks
+ * striped, and one writer thread per region. Every run is made twice, once with the tiles spread evenly over the
+ * board, and once with most of them in a hot spot of one chunk, as when a crowd fights over one corner of the board.
+ * A run is timed until every change has been written, and the board is then checked against the changes in the ring,
+ * applied again one at a time in the order they were numbered.
+ *
+ * Usage: java RegionBench [dim] [changes per run] [threads] [regions] [hot %]
+ *
+ * @author Justin Yau
+ */
+public class RegionBench {
+
+    public static void main(String[] args) throws Exception {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int regions = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int hot = args.length > 4 ? Integer.parseInt(args[4]) : 90;
+        String[][] engines = {
+                {"one lock", "--stripes=0"},
+                {"64 stripes", "--stripes=64"},
+                {regions + " regions", "--regions=" + regions}
+        };
+
+        System.out.println(dim + "x" + dim + " board, " + count + " changes per run from " + threads + " threads, " +
+                Runtime.getRuntime().availableProcessors() + " processors, hot spot of " + hot + "% in one chunk");
+        System.out.println("engine        uniform changes/s   hot spot changes/s   match");
+        for (String[] engine : engines) {
+            long[] uniform = run(dim, count, threads, 0, engine[1]);
+            long[] spot = run(dim, count, threads, hot, engine[1]);
+            System.out.printf("%-12s  %17.0f   %18.0f   %s%n", engine[0], count * 1e9 / uniform[0],
+                    count * 1e9 / spot[0], uniform[1] == 1 && spot[1] == 1);
+        }
+    }
+
+    /***
+     * Makes changes on a server from some number of threads at once, after a warm up, and checks its board
+     * @param dim - The dimension of the board
+     * @param count - The number of changes, shared out between the threads
+     * @param threads - The number of threads
+     * @param hot - The percentage of the changes made in the hot spot
+     * @param option - The option picking how the server writes changes
+     * @return - The nanoseconds it took, and 1 if the board matched the changes
+     * @throws Exception
+     */
+    private static long[] run(int dim, int count, int threads, int hot, String option) throws Exception {
+        PlaceServer server = new PlaceServer(0, dim);
+        server.setOption(option);
+        server.setOption("--history=" + Integer.highestOneBit(count + count / 4) * 2);
+        paint(server, dim, count / 4, threads, hot);
+        long took = paint(server, dim, count, threads, hot);
+        boolean match = check(server, dim);
+        server.stop();
+        return new long[] {took, match ? 1 : 0};
+    }
+
+    /***
+     * Makes changes on a server from some number of threads at once, and waits for all of them to be written
+     * @param server - The server
+     * @param dim - The dimension of the board
+     * @param count - The number of changes, shared out between the threads
+     * @param threads - The number of threads
+     * @param hot - The percentage of the changes made in the hot spot
+     * @return - The nanoseconds it took from when every thread was ready
+     * @throws Exception
+     */
+    private static long paint(PlaceServer server, int dim, int count, int threads, int hot) throws Exception {
+        long last = server.getChanges().getLast() + count;
+        int spot = Math.max(0, dim / 2 - PlaceBoard.CHUNK) / PlaceBoard.CHUNK * PlaceBoard.CHUNK;
+        int size = Math.min(dim, PlaceBoard.CHUNK);
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        ArrayList<Thread> painters = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            int changes = count / threads + (t < count % threads ? 1 : 0);
+            Thread painter = new Thread(() -> {
+                Random random = new Random(seed);
+                PlaceColor[] colors = PlaceColor.values();
+                PlaceTile[] tiles = new PlaceTile[changes];
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < changes; i++) {
+                    boolean inSpot = random.nextInt(100) < hot;
+                    int row = inSpot ? spot + random.nextInt(size) : random.nextInt(dim);
+                    int col = inSpot ? spot + random.nextInt(size) : random.nextInt(dim);
+                    tiles[i] = new PlaceTile(row, col, "painter" + random.nextInt(10000), colors[random.nextInt(16)],
+                            now + i);
+                }
+                try {
+                    start.await();
+                    for (PlaceTile tile : tiles) {
+                        server.changeTile(tile);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            painter.start();
+            painters.add(painter);
+        }
+        start.await();
+        long began = System.nanoTime();
+        for (Thread painter : painters) {
+            painter.join();
+        }
+        // region writers may still be writing changes that were handed to them
+        while (server.getChanges().getLast() < last) {
+            Thread.sleep(1);
+        }
+        server.getBoard();
+        return System.nanoTime() - began;
+    }
+
+    /***
+     * Checks the board of a server against the changes in its ring, applied again in order to an empty board, and
+     * the hashes the server resyncs clients with against hashes made from its board
+     * @param server - The server
+     * @param dim - The dimension of the board
+     * @return - Whether or not both matched
+     */
+    private static boolean check(PlaceServer server, int dim) {
+        PlaceBoard board = server.getBoard();
+        PlaceBoard again = new PlaceBoard(dim, server.getUsers());
+        long changes = server.getChanges().forEachSince(0, (seq, row, col, color, owner, time, accepted) ->
+                again.setTile(row, col, color, owner, time));
+        boolean match = changes == board.getSeq();
+        for (int row = 0; row < dim; row++) {
+            for (int col = 0; col < dim; col++) {
+                match &= board.getColor(row, col) == again.getColor(row, col) &&
+                        board.getOwner(row, col) == again.getOwner(row, col) &&
+                        board.getTime(row, col) == again.getTime(row, col);
+            }
+        }
+        return match && server.getRoot() == new BoardHashes(board).getRoot();
+    }
+
+}
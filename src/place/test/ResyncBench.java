@@ -0,0 +1,197 @@
+package place.test;
+
+import place.BoardHashes;
+import place.PlaceBoard;
+import place.PlaceChunk;
+import place.PlaceColor;
+import place.PlaceHashes;
+import place.PlaceResume;
+import place.PlaceTile;
+import place.PlaceUsers;
+import place.client.model.ClientModel;
+import place.network.FrameConnection;
+import place.network.PlaceExchange;
+import place.network.PlaceFrames;
+import place.network.PlaceRequest;
+import place.server.PlaceServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of a client coming back with a board it cached, after more changes were made than the server keeps in
+ * memory, so it cannot resume. It sends the hashes of its chunks and is only streamed the ones that differ. The
+ * changes are made inside a small square of the board, as on a mostly static board. It is compared against being
+ * streamed the whole board, and the board it ends up with is checked against the server's.
+ *
+ * Usage: java ResyncBench [dim] [changes] [square] [engine]
+ *
+ * @author Justin Yau
+ */
+public class ResyncBench {
+
+    private static int port;                    // The port the server is listening on
+    private static int client;                  // The number of the next client, for its loopback address
+
+    public static void main(String[] args) throws Exception {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int changes = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int square = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+        String engine = args.length > 3 ? args[3] : "nio";
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        PlaceServer server = new PlaceServer(port, dim);
+        server.setOption("--engine=" + engine);
+        server.setOption("--history=1");
+        Random random = new Random(42);
+        paint(server, random, dim * dim / 8, dim);
+        Thread serverThread = new Thread(server::go);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        ClientModel model = new ClientModel();
+        long[] whole = login(model, null);
+        PlaceBoard have = model.snapshot();
+        paint(server, random, changes, square);
+
+        ClientModel resynced = new ClientModel();
+        long[] resync = login(resynced, have);
+        boolean match = true;
+        PlaceBoard board = server.getBoard();
+        for (int row = 0; row < dim; row++) {
+            for (int col = 0; col < dim; col++) {
+                PlaceTile ours = board.getTile(row, col);
+                PlaceTile theirs = resynced.getTile(row, col);
+                match &= ours.getColor() == theirs.getColor() && ours.getOwner().equals(theirs.getOwner()) &&
+                        ours.getTime() == theirs.getTime();
+            }
+        }
+
+        System.out.println(dim + "x" + dim + " board, " + changes + " changes in a " + square + "x" + square +
+                " square, " + engine + " engine");
+        System.out.println("login     chunks        KB        ms");
+        System.out.printf("whole   %8d  %8.1f  %8.1f%n", whole[0], whole[1] / 1024.0, whole[2] / 1e6);
+        System.out.printf("resync  %8d  %8.1f  %8.1f%n", resync[0], resync[1] / 1024.0, resync[2] / 1e6);
+        System.out.println("match " + match);
+        System.exit(0);
+    }
+
+    /***
+     * Makes random changes on the server, inside a square in the top left corner of the board
+     * @param server - The server
+     * @param random - Where the changes come from
+     * @param count - The number of changes
+     * @param square - The side of the square
+     * @throws Exception
+     */
+    private static void paint(PlaceServer server, Random random, int count, int square) throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            server.changeTile(new PlaceTile(random.nextInt(square), random.nextInt(square), "painter" +
+                    random.nextInt(1000), PlaceColor.values()[random.nextInt(16)], now - random.nextInt(86400000)));
+        }
+    }
+
+    /**
+     * Counts the bytes read through it
+     */
+    private static class Counted extends FilterInputStream {
+
+        private long count;     // The number of bytes read so far
+
+        Counted(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+    }
+
+    /***
+     * Logs a client in from a loopback address of its own and has the board streamed to it, resyncing a cached one
+     * if it has one
+     * @param model - The model the board ends up in
+     * @param have - The cached board, or null
+     * @return - The number of chunks sent, the bytes read and the nanoseconds until the board was whole
+     * @throws Exception
+     */
+    private static long[] login(ClientModel model, PlaceBoard have) throws Exception {
+        try (Socket sock = new Socket()) {
+            int i = client++;
+            sock.bind(new InetSocketAddress(InetAddress.getByAddress(new byte[] {127, 4, 0, (byte) (i + 1)}), 0));
+            sock.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            long start = System.nanoTime();
+            Counted counted = new Counted(sock.getInputStream());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(counted));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+            in.readInt();
+            out.writeInt(PlaceFrames.MAGIC);
+            out.writeByte(PlaceFrames.STREAM_VERSION);
+            out.flush();
+            FrameConnection conn = new FrameConnection(in, out, in.readUnsignedByte());
+            BoardHashes hashes = null;
+            if (have == null) {
+                PlaceExchange.createResumeRequest(conn, new PlaceResume(0, -1, 0));
+            } else {
+                hashes = new BoardHashes(have);
+                PlaceExchange.createResumeRequest(conn, new PlaceResume(0, have.getSeq(), have.getUsers().size()));
+                PlaceExchange.createHashesRequest(conn, new PlaceHashes(have.DIM, have.getSeq(), hashes.getRoot(),
+                        hashes.getChunks()));
+            }
+            PlaceExchange.createLoginRequest(conn, "client" + i);
+            conn.receive();
+            conn.receive();
+            PlaceUsers users = (PlaceUsers) conn.receive().getData();
+            PlaceRequest<?> req = conn.receive();
+            long chunks = 0;
+            if (req.getType() == PlaceRequest.RequestType.HASHES) {
+                model.initialize(have, hashes.getChunks(), users, (PlaceHashes) req.getData());
+            } else {
+                model.initialize((PlaceChunk) req.getData(), users);
+                chunks++;
+            }
+            while (!model.isComplete()) {
+                req = conn.receive();
+                if (req.getType() == PlaceRequest.RequestType.BOARD_CHUNK) {
+                    model.updateChunk((PlaceChunk) req.getData());
+                    chunks++;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            PlaceExchange.createError(conn, "DISCONNECT");
+            return new long[] {chunks, counted.count, elapsed};
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package place.test;
+
+import place.PlaceColor;
+import place.server.ChangeRing;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of the ring of latest changes: how fast changes are added and how many bytes adding them allocates,
+ * while another thread keeps reading what changed lately and checks that no change it reads is torn.
+ *
+ * Usage: java RingBench [capacity] [changes]
+ *
+ * @author Justin Yau
+ */
+public class RingBench {
+
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    private static volatile boolean done;       // Tells the reader to stop
+    private static long torn;                   // Changes the reader found torn
+    private static long read;                   // Changes the reader read
+
+    public static void main(String[] args) throws Exception {
+        int capacity = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 16;
+        int changes = args.length > 1 ? Integer.parseInt(args[1]) : 50_000_000;
+        ChangeRing ring = new ChangeRing(capacity);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // warm up with nobody reading
+        long seq = 0;
+        for (int i = 0; i < 5_000_000; i++) {
+            seq++;
+            ring.add(seq, (int) seq & 1023, (int) (seq >> 10) & 1023, COLORS[(int) seq & 15], (int) seq, seq, seq);
+        }
+
+        Thread reader = new Thread(() -> {
+            // every field of a change is derived from its sequence number, so a torn one shows
+            ChangeRing.Visitor check = (s, row, col, color, owner, time, accepted) -> {
+                read++;
+                if (row != ((int) s & 1023) || col != ((int) (s >> 10) & 1023) || color != COLORS[(int) s & 15] ||
+                        owner != (int) s || time != s || accepted != s) {
+                    torn++;
+                }
+            };
+            while (!done) {
+                ring.forEachSince(ring.getLast() - ring.getCapacity() / 2, check);
+            }
+        });
+        reader.start();
+
+        long id = currentThreadId();
+        long allocated = threads.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        for (int i = 0; i < changes; i++) {
+            seq++;
+            ring.add(seq, (int) seq & 1023, (int) (seq >> 10) & 1023, COLORS[(int) seq & 15], (int) seq, seq, seq);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(id) - allocated;
+        done = true;
+        reader.join();
+
+        System.out.println("capacity " + ring.getCapacity() + ", " + changes + " changes added");
+        System.out.printf("add: %.1f ns per change, %.1f M changes/s, %d bytes allocated%n",
+                (double) elapsed / changes, changes * 1e3 / elapsed, allocated);
+        System.out.println("reader: " + read + " changes read, " + torn + " torn");
+
+        // what happened in the last half of the ring, by the time it was accepted at
+        long after = ring.seqBefore(seq - capacity / 2);
+        System.out.println("changes accepted since " + (seq - capacity / 2) + ": " + (ring.getLast() - after));
+    }
+
+    /***
+     * Returns the id of the current thread. Thread.threadId() only exists from Java 19 on, where getId() is
+     * deprecated, so whichever there is is looked up reflectively, as the server does for virtual threads.
+     * @return - The id of the current thread
+     * @throws ReflectiveOperationException
+     */
+    private static long currentThreadId() throws ReflectiveOperationException {
+        Thread thread = Thread.currentThread();
+        try {
+            return (Long) Thread.class.getMethod("threadId").invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return (Long) Thread.class.getMethod("getId").invoke(thread);
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package place.test;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.PlaceUsers;
+import place.bot.ImageBot;
+import place.bot.ImageUtil.ImageUtils;
+import place.network.PlaceFrames;
+import place.network.PlaceRequest;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of the BOARD snapshot a client gets when it logs in: its size in both frame versions and the time it
+ * takes to decode, for an empty board, a board of random noise and a board that looks like real play. There is no
+ * capture of a real board to replay, so the real one is an image painted over a white board the way ImageBot would,
+ * by a handful of painters, one tile after another.
+ *
+ * Usage: java SnapshotBench [dim] [image]
+ *
+ * @author Justin Yau
+ */
+public class SnapshotBench {
+
+    private static final int PAINTERS = 1000;   // Distinct owners on the noisy board
+    private static final int IMAGE_BOTS = 5;    // Painters taking turns on the image board
+    private static final int DECODES = 20;      // Decodes averaged per measurement
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        String image = args.length > 1 ? args[1] : "out/production/Project2/creeper.png";
+
+        System.out.println("board    v1 bytes    v2 bytes   v2 decode ms");
+        measure("empty", new PlaceBoard(dim));
+        measure("noisy", noisy(dim));
+        measure("image", painted(dim, ImageIO.read(new File(image))));
+    }
+
+    /***
+     * Prints the snapshot sizes and decode time of a board
+     * @param name - The name to print for the board
+     * @param board - The board
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static void measure(String name, PlaceBoard board) throws IOException, ClassNotFoundException {
+        PlaceRequest<PlaceBoard> req = new PlaceRequest<>(PlaceRequest.RequestType.BOARD, board);
+        int serial = PlaceFrames.encode(req, PlaceFrames.SERIAL_VERSION).remaining();
+        ByteBuffer frame = PlaceFrames.encode(req, PlaceFrames.BINARY_VERSION);
+        int binary = frame.remaining();
+        PlaceBoard decoded = null;
+        long start = 0;
+        for (int i = -1; i < DECODES; i++) {
+            if (i == 0) {
+                start = System.nanoTime();
+            }
+            decoded = (PlaceBoard) PlaceFrames.next(frame.duplicate(), PlaceFrames.BINARY_VERSION).getData();
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / DECODES;
+        if (!decoded.toString().equals(board.toString())) {
+            throw new IllegalStateException(name + " board did not survive the snapshot");
+        }
+        System.out.printf("%-6s %10d  %10d   %12.1f%n", name, serial, binary, millis);
+    }
+
+    /***
+     * Makes a board where every tile has a random color, owner and time
+     * @param dim - The dimension of the board
+     * @return - The board
+     */
+    private static PlaceBoard noisy(int dim) {
+        Random random = new Random(42);
+        PlaceBoard board = new PlaceBoard(dim, new PlaceUsers());
+        long now = System.currentTimeMillis();
+        for (int row = 0; row < dim; row++) {
+            for (int col = 0; col < dim; col++) {
+                board.setTile(new PlaceTile(row, col, "painter" + random.nextInt(PAINTERS),
+                        PlaceColor.values()[random.nextInt(16)], now - random.nextInt(86400000)));
+            }
+        }
+        return board;
+    }
+
+    /***
+     * Makes a board with an image painted on it, one tile every 500ms, by a few painters taking turns
+     * @param dim - The dimension of the board
+     * @param image - The image
+     * @return - The board
+     */
+    private static PlaceBoard painted(int dim, BufferedImage image) {
+        PlaceBoard board = new PlaceBoard(dim, new PlaceUsers());
+        // scaled to exactly one pixel per tile first, so pixelate lines its rows up with the board's
+        BufferedImage scaled = new BufferedImage(dim, dim, BufferedImage.TYPE_INT_RGB);
+        scaled.getGraphics().drawImage(image, 0, 0, dim, dim, null);
+        LinkedList<Color> colors = ImageUtils.pixelate(scaled, dim);
+        long time = System.currentTimeMillis();
+        for (int row = 0; row < dim; row++) {
+            for (int col = 0; col < dim && !colors.isEmpty(); col++) {
+                PlaceColor color = ImageBot.determineColor(colors.pop());
+                if (color != PlaceColor.WHITE) {
+                    time += 500;
+                    board.setTile(new PlaceTile(row, col, "bot" + (row * dim + col) % IMAGE_BOTS, color, time));
+                }
+            }
+        }
+        return board;
+    }
+
+}
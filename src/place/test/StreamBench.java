@@ -0,0 +1,122 @@
+package place.test;
+
+import place.PlaceBoard;
+import place.PlaceChunk;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.PlaceViewport;
+import place.network.FrameConnection;
+import place.network.PlaceConnection;
+import place.network.PlaceExchange;
+import place.network.PlaceFrames;
+import place.network.PlaceRequest;
+import place.server.PlaceServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of how long a client logging in to a large board waits before it can show anything, with the board sent
+ * whole (frame version 2) and streamed a chunk at a time (frame version 3). The streamed client looks at the top
+ * left corner, so the first chunk it gets should be chunk 0. A share of the tiles is painted with random colors and
+ * owners first, so the chunks are not all alike.
+ *
+ * Usage: java StreamBench [dim] [engine]
+ *
+ * @author Justin Yau
+ */
+public class StreamBench {
+
+    private static final int PAINTERS = 1000;   // Distinct owners of the painted tiles
+    private static final int PAINTED = 8;       // One tile in this many is painted
+    private static final int ROUNDS = 3;        // Logins measured per frame version, after one to warm up
+
+    public static void main(String[] args) throws Exception {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        String engine = args.length > 1 ? args[1] : "nio";
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        PlaceServer server = new PlaceServer(port, dim);
+        server.setOption("--engine=" + engine);
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < dim * dim / PAINTED; i++) {
+            server.changeTile(new PlaceTile(random.nextInt(dim), random.nextInt(dim), "painter" +
+                    random.nextInt(PAINTERS), PlaceColor.values()[random.nextInt(16)], now - random.nextInt(86400000)));
+        }
+        Thread serverThread = new Thread(server::go);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        System.out.println(dim + "x" + dim + " board, " + engine + " engine, ms from login");
+        System.out.println("version   first paint   whole board   first chunk");
+        int client = 0;
+        for (int version = PlaceFrames.BINARY_VERSION; version <= PlaceFrames.STREAM_VERSION; version++) {
+            long[] total = new long[3];
+            for (int round = -1; round < ROUNDS; round++) {
+                long[] times = login(port, client++, version);
+                for (int i = 0; round >= 0 && i < times.length; i++) {
+                    total[i] += times[i];
+                }
+            }
+            System.out.printf("%7d   %11.1f   %11.1f   %11d%n", version, total[0] / 1e6 / ROUNDS,
+                    total[1] / 1e6 / ROUNDS, total[2] / ROUNDS);
+        }
+        System.exit(0);
+    }
+
+    /***
+     * Logs a client in from its own loopback address and reads the board
+     * @param port - The port the server is listening on
+     * @param i - The number of the client
+     * @param version - The frame version to offer
+     * @return - The nanoseconds until the client could show something, until it had the whole board, and the number
+     *           of the first chunk it got (0 when the board came whole)
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static long[] login(int port, int i, int version) throws IOException, ClassNotFoundException {
+        try (Socket sock = new Socket()) {
+            byte[] local = {127, 1, (byte) (i >> 8), (byte) ((i & 0xFF) + 1)};
+            sock.bind(new InetSocketAddress(InetAddress.getByAddress(local), 0));
+            sock.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            PlaceConnection conn = FrameConnection.connect(sock, version);
+            long start = System.nanoTime();
+            PlaceExchange.createViewportRequest(conn, new PlaceViewport(0, 0, 100, 100));
+            PlaceExchange.createLoginRequest(conn, "viewer" + i);
+            conn.receive();
+            long[] times = new long[3];
+            if (version < PlaceFrames.STREAM_VERSION) {
+                conn.receive();
+                times[0] = times[1] = System.nanoTime() - start;
+                return times;
+            }
+            conn.receive();
+            PlaceChunk chunk = (PlaceChunk) conn.receive().getData();
+            PlaceBoard board = new PlaceBoard(chunk.getDim());
+            times[0] = System.nanoTime() - start;
+            times[2] = chunk.getNumber();
+            board.setChunk(chunk);
+            for (int left = board.getChunkCount() - 1; left > 0; ) {
+                PlaceRequest<?> req = conn.receive();
+                if (req.getType() == PlaceRequest.RequestType.BOARD_CHUNK) {
+                    board.setChunk((PlaceChunk) req.getData());
+                    left--;
+                }
+            }
+            times[1] = System.nanoTime() - start;
+            return times;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package place.test;
+
+import place.BoardHashes;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.server.PlaceServer;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * CSCI-242 AP COMPUTER SCIENCE X
+ * Project 2: Place
+ *
+ * Benchmark of changes made from many threads at once, with every change applied under the lock and with the chunks
+ * of the board striped. Every thread paints tiles spread evenly over the board. After every run the board is checked
+ * against the changes in the ring, applied again one at a time in the order they were numbered, and the hashes of
+ * the server are checked against hashes made from its board.
+ *
+ * Usage: java StripeBench [dim] [changes per run] [stripes]
+ *
+ * @author Justin Yau
+ */
+public class StripeBench {
+
+    private static final int[] THREADS = {1, 4, 16, 64};
+
+    public static void main(String[] args) throws Exception {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        int stripes = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        System.out.println(dim + "x" + dim + " board, " + count + " changes per run, " +
+                Runtime.getRuntime().availableProcessors() + " processors");
+        System.out.println("threads   one lock changes/s   " + stripes + " stripes changes/s   match");
+        for (int threads : THREADS) {
+            long[] locked = run(dim, count, threads, 0);
+            long[] striped = run(dim, count, threads, stripes);
+            System.out.printf("%7d   %18.0f   %18.0f   %s%n", threads, count * 1e9 / locked[0],
+                    count * 1e9 / striped[0], locked[1] == 1 && striped[1] == 1);
+        }
+    }
+
+    /***
+     * Makes changes on a server from some number of threads at once, after a warm up, and checks its board
+     * @param dim - The dimension of the board
+     * @param count - The number of changes, shared out between the threads
+     * @param threads - The number of threads
+     * @param stripes - The number of stripes, or 0 to apply every change under the lock
+     * @return - The nanoseconds it took, and 1 if the board matched the changes
+     * @throws Exception
+     */
+    private static long[] run(int dim, int count, int threads, int stripes) throws Exception {
+        PlaceServer server = new PlaceServer(0, dim);
+        server.setOption("--stripes=" + stripes);
+        server.setOption("--history=" + Integer.highestOneBit(count + count / 4) * 2);
+        paint(server, dim, count / 4, threads);
+        long took = paint(server, dim, count, threads);
+        return new long[] {took, check(server, dim) ? 1 : 0};
+    }
+
+    /***
+     * Makes changes on a server from some number of threads at once
+     * @param server - The server
+     * @param dim - The dimension of the board
+     * @param count - The number of changes, shared out between the threads
+     * @param threads - The number of threads
+     * @return - The nanoseconds it took from when every thread was ready
+     * @throws Exception
+     */
+    private static long paint(PlaceServer server, int dim, int count, int threads) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        ArrayList<Thread> painters = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            int changes = count / threads + (t < count % threads ? 1 : 0);
+            Thread painter = new Thread(() -> {
+                Random random = new Random(seed);
+                PlaceColor[] colors = PlaceColor.values();
+                PlaceTile[] tiles = new PlaceTile[changes];
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < changes; i++) {
+                    tiles[i] = new PlaceTile(random.nextInt(dim), random.nextInt(dim), "painter" +
+                            random.nextInt(10000), colors[random.nextInt(16)], now + i);
+                }
+                try {
+                    start.await();
+                    for (PlaceTile tile : tiles) {
+                        server.changeTile(tile);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            painter.start();
+            painters.add(painter);
+        }
+        start.await();
+        long began = System.nanoTime();
+        for (Thread painter : painters) {
+            painter.join();
+        }
+        return System.nanoTime() - began;
+    }
+
+    /***
+     * Checks the board of a server against the changes in its ring, applied again in order to an empty board, and
+     * the hashes the server resyncs clients with against hashes made from its board
+     * @param server - The server
+     * @param dim - The dimension of the board
+     * @return - Whether or not both matched
+     */
+    private static boolean check(PlaceServer server, int dim) {
+        PlaceBoard board = server.getBoard();
+        PlaceBoard again = new PlaceBoard(dim, server.getUsers());
+        long changes = server.getChanges().forEachSince(0, (seq, row, col, color, owner, time, accepted) ->
+                again.setTile(row, col, color, owner, time));
+        boolean match = changes == board.getSeq();
+        for (int row = 0; row < dim; row++) {
+            for (int col = 0; col < dim; col++) {
+                match &= board.getColor(row, col) == again.getColor(row, col) &&
+                        board.getOwner(row, col) == again.getOwner(row, col) &&
+                        board.getTime(row, col) == again.getTime(row, col);
+            }
+        }
+        return match && server.getRoot() == new BoardHashes(board).getRoot();
+    }
+
+}